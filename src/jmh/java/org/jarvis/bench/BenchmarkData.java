@@ -0,0 +1,171 @@
+package org.jarvis.bench;
+
+import org.jarvis.core.IpAddresses;
+import org.jarvis.core.RuleIndex;
+import org.jarvis.model.Rule;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Deterministic inputs shared by the benchmarks: random rule sets, probe addresses with a given
+ * hit rate and prebuilt Ethernet frames.
+ */
+final class BenchmarkData {
+
+    /** Number of probes cycled through per benchmark; a power of two so the index is a mask. */
+    static final int PROBES = 4096;
+    // Rule objects are heavy; the index is built from chunks so 1M rules fit in a modest heap.
+    private static final int CHUNK = 100_000;
+
+    private BenchmarkData() {
+    }
+
+    static int[] randomV4(int count, long seed) {
+        Random random = new Random(seed);
+        Set<Integer> seen = new HashSet<>();
+        int[] addresses = new int[count];
+        for (int i = 0; i < count; ) {
+            int address = random.nextInt();
+            if (seen.add(address)) {
+                addresses[i++] = address;
+            }
+        }
+        return addresses;
+    }
+
+    /** High and low halves interleaved: {@code [h0, l0, h1, l1, ...]}. */
+    static long[] randomV6(int count, long seed) {
+        Random random = new Random(seed);
+        long[] addresses = new long[count * 2];
+        for (int i = 0; i < addresses.length; i++) {
+            addresses[i] = random.nextLong();
+        }
+        return addresses;
+    }
+
+    static RuleIndex exactV4Index(int[] addresses, String direction) {
+        return build(addresses.length, i -> IpAddresses.v4ToString(addresses[i]), "IP_BLOCK", direction);
+    }
+
+    static RuleIndex exactV6Index(long[] addresses, String direction) {
+        return build(addresses.length / 2, i -> IpAddresses.v6ToString(addresses[2 * i], addresses[2 * i + 1]),
+                "IP_BLOCK", direction);
+    }
+
+    /** One /24 rule per address. */
+    static RuleIndex prefixV4Index(int[] addresses, String direction) {
+        return build(addresses.length, i -> IpAddresses.v4ToString(addresses[i] & 0xFFFFFF00) + "/24",
+                "CIDR_BLOCK", direction);
+    }
+
+    private interface ValueAt {
+        String get(int i);
+    }
+
+    private static RuleIndex build(int count, ValueAt value, String type, String direction) {
+        RuleIndex index = RuleIndex.empty();
+        for (int start = 0; start < count; start += CHUNK) {
+            List<Rule> chunk = new ArrayList<>(Math.min(CHUNK, count - start));
+            for (int i = start; i < Math.min(count, start + CHUNK); i++) {
+                chunk.add(new Rule(0, type, value.get(i), direction, true));
+            }
+            index = index.with(chunk);
+        }
+        return index;
+    }
+
+    /** Probes where roughly {@code hitRate} of the entries are taken from {@code rules}. */
+    static int[] v4Probes(int[] rules, double hitRate, RuleIndex index, long seed) {
+        Random random = new Random(seed);
+        int[] probes = new int[PROBES];
+        for (int i = 0; i < PROBES; i++) {
+            if (random.nextDouble() < hitRate) {
+                probes[i] = rules[random.nextInt(rules.length)];
+            } else {
+                int miss;
+                do {
+                    miss = random.nextInt();
+                } while (index.lookupV4(miss) != RuleIndex.NONE
+                        || index.longestPrefixV4(miss, RuleIndex.BOTH) != null);
+                probes[i] = miss;
+            }
+        }
+        return probes;
+    }
+
+    static long[] v6Probes(long[] rules, double hitRate, RuleIndex index, long seed) {
+        Random random = new Random(seed);
+        long[] probes = new long[PROBES * 2];
+        for (int i = 0; i < PROBES; i++) {
+            if (random.nextDouble() < hitRate) {
+                int rule = random.nextInt(rules.length / 2);
+                probes[2 * i] = rules[2 * rule];
+                probes[2 * i + 1] = rules[2 * rule + 1];
+            } else {
+                long high, low;
+                do {
+                    high = random.nextLong();
+                    low = random.nextLong();
+                } while (index.lookupV6(high, low) != RuleIndex.NONE);
+                probes[2 * i] = high;
+                probes[2 * i + 1] = low;
+            }
+        }
+        return probes;
+    }
+
+    /** Ethernet + IPv4 + TCP, no payload. */
+    static byte[] ipv4Frame(int src, int dst) {
+        byte[] frame = new byte[14 + 20 + 20];
+        frame[12] = 0x08;
+        frame[13] = 0x00;
+        frame[14] = 0x45;
+        putShort(frame, 16, 40);
+        frame[22] = 64;
+        frame[23] = 6;
+        putInt(frame, 26, src);
+        putInt(frame, 30, dst);
+        putShort(frame, 34, 443);
+        putShort(frame, 36, 51000);
+        frame[46] = 0x50;
+        return frame;
+    }
+
+    /** Ethernet + IPv6 + TCP, no payload. */
+    static byte[] ipv6Frame(long srcHigh, long srcLow, long dstHigh, long dstLow) {
+        byte[] frame = new byte[14 + 40 + 20];
+        frame[12] = (byte) 0x86;
+        frame[13] = (byte) 0xDD;
+        frame[14] = 0x60;
+        putShort(frame, 18, 20);
+        frame[20] = 6;
+        frame[21] = 64;
+        putLong(frame, 22, srcHigh);
+        putLong(frame, 30, srcLow);
+        putLong(frame, 38, dstHigh);
+        putLong(frame, 46, dstLow);
+        putShort(frame, 54, 443);
+        putShort(frame, 56, 51000);
+        frame[66] = 0x50;
+        return frame;
+    }
+
+    private static void putShort(byte[] b, int offset, int value) {
+        b[offset] = (byte) (value >>> 8);
+        b[offset + 1] = (byte) value;
+    }
+
+    private static void putInt(byte[] b, int offset, int value) {
+        putShort(b, offset, value >>> 16);
+        putShort(b, offset + 2, value);
+    }
+
+    private static void putLong(byte[] b, int offset, long value) {
+        putInt(b, offset, (int) (value >>> 32));
+        putInt(b, offset + 4, (int) value);
+    }
+}
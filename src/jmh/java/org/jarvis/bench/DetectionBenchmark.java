@@ -0,0 +1,72 @@
+package org.jarvis.bench;
+
+import org.jarvis.core.DetectionEngine;
+import org.jarvis.core.RuleIndex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-packet cost of {@link DetectionEngine}, for a few heavy sources and for a spoofed flood
+ * where every packet has a new source. Prints the sketch memory after each trial.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DetectionBenchmark {
+
+    @Param({"1024", "8192", "65536"})
+    int sketchWidth;
+
+    // Distinct sources in the probe set; 0 means a fresh random source for every packet.
+    @Param({"16", "0"})
+    int sources;
+
+    private DetectionEngine engine;
+    private int[] v4Probes;
+    private int[] ports;
+    private int next;
+    private int spoofed;
+
+    @Setup
+    public void setUp() {
+        // Limits high enough that the benchmark measures counting, not reporting.
+        engine = new DetectionEngine((address, reason) -> { }, 1000, Integer.MAX_VALUE, Integer.MAX_VALUE,
+                4, sketchWidth, RuleIndex.of(List.of()));
+        if (sources > 0) {
+            v4Probes = BenchmarkData.v4Probes(BenchmarkData.randomV4(sources, 1), 1.0, RuleIndex.of(List.of()), 2);
+        }
+        ports = new int[BenchmarkData.PROBES];
+        for (int i = 0; i < ports.length; i++) {
+            ports[i] = 1024 + (i * 7919) % 64000;
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.out.println("detection memory: " + engine.memoryBytes() + " bytes");
+        engine.shutdown();
+    }
+
+    @Benchmark
+    public void observeV4() {
+        int i = next = (next + 1) & (BenchmarkData.PROBES - 1);
+        int source = sources == 0 ? ++spoofed * 0x9E3779B9 : v4Probes[i];
+        engine.observeV4(source, ports[i]);
+    }
+}
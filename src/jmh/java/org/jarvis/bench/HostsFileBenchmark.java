@@ -0,0 +1,68 @@
+package org.jarvis.bench;
+
+import org.jarvis.enforcer.HostsFileManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adding and removing a domain block in a scratch hosts file that already holds
+ * {@code entries} Sentinel lines. Each operation pair leaves the file as it found it.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HostsFileBenchmark {
+
+    @Param({"1000", "10000"})
+    int entries;
+
+    private Path scratch;
+    private HostsFileManager hostsFileManager;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        scratch = Files.createTempDirectory("sentinel-bench");
+        Path hosts = scratch.resolve("hosts");
+        List<String> lines = new ArrayList<>(List.of("127.0.0.1 localhost", "::1 localhost ip6-localhost"));
+        for (int i = 0; i < entries; i++) {
+            lines.add("127.0.0.1 blocked-" + i + ".example # SENTINEL_BLOCK");
+        }
+        Files.write(hosts, lines);
+        hostsFileManager = new HostsFileManager(hosts, scratch.resolve("hosts.sentinel_backup"));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        try (var files = Files.walk(scratch)) {
+            files.sorted((a, b) -> b.compareTo(a)).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public void addThenRemove() {
+        String domain = "bench-" + (next++) + ".example";
+        hostsFileManager.addDomainBlock(domain);
+        hostsFileManager.removeDomainBlock(domain);
+    }
+}
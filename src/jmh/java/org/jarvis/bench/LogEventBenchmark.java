@@ -0,0 +1,57 @@
+package org.jarvis.bench;
+
+import org.jarvis.persistence.DatabaseManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caller-side cost of {@link DatabaseManager#logEvent}, i.e. what the analyzer thread pays per
+ * block event. The background writer cannot keep up with an unthrottled loop, so once its queue
+ * is full this also measures the drop path; the tear-down prints how many events were written.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LogEventBenchmark {
+
+    private Path scratch;
+    private DatabaseManager databaseManager;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        scratch = Files.createTempDirectory("sentinel-bench");
+        databaseManager = new DatabaseManager("jdbc:sqlite:" + scratch.resolve("bench.db"), 2);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        databaseManager.close();
+        try (var files = Files.walk(scratch)) {
+            files.sorted((a, b) -> b.compareTo(a)).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public void logBlockedIp() {
+        String ip = "10.0." + ((next >>> 8) & 0xFF) + "." + (next++ & 0xFF);
+        databaseManager.logEvent("IP_BLOCKED", "Incoming", "Blocked incoming packet from source IP: " + ip, ip);
+    }
+}
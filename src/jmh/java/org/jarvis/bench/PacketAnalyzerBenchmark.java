@@ -0,0 +1,113 @@
+package org.jarvis.bench;
+
+import org.jarvis.core.IpAddresses;
+import org.jarvis.core.PacketAnalyzer;
+import org.jarvis.core.RuleIndex;
+import org.jarvis.enforcer.DryRunCommandRunner;
+import org.jarvis.enforcer.FirewallManager;
+import org.jarvis.model.Rule;
+import org.jarvis.persistence.DatabaseManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.pcap4j.packet.EthernetPacket;
+import org.pcap4j.packet.IllegalRawDataException;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end cost of one captured frame in {@link PacketAnalyzer}: the raw fast path and the
+ * pcap4j decoder path. Firewall commands run in dry-run mode and events go to a scratch database.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Thread)
+public class PacketAnalyzerBenchmark {
+
+    @Param({"10", "10000", "1000000"})
+    int ruleCount;
+
+    @Param({"0.0", "0.5", "1.0"})
+    double hitRate;
+
+    @Param({"4", "6"})
+    int ipVersion;
+
+    private Path scratch;
+    private DatabaseManager databaseManager;
+    private PacketAnalyzer analyzer;
+    private byte[][] frames;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        scratch = Files.createTempDirectory("sentinel-bench");
+        databaseManager = new DatabaseManager("jdbc:sqlite:" + scratch.resolve("bench.db"), 2);
+        analyzer = new PacketAnalyzer(null,
+                new FirewallManager(new DryRunCommandRunner(false), FirewallManager.Mode.IPSET), databaseManager);
+
+        frames = new byte[BenchmarkData.PROBES][];
+        if (ipVersion == 4) {
+            int[] rules = BenchmarkData.randomV4(ruleCount, 1);
+            RuleIndex index = BenchmarkData.exactV4Index(rules, "Incoming");
+            addRules(index);
+            int[] sources = BenchmarkData.v4Probes(rules, hitRate, index, 2);
+            for (int i = 0; i < frames.length; i++) {
+                frames[i] = BenchmarkData.ipv4Frame(sources[i], 0x0A000001);
+            }
+        } else {
+            long[] rules = BenchmarkData.randomV6(ruleCount, 3);
+            RuleIndex index = BenchmarkData.exactV6Index(rules, "Incoming");
+            addRules(index);
+            long[] sources = BenchmarkData.v6Probes(rules, hitRate, index, 4);
+            for (int i = 0; i < frames.length; i++) {
+                frames[i] = BenchmarkData.ipv6Frame(sources[2 * i], sources[2 * i + 1], 0xFD00000000000000L, 1L);
+            }
+        }
+    }
+
+    // The analyzer loads its rules from the (empty) scratch database; hand it the generated ones.
+    private void addRules(RuleIndex index) {
+        List<Rule> rules = new ArrayList<>(index.size());
+        index.forEachV4((address, dirs) -> rules.add(new Rule(0, "IP_BLOCK", IpAddresses.v4ToString(address), "Incoming", true)));
+        index.forEachV6((high, low, dirs) -> rules.add(new Rule(0, "IP_BLOCK", IpAddresses.v6ToString(high, low), "Incoming", true)));
+        analyzer.addRules(rules);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        analyzer.shutdown();
+        databaseManager.close();
+        try (var files = Files.walk(scratch)) {
+            files.sorted((a, b) -> b.compareTo(a)).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public void rawFastPath() {
+        analyzer.gotPacket(frames[next = (next + 1) & (BenchmarkData.PROBES - 1)]);
+    }
+
+    @Benchmark
+    public void pcap4jDecoder() throws IllegalRawDataException {
+        byte[] frame = frames[next = (next + 1) & (BenchmarkData.PROBES - 1)];
+        analyzer.gotPacket(EthernetPacket.newPacket(frame, 0, frame.length));
+    }
+}
@@ -0,0 +1,76 @@
+package org.jarvis.bench;
+
+import org.jarvis.core.PrefixTrie;
+import org.jarvis.core.RuleIndex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/** Exact and longest-prefix lookups in {@link RuleIndex}, the per-address cost of every packet. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Thread)
+public class RuleLookupBenchmark {
+
+    @Param({"10", "1000", "100000", "1000000"})
+    int ruleCount;
+
+    @Param({"0.0", "0.01", "0.5", "1.0"})
+    double hitRate;
+
+    private RuleIndex v4Index;
+    private RuleIndex v6Index;
+    private RuleIndex prefixIndex;
+    private int[] v4Probes;
+    private long[] v6Probes;
+    private int[] prefixProbes;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        int[] v4 = BenchmarkData.randomV4(ruleCount, 1);
+        v4Index = BenchmarkData.exactV4Index(v4, "Both");
+        v4Probes = BenchmarkData.v4Probes(v4, hitRate, v4Index, 2);
+
+        long[] v6 = BenchmarkData.randomV6(ruleCount, 3);
+        v6Index = BenchmarkData.exactV6Index(v6, "Both");
+        v6Probes = BenchmarkData.v6Probes(v6, hitRate, v6Index, 4);
+
+        prefixIndex = BenchmarkData.prefixV4Index(v4, "Both");
+        // Any address of a blocked /24 is a hit, so the exact-rule probes work here too.
+        prefixProbes = BenchmarkData.v4Probes(v4, hitRate, prefixIndex, 5);
+    }
+
+    private int nextProbe() {
+        return next = (next + 1) & (BenchmarkData.PROBES - 1);
+    }
+
+    @Benchmark
+    public byte exactV4() {
+        return v4Index.lookupV4(v4Probes[nextProbe()]);
+    }
+
+    @Benchmark
+    public byte exactV6() {
+        int i = nextProbe();
+        return v6Index.lookupV6(v6Probes[2 * i], v6Probes[2 * i + 1]);
+    }
+
+    @Benchmark
+    public PrefixTrie.Node longestPrefixV4() {
+        return prefixIndex.longestPrefixV4(prefixProbes[nextProbe()], RuleIndex.INCOMING);
+    }
+}
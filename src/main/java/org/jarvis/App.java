@@ -8,6 +8,9 @@ import javafx.stage.Stage;
 import org.jarvis.core.PacketListenerService;
 import org.jarvis.enforcer.BlockHttpServer;
 import org.jarvis.enforcer.HostsFileManager;
+import org.jarvis.metrics.MetricsHttpServer;
+import org.jarvis.metrics.MetricsRegistry;
+import org.jarvis.persistence.DatabaseManager;
 import org.jarvis.ui.MainViewController;
 
 import java.io.IOException;
@@ -17,6 +20,7 @@ public class App extends Application {
     private PacketListenerService packetListenerService;
     private BlockHttpServer blockHttpServer;
     private HostsFileManager hostsFileManager;
+    private MetricsHttpServer metricsHttpServer;
 
     @Override
     public void start(Stage primaryStage) throws IOException {
@@ -26,6 +30,12 @@ public class App extends Application {
 
         blockHttpServer.start();
 
+        // Prometheus endpoint on 127.0.0.1; disable with -Dsentinel.metrics.enabled=false
+        if (Boolean.parseBoolean(System.getProperty("sentinel.metrics.enabled", "true"))) {
+            metricsHttpServer = new MetricsHttpServer(MetricsRegistry.getInstance());
+            metricsHttpServer.start();
+        }
+
         FXMLLoader loader = new FXMLLoader(getClass().getResource("/org/jarvis/ui/main-view.fxml"));
         Parent root = loader.load();
 
@@ -55,10 +65,15 @@ public class App extends Application {
         if (blockHttpServer != null) {
             blockHttpServer.stop();
         }
+        if (metricsHttpServer != null) {
+            metricsHttpServer.stop();
+        }
         if (hostsFileManager != null) {
             // Restore the hosts file to its original state on exit
             hostsFileManager.restoreAndCleanup();
         }
+        // Last, so events logged while the services stopped are still written.
+        DatabaseManager.getInstance().close();
     }
 
     public static void main(String[] args) {
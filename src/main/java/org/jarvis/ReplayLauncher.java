@@ -0,0 +1,56 @@
+package org.jarvis;
+
+import org.jarvis.core.PacketAnalyzer;
+import org.jarvis.core.PacketReplayer;
+import org.jarvis.enforcer.DryRunCommandRunner;
+import org.jarvis.enforcer.EnforcementQueue;
+import org.jarvis.enforcer.FirewallManager;
+import org.jarvis.persistence.DatabaseManager;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Headless entry point that replays pcap/pcapng files through the analyzer with enforcement in
+ * dry-run mode, so it needs no root, no network interface and no network.
+ *
+ * Usage: ReplayLauncher [--original-timing] [--verbose] file.pcap [more.pcapng ...]
+ *
+ * Rules are loaded from the configured database; point -Dsentinel.db.url at a copy to keep the
+ * replay's block events out of the live dashboard.
+ */
+public class ReplayLauncher {
+    public static void main(String[] args) throws Exception {
+        PacketReplayer.Timing timing = PacketReplayer.Timing.FAST;
+        boolean verbose = false;
+        List<String> files = new ArrayList<>();
+        for (String arg : args) {
+            switch (arg) {
+                case "--original-timing" -> timing = PacketReplayer.Timing.ORIGINAL;
+                case "--verbose" -> verbose = true;
+                default -> files.add(arg);
+            }
+        }
+        if (files.isEmpty()) {
+            System.err.println("Usage: ReplayLauncher [--original-timing] [--verbose] file.pcap [more.pcapng ...]");
+            System.exit(2);
+        }
+
+        DryRunCommandRunner runner = new DryRunCommandRunner(verbose);
+        DatabaseManager databaseManager = DatabaseManager.getInstance();
+        PacketAnalyzer analyzer = new PacketAnalyzer(null,
+                new FirewallManager(runner, FirewallManager.Mode.fromSystemProperties()), databaseManager);
+
+        PacketReplayer.Report report = new PacketReplayer(analyzer, timing).replay(files);
+        EnforcementQueue queue = analyzer.getEnforcementQueue();
+        long enforceStart = System.nanoTime();
+        analyzer.shutdown();
+        long enforceNanos = System.nanoTime() - enforceStart;
+
+        report.print(System.out);
+        System.out.printf("Enforcement (dry run): %d changes in %d batches, %d commands, avg latency %.0f us, drain %.3f ms%n",
+                queue.getAppliedCount(), queue.getBatchCount(), runner.getCommandCount(),
+                queue.getAverageLatencyMicros(), enforceNanos / 1e6);
+        databaseManager.close();
+    }
+}
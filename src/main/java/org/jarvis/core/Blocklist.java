@@ -0,0 +1,276 @@
+package org.jarvis.core;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Immutable, deduplicated set of addresses and CIDR prefixes from a threat-intel feed.
+ *
+ * Feeds are plain text with one address or prefix per line. Blank lines and lines starting
+ * with '#' or ';' are skipped, and anything after the first whitespace, '#', ';' or ',' on a
+ * line is ignored, which covers the usual "1.2.3.0/24 ; SBL123" annotations.
+ *
+ * {@link #read} memory-maps the file and parses IPv4 entries straight from the mapped bytes
+ * into packed longs ({@code address << 6 | length}), so a million-line feed costs one sort of
+ * a {@code long[]} instead of a String per line. IPv6 entries, which are rare in these feeds,
+ * go through {@link IpPrefix}. Host bits are cleared and a full-length prefix is the same entry
+ * as the bare address, so one network written two ways is one entry.
+ *
+ * {@link #minus} gives what to add and what to remove when a feed is imported again.
+ */
+public final class Blocklist {
+
+    // Mapped a chunk at a time so files beyond 2 GiB still work; lines cut by a chunk boundary
+    // are re-read at the start of the next chunk.
+    private static final long MAP_CHUNK = 64L << 20;
+
+    private static final Blocklist EMPTY = new Blocklist(new long[0], new String[0], 0);
+
+    // Sorted and unique.
+    private final long[] v4;
+    // Canonical text, sorted and unique.
+    private final String[] v6;
+    private final int rejected;
+
+    private Blocklist(long[] v4, String[] v6, int rejected) {
+        this.v4 = v4;
+        this.v6 = v6;
+        this.rejected = rejected;
+    }
+
+    public static Blocklist empty() {
+        return EMPTY;
+    }
+
+    /** Reads a feed file; lines that are neither an address nor a prefix are counted in {@link #getRejected()}. */
+    public static Blocklist read(Path file) throws IOException {
+        Builder builder = new Builder();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long position = 0;
+            while (position < size) {
+                int length = (int) Math.min(size - position, MAP_CHUNK);
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                int end = length;
+                if (position + length < size) {
+                    int lastNewline = lastNewline(buffer, length);
+                    if (lastNewline >= 0) {
+                        end = lastNewline + 1;
+                    }
+                }
+                builder.parse(buffer, 0, end);
+                position += end;
+            }
+        }
+        return builder.build();
+    }
+
+    /** Builds a blocklist from rule values, e.g. the ones a feed imported last time. */
+    public static Blocklist of(Collection<String> values) {
+        Builder builder = new Builder();
+        for (String value : values) {
+            byte[] bytes = value.getBytes(StandardCharsets.US_ASCII);
+            builder.parseLine(ByteBuffer.wrap(bytes), 0, bytes.length);
+        }
+        return builder.build();
+    }
+
+    private static int lastNewline(ByteBuffer buffer, int end) {
+        for (int i = end - 1; i >= 0; i--) {
+            if (buffer.get(i) == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /** @return the entries of this list that are not in {@code other} */
+    public Blocklist minus(Blocklist other) {
+        long[] v4Out = new long[v4.length];
+        int count = 0;
+        int j = 0;
+        for (long key : v4) {
+            while (j < other.v4.length && other.v4[j] < key) {
+                j++;
+            }
+            if (j == other.v4.length || other.v4[j] != key) {
+                v4Out[count++] = key;
+            }
+        }
+        List<String> v6Out = new ArrayList<>();
+        for (String value : v6) {
+            if (Arrays.binarySearch(other.v6, value) < 0) {
+                v6Out.add(value);
+            }
+        }
+        return new Blocklist(Arrays.copyOf(v4Out, count), v6Out.toArray(new String[0]), 0);
+    }
+
+    public int size() {
+        return v4.length + v6.length;
+    }
+
+    /** Lines of the source file that were not an address or a prefix. */
+    public int getRejected() {
+        return rejected;
+    }
+
+    /** The entries as rule values: a bare address, or a prefix in {@link IpPrefix#toString()} form. */
+    public List<String> values() {
+        List<String> values = new ArrayList<>(size());
+        for (long key : v4) {
+            int length = (int) (key & 0x3F);
+            String address = IpAddresses.v4ToString((int) (key >>> 6));
+            values.add(length == 32 ? address : address + "/" + length);
+        }
+        values.addAll(Arrays.asList(v6));
+        return values;
+    }
+
+    @Override
+    public String toString() {
+        return "Blocklist[v4=" + v4.length + ", v6=" + v6.length + ", rejected=" + rejected + "]";
+    }
+
+    private static final class Builder {
+        private long[] v4 = new long[1024];
+        private int v4Count;
+        private final Set<String> v6 = new HashSet<>();
+        private int rejected;
+
+        void parse(ByteBuffer buffer, int from, int to) {
+            int start = from;
+            while (start < to) {
+                int end = start;
+                while (end < to && buffer.get(end) != '\n') {
+                    end++;
+                }
+                parseLine(buffer, start, end);
+                start = end + 1;
+            }
+        }
+
+        void parseLine(ByteBuffer buffer, int start, int end) {
+            while (start < end && isSpace(buffer.get(start))) {
+                start++;
+            }
+            int tokenEnd = start;
+            while (tokenEnd < end && !isDelimiter(buffer.get(tokenEnd))) {
+                tokenEnd++;
+            }
+            if (tokenEnd == start) {
+                return; // blank or comment
+            }
+            if (!addV4(buffer, start, tokenEnd) && !addOther(buffer, start, tokenEnd)) {
+                rejected++;
+            }
+        }
+
+        // Dotted quad with an optional /length, parsed in place.
+        private boolean addV4(ByteBuffer buffer, int start, int end) {
+            int address = 0;
+            int octets = 0;
+            int value = -1;
+            int length = 32;
+            int i = start;
+            for (; i < end; i++) {
+                byte c = buffer.get(i);
+                if (c >= '0' && c <= '9') {
+                    value = (value < 0 ? 0 : value * 10) + (c - '0');
+                    if (value > 255) return false;
+                } else if (c == '.' && value >= 0 && octets < 3) {
+                    address = address << 8 | value;
+                    octets++;
+                    value = -1;
+                } else {
+                    break;
+                }
+            }
+            if (octets != 3 || value < 0) return false;
+            address = address << 8 | value;
+            if (i < end) {
+                if (buffer.get(i) != '/' || i + 1 == end || end - i > 3) return false;
+                length = 0;
+                for (i++; i < end; i++) {
+                    byte c = buffer.get(i);
+                    if (c < '0' || c > '9') return false;
+                    length = length * 10 + (c - '0');
+                }
+                if (length > 32) return false;
+                address &= (int) (IpPrefix.mask(length) >>> 32);
+            }
+            addV4Key(address, length);
+            return true;
+        }
+
+        private void addV4Key(int address, int length) {
+            if (v4Count == v4.length) {
+                v4 = Arrays.copyOf(v4, v4.length * 2);
+            }
+            v4[v4Count++] = (address & 0xFFFFFFFFL) << 6 | length;
+        }
+
+        // Anything else must be IPv6; only these entries are turned into Strings. IPv4-mapped
+        // entries are stored as the IPv4 entries they map.
+        private boolean addOther(ByteBuffer buffer, int start, int end) {
+            byte[] bytes = new byte[end - start];
+            buffer.get(start, bytes);
+            String text = new String(bytes, StandardCharsets.US_ASCII);
+            if (text.indexOf(':') < 0) {
+                return false;
+            }
+            IpPrefix prefix = IpPrefix.parse(text);
+            if (prefix != null && !prefix.isV6()) {
+                addV4Key((int) (prefix.getHigh() >>> 32), prefix.getLength());
+                return true;
+            }
+            if (prefix != null) {
+                v6.add(prefix.getLength() == 128 ? IpAddresses.v6ToString(prefix.getHigh(), prefix.getLow()) : prefix.toString());
+                return true;
+            }
+            byte[] address = text.indexOf('/') < 0 ? IpAddresses.parseLiteral(text) : null;
+            if (address == null) {
+                return false;
+            }
+            if (address.length == 4) {
+                addV4Key(IpAddresses.v4Key(address), 32);
+            } else {
+                v6.add(IpAddresses.v6ToString(IpAddresses.v6High(address), IpAddresses.v6Low(address)));
+            }
+            return true;
+        }
+
+        Blocklist build() {
+            long[] sorted = Arrays.copyOf(v4, v4Count);
+            Arrays.sort(sorted);
+            int unique = 0;
+            for (int i = 0; i < sorted.length; i++) {
+                if (i == 0 || sorted[i] != sorted[i - 1]) {
+                    sorted[unique++] = sorted[i];
+                }
+            }
+            String[] v6Sorted = v6.toArray(new String[0]);
+            Arrays.sort(v6Sorted);
+            return new Blocklist(Arrays.copyOf(sorted, unique), v6Sorted, rejected);
+        }
+
+        private static boolean isSpace(byte c) {
+            return c == ' ' || c == '\t' || c == '\r';
+        }
+
+        private static boolean isDelimiter(byte c) {
+            return isSpace(c) || c == '#' || c == ';' || c == ',';
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package org.jarvis.core;
+
+import org.jarvis.persistence.DatabaseManager;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Imports threat-intel feeds (plain-text IP/CIDR lists) into the rules table, the analyzer and
+ * the firewall.
+ *
+ * A feed is identified by its source name, stored with every rule it imports. Importing a feed
+ * again compares the new file with the rules the feed already has and applies only the
+ * difference: one transaction for the rules table, one analyzer snapshot and one firewall
+ * batch, however many entries changed. Entries that already have a rule of their own (added by
+ * hand or by another feed) are left to it.
+ */
+public class BlocklistImporter {
+
+    public record Result(String source, int entries, int added, int removed, int rejected, long millis) {
+        @Override
+        public String toString() {
+            return String.format("Imported feed %s: %d entries, %d added, %d removed, %d lines skipped (%d ms)",
+                    source, entries, added, removed, rejected, millis);
+        }
+    }
+
+    private final DatabaseManager databaseManager;
+    private final PacketAnalyzer analyzer;
+
+    public BlocklistImporter(DatabaseManager databaseManager, PacketAnalyzer analyzer) {
+        this.databaseManager = databaseManager;
+        this.analyzer = analyzer;
+    }
+
+    /** Imports the file as the feed named after it. */
+    public Result importFeed(Path file, String direction) throws IOException {
+        return importFeed(file, file.getFileName().toString(), direction);
+    }
+
+    /**
+     * @param direction applies to entries added by this import; entries kept from the previous
+     *                  version keep theirs
+     */
+    public Result importFeed(Path file, String source, String direction) throws IOException {
+        long start = System.nanoTime();
+        Blocklist next = Blocklist.read(file);
+        Blocklist previous = Blocklist.of(databaseManager.getRuleValuesBySource(source));
+        List<String> added = next.minus(previous).values();
+        List<String> removed = previous.minus(next).values();
+
+        if (!added.isEmpty() || !removed.isEmpty()) {
+            // The table is the feed's previous version; if it was not updated, leave everything as it was.
+            List<String> inserted = databaseManager.applyFeedDiff(source, direction, added, removed);
+            if (inserted == null) {
+                throw new IOException("Could not store feed " + source + " in the rules table");
+            }
+            // Entries that have a rule of their own were not inserted, and the analyzer keeps that rule.
+            added = inserted;
+            analyzer.importRules(added, removed, direction);
+        }
+        Result result = new Result(source, next.size(), added.size(), removed.size(), next.getRejected(),
+                (System.nanoTime() - start) / 1_000_000);
+        System.out.println(result);
+        databaseManager.logEvent("FEED_IMPORT", direction, result.toString());
+        return result;
+    }
+}
@@ -0,0 +1,138 @@
+package org.jarvis.core;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.StringJoiner;
+
+/**
+ * Turns the active ruleset into a BPF expression for {@code PcapHandle.setFilter}, so the kernel
+ * discards traffic that cannot match any rule before it is copied to userspace.
+ *
+ * Each rule becomes one term: {@code src host} for Incoming, {@code dst host} for Outgoing and
+ * {@code host} for Both ({@code net} for CIDR rules). libpcap compiles every term into a few
+ * instructions, so a huge ruleset would produce a program the kernel rejects or evaluates slowly.
+ * Past {@code maxTerms} the compiler first coarsens exact addresses into their /24 (IPv4) or
+ * /64 (IPv6) networks, and if that is still too many it gives up on kernel filtering; the
+ * analyzer then matches everything in userspace as before.
+ *
+ * Flow rules add one term each, e.g. {@code (src host 10.0.0.5 and tcp dst port 22)}; they are
+ * never coarsened, and past {@code maxTerms} flow rules the filter accepts everything.
+ *
+ * While domains are blocked, DNS traffic ({@code port 53}) is let through as well, so the analyzer
+ * can learn the current addresses of those domains; it needs the queries to tell genuine answers
+ * from forged ones.
+ *
+ * The filter admits only traffic that some rule could match, so it must not be installed while
+ * the {@link DetectionEngine} runs: detection looks for sources that have no rule yet, and with
+ * no rules at all the filter would be {@link #MATCH_NOTHING}. {@link PacketListenerService}
+ * leaves the capture unfiltered in that case.
+ */
+public final class BpfFilterCompiler {
+
+    /** Expression that accepts no packets; installed when there are no rules at all. */
+    public static final String MATCH_NOTHING = "ip and not ip";
+    /** Expression that accepts every packet; libpcap treats an empty filter as "no filter". */
+    public static final String MATCH_EVERYTHING = "";
+    private static final String DNS = "port 53";
+
+    private final int maxTerms;
+
+    public BpfFilterCompiler(int maxTerms) {
+        this.maxTerms = maxTerms;
+    }
+
+    /** @param dns also accept DNS queries and responses over UDP and TCP */
+    public String compile(RuleIndex index, FlowClassifier flows, boolean dns) {
+        String expression = or(compileRules(index), compileFlows(flows));
+        return dns ? or(DNS, expression) : expression;
+    }
+
+    private static String or(String a, String b) {
+        if (a.equals(MATCH_EVERYTHING) || b.equals(MATCH_EVERYTHING)) {
+            return MATCH_EVERYTHING;
+        }
+        if (a.equals(MATCH_NOTHING)) {
+            return b;
+        }
+        return b.equals(MATCH_NOTHING) ? a : a + " or " + b;
+    }
+
+    private String compileFlows(FlowClassifier flows) {
+        if (flows.size() == 0) {
+            return MATCH_NOTHING;
+        }
+        if (flows.size() > maxTerms) {
+            return MATCH_EVERYTHING;
+        }
+        StringJoiner expression = new StringJoiner(" or ");
+        for (FlowRule rule : flows.rules()) {
+            StringJoiner term = new StringJoiner(" and ", "(", ")");
+            if (!rule.anyAddress()) {
+                String qualifier = rule.directions() == RuleIndex.INCOMING ? "src "
+                        : rule.directions() == RuleIndex.OUTGOING ? "dst " : "";
+                term.add(qualifier + (rule.address().indexOf('/') >= 0 ? "net " : "host ") + rule.address());
+            }
+            // libpcap only has keywords for the protocols with ports; others go by number, in both families.
+            String protocol = FlowRule.hasPorts(rule.protocol()) ? rule.protocolName()
+                    : "(ip proto " + rule.protocol() + " or ip6 proto " + rule.protocol() + ")";
+            term.add(protocol);
+            if (!rule.anySrcPort()) {
+                term.add(portTerm("src", rule.srcFrom(), rule.srcTo()));
+            }
+            if (!rule.anyDstPort()) {
+                term.add(portTerm("dst", rule.dstFrom(), rule.dstTo()));
+            }
+            expression.add(term.toString());
+        }
+        return expression.toString();
+    }
+
+    private static String portTerm(String side, int from, int to) {
+        return from == to ? side + " port " + from : side + " portrange " + from + "-" + to;
+    }
+
+    private String compileRules(RuleIndex index) {
+        if (index.size() == 0) {
+            return MATCH_NOTHING;
+        }
+        if (index.size() <= maxTerms) {
+            Map<String, Byte> terms = new LinkedHashMap<>();
+            index.forEachV4((address, dirs) -> terms.put("host " + IpAddresses.v4ToString(address), dirs));
+            index.forEachV6((high, low, dirs) -> terms.put("host " + IpAddresses.v6ToString(high, low), dirs));
+            index.forEachPrefix(node -> terms.put("net " + node.getValue(), node.getDirections()));
+            return join(terms);
+        }
+
+        // Too many rules for one program: collapse exact addresses into their enclosing networks.
+        Map<String, Byte> networks = new HashMap<>();
+        index.forEachV4((address, dirs) ->
+                networks.merge("net " + IpAddresses.v4ToString(address & 0xFFFFFF00) + "/24", dirs, BpfFilterCompiler::union));
+        index.forEachV6((high, low, dirs) ->
+                networks.merge("net " + IpAddresses.v6ToString(high, 0L) + "/64", dirs, BpfFilterCompiler::union));
+        index.forEachPrefix(node -> networks.merge("net " + node.getValue(), node.getDirections(), BpfFilterCompiler::union));
+        if (networks.size() <= maxTerms) {
+            return join(networks);
+        }
+        return MATCH_EVERYTHING;
+    }
+
+    private static Byte union(Byte a, Byte b) {
+        return (byte) (a | b);
+    }
+
+    private static String join(Map<String, Byte> terms) {
+        StringJoiner expression = new StringJoiner(" or ");
+        for (Map.Entry<String, Byte> term : terms.entrySet()) {
+            byte dirs = term.getValue();
+            if (dirs == RuleIndex.INCOMING) {
+                expression.add("src " + term.getKey());
+            } else if (dirs == RuleIndex.OUTGOING) {
+                expression.add("dst " + term.getKey());
+            } else {
+                expression.add(term.getKey());
+            }
+        }
+        return expression.toString();
+    }
+}
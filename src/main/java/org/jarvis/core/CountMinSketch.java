@@ -0,0 +1,91 @@
+package org.jarvis.core;
+
+import java.util.Arrays;
+
+/**
+ * Count-min sketch: approximate per-key counters in a fixed amount of memory.
+ *
+ * Each key maps to one counter in each of {@code depth} rows; the estimate is the smallest of
+ * them, so it never undercounts. With {@code width} counters per row the overcount is at most
+ * {@code e * total / width} with probability {@code 1 - e^-depth}. Increments use the
+ * conservative update (only counters equal to the current minimum grow), which lowers the
+ * overcount further for skewed traffic.
+ *
+ * Not thread-safe; every writer thread keeps its own sketch.
+ */
+public final class CountMinSketch {
+
+    private final int depth;
+    private final int mask;
+    private final int[] counters;
+    // Scratch for increment(): the counter of each row for the current key.
+    private final int[] slots;
+
+    /** @param width counters per row, rounded up to a power of two */
+    public CountMinSketch(int depth, int width) {
+        if (depth < 1 || width < 1) {
+            throw new IllegalArgumentException("depth and width must be positive");
+        }
+        int rowWidth = Integer.highestOneBit(Math.max(2, width - 1)) << 1;
+        this.depth = depth;
+        this.mask = rowWidth - 1;
+        this.counters = new int[depth * rowWidth];
+        this.slots = new int[depth];
+    }
+
+    /**
+     * Adds one to the key's count.
+     *
+     * @param hash a well-mixed 64-bit hash of the key
+     * @return the new estimate
+     */
+    public int increment(long hash) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        int rowWidth = mask + 1;
+        int min = Integer.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            int slot = row * rowWidth + ((h1 + row * h2) & mask);
+            slots[row] = slot;
+            min = Math.min(min, counters[slot]);
+        }
+        if (min == Integer.MAX_VALUE) {
+            return min;
+        }
+        int updated = min + 1;
+        for (int row = 0; row < depth; row++) {
+            // Counters above the minimum already cover this key; max() keeps this branch-free.
+            counters[slots[row]] = Math.max(counters[slots[row]], updated);
+        }
+        return updated;
+    }
+
+    public int estimate(long hash) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        int min = Integer.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            int value = counters[row * (mask + 1) + ((h1 + row * h2) & mask)];
+            if (value < min) {
+                min = value;
+            }
+        }
+        return min;
+    }
+
+    public void clear() {
+        Arrays.fill(counters, 0);
+    }
+
+    public int width() {
+        return mask + 1;
+    }
+
+    public int depth() {
+        return depth;
+    }
+
+    public long memoryBytes() {
+        return 4L * counters.length;
+    }
+}
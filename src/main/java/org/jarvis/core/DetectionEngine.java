@@ -0,0 +1,332 @@
+package org.jarvis.core;
+
+import org.jarvis.metrics.Counter;
+import org.jarvis.metrics.MetricsRegistry;
+import org.jarvis.model.Rule;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Flags sources that send too many packets, or probe too many destination ports, within a
+ * sliding window, so floods and port scans from addresses without a rule can be blocked.
+ *
+ * All per-source state lives in fixed-size probabilistic structures, so memory does not grow
+ * with the number of sources, e.g. under a spoofed-source flood:
+ * - a {@link CountMinSketch} of packets per source,
+ * - a bitmap of (source, destination port) pairs already seen, and a second sketch counting
+ *   each source's new pairs, i.e. its distinct ports,
+ * - a {@link HyperLogLog} of distinct sources, for the metrics endpoint.
+ * Each structure exists twice, for the current and the previous window. The rate over the last
+ * {@code windowMillis} is the current count plus the previous one weighted by how much of it
+ * still overlaps the sliding window. Windows rotate on the packet path; rotating clears the
+ * older set. The packet path reads a coarse clock that a timer thread advances
+ * {@value #CLOCK_TICKS_PER_WINDOW} times per window (at most once a millisecond), so a window
+ * rotates on time however sparse the traffic, without a clock read per packet.
+ *
+ * The packet sketch only overcounts: size it so that {@code e * packetsPerWindow / width} stays
+ * well below maxPackets, and a spoofed flood cannot push a quiet source over it. The pair bitmap
+ * only undercounts: a flood of random (source, port) pairs large enough to fill it hides port
+ * scans until the window rotates, but never flags an innocent source.
+ *
+ * Every analyzing thread keeps its own state. The capture pipeline shards frames by source, so
+ * each source is counted by exactly one thread and no state is shared on the packet path.
+ * Detections are reported once per source on a background thread.
+ *
+ * Settings (system properties):
+ * sentinel.detect.windowMs (default 1000), sentinel.detect.maxPackets (default 10000),
+ * sentinel.detect.maxPorts (default 64), sentinel.detect.sketchDepth (default 4),
+ * sentinel.detect.sketchWidth (default 8192), sentinel.detect.exempt (comma-separated
+ * addresses or CIDR prefixes never flagged; local interface addresses are always exempt)
+ */
+public class DetectionEngine {
+
+    /** Receives each flagged source once, on the detection thread. */
+    public interface Listener {
+        void detected(String address, String reason);
+    }
+
+    // Results of Windows.observe().
+    private static final int NORMAL = 0;
+    private static final int PACKET_RATE = 1;
+    private static final int PORT_SCAN = 2;
+
+    private static final int PAIR_BITS_PER_COUNTER = 64;
+    private static final int CLOCK_TICKS_PER_WINDOW = 64;
+    private static final int HLL_PRECISION = 12;
+
+    private final Listener listener;
+    private final long windowNanos;
+    private final int maxPackets;
+    private final int maxPorts;
+    private final int sketchDepth;
+    private final int sketchWidth;
+    private final RuleIndex exempt;
+    private final ThreadLocal<Windows> windows;
+    private final List<Windows> allWindows = new CopyOnWriteArrayList<>();
+    // Sources already reported; a source is flagged once until forget() is called for it.
+    private final Set<String> reported = ConcurrentHashMap.newKeySet();
+    private final ExecutorService reporter;
+    // System.nanoTime(), or a test's clock, as of the last tick; reading it costs less than the
+    // clock itself.
+    private final LongSupplier nanoClock;
+    private volatile long clock;
+    private final ScheduledExecutorService clockTicker;
+
+    private final Counter packetDetections;
+    private final Counter portDetections;
+
+    public DetectionEngine(Listener listener, long windowMillis, int maxPackets, int maxPorts,
+                           int sketchDepth, int sketchWidth, RuleIndex exempt) {
+        this(listener, windowMillis, maxPackets, maxPorts, sketchDepth, sketchWidth, exempt, System::nanoTime);
+    }
+
+    /** @param nanoClock read on every {@link #tick}; tests pass a clock they advance themselves */
+    DetectionEngine(Listener listener, long windowMillis, int maxPackets, int maxPorts,
+                    int sketchDepth, int sketchWidth, RuleIndex exempt, LongSupplier nanoClock) {
+        this.listener = listener;
+        this.nanoClock = nanoClock;
+        this.clock = nanoClock.getAsLong();
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        this.maxPackets = maxPackets;
+        this.maxPorts = maxPorts;
+        this.sketchDepth = sketchDepth;
+        this.sketchWidth = sketchWidth;
+        this.exempt = exempt;
+        this.windows = ThreadLocal.withInitial(() -> {
+            Windows state = new Windows();
+            allWindows.add(state);
+            return state;
+        });
+        this.reporter = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "sentinel-detection");
+            t.setDaemon(true);
+            return t;
+        });
+        this.clockTicker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "sentinel-detection-clock");
+            t.setDaemon(true);
+            return t;
+        });
+        long tickNanos = Math.max(TimeUnit.MILLISECONDS.toNanos(1), windowNanos / CLOCK_TICKS_PER_WINDOW);
+        clockTicker.scheduleAtFixedRate(this::tick, tickNanos, tickNanos, TimeUnit.NANOSECONDS);
+
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        packetDetections = metrics.counter("sentinel_detections_total", "Sources flagged by the detection engine.", "reason", "packet_rate");
+        portDetections = metrics.counter("sentinel_detections_total", "Sources flagged by the detection engine.", "reason", "port_scan");
+        metrics.gauge("sentinel_detection_memory_bytes", "Memory held by the detection sketches, all threads.", this::memoryBytes);
+        metrics.gauge("sentinel_detection_sources", "Estimated distinct sources seen in the last complete window.", this::estimateSources);
+    }
+
+    public static DetectionEngine fromSystemProperties(Listener listener) {
+        return new DetectionEngine(listener,
+                Long.getLong("sentinel.detect.windowMs", 1000),
+                Integer.getInteger("sentinel.detect.maxPackets", 10000),
+                Integer.getInteger("sentinel.detect.maxPorts", 64),
+                Integer.getInteger("sentinel.detect.sketchDepth", 4),
+                Integer.getInteger("sentinel.detect.sketchWidth", 8192),
+                exemptions(System.getProperty("sentinel.detect.exempt", "")));
+    }
+
+    // Our own addresses send plenty of traffic; never flag them.
+    private static RuleIndex exemptions(String configured) {
+        List<Rule> rules = new ArrayList<>();
+        for (String value : configured.split(",")) {
+            if (!value.isBlank()) {
+                rules.add(new Rule(0, "EXEMPT", value.trim(), "Both", true));
+            }
+        }
+        for (String address : IpAddresses.localAddresses()) {
+            rules.add(new Rule(0, "EXEMPT", address, "Both", true));
+        }
+        return RuleIndex.of(rules);
+    }
+
+    // --- Packet path ---
+
+    /** @param dstPort the TCP/UDP destination port, or -1 if the packet has none */
+    public void observeV4(int source, int dstPort) {
+        if (exempt.lookupV4(source) != RuleIndex.NONE || exempt.longestPrefixV4(source, RuleIndex.BOTH) != null) {
+            return;
+        }
+        int verdict = windows.get().observe(mix(source & 0xFFFFFFFFL), dstPort);
+        if (verdict != NORMAL) {
+            report(IpAddresses.v4ToString(source), verdict);
+        }
+    }
+
+    public void observeV6(long high, long low, int dstPort) {
+        if (exempt.lookupV6(high, low) != RuleIndex.NONE || exempt.longestPrefixV6(high, low, RuleIndex.BOTH) != null) {
+            return;
+        }
+        int verdict = windows.get().observe(mix(high * 0x9E3779B97F4A7C15L ^ mix(low)), dstPort);
+        if (verdict != NORMAL) {
+            report(IpAddresses.v6ToString(high, low), verdict);
+        }
+    }
+
+    private void report(String address, int verdict) {
+        if (!reported.add(address)) {
+            return;
+        }
+        long windowMillis = TimeUnit.NANOSECONDS.toMillis(windowNanos);
+        String reason;
+        if (verdict == PORT_SCAN) {
+            portDetections.increment();
+            reason = "port scan: more than " + maxPorts + " destination ports in " + windowMillis + " ms";
+        } else {
+            packetDetections.increment();
+            reason = "flood: more than " + maxPackets + " packets in " + windowMillis + " ms";
+        }
+        reporter.execute(() -> {
+            try {
+                listener.detected(address, reason);
+            } catch (RuntimeException e) {
+                System.err.println("Failed to act on detection of " + address + ".");
+                e.printStackTrace();
+            }
+        });
+    }
+
+    /** Lets the source be flagged again, e.g. after its block was lifted. */
+    public void forget(String address) {
+        reported.remove(IpAddresses.canonical(address));
+    }
+
+    public void shutdown() {
+        reporter.shutdownNow();
+        clockTicker.shutdownNow();
+    }
+
+    /** Advances the coarse clock the packet path reads; runs on the clock thread. */
+    void tick() {
+        clock = nanoClock.getAsLong();
+    }
+
+    // --- Measurement ---
+
+    /** Memory held by the sketches of all threads that have observed packets. */
+    public long memoryBytes() {
+        long total = 0;
+        for (Windows state : allWindows) {
+            total += state.memoryBytes();
+        }
+        return total;
+    }
+
+    /**
+     * Distinct sources in the last complete window. Reads other threads' registers without
+     * synchronization; good enough for a gauge.
+     */
+    public long estimateSources() {
+        HyperLogLog merged = new HyperLogLog(HLL_PRECISION);
+        for (Windows state : allWindows) {
+            merged.merge(state.previous.sources);
+        }
+        return merged.estimate();
+    }
+
+    // Murmur3 fmix64.
+    static long mix(long key) {
+        long h = key;
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB93FE53BCD4DL;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /** Counters for one window. */
+    private final class Window {
+        final CountMinSketch packets = new CountMinSketch(sketchDepth, sketchWidth);
+        final CountMinSketch ports = new CountMinSketch(sketchDepth, sketchWidth);
+        final long[] seenPairs = new long[packets.width() * PAIR_BITS_PER_COUNTER / 64];
+        final HyperLogLog sources = new HyperLogLog(HLL_PRECISION);
+        // Largest estimates in this window; while the previous window's peak cannot push a
+        // source over the limit, its sketch need not be read at all.
+        int peakPackets;
+        int peakPorts;
+
+        void clear() {
+            peakPackets = 0;
+            peakPorts = 0;
+            packets.clear();
+            ports.clear();
+            Arrays.fill(seenPairs, 0L);
+            sources.clear();
+        }
+
+        long memoryBytes() {
+            return packets.memoryBytes() + ports.memoryBytes() + 8L * seenPairs.length + sources.memoryBytes();
+        }
+    }
+
+    /** One thread's current and previous window. */
+    private final class Windows {
+        Window current = new Window();
+        Window previous = new Window();
+        long currentStart = clock;
+
+        /** @return {@link #NORMAL}, or why the source should be blocked */
+        int observe(long hash, int dstPort) {
+            long now = clock;
+            long elapsed = now - currentStart;
+            if (elapsed >= windowNanos) {
+                rotate(elapsed);
+                currentStart = elapsed >= 2 * windowNanos ? now : currentStart + windowNanos;
+                elapsed = now - currentStart;
+            }
+            // Share of the previous window that still lies inside the sliding window.
+            double previousWeight = 1.0 - (double) elapsed / windowNanos;
+
+            current.sources.add(hash);
+            int packets = current.packets.increment(hash);
+            current.peakPackets = Math.max(current.peakPackets, packets);
+            if (packets + previous.peakPackets * previousWeight > maxPackets
+                    && packets + previous.packets.estimate(hash) * previousWeight > maxPackets) {
+                return PACKET_RATE;
+            }
+            if (dstPort >= 0) {
+                long pair = mix(hash ^ dstPort);
+                int bit = (int) (pair & ((long) current.seenPairs.length * 64 - 1));
+                long word = current.seenPairs[bit >>> 6];
+                long mask = 1L << bit;
+                if ((word & mask) == 0) {
+                    current.seenPairs[bit >>> 6] = word | mask;
+                    int ports = current.ports.increment(hash);
+                    current.peakPorts = Math.max(current.peakPorts, ports);
+                    if (ports + previous.peakPorts * previousWeight > maxPorts
+                            && ports + previous.ports.estimate(hash) * previousWeight > maxPorts) {
+                        return PORT_SCAN;
+                    }
+                }
+            }
+            return NORMAL;
+        }
+
+        private void rotate(long elapsed) {
+            Window recycled = previous;
+            recycled.clear();
+            if (elapsed >= 2 * windowNanos) {
+                // Idle for more than a whole window: nothing carries over.
+                current.clear();
+            }
+            previous = current;
+            current = recycled;
+        }
+
+        long memoryBytes() {
+            return current.memoryBytes() + previous.memoryBytes();
+        }
+    }
+}
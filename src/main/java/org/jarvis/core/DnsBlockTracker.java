@@ -0,0 +1,343 @@
+package org.jarvis.core;
+
+import org.jarvis.metrics.Counter;
+import org.jarvis.metrics.MetricsRegistry;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Keeps domain blocks current by learning the addresses of blocked domains from DNS responses
+ * seen on the wire, instead of resolving them once when the rule is added.
+ *
+ * {@link #inspect} runs on the capture path for every DNS response. It decodes names into a
+ * per-thread buffer and checks them with a {@link DomainMatcher}; nothing is allocated unless a
+ * record matches. An address record matches if its owner name is blocked, if the question is
+ * blocked (which covers the CNAME chain a CDN answers with), or if it follows a CNAME whose
+ * owner is blocked.
+ *
+ * Only answers to this host's own queries are trusted: {@link #inspectQuery} records the id and
+ * question of each query it sends, and a response that matches none of them is ignored, as is
+ * one the caller did not find addressed to a {@link #isLocal local address}. Otherwise anyone
+ * who can put a UDP packet with source port 53 on the wire could have any address blocked. The
+ * host's own addresses are never learned.
+ *
+ * Every learned address expires when its record TTL runs out, clamped to
+ * [minTtlSeconds, maxTtlSeconds]; a later answer with the same address extends it. New and
+ * expired addresses are handed to the {@link Listener} in batches on the tracker's own thread,
+ * so the capture path never rebuilds a rule snapshot or talks to the firewall.
+ *
+ * Settings (system properties):
+ * sentinel.dns.sniff.minTtlSeconds (default 60), sentinel.dns.sniff.maxTtlSeconds (default 86400)
+ */
+public class DnsBlockTracker {
+
+    /** Receives batches of addresses. Called on the tracker thread only, never concurrently. */
+    public interface Listener {
+        void learned(List<String> addresses);
+
+        void expired(List<String> addresses);
+    }
+
+    private static final long FLUSH_INTERVAL_MS = 100;
+    private static final long SWEEP_INTERVAL_MS = 1000;
+    private static final long LOCAL_REFRESH_MS = 60_000;
+    private static final int QUERY_SLOTS = 4096;
+    private static final long QUERY_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(30);
+    // Set in every query key, so an empty slot (0) never matches.
+    private static final long QUERY_PRESENT = 1L << 48;
+
+    private record Entry(String domain, long expiresAtNanos) { }
+
+    private final Listener listener;
+    private final long minTtlSeconds;
+    private final long maxTtlSeconds;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    // Addresses seen for the first time, waiting for the next flush.
+    private final Queue<String> newAddresses = new ConcurrentLinkedQueue<>();
+    private final ThreadLocal<Sniffer> sniffers = ThreadLocal.withInitial(Sniffer::new);
+    private final ScheduledExecutorService scheduler;
+    // Outstanding queries, direct-mapped by key (id << 32 | question hash | QUERY_PRESENT); a
+    // newer query takes an older one's slot. Key and time are written separately, so a racing
+    // reader may at worst reject a genuine answer.
+    private final AtomicLongArray queryKeys = new AtomicLongArray(QUERY_SLOTS);
+    private final AtomicLongArray querySentAt = new AtomicLongArray(QUERY_SLOTS);
+    // This host's addresses, refreshed on the tracker thread.
+    private volatile RuleIndex localAddresses = RuleIndex.empty();
+
+    private final Counter responses;
+    private final Counter unmatched;
+    private final Counter learnedCount;
+    private final Counter expiredCount;
+
+    public DnsBlockTracker(Listener listener, long minTtlSeconds, long maxTtlSeconds) {
+        this.listener = listener;
+        this.minTtlSeconds = minTtlSeconds;
+        this.maxTtlSeconds = maxTtlSeconds;
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        this.responses = metrics.counter("sentinel_dns_responses_total", "DNS responses inspected for blocked domains.");
+        this.unmatched = metrics.counter("sentinel_dns_unmatched_responses_total", "DNS responses ignored because they answer no query this host sent.");
+        this.learnedCount = metrics.counter("sentinel_dns_learned_addresses_total", "Addresses of blocked domains learned from DNS responses.");
+        this.expiredCount = metrics.counter("sentinel_dns_expired_addresses_total", "Learned addresses removed after their TTL ran out.");
+        metrics.gauge("sentinel_dns_tracked_addresses", "Learned addresses currently blocked.", entries::size);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "sentinel-dns-tracker");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(this::flushNew, FLUSH_INTERVAL_MS, FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        scheduler.scheduleWithFixedDelay(this::sweepExpired, SWEEP_INTERVAL_MS, SWEEP_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        // Addresses change with DHCP and VPNs; the first listing is taken before any packet arrives.
+        refreshLocalAddresses();
+        scheduler.scheduleWithFixedDelay(this::refreshLocalAddresses, LOCAL_REFRESH_MS, LOCAL_REFRESH_MS, TimeUnit.MILLISECONDS);
+    }
+
+    public static DnsBlockTracker fromSystemProperties(Listener listener) {
+        return new DnsBlockTracker(listener,
+                Long.getLong("sentinel.dns.sniff.minTtlSeconds", 60),
+                Long.getLong("sentinel.dns.sniff.maxTtlSeconds", 86400));
+    }
+
+    /**
+     * Records one DNS query taken from a packet this host sent to port 53, so that the answer to
+     * it is trusted.
+     *
+     * @param tcp true if the payload is a TCP segment, where the message has a 2-byte length prefix
+     */
+    public void inspectQuery(byte[] payload, int offset, int length, boolean tcp) {
+        if (tcp) {
+            if (!isWholeTcpMessage(payload, offset, length)) {
+                return;
+            }
+            length = FrameParser.u16(payload, offset);
+            offset += 2;
+        }
+        if (length < DnsCodec.HEADER_LENGTH || (payload[offset + 2] & 0x80) != 0) {
+            return; // a response
+        }
+        long key = sniffers.get().queryKey(payload, offset, length);
+        if (key != 0) {
+            int slot = slot(key);
+            querySentAt.set(slot, System.nanoTime());
+            queryKeys.set(slot, key);
+        }
+    }
+
+    /**
+     * Inspects one DNS message taken from a packet with source port 53, addressed to this host.
+     * It is ignored unless it answers a query recorded by {@link #inspectQuery}.
+     *
+     * @param tcp true if the payload is a TCP segment, where the message has a 2-byte length prefix
+     */
+    public void inspect(byte[] payload, int offset, int length, boolean tcp, DomainMatcher domains) {
+        if (tcp) {
+            if (!isWholeTcpMessage(payload, offset, length)) {
+                return;
+            }
+            length = FrameParser.u16(payload, offset);
+            offset += 2;
+        }
+        if (length < DnsCodec.HEADER_LENGTH || (payload[offset + 2] & 0x80) == 0
+                || FrameParser.u16(payload, offset + 6) == 0) {
+            return; // a query, or a response without answers
+        }
+        responses.increment();
+        sniffers.get().inspect(payload, offset, length, domains);
+    }
+
+    // Only a message that starts and ends in this segment; continuation segments are skipped.
+    private static boolean isWholeTcpMessage(byte[] payload, int offset, int length) {
+        return length >= 2 + DnsCodec.HEADER_LENGTH && FrameParser.u16(payload, offset) <= length - 2;
+    }
+
+    private static int slot(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 32) & (QUERY_SLOTS - 1);
+    }
+
+    // Consumes the matching query, so a second answer to it is not trusted either.
+    private boolean takeQuery(long key) {
+        int slot = slot(key);
+        return queryKeys.get(slot) == key
+                && System.nanoTime() - querySentAt.get(slot) < QUERY_TIMEOUT_NANOS
+                && queryKeys.compareAndSet(slot, key, 0);
+    }
+
+    public boolean isLocalV4(int address) {
+        return localAddresses.lookupV4(address) != RuleIndex.NONE;
+    }
+
+    public boolean isLocalV6(long high, long low) {
+        return localAddresses.lookupV6(high, low) != RuleIndex.NONE;
+    }
+
+    /** @return true if the address literal is one of this host's addresses */
+    public boolean isLocal(String address) {
+        byte[] bytes = IpAddresses.parseLiteral(address);
+        if (bytes == null) {
+            return false;
+        }
+        return bytes.length == 4
+                ? isLocalV4(IpAddresses.v4Key(bytes))
+                : isLocalV6(IpAddresses.v6High(bytes), IpAddresses.v6Low(bytes));
+    }
+
+    private void refreshLocalAddresses() {
+        localAddresses = RuleIndex.empty().with(IpAddresses.localAddresses(), "Both");
+    }
+
+    private void learn(String address, String domain, long ttlSeconds) {
+        long ttl = Math.max(minTtlSeconds, Math.min(maxTtlSeconds, ttlSeconds));
+        Entry previous = entries.put(address, new Entry(domain, System.nanoTime() + TimeUnit.SECONDS.toNanos(ttl)));
+        if (previous == null) {
+            newAddresses.add(address);
+        }
+    }
+
+    /** Stops tracking the addresses without expiring them, e.g. because a permanent rule now covers them. */
+    public void release(Collection<String> addresses) {
+        for (String address : addresses) {
+            entries.remove(address);
+        }
+    }
+
+    /** Expires every address learned from the given domains, on the tracker thread. */
+    public void forgetDomains(Collection<String> domains) {
+        Set<String> forgotten = new HashSet<>(domains);
+        scheduler.execute(() -> {
+            List<String> expired = new ArrayList<>();
+            entries.forEach((address, entry) -> {
+                if (forgotten.contains(entry.domain()) && entries.remove(address, entry)) {
+                    expired.add(address);
+                }
+            });
+            report(expired);
+        });
+    }
+
+    public int getTrackedCount() {
+        return entries.size();
+    }
+
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    private void flushNew() {
+        List<String> batch = new ArrayList<>();
+        String address;
+        while ((address = newAddresses.poll()) != null) {
+            // It may have been released or expired while it waited.
+            if (entries.containsKey(address)) {
+                batch.add(address);
+            }
+        }
+        if (!batch.isEmpty()) {
+            learnedCount.add(batch.size());
+            try {
+                listener.learned(batch);
+            } catch (RuntimeException e) {
+                // Keep the scheduler alive; a failed batch must not stop later ones.
+                System.err.println("Failed to apply addresses learned from DNS.");
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void sweepExpired() {
+        long now = System.nanoTime();
+        List<String> expired = new ArrayList<>();
+        entries.forEach((address, entry) -> {
+            // A conditional remove, so an answer that just extended the entry wins.
+            if (entry.expiresAtNanos() - now <= 0 && entries.remove(address, entry)) {
+                expired.add(address);
+            }
+        });
+        report(expired);
+    }
+
+    private void report(List<String> expired) {
+        if (expired.isEmpty()) {
+            return;
+        }
+        expiredCount.add(expired.size());
+        try {
+            listener.expired(expired);
+        } catch (RuntimeException e) {
+            System.err.println("Failed to remove expired addresses learned from DNS.");
+            e.printStackTrace();
+        }
+    }
+
+    // Per-thread decoding state, so inspecting a response allocates nothing until a record matches.
+    private final class Sniffer implements DnsCodec.AnswerVisitor {
+        private final StringBuilder name = new StringBuilder(64);
+        private DomainMatcher domains;
+        // The blocked domain the current answer chain belongs to, or null.
+        private String chainDomain;
+
+        void inspect(byte[] message, int offset, int length, DomainMatcher domains) {
+            long key = queryKey(message, offset, length);
+            if (key == 0 || !takeQuery(key)) {
+                unmatched.increment();
+                return;
+            }
+            this.domains = domains;
+            // queryKey left the question in name.
+            chainDomain = domains.match(name);
+            DnsCodec.parseResponse(message, offset, length, name, this);
+            this.domains = null;
+        }
+
+        // The id and a case-insensitive hash of the question, or 0 if there is no question.
+        long queryKey(byte[] message, int offset, int length) {
+            if (!DnsCodec.questionName(message, offset, length, name)) {
+                return 0;
+            }
+            int hash = 0;
+            for (int i = 0; i < name.length(); i++) {
+                hash = 31 * hash + Character.toLowerCase(name.charAt(i));
+            }
+            return (long) DnsCodec.id(message, offset) << 32 | QUERY_PRESENT | (hash & 0xFFFFFFFFL);
+        }
+
+        @Override
+        public void answer(CharSequence owner, int type, long ttl, byte[] message, int messageOffset, int messageLength,
+                           int rdataOffset, int rdataLength) {
+            if (type == DnsCodec.TYPE_CNAME) {
+                if (chainDomain == null) {
+                    chainDomain = domains.match(owner);
+                }
+                return;
+            }
+            boolean v4 = type == DnsCodec.TYPE_A && rdataLength == 4;
+            boolean v6 = type == DnsCodec.TYPE_AAAA && rdataLength == 16;
+            if (!v4 && !v6) {
+                return;
+            }
+            String domain = chainDomain != null ? chainDomain : domains.match(owner);
+            if (domain == null) {
+                return;
+            }
+            if (v4 ? isLocalV4(FrameParser.i32(message, rdataOffset))
+                    : isLocalV6(FrameParser.i64(message, rdataOffset), FrameParser.i64(message, rdataOffset + 8))) {
+                return; // never block ourselves
+            }
+            String address = v4
+                    ? IpAddresses.v4ToString(FrameParser.i32(message, rdataOffset))
+                    : IpAddresses.v6ToString(FrameParser.i64(message, rdataOffset), FrameParser.i64(message, rdataOffset + 8));
+            learn(address, domain, ttl);
+        }
+    }
+}
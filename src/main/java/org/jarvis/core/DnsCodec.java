@@ -0,0 +1,173 @@
+package org.jarvis.core;
+
+/**
+ * Minimal DNS wire-format encoder and decoder (RFC 1035): enough to send A/AAAA queries and to
+ * walk the answer section of a response. Decoding never allocates; names are written into a
+ * caller-supplied StringBuilder in lower case without the trailing dot.
+ */
+final class DnsCodec {
+
+    static final int TYPE_A = 1;
+    static final int TYPE_CNAME = 5;
+    static final int TYPE_AAAA = 28;
+    static final int CLASS_IN = 1;
+
+    static final int RCODE_NOERROR = 0;
+    static final int RCODE_NXDOMAIN = 3;
+
+    static final int HEADER_LENGTH = 12;
+    // Longest chain of compression pointers we follow; real names need a handful.
+    private static final int MAX_POINTERS = 16;
+    private static final int MAX_NAME_LENGTH = 255;
+
+    /** Receives each record of the answer section. */
+    interface AnswerVisitor {
+        /**
+         * @param name         owner name, valid only during the call
+         * @param rdataOffset  absolute offset of the record data in {@code message}
+         */
+        void answer(CharSequence name, int type, long ttl, byte[] message, int messageOffset, int messageLength,
+                    int rdataOffset, int rdataLength);
+    }
+
+    private DnsCodec() {
+    }
+
+    /** Encodes a recursive query for one name and record type. */
+    static byte[] encodeQuery(int id, String name, int type) {
+        String trimmed = name.endsWith(".") ? name.substring(0, name.length() - 1) : name;
+        byte[] message = new byte[HEADER_LENGTH + trimmed.length() + 2 + 4];
+        message[0] = (byte) (id >>> 8);
+        message[1] = (byte) id;
+        message[2] = 0x01; // RD
+        message[5] = 1;    // QDCOUNT
+        int pos = HEADER_LENGTH;
+        for (String label : trimmed.split("\\.")) {
+            if (label.isEmpty() || label.length() > 63) {
+                throw new IllegalArgumentException("Invalid DNS name: " + name);
+            }
+            message[pos++] = (byte) label.length();
+            for (int i = 0; i < label.length(); i++) {
+                message[pos++] = (byte) label.charAt(i);
+            }
+        }
+        message[pos++] = 0;
+        message[pos++] = (byte) (type >>> 8);
+        message[pos++] = (byte) type;
+        message[pos++] = 0;
+        message[pos] = CLASS_IN;
+        return message;
+    }
+
+    static int id(byte[] message, int offset) {
+        return FrameParser.u16(message, offset);
+    }
+
+    /**
+     * Decodes the name of the first question into {@code name}.
+     *
+     * @return false if the message has no question or it is malformed
+     */
+    static boolean questionName(byte[] message, int offset, int length, StringBuilder name) {
+        if (length < HEADER_LENGTH || FrameParser.u16(message, offset + 4) == 0) {
+            return false;
+        }
+        return readName(message, offset, length, offset + HEADER_LENGTH, name) >= 0;
+    }
+
+    /**
+     * Walks a response and reports every answer record.
+     *
+     * @return the response code, or -1 if the message is not a well-formed response
+     */
+    static int parseResponse(byte[] message, int offset, int length, StringBuilder name, AnswerVisitor visitor) {
+        if (length < HEADER_LENGTH || (message[offset + 2] & 0x80) == 0) {
+            return -1;
+        }
+        int rcode = message[offset + 3] & 0x0F;
+        int questions = FrameParser.u16(message, offset + 4);
+        int answers = FrameParser.u16(message, offset + 6);
+        int end = offset + length;
+        int pos = offset + HEADER_LENGTH;
+
+        for (int i = 0; i < questions; i++) {
+            pos = skipName(message, pos, end);
+            if (pos < 0 || pos + 4 > end) {
+                return -1;
+            }
+            pos += 4;
+        }
+        for (int i = 0; i < answers; i++) {
+            int rdataStart = readName(message, offset, length, pos, name);
+            if (rdataStart < 0 || rdataStart + 10 > end) {
+                return -1;
+            }
+            int type = FrameParser.u16(message, rdataStart);
+            long ttl = FrameParser.i32(message, rdataStart + 4) & 0xFFFFFFFFL;
+            int rdLength = FrameParser.u16(message, rdataStart + 8);
+            int rdata = rdataStart + 10;
+            if (rdata + rdLength > end) {
+                return -1;
+            }
+            visitor.answer(name, type, ttl, message, offset, length, rdata, rdLength);
+            pos = rdata + rdLength;
+        }
+        return rcode;
+    }
+
+    /**
+     * Decodes the (possibly compressed) name at {@code pos} into {@code name}.
+     *
+     * @return the position just after the name in the record, or -1 if it is malformed
+     */
+    static int readName(byte[] message, int offset, int length, int pos, StringBuilder name) {
+        name.setLength(0);
+        int end = offset + length;
+        int next = -1;
+        int pointers = 0;
+        while (true) {
+            if (pos >= end) {
+                return -1;
+            }
+            int len = message[pos] & 0xFF;
+            if (len == 0) {
+                return next >= 0 ? next : pos + 1;
+            }
+            if ((len & 0xC0) == 0xC0) {
+                if (pos + 1 >= end || ++pointers > MAX_POINTERS) {
+                    return -1;
+                }
+                if (next < 0) {
+                    next = pos + 2;
+                }
+                pos = offset + (((len & 0x3F) << 8) | (message[pos + 1] & 0xFF));
+                continue;
+            }
+            if ((len & 0xC0) != 0 || pos + 1 + len > end || name.length() + len + 1 > MAX_NAME_LENGTH) {
+                return -1;
+            }
+            if (name.length() > 0) {
+                name.append('.');
+            }
+            for (int i = pos + 1; i <= pos + len; i++) {
+                char c = (char) (message[i] & 0xFF);
+                name.append(c >= 'A' && c <= 'Z' ? (char) (c + 32) : c);
+            }
+            pos += len + 1;
+        }
+    }
+
+    private static int skipName(byte[] message, int pos, int end) {
+        while (pos < end) {
+            int len = message[pos] & 0xFF;
+            if (len == 0) {
+                return pos + 1;
+            }
+            if ((len & 0xC0) == 0xC0) {
+                return pos + 2;
+            }
+            pos += len + 1;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,200 @@
+package org.jarvis.core;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Resolves many domain names concurrently, with a cache that honours record TTLs.
+ *
+ * Each lookup runs on its own virtual thread; a semaphore caps how many are in flight so a
+ * large keyword block doesn't flood the resolver. A lookup that doesn't finish within the
+ * timeout counts as failed for this call and is not cached. Names that don't exist are cached
+ * too (negative caching), so re-blocking a similar keyword doesn't ask again.
+ *
+ * Settings (system properties):
+ * sentinel.dns.server (host[:port]; default: the system resolver), sentinel.dns.maxConcurrent
+ * (default 16), sentinel.dns.timeoutMs (default 2000), sentinel.dns.negativeTtlSeconds
+ * (default 60), sentinel.dns.maxTtlSeconds (default 3600)
+ */
+public class DnsResolver {
+
+    /** The addresses a name resolved to and how long they may be cached. */
+    public record Resolution(List<String> addresses, long ttlSeconds) {
+        public boolean isNegative() {
+            return addresses.isEmpty();
+        }
+    }
+
+    /** Where lookups are actually sent. Implementations may block; they run on virtual threads. */
+    public interface Upstream {
+        /**
+         * @return the A and AAAA addresses of {@code name}; an empty list if the name does not exist
+         * @throws IOException if the upstream could not give an answer, e.g. a network error
+         */
+        Resolution resolve(String name, long timeoutMillis) throws IOException;
+    }
+
+    private record CacheEntry(Resolution resolution, long expiresAtNanos) { }
+
+    private final Upstream upstream;
+    private final Semaphore permits;
+    private final long timeoutMillis;
+    private final long negativeTtlSeconds;
+    private final long maxTtlSeconds;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final Map<String, CacheEntry> cache = new ConcurrentHashMap<>();
+    // Lookups in flight, so concurrent callers asking for the same name share one query.
+    private final Map<String, CompletableFuture<Resolution>> inFlight = new ConcurrentHashMap<>();
+
+    public DnsResolver(Upstream upstream, int maxConcurrent, long timeoutMillis, long negativeTtlSeconds, long maxTtlSeconds) {
+        this.upstream = upstream;
+        this.permits = new Semaphore(maxConcurrent);
+        this.timeoutMillis = timeoutMillis;
+        this.negativeTtlSeconds = negativeTtlSeconds;
+        this.maxTtlSeconds = maxTtlSeconds;
+    }
+
+    public static DnsResolver fromSystemProperties() {
+        String server = System.getProperty("sentinel.dns.server");
+        long maxTtl = Long.getLong("sentinel.dns.maxTtlSeconds", 3600);
+        Upstream upstream = server == null || server.isBlank()
+                ? new SystemUpstream(Math.min(maxTtl, 300))
+                : new UdpDnsUpstream(parseServer(server));
+        return new DnsResolver(upstream,
+                Integer.getInteger("sentinel.dns.maxConcurrent", 16),
+                Long.getLong("sentinel.dns.timeoutMs", 2000),
+                Long.getLong("sentinel.dns.negativeTtlSeconds", 60),
+                maxTtl);
+    }
+
+    private static InetSocketAddress parseServer(String server) {
+        int colon = server.lastIndexOf(':');
+        // A bare IPv6 address has colons but no port.
+        if (colon > 0 && server.indexOf(':') == colon) {
+            return new InetSocketAddress(server.substring(0, colon), Integer.parseInt(server.substring(colon + 1)));
+        }
+        return new InetSocketAddress(server, 53);
+    }
+
+    /**
+     * Resolves every name, in parallel where not cached, and waits at most one timeout overall.
+     *
+     * @return the addresses of each name that resolved; names that don't exist or timed out map to an empty list
+     */
+    public Map<String, List<String>> resolveAll(Collection<String> names) {
+        Map<String, CompletableFuture<Resolution>> pending = new LinkedHashMap<>();
+        for (String name : names) {
+            pending.put(name, resolveAsync(name));
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        Map<String, List<String>> results = new LinkedHashMap<>();
+        for (Map.Entry<String, CompletableFuture<Resolution>> entry : pending.entrySet()) {
+            List<String> addresses = List.of();
+            try {
+                long remaining = Math.max(0, deadline - System.nanoTime());
+                addresses = entry.getValue().get(remaining, TimeUnit.NANOSECONDS).addresses();
+            } catch (TimeoutException e) {
+                System.err.println("DNS lookup timed out: " + entry.getKey());
+            } catch (ExecutionException e) {
+                System.err.println("Could not resolve domain: " + entry.getKey() + " (" + e.getCause().getMessage() + ")");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            results.put(entry.getKey(), addresses);
+        }
+        return results;
+    }
+
+    public CompletableFuture<Resolution> resolveAsync(String name) {
+        String key = name.toLowerCase();
+        CacheEntry cached = cache.get(key);
+        if (cached != null) {
+            if (cached.expiresAtNanos() - System.nanoTime() > 0) {
+                return CompletableFuture.completedFuture(cached.resolution());
+            }
+            cache.remove(key, cached);
+        }
+        return inFlight.computeIfAbsent(key, k -> {
+            CompletableFuture<Resolution> future = new CompletableFuture<>();
+            executor.execute(() -> lookup(k, future));
+            return future;
+        });
+    }
+
+    private void lookup(String name, CompletableFuture<Resolution> future) {
+        // The future leaves inFlight before it completes, so a caller that comes after a failed
+        // or uncacheable answer starts a new lookup instead of being handed the old one.
+        try {
+            permits.acquire();
+            Resolution resolution;
+            try {
+                resolution = upstream.resolve(name, timeoutMillis);
+            } finally {
+                permits.release();
+            }
+            long ttl = resolution.isNegative()
+                    ? negativeTtlSeconds
+                    : Math.min(resolution.ttlSeconds(), maxTtlSeconds);
+            if (ttl > 0) {
+                cache.put(name, new CacheEntry(resolution, System.nanoTime() + TimeUnit.SECONDS.toNanos(ttl)));
+            }
+            inFlight.remove(name, future);
+            future.complete(resolution);
+        } catch (Exception e) {
+            // Transient failures are not cached; the next call tries again.
+            inFlight.remove(name, future);
+            future.completeExceptionally(e);
+        }
+    }
+
+    /** Number of cached names, including negative and expired entries not yet looked up again. */
+    public int cacheSize() {
+        return cache.size();
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * The JVM's resolver (InetAddress). It does not expose record TTLs, so positive results are
+     * cached for a fixed time. Its blocking call cannot be interrupted; a lookup past the timeout
+     * keeps its permit until the system resolver gives up.
+     */
+    public static class SystemUpstream implements Upstream {
+        private final long ttlSeconds;
+
+        public SystemUpstream(long ttlSeconds) {
+            this.ttlSeconds = ttlSeconds;
+        }
+
+        @Override
+        public Resolution resolve(String name, long timeoutMillis) {
+            try {
+                List<String> addresses = new ArrayList<>();
+                for (InetAddress address : InetAddress.getAllByName(name)) {
+                    addresses.add(IpAddresses.canonical(address.getHostAddress()));
+                }
+                return new Resolution(addresses, ttlSeconds);
+            } catch (UnknownHostException e) {
+                return new Resolution(List.of(), 0);
+            }
+        }
+    }
+}
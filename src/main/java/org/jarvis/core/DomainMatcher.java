@@ -0,0 +1,130 @@
+package org.jarvis.core;
+
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Immutable set of blocked domains that answers "is this name, or one of its parent domains,
+ * blocked?" without allocating.
+ *
+ * Domains are stored in an open-addressing table keyed by a hash computed from the last
+ * character backwards. {@link #match} walks the queried name once from the right, and at every
+ * label boundary the hash of that suffix is already known, so "cdn.example.com" probes the table
+ * for "com", "example.com" and "cdn.example.com" in a single pass.
+ */
+public final class DomainMatcher {
+
+    private static final DomainMatcher EMPTY = new DomainMatcher(new String[0], new int[0], 0);
+
+    private final String[] domains;
+    private final int[] hashes;
+    private final int size;
+
+    private DomainMatcher(String[] domains, int[] hashes, int size) {
+        this.domains = domains;
+        this.hashes = hashes;
+        this.size = size;
+    }
+
+    public static DomainMatcher empty() {
+        return EMPTY;
+    }
+
+    /** Builds a matcher for the given domains; blank values are skipped. */
+    public static DomainMatcher of(Collection<String> values) {
+        Set<String> normalized = new LinkedHashSet<>();
+        for (String value : values) {
+            String domain = normalize(value);
+            if (domain != null) {
+                normalized.add(domain);
+            }
+        }
+        if (normalized.isEmpty()) {
+            return EMPTY;
+        }
+        int capacity = Integer.highestOneBit(normalized.size() * 2 - 1) << 1;
+        String[] domains = new String[capacity];
+        int[] hashes = new int[capacity];
+        int mask = capacity - 1;
+        for (String domain : normalized) {
+            int hash = suffixHash(domain);
+            int slot = spread(hash) & mask;
+            while (domains[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            domains[slot] = domain;
+            hashes[slot] = hash;
+        }
+        return new DomainMatcher(domains, hashes, normalized.size());
+    }
+
+    /** Lower case, without surrounding whitespace, a trailing dot or a leading "*." wildcard. */
+    public static String normalize(String value) {
+        if (value == null) {
+            return null;
+        }
+        String domain = value.trim().toLowerCase(Locale.ROOT);
+        if (domain.startsWith("*.")) {
+            domain = domain.substring(2);
+        }
+        if (domain.endsWith(".")) {
+            domain = domain.substring(0, domain.length() - 1);
+        }
+        return domain.isEmpty() ? null : domain;
+    }
+
+    /**
+     * @param name a lower-case domain name without a trailing dot, as produced by {@link DnsCodec}
+     * @return the blocked domain that is {@code name} or its closest-to-the-root parent, or null
+     */
+    public String match(CharSequence name) {
+        if (size == 0) {
+            return null;
+        }
+        int mask = domains.length - 1;
+        int hash = 0;
+        for (int i = name.length() - 1; i >= 0; i--) {
+            hash = hash * 31 + name.charAt(i);
+            if (i > 0 && name.charAt(i - 1) != '.') {
+                continue;
+            }
+            int suffixLength = name.length() - i;
+            for (int slot = spread(hash) & mask; domains[slot] != null; slot = (slot + 1) & mask) {
+                if (hashes[slot] == hash && regionEquals(domains[slot], name, i, suffixLength)) {
+                    return domains[slot];
+                }
+            }
+        }
+        return null;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private static boolean regionEquals(String domain, CharSequence name, int start, int length) {
+        if (domain.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (domain.charAt(i) != name.charAt(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int suffixHash(String domain) {
+        int hash = 0;
+        for (int i = domain.length() - 1; i >= 0; i--) {
+            hash = hash * 31 + domain.charAt(i);
+        }
+        return hash;
+    }
+
+    private static int spread(int hash) {
+        return RuleIndex.hash(hash);
+    }
+}
@@ -1,22 +1,58 @@
 package org.jarvis.core;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import org.jarvis.persistence.DatabaseManager;
+
+import java.net.URI;
 import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+/**
+ * Finds domains related to a keyword by searching for it.
+ *
+ * Several query variants are sent at once with the asynchronous HttpClient. Each response body
+ * is scanned line by line as it arrives, so no page is ever held in memory as a whole. Results
+ * are cached per keyword in the database; a cached entry is used until it is older than the
+ * cache TTL, and nothing is cached when every request failed.
+ *
+ * Settings (system properties):
+ * sentinel.scraper.baseUrl (default https://html.duckduckgo.com/html/; point it at a local
+ * server for testing), sentinel.scraper.timeoutMs (default 10000),
+ * sentinel.scraper.cacheTtlSeconds (default 86400; 0 disables the cache)
+ */
 public class DomainScraper {
 
+    private static final String DEFAULT_BASE_URL = "https://html.duckduckgo.com/html/";
+    private static final String USER_AGENT = "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/58.0.3029.110 Safari/537.3";
+
     private static final Pattern DOMAIN_PATTERN = Pattern.compile(
             "([a-zA-Z0-9][a-zA-Z0-9-]{0,61}[a-zA-Z0-9]\\.)+[a-zA-Z]{2,}"
     );
 
+    // Searches that tend to surface service and CDN domains; %s is the keyword.
+    private static final List<String> QUERY_VARIANTS = List.of(
+            "all domains and subdomains used by %s for content delivery",
+            "%s cdn domains",
+            "%s api and static content hosts"
+    );
+
     // A blacklist of common, irrelevant domains found in search results.
     private static final Set<String> DOMAIN_BLACKLIST = Set.of(
             "duckduckgo.com", "duck.com", "donttrack.us", "google.com",
@@ -24,45 +60,137 @@ public class DomainScraper {
             "twitter.com", "linkedin.com", "github.com", "w3.org", "archive.org"
     );
 
+    private final String baseUrl;
+    private final Duration timeout;
+    private final long cacheTtlSeconds;
+    private final DatabaseManager databaseManager;
+    private final HttpClient client;
+
+    public DomainScraper() {
+        this(System.getProperty("sentinel.scraper.baseUrl", DEFAULT_BASE_URL),
+                Duration.ofMillis(Long.getLong("sentinel.scraper.timeoutMs", 10000)),
+                Long.getLong("sentinel.scraper.cacheTtlSeconds", 86400),
+                DatabaseManager.getInstance());
+    }
+
+    /** @param databaseManager holds the keyword cache; may be null to disable caching */
+    public DomainScraper(String baseUrl, Duration timeout, long cacheTtlSeconds, DatabaseManager databaseManager) {
+        this.baseUrl = baseUrl;
+        this.timeout = timeout;
+        this.cacheTtlSeconds = databaseManager == null ? 0 : cacheTtlSeconds;
+        this.databaseManager = databaseManager;
+        this.client = HttpClient.newBuilder()
+                .connectTimeout(timeout)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .build();
+    }
+
     public Set<String> findRelatedDomains(String keyword) {
-        Set<String> foundDomains = new HashSet<>();
-        try {
-            // A more specific query to find service and CDN domains.
-            String query = "all domains and subdomains used by " + keyword + " for content delivery";
-            String encodedQuery = URLEncoder.encode(query, StandardCharsets.UTF_8);
-
-            URL url = new URL("https://html.duckduckgo.com/html/?q=" + encodedQuery);
-            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-            connection.setRequestProperty("User-Agent", "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/58.0.3029.110 Safari/537.3");
-            connection.setRequestMethod("GET");
-
-            StringBuilder htmlContent = new StringBuilder();
-            try (BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream()))) {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    htmlContent.append(line);
-                }
+        String key = keyword.trim().toLowerCase(Locale.ROOT);
+        Set<String> foundDomains = null;
+        if (cacheTtlSeconds > 0) {
+            foundDomains = databaseManager.getCachedDomains(key, cacheTtlSeconds);
+            if (foundDomains != null) {
+                System.out.println("Using " + foundDomains.size() + " cached domains for keyword: " + key);
             }
+        }
+        if (foundDomains == null) {
+            foundDomains = search(key);
+        }
+
+        // Always add the base domain itself, as scraping might miss it.
+        Set<String> result = new HashSet<>(foundDomains);
+        result.add(key + ".com");
+        result.add("www." + key + ".com");
+        return result;
+    }
+
+    // Runs every query variant concurrently and merges what they find.
+    private Set<String> search(String keyword) {
+        Set<String> foundDomains = ConcurrentHashMap.newKeySet();
+        AtomicInteger succeeded = new AtomicInteger();
+        List<CompletableFuture<?>> requests = new ArrayList<>();
+        for (String variant : QUERY_VARIANTS) {
+            HttpRequest request = HttpRequest.newBuilder(searchUri(String.format(variant, keyword)))
+                    .header("User-Agent", USER_AGENT)
+                    .timeout(timeout)
+                    .GET()
+                    .build();
+            // Domains on an error page (e.g. a rate-limit notice) are not search results.
+            DomainCollector collector = new DomainCollector(keyword);
+            requests.add(client.sendAsync(request, HttpResponse.BodyHandlers.fromLineSubscriber(collector))
+                    .thenAccept(response -> {
+                        if (response.statusCode() == 200) {
+                            foundDomains.addAll(collector.domains);
+                            succeeded.incrementAndGet();
+                        } else {
+                            System.err.println("Search for '" + keyword + "' returned HTTP " + response.statusCode());
+                        }
+                    })
+                    .exceptionally(e -> {
+                        System.err.println("Search request for '" + keyword + "' failed: " + e.getMessage());
+                        return null;
+                    }));
+        }
 
-            Matcher matcher = DOMAIN_PATTERN.matcher(htmlContent.toString());
+        try {
+            // Each request has its own timeout; this only guards against a stalled body.
+            CompletableFuture.allOf(requests.toArray(new CompletableFuture<?>[0]))
+                    .get(timeout.toMillis() * 2, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException | ExecutionException e) {
+            System.err.println("Domain search for '" + keyword + "' did not finish in time; using partial results.");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        Set<String> result = new HashSet<>(foundDomains);
+        if (cacheTtlSeconds > 0 && succeeded.get() > 0) {
+            databaseManager.cacheDomains(keyword, result);
+        }
+        return result;
+    }
+
+    private URI searchUri(String query) {
+        String separator = baseUrl.indexOf('?') >= 0 ? "&" : "?";
+        return URI.create(baseUrl + separator + "q=" + URLEncoder.encode(query, StandardCharsets.UTF_8));
+    }
+
+    // Matches domains in each line as it arrives instead of buffering the whole page.
+    private static final class DomainCollector implements Flow.Subscriber<String> {
+        private final String keyword;
+        // Written by the subscriber, read once the response has completed.
+        private final Set<String> domains = ConcurrentHashMap.newKeySet();
+        private final Matcher matcher = DOMAIN_PATTERN.matcher("");
+
+        DomainCollector(String keyword) {
+            this.keyword = keyword;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(String line) {
+            matcher.reset(line);
             while (matcher.find()) {
-                String domain = matcher.group().toLowerCase();
+                String domain = matcher.group().toLowerCase(Locale.ROOT);
 
                 // Add any discovered domain that contains the keyword and is not on our ignore list.
                 if (!DOMAIN_BLACKLIST.contains(domain) && domain.contains(keyword)) {
-                    foundDomains.add(domain);
+                    domains.add(domain);
                 }
             }
-
-        } catch (Exception e) {
-            System.err.println("An error occurred during domain scraping.");
-            e.printStackTrace();
         }
 
-        // Always add the base domain itself, as scraping might miss it.
-        foundDomains.add(keyword + ".com");
-        foundDomains.add("www." + keyword + ".com");
+        @Override
+        public void onError(Throwable throwable) {
+            // Reported through the response future.
+        }
 
-        return foundDomains;
+        @Override
+        public void onComplete() {
+        }
     }
-}
\ No newline at end of file
+}
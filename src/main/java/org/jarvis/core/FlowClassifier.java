@@ -0,0 +1,279 @@
+package org.jarvis.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Immutable classifier that finds the {@link FlowRule} matching a packet's address, protocol and
+ * ports, by bit-vector intersection.
+ *
+ * Each field is compiled separately. The values of a field are cut into elementary intervals at
+ * every rule boundary, and each interval carries a bit vector of the rules that cover it; the
+ * protocol and direction fields are plain tables of vectors. A lookup binary-searches the
+ * address and both ports, ANDs the five vectors word by word and takes the lowest set bit, so
+ * its cost grows with the number of rules / 64 instead of scanning every rule.
+ *
+ * The vectors need about {@code 2 * rules^2 / 8} bytes per field, which is fine for the hundreds
+ * of flow rules a host typically carries; plain address blocks stay in {@link RuleIndex}.
+ * Like {@link RuleIndex}, writers derive new instances with {@link #with} / {@link #without}
+ * and publish them through a volatile field.
+ */
+public final class FlowClassifier {
+
+    private static final FlowClassifier EMPTY = new FlowClassifier(List.of());
+
+    private final FlowRule[] rules;
+    private final int words;
+    private final Dimension v4Addresses;
+    private final Dimension v6Addresses;
+    private final Dimension srcPorts;
+    private final Dimension dstPorts;
+    // Rules that accept any port, for packets that have none.
+    private final long[] anySrcPort;
+    private final long[] anyDstPort;
+    // Indexed by IP protocol number.
+    private final long[][] protocols = new long[256][];
+    private final long[] incoming;
+    private final long[] outgoing;
+
+    private FlowClassifier(List<FlowRule> ruleList) {
+        rules = ruleList.toArray(new FlowRule[0]);
+        words = (rules.length + 63) >>> 6;
+
+        List<long[]> v4 = new ArrayList<>();
+        List<long[]> v6 = new ArrayList<>();
+        List<long[]> src = new ArrayList<>();
+        List<long[]> dst = new ArrayList<>();
+        for (FlowRule rule : rules) {
+            addressIntervals(rule, v4, v6);
+            src.add(new long[] {0, rule.srcFrom(), 0, rule.srcTo()});
+            dst.add(new long[] {0, rule.dstFrom(), 0, rule.dstTo()});
+        }
+        v4Addresses = new Dimension(v4, words);
+        v6Addresses = new Dimension(v6, words);
+        srcPorts = new Dimension(src, words);
+        dstPorts = new Dimension(dst, words);
+
+        anySrcPort = new long[words];
+        anyDstPort = new long[words];
+        incoming = new long[words];
+        outgoing = new long[words];
+        long[] anyProtocol = new long[words];
+        for (int r = 0; r < rules.length; r++) {
+            FlowRule rule = rules[r];
+            if (rule.anySrcPort()) set(anySrcPort, r);
+            if (rule.anyDstPort()) set(anyDstPort, r);
+            if ((rule.directions() & RuleIndex.INCOMING) != 0) set(incoming, r);
+            if ((rule.directions() & RuleIndex.OUTGOING) != 0) set(outgoing, r);
+            if (rule.protocol() == FlowRule.ANY_PROTOCOL) set(anyProtocol, r);
+        }
+        Arrays.fill(protocols, anyProtocol);
+        for (int r = 0; r < rules.length; r++) {
+            int protocol = rules[r].protocol();
+            if (protocol != FlowRule.ANY_PROTOCOL) {
+                if (protocols[protocol] == anyProtocol) {
+                    protocols[protocol] = anyProtocol.clone();
+                }
+                set(protocols[protocol], r);
+            }
+        }
+    }
+
+    public static FlowClassifier empty() {
+        return EMPTY;
+    }
+
+    public static FlowClassifier of(Collection<FlowRule> rules) {
+        return rules.isEmpty() ? EMPTY : new FlowClassifier(List.copyOf(new LinkedHashSet<>(rules)));
+    }
+
+    // An interval per rule and family: {fromHigh, fromLow, toHigh, toLow}, or null if the rule
+    // does not apply to that family. IPv4 keys are the unsigned address in the low word.
+    private static void addressIntervals(FlowRule rule, List<long[]> v4, List<long[]> v6) {
+        if (rule.anyAddress()) {
+            v4.add(new long[] {0, 0, 0, 0xFFFFFFFFL});
+            v6.add(new long[] {0, 0, -1L, -1L});
+            return;
+        }
+        IpPrefix prefix = rule.address().indexOf('/') >= 0 ? IpPrefix.parse(rule.address()) : null;
+        byte[] bytes = prefix == null ? IpAddresses.parseLiteral(rule.address()) : null;
+        boolean isV6 = prefix != null ? prefix.isV6() : bytes.length == 16;
+        if (!isV6) {
+            long from = prefix != null ? prefix.getHigh() >>> 32 : IpAddresses.v4Key(bytes) & 0xFFFFFFFFL;
+            long hostBits = prefix != null ? (1L << (32 - prefix.getLength())) - 1 : 0;
+            v4.add(new long[] {0, from, 0, from | hostBits});
+            v6.add(null);
+        } else {
+            long high = prefix != null ? prefix.getHigh() : IpAddresses.v6High(bytes);
+            long low = prefix != null ? prefix.getLow() : IpAddresses.v6Low(bytes);
+            int length = prefix != null ? prefix.getLength() : 128;
+            v4.add(null);
+            v6.add(new long[] {high, low, high | ~IpPrefix.mask(length), low | ~IpPrefix.mask(length - 64)});
+        }
+    }
+
+    private static void set(long[] vector, int rule) {
+        vector[rule >>> 6] |= 1L << rule;
+    }
+
+    // --- Lookups (capture path) ---
+
+    /**
+     * @param address   the packet's source for {@link RuleIndex#INCOMING}, its destination for
+     *                  {@link RuleIndex#OUTGOING}
+     * @param direction {@link RuleIndex#INCOMING} or {@link RuleIndex#OUTGOING}
+     * @param srcPort   -1 if the packet has no ports
+     * @return the first matching rule, or null
+     */
+    public FlowRule matchV4(int address, byte direction, int protocol, int srcPort, int dstPort) {
+        if (rules.length == 0) {
+            return null;
+        }
+        return match(v4Addresses.find(0, address & 0xFFFFFFFFL), direction, protocol, srcPort, dstPort);
+    }
+
+    public FlowRule matchV6(long high, long low, byte direction, int protocol, int srcPort, int dstPort) {
+        if (rules.length == 0) {
+            return null;
+        }
+        return match(v6Addresses.find(high, low), direction, protocol, srcPort, dstPort);
+    }
+
+    private FlowRule match(long[] address, byte direction, int protocol, int srcPort, int dstPort) {
+        long[] dirs = direction == RuleIndex.INCOMING ? incoming : outgoing;
+        long[] proto = protocols[protocol & 0xFF];
+        long[] src = srcPort < 0 ? anySrcPort : srcPorts.find(0, srcPort);
+        long[] dst = dstPort < 0 ? anyDstPort : dstPorts.find(0, dstPort);
+        for (int w = 0; w < words; w++) {
+            long bits = address[w] & dirs[w] & proto[w] & src[w] & dst[w];
+            if (bits != 0) {
+                return rules[(w << 6) + Long.numberOfTrailingZeros(bits)];
+            }
+        }
+        return null;
+    }
+
+    public int size() {
+        return rules.length;
+    }
+
+    public List<FlowRule> rules() {
+        return List.of(rules);
+    }
+
+    // --- Derivation (writers) ---
+
+    public FlowClassifier with(Collection<FlowRule> added) {
+        if (added.isEmpty()) {
+            return this;
+        }
+        Set<FlowRule> updated = new LinkedHashSet<>(Arrays.asList(rules));
+        updated.addAll(added);
+        return updated.size() == rules.length ? this : of(updated);
+    }
+
+    public FlowClassifier without(Collection<FlowRule> removed) {
+        Set<FlowRule> updated = new LinkedHashSet<>(Arrays.asList(rules));
+        updated.removeAll(removed);
+        return updated.size() == rules.length ? this : of(updated);
+    }
+
+    /** Approximate heap used by the bit vectors. */
+    public long footprintBytes() {
+        long vectors = v4Addresses.vectors.length + v6Addresses.vectors.length
+                + srcPorts.vectors.length + dstPorts.vectors.length + 4;
+        for (int p = 0; p < protocols.length; p++) {
+            if (p == 0 || protocols[p] != protocols[0]) vectors++;
+        }
+        return vectors * words * Long.BYTES;
+    }
+
+    @Override
+    public String toString() {
+        return "FlowClassifier[rules=" + rules.length + ", v4Intervals=" + v4Addresses.vectors.length
+                + ", v6Intervals=" + v6Addresses.vectors.length + ", srcPortIntervals=" + srcPorts.vectors.length
+                + ", dstPortIntervals=" + dstPorts.vectors.length + "]";
+    }
+
+    /** One field cut into elementary intervals over unsigned 128-bit keys (high, low). */
+    private static final class Dimension {
+        // Start of each interval, ascending; the first interval starts at zero.
+        final long[] startHigh;
+        final long[] startLow;
+        final long[][] vectors;
+
+        /** @param intervals {fromHigh, fromLow, toHigh, toLow} per rule, in rule order; null entries match nothing */
+        Dimension(List<long[]> intervals, int words) {
+            List<long[]> points = new ArrayList<>();
+            points.add(new long[] {0, 0});
+            for (long[] interval : intervals) {
+                if (interval == null) continue;
+                points.add(new long[] {interval[0], interval[1]});
+                // The interval ends just before to + 1, unless it runs to the top of the key space.
+                long nextLow = interval[3] + 1;
+                long nextHigh = nextLow == 0 ? interval[2] + 1 : interval[2];
+                if (nextLow != 0 || nextHigh != 0) {
+                    points.add(new long[] {nextHigh, nextLow});
+                }
+            }
+            points.sort(Dimension::compare);
+            List<long[]> starts = new ArrayList<>(points.size());
+            for (long[] point : points) {
+                if (starts.isEmpty() || compare(starts.get(starts.size() - 1), point) != 0) {
+                    starts.add(point);
+                }
+            }
+
+            startHigh = new long[starts.size()];
+            startLow = new long[starts.size()];
+            vectors = new long[starts.size()][words];
+            for (int i = 0; i < starts.size(); i++) {
+                startHigh[i] = starts.get(i)[0];
+                startLow[i] = starts.get(i)[1];
+            }
+            for (int r = 0; r < intervals.size(); r++) {
+                long[] interval = intervals.get(r);
+                if (interval == null) continue;
+                // Interval boundaries are exactly at starts, so every elementary interval from
+                // the one at "from" up to the one containing "to" lies inside the rule's range.
+                int first = indexOf(interval[0], interval[1]);
+                int last = indexOf(interval[2], interval[3]);
+                for (int i = first; i <= last; i++) {
+                    set(vectors[i], r);
+                }
+            }
+        }
+
+        long[] find(long high, long low) {
+            return vectors[indexOf(high, low)];
+        }
+
+        // Index of the last interval starting at or before the key.
+        private int indexOf(long high, long low) {
+            int lo = 0;
+            int hi = startHigh.length - 1;
+            while (lo < hi) {
+                int mid = (lo + hi + 1) >>> 1;
+                int cmp = Long.compareUnsigned(startHigh[mid], high);
+                if (cmp == 0) {
+                    cmp = Long.compareUnsigned(startLow[mid], low);
+                }
+                if (cmp <= 0) {
+                    lo = mid;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+            return lo;
+        }
+
+        private static int compare(long[] a, long[] b) {
+            int cmp = Long.compareUnsigned(a[0], b[0]);
+            return cmp != 0 ? cmp : Long.compareUnsigned(a[1], b[1]);
+        }
+    }
+}
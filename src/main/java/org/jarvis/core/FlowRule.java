@@ -0,0 +1,164 @@
+package org.jarvis.core;
+
+import org.jarvis.enforcer.FirewallChange;
+import org.jarvis.model.Rule;
+
+import java.util.Locale;
+
+/**
+ * The parsed form of a FLOW_BLOCK rule: a remote address or network (or any address), an IP
+ * protocol (or any), and source and destination port ranges, in one or both directions.
+ *
+ * A flow rule always names a protocol; without one it would just be an address block.
+ * The address is the packet's source for Incoming traffic and its destination for Outgoing
+ * traffic; the ports are always the packet's own source and destination ports, as in iptables.
+ *
+ * @param address    canonical address, CIDR prefix, or {@link #ANY_ADDRESS}
+ * @param protocol   IP protocol number, or {@link #ANY_PROTOCOL}
+ * @param directions a {@link RuleIndex} direction mask
+ */
+public record FlowRule(String address, int protocol, int srcFrom, int srcTo, int dstFrom, int dstTo, byte directions) {
+
+    public static final String ANY_ADDRESS = "*";
+    public static final int ANY_PROTOCOL = 0;
+    private static final int MAX_PORT = 65535;
+
+    /** @return the flow rule, or null if the rule is not a valid FLOW_BLOCK */
+    public static FlowRule of(Rule rule) {
+        if (!isFlowRule(rule)) {
+            return null;
+        }
+        String address = canonicalAddress(rule.getValue());
+        int protocol = parseProtocol(rule.getProtocol());
+        int[] src = parsePorts(rule.getSrcPorts());
+        int[] dst = parsePorts(rule.getDstPorts());
+        byte directions = RuleIndex.directionMask(rule.getDirection());
+        // Without a protocol the rule is a plain IP_BLOCK or CIDR_BLOCK.
+        if (address == null || protocol <= 0 || src == null || dst == null || directions == RuleIndex.NONE) {
+            return null;
+        }
+        boolean anyPort = src[0] == 0 && src[1] == MAX_PORT && dst[0] == 0 && dst[1] == MAX_PORT;
+        if (!anyPort && !hasPorts(protocol)) {
+            return null; // ports only exist for TCP, UDP and SCTP
+        }
+        return new FlowRule(address, protocol, src[0], src[1], dst[0], dst[1], directions);
+    }
+
+    /** @return the rule with its address, protocol and ports in canonical form, or null if invalid */
+    public static Rule canonical(Rule rule) {
+        FlowRule flow = of(rule);
+        if (flow == null) {
+            return null;
+        }
+        return new Rule(rule.getId(), rule.getType(), flow.address(), rule.getDirection(), rule.isEnabled(), flow.protocolName(),
+                flow.anySrcPort() ? "" : portRange(flow.srcFrom(), flow.srcTo(), "-"),
+                flow.anyDstPort() ? "" : portRange(flow.dstFrom(), flow.dstTo(), "-"));
+    }
+
+    public static boolean isFlowRule(Rule rule) {
+        return "FLOW_BLOCK".equals(rule.getType());
+    }
+
+    /** @return the canonical address or prefix, {@link #ANY_ADDRESS}, or null if invalid */
+    static String canonicalAddress(String value) {
+        String text = value == null ? "" : value.trim();
+        if (text.isEmpty() || text.equals(ANY_ADDRESS) || text.equalsIgnoreCase("any")) {
+            return ANY_ADDRESS;
+        }
+        if (text.indexOf('/') >= 0) {
+            IpPrefix prefix = IpPrefix.parse(text);
+            return prefix == null ? null : prefix.toString();
+        }
+        return IpAddresses.parseLiteral(text) == null ? null : IpAddresses.canonical(text);
+    }
+
+    /** Accepts tcp, udp, sctp, icmp, icmpv6, any, or a protocol number. @return -1 if invalid */
+    static int parseProtocol(String text) {
+        String name = text == null ? "" : text.trim().toLowerCase(Locale.ROOT);
+        return switch (name) {
+            case "", "any", "all" -> ANY_PROTOCOL;
+            case "tcp" -> FrameParser.PROTO_TCP;
+            case "udp" -> FrameParser.PROTO_UDP;
+            case "sctp" -> FrameParser.PROTO_SCTP;
+            case "icmp" -> FrameParser.PROTO_ICMP;
+            case "icmpv6" -> FrameParser.PROTO_ICMPV6;
+            default -> {
+                try {
+                    int number = Integer.parseInt(name);
+                    yield number >= 1 && number <= 255 ? number : -1;
+                } catch (NumberFormatException e) {
+                    yield -1;
+                }
+            }
+        };
+    }
+
+    /** Accepts "", "any", "22" or "1000-2000". @return {from, to}, or null if invalid */
+    static int[] parsePorts(String text) {
+        String range = text == null ? "" : text.trim();
+        if (range.isEmpty() || range.equalsIgnoreCase("any")) {
+            return new int[] {0, MAX_PORT};
+        }
+        int dash = range.indexOf('-');
+        try {
+            int from = Integer.parseInt((dash < 0 ? range : range.substring(0, dash)).trim());
+            int to = dash < 0 ? from : Integer.parseInt(range.substring(dash + 1).trim());
+            return from >= 0 && from <= to && to <= MAX_PORT ? new int[] {from, to} : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    static boolean hasPorts(int protocol) {
+        return protocol == FrameParser.PROTO_TCP || protocol == FrameParser.PROTO_UDP || protocol == FrameParser.PROTO_SCTP;
+    }
+
+    public boolean anyAddress() {
+        return address.equals(ANY_ADDRESS);
+    }
+
+    public boolean anySrcPort() {
+        return srcFrom == 0 && srcTo == MAX_PORT;
+    }
+
+    public boolean anyDstPort() {
+        return dstFrom == 0 && dstTo == MAX_PORT;
+    }
+
+    /** @return tcp, udp, sctp, icmp, icmpv6, or the protocol number */
+    public String protocolName() {
+        return switch (protocol) {
+            case FrameParser.PROTO_TCP -> "tcp";
+            case FrameParser.PROTO_UDP -> "udp";
+            case FrameParser.PROTO_SCTP -> "sctp";
+            case FrameParser.PROTO_ICMP -> "icmp";
+            case FrameParser.PROTO_ICMPV6 -> "icmpv6";
+            default -> Integer.toString(protocol);
+        };
+    }
+
+    /** The kernel change for this flow in one direction ("Incoming", "Outgoing" or "Both"). */
+    public FirewallChange change(String direction, boolean block) {
+        return new FirewallChange(address, direction, block, protocolName(),
+                anySrcPort() ? null : portRange(srcFrom, srcTo, ":"),
+                anyDstPort() ? null : portRange(dstFrom, dstTo, ":"));
+    }
+
+    static String portRange(int from, int to, String separator) {
+        return from == to ? Integer.toString(from) : from + separator + to;
+    }
+
+    /** e.g. {@code tcp 10.0.0.5 dport 22}, for logs. */
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        text.append(protocolName()).append(' ').append(address);
+        if (!anySrcPort()) {
+            text.append(" sport ").append(portRange(srcFrom, srcTo, "-"));
+        }
+        if (!anyDstPort()) {
+            text.append(" dport ").append(portRange(dstFrom, dstTo, "-"));
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,269 @@
+package org.jarvis.core;
+
+/**
+ * Reads the link, network and transport headers straight out of a raw captured frame,
+ * without building a pcap4j packet object graph. Addresses are exposed as primitives
+ * (an int for IPv4, two longs for IPv6) so the hot path never allocates.
+ *
+ * An instance holds the result of the last {@link #parse} call and is reused for every
+ * frame, so it is not thread-safe: each thread that analyzes frames owns its own parser.
+ */
+public final class FrameParser {
+
+    // Data link types as reported by libpcap (DLT_* / LINKTYPE_* values).
+    public static final int DLT_NULL = 0;
+    public static final int DLT_EN10MB = 1;
+    public static final int DLT_RAW = 12;
+    // DLT_RAW on OpenBSD.
+    public static final int DLT_RAW_OPENBSD = 14;
+    public static final int LINKTYPE_RAW = 101;
+    // Like DLT_NULL, but the address family is in network byte order.
+    public static final int DLT_LOOP = 108;
+    public static final int DLT_LINUX_SLL = 113;
+
+    public static final int PROTO_ICMP = 1;
+    public static final int PROTO_TCP = 6;
+    public static final int PROTO_UDP = 17;
+    public static final int PROTO_ICMPV6 = 58;
+    public static final int PROTO_SCTP = 132;
+
+    private static final int ETHERTYPE_IPV4 = 0x0800;
+    private static final int ETHERTYPE_IPV6 = 0x86DD;
+    private static final int ETHERTYPE_VLAN = 0x8100;
+    private static final int ETHERTYPE_QINQ = 0x88A8;
+
+    // Loopback address families: AF_INET is 2 everywhere, AF_INET6 is 10 on Linux, 24 on
+    // NetBSD/OpenBSD, 28 on FreeBSD and 30 on macOS.
+    private static final int AF_INET = 2;
+
+    private final int linkType;
+
+    private byte[] frame;
+    private int ipVersion;
+    private int v4Src;
+    private int v4Dst;
+    private long v6SrcHi;
+    private long v6SrcLo;
+    private long v6DstHi;
+    private long v6DstLo;
+    private int protocol;
+    private int srcPort;
+    private int dstPort;
+    private int payloadOffset;
+    private int payloadLength;
+
+    // Scratch result of locateNetworkHeader(): the ethertype of the network header.
+    private int networkType;
+
+    public FrameParser(int linkType) {
+        this.linkType = linkType;
+    }
+
+    public static boolean isSupportedLinkType(int linkType) {
+        return linkType == DLT_EN10MB || linkType == DLT_LINUX_SLL || linkType == DLT_RAW
+                || linkType == DLT_RAW_OPENBSD || linkType == LINKTYPE_RAW || linkType == DLT_NULL
+                || linkType == DLT_LOOP;
+    }
+
+    /**
+     * Parses the frame in {@code frame[offset, offset + length)}.
+     *
+     * @return true if an IPv4 or IPv6 header was found; the accessors are only meaningful then.
+     */
+    public boolean parse(byte[] frame, int offset, int length) {
+        this.frame = frame;
+        ipVersion = 0;
+        protocol = -1;
+        srcPort = -1;
+        dstPort = -1;
+        payloadOffset = -1;
+        payloadLength = 0;
+
+        int pos = locateNetworkHeader(frame, offset, length);
+        if (pos < 0) {
+            return false;
+        }
+        int end = offset + length;
+        if (networkType == ETHERTYPE_IPV4) {
+            return parseIpV4(frame, pos, end);
+        } else if (networkType == ETHERTYPE_IPV6) {
+            return parseIpV6(frame, pos, end);
+        }
+        return false;
+    }
+
+    /**
+     * Hashes the source address of the frame without parsing anything past it. Used to shard
+     * frames across analyzer workers so that every packet from one source lands on the same worker.
+     * Does not change the results of the last {@link #parse} call except for internal scratch state.
+     */
+    public int sourceHash(byte[] frame, int offset, int length) {
+        int pos = locateNetworkHeader(frame, offset, length);
+        int end = offset + length;
+        if (pos >= 0 && networkType == ETHERTYPE_IPV4 && pos + 16 <= end) {
+            return RuleIndex.hash(i32(frame, pos + 12));
+        }
+        if (pos >= 0 && networkType == ETHERTYPE_IPV6 && pos + 24 <= end) {
+            return RuleIndex.hash(i64(frame, pos + 8), i64(frame, pos + 16));
+        }
+        return 0;
+    }
+
+    /** @return the offset of the IP header, or -1 if the link header is truncated. */
+    private int locateNetworkHeader(byte[] frame, int offset, int length) {
+        int end = offset + length;
+        int pos = offset;
+        int etherType;
+
+        switch (linkType) {
+            case DLT_EN10MB -> {
+                if (length < 14) return -1;
+                etherType = u16(frame, pos + 12);
+                pos += 14;
+                while ((etherType == ETHERTYPE_VLAN || etherType == ETHERTYPE_QINQ) && pos + 4 <= end) {
+                    etherType = u16(frame, pos + 2);
+                    pos += 4;
+                }
+            }
+            case DLT_LINUX_SLL -> {
+                if (length < 16) return -1;
+                etherType = u16(frame, pos + 14);
+                pos += 16;
+            }
+            case DLT_NULL, DLT_LOOP -> {
+                // 4-byte address family in host (DLT_NULL) or network (DLT_LOOP) byte order. Every
+                // family fits in one byte, so the other three are zero whichever the order.
+                if (length < 4) return -1;
+                int family = (frame[pos] & 0xFF) | (frame[pos + 3] & 0xFF);
+                if (family == AF_INET) {
+                    etherType = ETHERTYPE_IPV4;
+                } else if (family == 10 || family == 24 || family == 28 || family == 30) {
+                    etherType = ETHERTYPE_IPV6;
+                } else {
+                    return -1;
+                }
+                pos += 4;
+            }
+            default -> {
+                // Raw IP: the version nibble tells us which header follows.
+                if (length < 1) return -1;
+                etherType = (frame[pos] & 0xF0) == 0x60 ? ETHERTYPE_IPV6 : ETHERTYPE_IPV4;
+            }
+        }
+        networkType = etherType;
+        return pos;
+    }
+
+    private boolean parseIpV4(byte[] frame, int pos, int end) {
+        if (pos + 20 > end || (frame[pos] & 0xF0) != 0x40) return false;
+        int headerLength = (frame[pos] & 0x0F) * 4;
+        if (headerLength < 20) return false;
+
+        ipVersion = 4;
+        protocol = frame[pos + 9] & 0xFF;
+        v4Src = i32(frame, pos + 12);
+        v4Dst = i32(frame, pos + 16);
+
+        // Only the first fragment carries the transport header.
+        int fragmentOffset = u16(frame, pos + 6) & 0x1FFF;
+        if (fragmentOffset == 0) {
+            int totalLength = u16(frame, pos + 2);
+            int ipEnd = totalLength >= headerLength ? Math.min(end, pos + totalLength) : end;
+            parseTransport(frame, pos + headerLength, ipEnd);
+        }
+        return true;
+    }
+
+    private boolean parseIpV6(byte[] frame, int pos, int end) {
+        if (pos + 40 > end || (frame[pos] & 0xF0) != 0x60) return false;
+
+        ipVersion = 6;
+        v6SrcHi = i64(frame, pos + 8);
+        v6SrcLo = i64(frame, pos + 16);
+        v6DstHi = i64(frame, pos + 24);
+        v6DstLo = i64(frame, pos + 32);
+
+        int ipEnd = Math.min(end, pos + 40 + u16(frame, pos + 4));
+        int nextHeader = frame[pos + 6] & 0xFF;
+        pos += 40;
+
+        // Walk the extension header chain until we reach the upper-layer protocol.
+        while (true) {
+            switch (nextHeader) {
+                case 0, 43, 60 -> { // Hop-by-hop, routing, destination options
+                    if (pos + 8 > ipEnd) { protocol = nextHeader; return true; }
+                    int extLength = ((frame[pos + 1] & 0xFF) + 1) * 8;
+                    nextHeader = frame[pos] & 0xFF;
+                    pos += extLength;
+                }
+                case 44 -> { // Fragment
+                    if (pos + 8 > ipEnd) { protocol = nextHeader; return true; }
+                    boolean first = (u16(frame, pos + 2) & 0xFFF8) == 0;
+                    nextHeader = frame[pos] & 0xFF;
+                    pos += 8;
+                    if (!first) { protocol = nextHeader; return true; }
+                }
+                case 51 -> { // Authentication header
+                    if (pos + 8 > ipEnd) { protocol = nextHeader; return true; }
+                    int extLength = ((frame[pos + 1] & 0xFF) + 2) * 4;
+                    nextHeader = frame[pos] & 0xFF;
+                    pos += extLength;
+                }
+                default -> {
+                    protocol = nextHeader;
+                    parseTransport(frame, pos, ipEnd);
+                    return true;
+                }
+            }
+        }
+    }
+
+    private void parseTransport(byte[] frame, int pos, int end) {
+        if (protocol == PROTO_TCP) {
+            if (pos + 20 > end) return;
+            srcPort = u16(frame, pos);
+            dstPort = u16(frame, pos + 2);
+            int dataOffset = ((frame[pos + 12] & 0xF0) >>> 4) * 4;
+            payloadOffset = pos + Math.max(20, dataOffset);
+        } else if (protocol == PROTO_UDP || protocol == PROTO_SCTP) {
+            if (pos + 8 > end) return;
+            srcPort = u16(frame, pos);
+            dstPort = u16(frame, pos + 2);
+            payloadOffset = pos + (protocol == PROTO_UDP ? 8 : 12);
+        } else {
+            payloadOffset = pos;
+        }
+        payloadLength = Math.max(0, end - payloadOffset);
+    }
+
+    // --- Results of the last parse() ---
+    /** The array passed to the last {@link #parse} call; payload offsets index into it. */
+    public byte[] getFrame() { return frame; }
+    public int getIpVersion() { return ipVersion; }
+    public int getV4Src() { return v4Src; }
+    public int getV4Dst() { return v4Dst; }
+    public long getV6SrcHi() { return v6SrcHi; }
+    public long getV6SrcLo() { return v6SrcLo; }
+    public long getV6DstHi() { return v6DstHi; }
+    public long getV6DstLo() { return v6DstLo; }
+    public int getProtocol() { return protocol; }
+    /** Source port for TCP/UDP/SCTP, or -1 if there is none (or the frame was truncated). */
+    public int getSrcPort() { return srcPort; }
+    public int getDstPort() { return dstPort; }
+    /** Offset of the transport payload in the frame array, or -1 if it could not be located. */
+    public int getPayloadOffset() { return payloadOffset; }
+    public int getPayloadLength() { return payloadLength; }
+
+    // --- Big-endian readers ---
+    static int u16(byte[] b, int i) {
+        return ((b[i] & 0xFF) << 8) | (b[i + 1] & 0xFF);
+    }
+
+    static int i32(byte[] b, int i) {
+        return ((b[i] & 0xFF) << 24) | ((b[i + 1] & 0xFF) << 16) | ((b[i + 2] & 0xFF) << 8) | (b[i + 3] & 0xFF);
+    }
+
+    static long i64(byte[] b, int i) {
+        return ((long) i32(b, i) << 32) | (i32(b, i + 4) & 0xFFFFFFFFL);
+    }
+}
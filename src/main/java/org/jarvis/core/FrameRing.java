@@ -0,0 +1,81 @@
+package org.jarvis.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Single-producer / single-consumer ring of captured frames.
+ *
+ * All storage is allocated up front: one contiguous arena split into fixed-size slots, plus a
+ * length per slot. The producer (the capture thread) copies a frame into the next free slot;
+ * the consumer (one analyzer worker) reads it in place and then releases the slot. Frames
+ * longer than a slot are truncated, which only loses payload bytes the analyzer never reads.
+ *
+ * No locks: the two sides only communicate through the head and tail counters, published with
+ * release/acquire ordering.
+ */
+final class FrameRing {
+
+    private final byte[] arena;
+    private final int[] lengths;
+    private final int slotBytes;
+    private final int mask;
+
+    // Next slot the consumer will read. Written only by the consumer.
+    private final AtomicLong head = new AtomicLong();
+    // Next slot the producer will write. Written only by the producer.
+    private final AtomicLong tail = new AtomicLong();
+
+    // Producer-local copy of head, refreshed only when the ring looks full.
+    private long cachedHead;
+
+    FrameRing(int capacity, int slotBytes) {
+        if (Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Ring capacity must be a power of two: " + capacity);
+        }
+        this.arena = new byte[capacity * slotBytes];
+        this.lengths = new int[capacity];
+        this.slotBytes = slotBytes;
+        this.mask = capacity - 1;
+    }
+
+    /** Producer side. @return false if the ring is full and the frame was not queued. */
+    boolean offer(byte[] frame, int length) {
+        long t = tail.get();
+        if (t - cachedHead > mask) {
+            cachedHead = head.getAcquire();
+            if (t - cachedHead > mask) {
+                return false;
+            }
+        }
+        int slot = (int) (t & mask);
+        int copied = Math.min(length, slotBytes);
+        System.arraycopy(frame, 0, arena, slot * slotBytes, copied);
+        lengths[slot] = copied;
+        tail.setRelease(t + 1);
+        return true;
+    }
+
+    /**
+     * Consumer side: hands the oldest frame to the worker and releases its slot.
+     *
+     * @return false if the ring was empty.
+     */
+    boolean poll(PacketAnalyzer analyzer, FrameParser parser) {
+        long h = head.get();
+        if (h == tail.getAcquire()) {
+            return false;
+        }
+        int slot = (int) (h & mask);
+        analyzer.analyzeFrame(parser, arena, slot * slotBytes, lengths[slot]);
+        head.setRelease(h + 1);
+        return true;
+    }
+
+    int size() {
+        return (int) (tail.get() - head.get());
+    }
+
+    int capacity() {
+        return mask + 1;
+    }
+}
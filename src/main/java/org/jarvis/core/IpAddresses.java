@@ -0,0 +1,145 @@
+package org.jarvis.core;
+
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Conversions between textual IP addresses and the primitive keys used on the capture path:
+ * an {@code int} for IPv4 and a pair of {@code long}s (high and low 64 bits) for IPv6.
+ */
+public final class IpAddresses {
+
+    private IpAddresses() {
+    }
+
+    /**
+     * Parses a literal IPv4 or IPv6 address into its 4 or 16 network-order bytes.
+     * Never performs a DNS lookup. An IPv4-mapped IPv6 address ({@code ::ffff:a.b.c.d}) is the
+     * IPv4 address it maps, so both spellings give the same key.
+     *
+     * @return the address bytes, or null if the text is not an IP literal.
+     */
+    public static byte[] parseLiteral(String text) {
+        if (text == null) return null;
+        String s = text.trim();
+        if (s.isEmpty()) return null;
+        if (s.indexOf(':') >= 0) {
+            // The brackets make InetAddress reject anything that is not an IPv6 literal instead of
+            // resolving it. It already returns the 4 bytes of an IPv4-mapped address.
+            String bracketed = s.startsWith("[") ? s : "[" + s + "]";
+            try {
+                return InetAddress.getByName(bracketed).getAddress();
+            } catch (UnknownHostException | SecurityException e) {
+                return null;
+            }
+        }
+        return parseV4Bytes(s);
+    }
+
+    private static byte[] parseV4Bytes(String s) {
+        byte[] out = new byte[4];
+        int part = 0;
+        int value = -1;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c >= '0' && c <= '9') {
+                value = (value < 0 ? 0 : value * 10) + (c - '0');
+                if (value > 255) return null;
+            } else if (c == '.' && value >= 0 && part < 3) {
+                out[part++] = (byte) value;
+                value = -1;
+            } else {
+                return null;
+            }
+        }
+        if (part != 3 || value < 0) return null;
+        out[3] = (byte) value;
+        return out;
+    }
+
+    public static boolean isIpLiteral(String text) {
+        return parseLiteral(text) != null;
+    }
+
+    public static int v4Key(byte[] bytes) {
+        return FrameParser.i32(bytes, 0);
+    }
+
+    public static long v6High(byte[] bytes) {
+        return FrameParser.i64(bytes, 0);
+    }
+
+    public static long v6Low(byte[] bytes) {
+        return FrameParser.i64(bytes, 8);
+    }
+
+    public static String v4ToString(int address) {
+        return (address >>> 24) + "." + ((address >>> 16) & 0xFF) + "." + ((address >>> 8) & 0xFF) + "." + (address & 0xFF);
+    }
+
+    /**
+     * Formats an IPv6 key in the RFC 5952 form: lowercase hex without leading zeros, and the
+     * longest run of two or more zero groups (the first of equally long ones) written as "::".
+     * Rule values, BPF terms and firewall arguments all use this form, so they compare equal.
+     */
+    public static String v6ToString(long high, long low) {
+        int[] groups = new int[8];
+        for (int i = 0; i < 8; i++) {
+            long word = i < 4 ? high : low;
+            groups[i] = (int) (word >>> (48 - 16 * (i & 3))) & 0xFFFF;
+        }
+        int zerosStart = -1;
+        int zerosLength = 1;
+        for (int i = 0; i < 8; i++) {
+            int j = i;
+            while (j < 8 && groups[j] == 0) j++;
+            if (j - i > zerosLength) {
+                zerosStart = i;
+                zerosLength = j - i;
+            }
+            i = j;
+        }
+        StringBuilder sb = new StringBuilder(39);
+        for (int i = 0; i < 8; i++) {
+            if (i == zerosStart) {
+                sb.append("::");
+                i += zerosLength - 1;
+                continue;
+            }
+            if (i > 0 && i != zerosStart + zerosLength) sb.append(':');
+            sb.append(Integer.toHexString(groups[i]));
+        }
+        return sb.toString();
+    }
+
+    /** Normalizes an IP literal to the form used for display and for rule values. */
+    public static String canonical(String text) {
+        byte[] bytes = parseLiteral(text);
+        if (bytes == null) return text;
+        return bytes.length == 4 ? v4ToString(v4Key(bytes)) : v6ToString(v6High(bytes), v6Low(bytes));
+    }
+
+    /**
+     * The addresses of this host's network interfaces, in canonical form, without IPv6 zone ids.
+     *
+     * @return an empty list if the interfaces cannot be listed
+     */
+    public static List<String> localAddresses() {
+        List<String> addresses = new ArrayList<>();
+        try {
+            for (NetworkInterface nif : Collections.list(NetworkInterface.getNetworkInterfaces())) {
+                for (InetAddress address : Collections.list(nif.getInetAddresses())) {
+                    addresses.add(canonical(address.getHostAddress().replaceAll("%.*$", "")));
+                }
+            }
+        } catch (SocketException e) {
+            System.err.println("Could not list local addresses: " + e.getMessage());
+        }
+        return addresses;
+    }
+}
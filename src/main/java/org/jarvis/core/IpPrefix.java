@@ -0,0 +1,86 @@
+package org.jarvis.core;
+
+/**
+ * An IPv4 or IPv6 network in CIDR notation, e.g. {@code 10.0.0.0/16} or {@code 2001:db8::/48}.
+ *
+ * The address is kept as a left-aligned 128-bit key (high, low): IPv6 uses all of it, IPv4
+ * occupies the top 32 bits of {@code high}. Host bits beyond the prefix length are cleared.
+ */
+public final class IpPrefix {
+
+    private final boolean v6;
+    private final long high;
+    private final long low;
+    private final int length;
+
+    private IpPrefix(boolean v6, long high, long low, int length) {
+        this.v6 = v6;
+        this.high = high;
+        this.low = low;
+        this.length = length;
+    }
+
+    /**
+     * Parses {@code address/length}. The address may have host bits set; they are masked off.
+     * An IPv4-mapped prefix such as {@code ::ffff:10.0.0.0/104} is the IPv4 prefix it maps.
+     *
+     * @return the prefix, or null if the text is not a valid CIDR block.
+     */
+    public static IpPrefix parse(String text) {
+        if (text == null) return null;
+        int slash = text.indexOf('/');
+        if (slash <= 0 || slash == text.length() - 1) return null;
+
+        byte[] bytes = IpAddresses.parseLiteral(text.substring(0, slash));
+        if (bytes == null) return null;
+
+        int length;
+        try {
+            length = Integer.parseInt(text.substring(slash + 1).trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        if (bytes.length == 4 && text.lastIndexOf(':', slash) >= 0) {
+            // Mapped: the length counts the 96 bits of the ::ffff: prefix.
+            length -= 96;
+        }
+        int maxLength = bytes.length * 8;
+        if (length < 0 || length > maxLength) return null;
+
+        if (bytes.length == 4) {
+            long high = (IpAddresses.v4Key(bytes) & 0xFFFFFFFFL) << 32;
+            return new IpPrefix(false, high & mask(length), 0L, length);
+        }
+        long high = IpAddresses.v6High(bytes);
+        long low = IpAddresses.v6Low(bytes);
+        return new IpPrefix(true, high & mask(length), low & mask(length - 64), length);
+    }
+
+    /** For keys that are already masked, e.g. read back from a {@link RuleSnapshot}. */
+    static IpPrefix of(boolean v6, long high, long low, int length) {
+        return new IpPrefix(v6, high, low, length);
+    }
+
+    public static boolean isCidr(String text) {
+        return parse(text) != null;
+    }
+
+    /** A mask with the top {@code bits} bits set (clamped to 0..64). */
+    static long mask(int bits) {
+        if (bits <= 0) return 0L;
+        if (bits >= 64) return -1L;
+        return -1L << (64 - bits);
+    }
+
+    public boolean isV6() { return v6; }
+    public long getHigh() { return high; }
+    public long getLow() { return low; }
+    public int getLength() { return length; }
+
+    /** Canonical text form; this is what gets stored as the rule value and handed to the firewall. */
+    @Override
+    public String toString() {
+        String address = v6 ? IpAddresses.v6ToString(high, low) : IpAddresses.v4ToString((int) (high >>> 32));
+        return address + "/" + length;
+    }
+}
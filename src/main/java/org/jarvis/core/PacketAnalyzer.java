@@ -1,103 +1,890 @@
 package org.jarvis.core;
 
+import org.jarvis.enforcer.EnforcementQueue;
+import org.jarvis.enforcer.FirewallChange;
 import org.jarvis.enforcer.FirewallManager;
+import org.jarvis.enforcer.FirewallReconciler;
+import org.jarvis.metrics.MetricsRegistry;
+import org.jarvis.metrics.StageMetrics;
 import org.jarvis.model.Rule;
+import org.jarvis.persistence.BlockRollups;
 import org.jarvis.persistence.DatabaseManager;
 import org.jarvis.ui.MainViewController;
 import org.pcap4j.core.PacketListener;
+import org.pcap4j.core.RawPacketListener;
 import org.pcap4j.packet.IpV4Packet;
 import org.pcap4j.packet.IpV6Packet;
 import org.pcap4j.packet.Packet;
+import org.pcap4j.packet.TcpPacket;
+import org.pcap4j.packet.UdpPacket;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.stream.Collectors;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
 
-public class PacketAnalyzer implements PacketListener {
+public class PacketAnalyzer implements PacketListener, RawPacketListener {
+
+    private static final int DNS_PORT = 53;
+    // Learn the addresses of blocked domains from DNS responses; -Dsentinel.dns.sniff.enabled=false turns it off.
+    private static final boolean DNS_SNIFFING = Boolean.parseBoolean(System.getProperty("sentinel.dns.sniff.enabled", "true"));
+    // Direction blocked for addresses learned from DNS.
+    private static final String DNS_DIRECTION = System.getProperty("sentinel.dns.sniff.direction", "Both");
+    // Auto-block floods and port scans from sources without a rule; off unless -Dsentinel.detect.enabled=true.
+    private static final boolean DETECTION = Boolean.getBoolean("sentinel.detect.enabled");
+    // How long an automatic block lasts; 0 keeps it until it is deleted.
+    private static final long DETECTION_BAN_SECONDS = Long.getLong("sentinel.detect.banSeconds", 3600);
 
     private final FirewallManager firewallManager;
+    private final EnforcementQueue enforcementQueue;
     private final DatabaseManager databaseManager;
     private final MainViewController uiController;
-    private final Map<String, Rule> rulesMap;
     private final Set<String> alreadyBlocked;
 
+    // Readers take the current snapshot without locking; writers publish a new one under the monitor.
+    private volatile RuleIndex ruleIndex;
+    private final List<Consumer<RuleIndex>> ruleChangeListeners = new CopyOnWriteArrayList<>();
+    // Packets that hit a rule, including repeats of an address that is already blocked.
+    private final LongAdder matchCount = new LongAdder();
+    // The same matches over time, by direction and rule type.
+    private final BlockRollups rollups;
+    // DOMAIN_BLOCK values; the matcher is rebuilt from them under the monitor and read without locking.
+    private final Set<String> blockedDomainValues = new HashSet<>();
+    private volatile DomainMatcher blockedDomains = DomainMatcher.empty();
+    // FLOW_BLOCK rules, published like the rule index.
+    private volatile FlowClassifier flows = FlowClassifier.empty();
+    private final DnsBlockTracker dnsTracker;
+    private final DetectionEngine detector;
+    private final RuleExpiry expiry;
+    // Null when snapshots are turned off.
+    private final RuleSnapshot snapshot;
+
+    // Only touched by the capture thread.
+    private FrameParser rawParser = new FrameParser(FrameParser.DLT_EN10MB);
+
     public PacketAnalyzer(MainViewController uiController) {
+        this(uiController, new FirewallManager(), DatabaseManager.getInstance());
+    }
+
+    /** @param uiController may be null when running headless, e.g. for a pcap replay. */
+    public PacketAnalyzer(MainViewController uiController, FirewallManager firewallManager, DatabaseManager databaseManager) {
         this.uiController = uiController;
-        this.firewallManager = new FirewallManager();
-        this.databaseManager = new DatabaseManager();
+        this.firewallManager = firewallManager;
+        this.enforcementQueue = EnforcementQueue.fromSystemProperties(firewallManager);
+        this.databaseManager = databaseManager;
         this.alreadyBlocked = Collections.synchronizedSet(new HashSet<>());
+        this.rollups = databaseManager.getBlockRollups();
+        this.expiry = RuleExpiry.fromSystemProperties(this::expireRules);
+        this.snapshot = RuleSnapshot.fromSystemProperties(databaseManager);
 
-        Set<Rule> activeRules = databaseManager.getAllActiveRules();
-        this.rulesMap = activeRules.stream()
-                .collect(Collectors.toConcurrentMap(Rule::getValue, rule -> rule));
+        // With a current snapshot, only the rules it does not hold come from the database.
+        RuleIndex compiled = snapshot != null ? snapshot.load() : null;
+        List<Rule> addressRules = new ArrayList<>();
+        List<FlowRule> flowRules = new ArrayList<>();
+        // Temporary rules are rescheduled; those that expired while Sentinel was down go on the first tick.
+        for (Rule rule : compiled != null ? databaseManager.getRulesOutsideSnapshot() : databaseManager.getAllActiveRules()) {
+            if (isDomainRule(rule)) {
+                blockedDomainValues.add(rule.getValue());
+            } else if (FlowRule.isFlowRule(rule)) {
+                addFlow(rule, flowRules);
+                expiry.schedule(rule);
+            } else {
+                addressRules.add(rule);
+                expiry.schedule(rule);
+            }
+        }
+        this.ruleIndex = compiled != null ? compiled : RuleIndex.of(addressRules);
+        this.flows = FlowClassifier.of(flowRules);
+        this.blockedDomains = DomainMatcher.of(blockedDomainValues);
+        this.dnsTracker = DNS_SNIFFING ? DnsBlockTracker.fromSystemProperties(new DnsListener()) : null;
+        this.detector = DETECTION ? DetectionEngine.fromSystemProperties(this::autoBlock) : null;
+        MetricsRegistry.getInstance().counterFunction("sentinel_rule_matches_total",
+                "Packet addresses that matched a rule, including already blocked ones.", this::getMatchCount);
+        MetricsRegistry.getInstance().gauge("sentinel_rules", "Rules in the active rule index.", () -> ruleIndex.size());
+        MetricsRegistry.getInstance().gauge("sentinel_flow_rules", "Rules in the active flow classifier.", () -> flows.size());
 
-        System.out.println("Analyzer initialized with " + rulesMap.size() + " rules from database.");
+        if (snapshot != null) {
+            if (compiled == null) {
+                snapshot.scheduleRebuild();
+            }
+            addRuleChangeListener(index -> snapshot.scheduleRebuild());
+        }
+
+        System.out.println("Analyzer initialized with " + ruleIndex.size() + " rules, " + flows.size()
+                + " flow rules and " + blockedDomains.size() + " blocked domains from database.");
+    }
+
+    /**
+     * Sets the data link type of the frames passed to {@link #gotPacket(byte[])}.
+     * Must be called before the capture loop starts.
+     */
+    public void setLinkType(int linkType) {
+        this.rawParser = new FrameParser(linkType);
     }
 
     @Override
     public void gotPacket(Packet packet) {
+        StageMetrics.FRAMES.increment();
         String srcIp = null;
         String dstIp = null;
+        int protocol = -1;
 
         // Check for IPv4
         IpV4Packet ipV4Packet = packet.get(IpV4Packet.class);
         if (ipV4Packet != null) {
             srcIp = ipV4Packet.getHeader().getSrcAddr().getHostAddress();
             dstIp = ipV4Packet.getHeader().getDstAddr().getHostAddress();
+            protocol = ipV4Packet.getHeader().getProtocol().value() & 0xFF;
         } else {
             // If not IPv4, check for IPv6
             IpV6Packet ipV6Packet = packet.get(IpV6Packet.class);
             if (ipV6Packet != null) {
-                srcIp = ipV6Packet.getHeader().getSrcAddr().getHostAddress();
-                dstIp = ipV6Packet.getHeader().getDstAddr().getHostAddress();
+                // Same form as the raw fast path reports.
+                srcIp = IpAddresses.canonical(ipV6Packet.getHeader().getSrcAddr().getHostAddress());
+                dstIp = IpAddresses.canonical(ipV6Packet.getHeader().getDstAddr().getHostAddress());
+                protocol = ipV6Packet.getHeader().getNextHeader().value() & 0xFF;
             }
         }
 
+        UdpPacket udp = packet.get(UdpPacket.class);
+        TcpPacket tcp = udp == null ? packet.get(TcpPacket.class) : null;
+        int srcPort = -1;
+        int dstPort = -1;
+        if (udp != null) {
+            protocol = FrameParser.PROTO_UDP; // the IPv6 next header may be an extension header
+            srcPort = udp.getHeader().getSrcPort().valueAsInt();
+            dstPort = udp.getHeader().getDstPort().valueAsInt();
+        } else if (tcp != null) {
+            protocol = FrameParser.PROTO_TCP;
+            srcPort = tcp.getHeader().getSrcPort().valueAsInt();
+            dstPort = tcp.getHeader().getDstPort().valueAsInt();
+        }
+
         if (srcIp != null && dstIp != null) {
             // Check for incoming traffic
-            checkAndBlock(srcIp, "Incoming");
+            boolean sourceMatched = checkAndBlock(srcIp, "Incoming");
             // Check for outgoing traffic
-            checkAndBlock(dstIp, "Outgoing");
+            boolean destinationMatched = checkAndBlock(dstIp, "Outgoing");
+            if (flows.size() > 0) {
+                if (!sourceMatched) {
+                    sourceMatched = checkFlow(srcIp, RuleIndex.INCOMING, protocol, srcPort, dstPort);
+                }
+                if (!destinationMatched) {
+                    checkFlow(dstIp, RuleIndex.OUTGOING, protocol, srcPort, dstPort);
+                }
+            }
+            if (detector != null && !sourceMatched) {
+                observe(srcIp, dstPort);
+            }
+        }
+
+        if (dnsTracker != null && blockedDomains.size() > 0 && srcIp != null && dstIp != null
+                && (srcPort == DNS_PORT || dstPort == DNS_PORT)) {
+            Packet segment = udp != null ? udp.getPayload() : tcp != null ? tcp.getPayload() : null;
+            if (segment != null) {
+                byte[] payload = segment.getRawData();
+                // Queries this host sends, and only the answers addressed back to it.
+                if (dstPort == DNS_PORT && dnsTracker.isLocal(srcIp)) {
+                    dnsTracker.inspectQuery(payload, 0, payload.length, tcp != null);
+                } else if (srcPort == DNS_PORT && dnsTracker.isLocal(dstIp)) {
+                    dnsTracker.inspect(payload, 0, payload.length, tcp != null, blockedDomains);
+                }
+            }
         }
     }
 
-    private void checkAndBlock(String ip, String direction) {
-        if (rulesMap.containsKey(ip)) {
-            Rule matchedRule = rulesMap.get(ip);
-            String ruleDirection = matchedRule.getDirection();
+    /**
+     * Fast path: reads the addresses straight from the frame bytes and looks them up as
+     * primitives. A String is only built once a rule has matched.
+     */
+    @Override
+    public void gotPacket(byte[] frame) {
+        analyzeFrame(rawParser, frame, 0, frame.length);
+    }
 
-            if (direction.equalsIgnoreCase(ruleDirection) || "Both".equalsIgnoreCase(ruleDirection)) {
-                String blockKey = ip + ":" + direction;
-                if (alreadyBlocked.add(blockKey)) {
-                    String logMsg = String.format("!!! MATCH FOUND !!! Blocking %s traffic for IP: %s", direction, ip);
-                    System.out.println(logMsg);
-                    if (uiController != null) {
-                        uiController.addLogMessage(logMsg);
-                    }
-                    firewallManager.blockIp(ip, direction);
-                    // Update logEvent call to include the direction
-                    databaseManager.logEvent("IP_BLOCKED", direction, "Blocked incoming packet from source IP: " + ip);
+    public void analyzeFrame(FrameParser parser, byte[] frame, int offset, int length) {
+        StageMetrics.FRAMES.increment();
+        if (!StageMetrics.sample()) {
+            if (parser.parse(frame, offset, length)) {
+                analyzeParsed(parser);
+            } else {
+                StageMetrics.FRAMES_UNPARSED.increment();
+            }
+            return;
+        }
+        long start = System.nanoTime();
+        boolean parsed = parser.parse(frame, offset, length);
+        long parsedAt = System.nanoTime();
+        StageMetrics.PARSE.record(parsedAt - start);
+        if (parsed) {
+            analyzeParsed(parser);
+            StageMetrics.LOOKUP.record(System.nanoTime() - parsedAt);
+        } else {
+            StageMetrics.FRAMES_UNPARSED.increment();
+        }
+    }
+
+    /** Matches the addresses of a frame the parser has just parsed successfully. */
+    public void analyzeParsed(FrameParser parser) {
+        if (parser.getIpVersion() == 4) {
+            boolean sourceMatched = checkAndBlockV4(parser.getV4Src(), RuleIndex.INCOMING);
+            boolean destinationMatched = checkAndBlockV4(parser.getV4Dst(), RuleIndex.OUTGOING);
+            FlowClassifier classifier = flows;
+            if (classifier.size() > 0) {
+                if (!sourceMatched) {
+                    sourceMatched = checkFlow(classifier.matchV4(parser.getV4Src(), RuleIndex.INCOMING,
+                            parser.getProtocol(), parser.getSrcPort(), parser.getDstPort()), RuleIndex.INCOMING, parser);
+                }
+                if (!destinationMatched) {
+                    checkFlow(classifier.matchV4(parser.getV4Dst(), RuleIndex.OUTGOING,
+                            parser.getProtocol(), parser.getSrcPort(), parser.getDstPort()), RuleIndex.OUTGOING, parser);
+                }
+            }
+            if (detector != null && !sourceMatched) {
+                detector.observeV4(parser.getV4Src(), parser.getDstPort());
+            }
+        } else {
+            boolean sourceMatched = checkAndBlockV6(parser.getV6SrcHi(), parser.getV6SrcLo(), RuleIndex.INCOMING);
+            boolean destinationMatched = checkAndBlockV6(parser.getV6DstHi(), parser.getV6DstLo(), RuleIndex.OUTGOING);
+            FlowClassifier classifier = flows;
+            if (classifier.size() > 0) {
+                if (!sourceMatched) {
+                    sourceMatched = checkFlow(classifier.matchV6(parser.getV6SrcHi(), parser.getV6SrcLo(), RuleIndex.INCOMING,
+                            parser.getProtocol(), parser.getSrcPort(), parser.getDstPort()), RuleIndex.INCOMING, parser);
+                }
+                if (!destinationMatched) {
+                    checkFlow(classifier.matchV6(parser.getV6DstHi(), parser.getV6DstLo(), RuleIndex.OUTGOING,
+                            parser.getProtocol(), parser.getSrcPort(), parser.getDstPort()), RuleIndex.OUTGOING, parser);
+                }
+            }
+            if (detector != null && !sourceMatched) {
+                detector.observeV6(parser.getV6SrcHi(), parser.getV6SrcLo(), parser.getDstPort());
+            }
+        }
+        if (dnsTracker != null && (parser.getSrcPort() == DNS_PORT || parser.getDstPort() == DNS_PORT)
+                && parser.getPayloadLength() > 0) {
+            DomainMatcher domains = blockedDomains;
+            if (domains.size() > 0) {
+                inspectDns(parser, domains);
+            }
+        }
+    }
+
+    // Records the queries this host sends and inspects only the answers addressed back to it.
+    private void inspectDns(FrameParser parser, DomainMatcher domains) {
+        boolean v4 = parser.getIpVersion() == 4;
+        boolean tcp = parser.getProtocol() == FrameParser.PROTO_TCP;
+        if (parser.getDstPort() == DNS_PORT && (v4 ? dnsTracker.isLocalV4(parser.getV4Src())
+                : dnsTracker.isLocalV6(parser.getV6SrcHi(), parser.getV6SrcLo()))) {
+            dnsTracker.inspectQuery(parser.getFrame(), parser.getPayloadOffset(), parser.getPayloadLength(), tcp);
+        } else if (parser.getSrcPort() == DNS_PORT && (v4 ? dnsTracker.isLocalV4(parser.getV4Dst())
+                : dnsTracker.isLocalV6(parser.getV6DstHi(), parser.getV6DstLo()))) {
+            dnsTracker.inspect(parser.getFrame(), parser.getPayloadOffset(), parser.getPayloadLength(), tcp, domains);
+        }
+    }
+
+    private boolean checkAndBlockV4(int address, byte direction) {
+        RuleIndex index = ruleIndex;
+        if ((index.lookupV4(address) & direction) != 0) {
+            countMatch(direction, BlockRollups.IP);
+            String ip = IpAddresses.v4ToString(address);
+            block(ip, directionName(direction), ip);
+            return true;
+        }
+        PrefixTrie.Node prefix = index.longestPrefixV4(address, direction);
+        if (prefix != null) {
+            countMatch(direction, BlockRollups.CIDR);
+            block(prefix.getValue(), directionName(direction), IpAddresses.v4ToString(address));
+            return true;
+        }
+        return false;
+    }
+
+    private boolean checkAndBlockV6(long high, long low, byte direction) {
+        RuleIndex index = ruleIndex;
+        if ((index.lookupV6(high, low) & direction) != 0) {
+            countMatch(direction, BlockRollups.IP);
+            String ip = IpAddresses.v6ToString(high, low);
+            block(ip, directionName(direction), ip);
+            return true;
+        }
+        PrefixTrie.Node prefix = index.longestPrefixV6(high, low, direction);
+        if (prefix != null) {
+            countMatch(direction, BlockRollups.CIDR);
+            block(prefix.getValue(), directionName(direction), IpAddresses.v6ToString(high, low));
+            return true;
+        }
+        return false;
+    }
+
+    private void countMatch(byte direction, int ruleType) {
+        matchCount.increment();
+        rollups.record(direction == RuleIndex.INCOMING, ruleType);
+    }
+
+    private static String directionName(byte direction) {
+        return direction == RuleIndex.INCOMING ? "Incoming" : "Outgoing";
+    }
+
+    private boolean checkAndBlock(String ip, String direction) {
+        byte[] bytes = IpAddresses.parseLiteral(ip);
+        if (bytes == null) {
+            return false;
+        }
+        byte mask = RuleIndex.directionMask(direction);
+        if (bytes.length == 4) {
+            return checkAndBlockV4(IpAddresses.v4Key(bytes), mask);
+        }
+        return checkAndBlockV6(IpAddresses.v6High(bytes), IpAddresses.v6Low(bytes), mask);
+    }
+
+    // Fast path: a String is only built for the log once a flow rule has matched.
+    private boolean checkFlow(FlowRule rule, byte direction, FrameParser parser) {
+        if (rule == null) {
+            return false;
+        }
+        countMatch(direction, BlockRollups.FLOW);
+        boolean v4 = parser.getIpVersion() == 4;
+        String ip = direction == RuleIndex.INCOMING
+                ? (v4 ? IpAddresses.v4ToString(parser.getV4Src()) : IpAddresses.v6ToString(parser.getV6SrcHi(), parser.getV6SrcLo()))
+                : (v4 ? IpAddresses.v4ToString(parser.getV4Dst()) : IpAddresses.v6ToString(parser.getV6DstHi(), parser.getV6DstLo()));
+        blockFlow(rule, directionName(direction), ip);
+        return true;
+    }
+
+    private boolean checkFlow(String ip, byte direction, int protocol, int srcPort, int dstPort) {
+        byte[] bytes = IpAddresses.parseLiteral(ip);
+        if (bytes == null) {
+            return false;
+        }
+        FlowRule rule = bytes.length == 4
+                ? flows.matchV4(IpAddresses.v4Key(bytes), direction, protocol, srcPort, dstPort)
+                : flows.matchV6(IpAddresses.v6High(bytes), IpAddresses.v6Low(bytes), direction, protocol, srcPort, dstPort);
+        if (rule == null) {
+            return false;
+        }
+        countMatch(direction, BlockRollups.FLOW);
+        blockFlow(rule, directionName(direction), ip);
+        return true;
+    }
+
+    private void observe(String ip, int dstPort) {
+        byte[] bytes = IpAddresses.parseLiteral(ip);
+        if (bytes == null) {
+            return;
+        }
+        if (bytes.length == 4) {
+            detector.observeV4(IpAddresses.v4Key(bytes), dstPort);
+        } else {
+            detector.observeV6(IpAddresses.v6High(bytes), IpAddresses.v6Low(bytes), dstPort);
+        }
+    }
+
+    /**
+     * @param target the address or CIDR prefix of the matched rule; this is what gets enforced
+     * @param ip     the packet address that triggered the match
+     */
+    private void block(String target, String direction, String ip) {
+        String blockKey = target + ":" + direction;
+        if (alreadyBlocked.add(blockKey)) {
+            String logMsg = target.equals(ip)
+                    ? String.format("!!! MATCH FOUND !!! Blocking %s traffic for IP: %s", direction, ip)
+                    : String.format("!!! MATCH FOUND !!! Blocking %s traffic for network: %s (seen %s)", direction, target, ip);
+            System.out.println(logMsg);
+            if (uiController != null) {
+                uiController.addLogMessage(logMsg);
+            }
+            // A CIDR match installs the whole prefix as a single kernel rule. The queue applies it
+            // off this thread; if it is full, forget the match so a later packet retries.
+            if (!enforcementQueue.submitBlock(target, direction)) {
+                alreadyBlocked.remove(blockKey);
+                System.err.println("Enforcement queue full; deferred block of " + target);
+                return;
+            }
+            // Update logEvent call to include the direction
+            databaseManager.logEvent("IP_BLOCKED", direction, "Blocked incoming packet from source IP: " + ip, ip);
+        }
+    }
+
+    // Installs the flow's kernel rule for the direction it was seen in, once.
+    private void blockFlow(FlowRule rule, String direction, String ip) {
+        String blockKey = flowKey(rule, direction);
+        if (alreadyBlocked.add(blockKey)) {
+            String logMsg = String.format("!!! MATCH FOUND !!! Blocking %s flow %s (seen %s)", direction, rule, ip);
+            System.out.println(logMsg);
+            if (uiController != null) {
+                uiController.addLogMessage(logMsg);
+            }
+            if (!enforcementQueue.submit(rule.change(direction, true))) {
+                alreadyBlocked.remove(blockKey);
+                System.err.println("Enforcement queue full; deferred block of flow " + rule);
+                return;
+            }
+            databaseManager.logEvent("IP_BLOCKED", direction, "Blocked " + rule + " flow for IP: " + ip, ip);
+        }
+    }
+
+    private static String flowKey(FlowRule rule, String direction) {
+        return "flow " + rule + " " + rule.directions() + ":" + direction;
+    }
+
+    /**
+     * Makes the kernel enforce every address and flow rule now, and removes Sentinel's kernel
+     * rules that none of them calls for, e.g. after a crash or a reboot. Call before packets are
+     * delivered. Blocks in place afterwards are not enforced again on their first match; the
+     * rest still are.
+     */
+    public void reconcileFirewall() {
+        // Each kernel block, with the alreadyBlocked keys a match on it would use.
+        Map<FirewallChange, List<String>> blockKeys = new HashMap<>();
+        RuleIndex index = ruleIndex;
+        index.forEachV4((address, dirs) -> addBlocks(blockKeys, IpAddresses.v4ToString(address), dirs));
+        index.forEachV6((high, low, dirs) -> addBlocks(blockKeys, IpAddresses.v6ToString(high, low), dirs));
+        index.forEachPrefix(node -> addBlocks(blockKeys, node.getValue(), node.getDirections()));
+        for (FlowRule flow : flows.rules()) {
+            for (byte dir : new byte[] {RuleIndex.INCOMING, RuleIndex.OUTGOING}) {
+                if ((flow.directions() & dir) != 0) {
+                    blockKeys.computeIfAbsent(flow.change(directionName(dir), true), c -> new ArrayList<>())
+                            .add(flowKey(flow, directionName(dir)));
                 }
             }
         }
+        FirewallReconciler.Result result = firewallManager.reconcile(blockKeys.keySet());
+        for (FirewallChange change : result.enforced()) {
+            alreadyBlocked.addAll(blockKeys.get(change));
+        }
+        databaseManager.logEvent("FIREWALL_RECONCILED", "Both", result.toString());
+    }
+
+    private static void addBlocks(Map<FirewallChange, List<String>> blockKeys, String target, byte directions) {
+        for (byte dir : new byte[] {RuleIndex.INCOMING, RuleIndex.OUTGOING}) {
+            if ((directions & dir) != 0) {
+                blockKeys.computeIfAbsent(FirewallChange.block(target, directionName(dir)), c -> new ArrayList<>())
+                        .add(target + ":" + directionName(dir));
+            }
+        }
     }
 
     public void addRule(Rule rule) {
-        rulesMap.put(rule.getValue(), rule);
+        applyRules(List.of(rule));
         System.out.println("New rule added to analyzer: " + rule.getValue());
     }
 
-    public void removeRule(String ruleValue) {
-        rulesMap.remove(ruleValue);
-        alreadyBlocked.remove(ruleValue + ":Incoming");
-        alreadyBlocked.remove(ruleValue + ":Outgoing");
-        System.out.println("Rule removed from analyzer: " + ruleValue);
+    /** Adds many rules with a single snapshot rebuild and a single change notification. */
+    public void addRules(Collection<Rule> rules) {
+        if (rules.isEmpty()) {
+            return;
+        }
+        applyRules(rules);
+        System.out.println(rules.size() + " new rules added to analyzer.");
+    }
+
+    // Address rules go into the rule index, DOMAIN_BLOCK rules into the domain matcher and
+    // FLOW_BLOCK rules into the flow classifier.
+    private void applyRules(Collection<Rule> rules) {
+        List<Rule> addressRules = new ArrayList<>(rules.size());
+        List<String> domains = new ArrayList<>();
+        List<FlowRule> flowRules = new ArrayList<>();
+        for (Rule rule : rules) {
+            if (isDomainRule(rule)) {
+                domains.add(rule.getValue());
+            } else if (FlowRule.isFlowRule(rule)) {
+                addFlow(rule, flowRules);
+                expiry.schedule(rule);
+            } else {
+                addressRules.add(rule);
+                expiry.schedule(rule);
+            }
+        }
+        RuleIndex previous;
+        RuleIndex updated;
+        synchronized (this) {
+            previous = ruleIndex;
+            updated = ruleIndex = ruleIndex.with(addressRules);
+            flows = flows.with(flowRules);
+            if (blockedDomainValues.addAll(domains)) {
+                blockedDomains = DomainMatcher.of(blockedDomainValues);
+            }
+        }
+        if (dnsTracker != null) {
+            // A permanent rule now covers these; they must not expire with their DNS record.
+            List<String> values = new ArrayList<>(addressRules.size());
+            for (Rule rule : addressRules) {
+                values.add(IpAddresses.canonical(rule.getValue()));
+            }
+            dnsTracker.release(values);
+        }
+        notifyRuleChange(updated);
+
+        // Re-adding a rule with fewer directions replaces it; lift the directions it dropped.
+        List<String> narrowed = new ArrayList<>();
+        for (Rule rule : addressRules) {
+            if ((previous.directionsOf(rule.getValue()) & ~updated.directionsOf(rule.getValue())) != 0) {
+                narrowed.add(rule.getValue());
+            }
+        }
+        List<FirewallChange> unblocks = new ArrayList<>();
+        forgetAddresses(narrowed, updated, unblocks);
+        if (!unblocks.isEmpty() && !enforcementQueue.applyNow(unblocks).isEmpty()) {
+            System.err.println("Some kernel blocks of narrowed rules could not be lifted.");
+        }
+    }
+
+    /**
+     * Applies a feed import: publishes one snapshot with {@code added} and without
+     * {@code removed}, then hands the firewall one batch. Values must be canonical, as produced
+     * by {@link Blocklist#values()}.
+     *
+     * In ipset mode the added entries are installed right away, since the whole batch is a single
+     * {@code ipset restore}. In iptables mode they are enforced on first match like any other IP
+     * rule, because a DROP rule per feed entry is exactly the cost ipset mode avoids.
+     */
+    public void importRules(Collection<String> added, Collection<String> removed, String direction) {
+        boolean eager = firewallManager.getMode() == FirewallManager.Mode.IPSET;
+        List<FirewallChange> changes = new ArrayList<>();
+        for (String value : removed) {
+            for (String dir : List.of("Incoming", "Outgoing")) {
+                // A stale ipset entry from before a restart is not in alreadyBlocked; deleting it is free.
+                if (alreadyBlocked.remove(value + ":" + dir) || eager) {
+                    changes.add(FirewallChange.unblock(value, dir));
+                }
+            }
+            if (detector != null) {
+                detector.forget(value);
+            }
+        }
+        if (eager) {
+            byte mask = RuleIndex.directionMask(direction);
+            for (String value : added) {
+                for (String dir : List.of("Incoming", "Outgoing")) {
+                    // Marked before the snapshot is published, so a match does not queue the same block.
+                    if ((RuleIndex.directionMask(dir) & mask) != 0 && alreadyBlocked.add(value + ":" + dir)) {
+                        changes.add(FirewallChange.block(value, dir));
+                    }
+                }
+            }
+        }
+        RuleIndex updated;
+        synchronized (this) {
+            updated = ruleIndex = ruleIndex.without(removed).with(added, direction);
+        }
+        if (dnsTracker != null) {
+            dnsTracker.release(added);
+        }
+        notifyRuleChange(updated);
+        if (!changes.isEmpty() && !firewallManager.apply(changes)) {
+            System.err.println("Some of the " + changes.size() + " firewall changes of the import failed.");
+        }
+    }
+
+    private static void addFlow(Rule rule, List<FlowRule> flowRules) {
+        FlowRule flow = FlowRule.of(rule);
+        if (flow != null) {
+            flowRules.add(flow);
+        } else {
+            System.err.println("Ignoring invalid flow rule: " + rule.getProtocol() + " " + rule.getValue()
+                    + " sport " + rule.getSrcPorts() + " dport " + rule.getDstPorts());
+        }
+    }
+
+    /**
+     * Removes one rule of any kind and lifts its kernel blocks; FLOW_BLOCK rules are identified
+     * by all of their fields.
+     *
+     * @return false if some of its kernel blocks could not be lifted
+     */
+    public boolean removeRule(Rule rule) {
+        return removeRules(List.of(rule));
+    }
+
+    /**
+     * Removes many rules of any kind with a single snapshot and a single change notification,
+     * then lifts the kernel blocks they installed in firewall batches of the enforcement
+     * queue's batch size, rather than queueing one unblock per rule.
+     *
+     * @return false if some of their kernel blocks could not be lifted
+     */
+    public boolean removeRules(Collection<Rule> rules) {
+        if (rules.isEmpty()) {
+            return true;
+        }
+        List<String> addresses = new ArrayList<>();
+        List<String> domains = new ArrayList<>();
+        List<FlowRule> flowRules = new ArrayList<>();
+        for (Rule rule : rules) {
+            if (isDomainRule(rule)) {
+                domains.add(rule.getValue());
+            } else if (FlowRule.isFlowRule(rule)) {
+                expiry.cancel(rule);
+                FlowRule flow = FlowRule.of(rule);
+                if (flow != null) {
+                    flowRules.add(flow);
+                }
+            } else {
+                expiry.cancelAddress(rule.getValue());
+                addresses.add(rule.getValue());
+            }
+        }
+        RuleIndex updated;
+        synchronized (this) {
+            if (!addresses.isEmpty()) {
+                ruleIndex = ruleIndex.without(addresses);
+            }
+            if (!flowRules.isEmpty()) {
+                flows = flows.without(flowRules);
+            }
+            if (blockedDomainValues.removeAll(domains)) {
+                blockedDomains = DomainMatcher.of(blockedDomainValues);
+            }
+            updated = ruleIndex;
+        }
+        List<String> normalizedDomains = new ArrayList<>(domains.size());
+        for (String domain : domains) {
+            String normalized = DomainMatcher.normalize(domain);
+            if (normalized != null) {
+                normalizedDomains.add(normalized);
+            }
+        }
+        if (dnsTracker != null && !normalizedDomains.isEmpty()) {
+            dnsTracker.forgetDomains(normalizedDomains);
+        }
+        notifyRuleChange(updated);
+
+        List<FirewallChange> changes = new ArrayList<>();
+        forgetAddresses(addresses, updated, changes);
+        for (FlowRule flow : flowRules) {
+            for (String direction : List.of("Incoming", "Outgoing")) {
+                if (alreadyBlocked.remove(flowKey(flow, direction))) {
+                    changes.add(flow.change(direction, false));
+                }
+            }
+        }
+        System.out.println(rules.size() + " rules removed from analyzer.");
+        if (changes.isEmpty()) {
+            return true;
+        }
+        List<FirewallChange> failed = enforcementQueue.applyNow(changes);
+        if (!failed.isEmpty()) {
+            System.err.println(failed.size() + " of " + changes.size() + " kernel blocks could not be lifted.");
+        }
+        return failed.isEmpty();
+    }
+
+    // Returns the kernel blocks to lift, for the caller to apply.
+    private List<FirewallChange> removeAddresses(Collection<String> ruleValues) {
+        RuleIndex updated;
+        synchronized (this) {
+            updated = ruleIndex = ruleIndex.without(ruleValues);
+        }
+        notifyRuleChange(updated);
+        List<FirewallChange> unblocks = new ArrayList<>();
+        forgetAddresses(ruleValues, updated, unblocks);
+        return unblocks;
+    }
+
+    // Forgets the blocks of removed address rules and adds an unblock for each one the analyzer
+    // enforced. In ipset mode every direction is unblocked, since a stale set entry from before
+    // a restart is not in alreadyBlocked and deleting a missing one is free. A direction that
+    // the updated index still blocks for the same value, e.g. because the rule was added again,
+    // keeps its kernel block.
+    private void forgetAddresses(Collection<String> ruleValues, RuleIndex updated, List<FirewallChange> unblocks) {
+        boolean eager = firewallManager.getMode() == FirewallManager.Mode.IPSET;
+        for (String ruleValue : ruleValues) {
+            // Matches are reported in canonical form, which may differ from what the user typed.
+            IpPrefix prefix = IpPrefix.parse(ruleValue);
+            String canonical = prefix != null ? prefix.toString() : IpAddresses.canonical(ruleValue);
+            byte remaining = updated.directionsOf(canonical);
+            for (String direction : List.of("Incoming", "Outgoing")) {
+                if ((RuleIndex.directionMask(direction) & remaining) != 0) {
+                    continue;
+                }
+                boolean blocked = alreadyBlocked.remove(ruleValue + ":" + direction);
+                blocked |= alreadyBlocked.remove(canonical + ":" + direction);
+                if (blocked || eager) {
+                    unblocks.add(FirewallChange.unblock(canonical, direction));
+                }
+            }
+            if (detector != null && remaining == RuleIndex.NONE) {
+                detector.forget(canonical);
+            }
+        }
+    }
+
+    // Runs on the detection thread. The block is stored as an ordinary IP rule that expires after
+    // sentinel.detect.banSeconds, so it survives a restart and can be lifted from the rules table
+    // like any other. An address that already has a rule, even a disabled one, keeps it as it is:
+    // the ban would otherwise change its directions and its expiry would delete it.
+    private void autoBlock(String address, String reason) {
+        if (ruleIndex.directionsOf(address) != RuleIndex.NONE) {
+            return;
+        }
+        Rule rule = new Rule(0, "IP_BLOCK", address, "Incoming", true);
+        if (DETECTION_BAN_SECONDS > 0) {
+            rule.setExpiresAt(System.currentTimeMillis() / 1000 + DETECTION_BAN_SECONDS);
+        }
+        if (!databaseManager.addRuleIfAbsent(rule)) {
+            return;
+        }
+        if (DETECTION_BAN_SECONDS > 0) {
+            expiry.schedule(rule);
+        }
+        RuleIndex updated;
+        synchronized (this) {
+            updated = ruleIndex = ruleIndex.with(rule);
+        }
+        if (dnsTracker != null) {
+            dnsTracker.release(List.of(address));
+        }
+        notifyRuleChange(updated);
+        enforcementQueue.submitBlock(address, "Incoming");
+        String logMsg = "Automatically blocked " + address + " (" + reason + ")";
+        databaseManager.logEvent("AUTO_BLOCK", "Incoming", logMsg, address);
+        System.out.println(logMsg);
+        if (uiController != null) {
+            uiController.addLogMessage(logMsg);
+        }
+    }
+
+    // Runs on the expiry thread: lifts the rules from the analyzer and the kernel, then drops
+    // them from the rules table. Only blocks this analyzer enforced and the new index no longer
+    // calls for are lifted.
+    private void expireRules(List<Rule> rules) {
+        removeRules(rules);
+        databaseManager.deleteExpiredRules(System.currentTimeMillis() / 1000);
+        String logMsg = "Lifted " + rules.size() + " temporary rule(s) after their TTL expired.";
+        System.out.println(logMsg);
+        if (uiController != null) {
+            uiController.addLogMessage(logMsg);
+            uiController.refreshRules();
+        }
+    }
+
+    private static boolean isDomainRule(Rule rule) {
+        return "DOMAIN_BLOCK".equals(rule.getType());
+    }
+
+    /** Blocks addresses learned from DNS right away, and lifts the block when their TTL runs out. */
+    private final class DnsListener implements DnsBlockTracker.Listener {
+        @Override
+        public void learned(List<String> addresses) {
+            RuleIndex index = ruleIndex;
+            List<Rule> rules = new ArrayList<>(addresses.size());
+            List<String> covered = new ArrayList<>();
+            for (String address : addresses) {
+                byte[] bytes = IpAddresses.parseLiteral(address);
+                byte blocked = bytes.length == 4
+                        ? index.lookupV4(IpAddresses.v4Key(bytes))
+                        : index.lookupV6(IpAddresses.v6High(bytes), IpAddresses.v6Low(bytes));
+                if (blocked != RuleIndex.NONE) {
+                    covered.add(address); // has a permanent rule; expiring ours would remove it
+                } else {
+                    rules.add(new Rule(0, "IP_BLOCK", address, DNS_DIRECTION, true));
+                }
+            }
+            dnsTracker.release(covered);
+            if (rules.isEmpty()) {
+                return;
+            }
+            RuleIndex updated;
+            synchronized (PacketAnalyzer.this) {
+                updated = ruleIndex = ruleIndex.with(rules);
+            }
+            notifyRuleChange(updated);
+            // Recorded per direction like a packet match, so a later packet does not queue the
+            // block again and expired() knows what to lift.
+            for (Rule rule : rules) {
+                for (String direction : List.of("Incoming", "Outgoing")) {
+                    if ((RuleIndex.directionMask(DNS_DIRECTION) & RuleIndex.directionMask(direction)) != 0
+                            && alreadyBlocked.add(rule.getValue() + ":" + direction)
+                            && !enforcementQueue.submitBlock(rule.getValue(), direction)) {
+                        alreadyBlocked.remove(rule.getValue() + ":" + direction);
+                    }
+                }
+            }
+            String logMsg = "Learned " + rules.size() + " new address(es) of blocked domains from DNS answers.";
+            System.out.println(logMsg);
+            if (uiController != null) {
+                uiController.addLogMessage(logMsg);
+            }
+        }
+
+        @Override
+        public void expired(List<String> addresses) {
+            List<FirewallChange> unblocks = removeAddresses(addresses);
+            if (!unblocks.isEmpty()) {
+                List<FirewallChange> failed = enforcementQueue.applyNow(unblocks);
+                if (!failed.isEmpty()) {
+                    System.err.println(failed.size() + " of " + unblocks.size() + " kernel blocks could not be lifted.");
+                }
+            }
+            System.out.println("Unblocked " + addresses.size() + " address(es) learned from DNS after their TTL expired.");
+        }
+    }
+
+    /** Registers a callback that receives every newly published rule snapshot. */
+    public void addRuleChangeListener(Consumer<RuleIndex> listener) {
+        ruleChangeListeners.add(listener);
+    }
+
+    private void notifyRuleChange(RuleIndex updated) {
+        for (Consumer<RuleIndex> listener : ruleChangeListeners) {
+            listener.accept(updated);
+        }
+    }
+
+    public long getMatchCount() {
+        return matchCount.sum();
+    }
+
+    public RuleIndex getRuleIndex() {
+        return ruleIndex;
     }
 
     public FirewallManager getFirewallManager() {
         return this.firewallManager;
     }
-}
\ No newline at end of file
+
+    public EnforcementQueue getEnforcementQueue() {
+        return this.enforcementQueue;
+    }
+
+    /** @return the detection engine, or null if detection is off */
+    public DetectionEngine getDetectionEngine() {
+        return detector;
+    }
+
+    public FlowClassifier getFlowClassifier() {
+        return flows;
+    }
+
+    public DomainMatcher getBlockedDomains() {
+        return blockedDomains;
+    }
+
+    /** True when DNS responses should reach the analyzer, i.e. sniffing is on and a domain is blocked. */
+    public boolean isSniffingDns() {
+        return dnsTracker != null && blockedDomains.size() > 0;
+    }
+
+    /** Applies any enforcement still queued. Call after packet delivery has stopped. */
+    public void shutdown() {
+        if (dnsTracker != null) {
+            dnsTracker.shutdown();
+        }
+        if (detector != null) {
+            detector.shutdown();
+        }
+        expiry.shutdown();
+        if (snapshot != null) {
+            snapshot.shutdown();
+        }
+        enforcementQueue.shutdown();
+    }
+}
@@ -1,15 +1,62 @@
 package org.jarvis.core;
 
+import org.jarvis.enforcer.DryRunCommandRunner;
+import org.jarvis.enforcer.EnforcementQueue;
 import org.jarvis.enforcer.FirewallManager;
+import org.jarvis.metrics.MetricsRegistry;
+import org.jarvis.persistence.DatabaseManager;
 import org.pcap4j.core.*;
 import org.jarvis.ui.MainViewController;
 
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Opens the capture handle, or replays pcap files, and feeds every frame to the
+ * {@link PacketAnalyzer}, either on the pcap callback thread or through a {@link PacketPipeline}.
+ *
+ * With {@code sentinel.bpf.enabled} the ruleset is compiled into a kernel capture filter by
+ * {@link BpfFilterCompiler} and recompiled whenever the rules change. That filter only admits
+ * traffic that can match a rule, so it is not installed while the detection engine runs
+ * ({@code sentinel.detect.enabled}): detection has to see sources that no rule mentions yet.
+ */
 public class PacketListenerService {
 
+    // Parse headers straight from the raw frame bytes instead of building pcap4j packet objects.
+    // Disable with -Dsentinel.capture.fastPath=false to fall back to the pcap4j decoder.
+    private static final boolean FAST_PATH = Boolean.parseBoolean(System.getProperty("sentinel.capture.fastPath", "true"));
+    // Hand raw frames to a pool of analyzer workers instead of analyzing on the pcap callback thread.
+    private static final boolean PIPELINE = Boolean.parseBoolean(System.getProperty("sentinel.pipeline.enabled", "true"));
+    // Compile the ruleset into a kernel capture filter so unrelated traffic never reaches userspace.
+    private static final boolean KERNEL_FILTER = Boolean.parseBoolean(System.getProperty("sentinel.bpf.enabled", "true"));
+    private static final int KERNEL_FILTER_MAX_TERMS = Integer.getInteger("sentinel.bpf.maxTerms", 256);
+    private static final long FILTER_UPDATE_DELAY_MS = 200;
+    // Comma-separated pcap/pcapng files to replay instead of capturing live; enforcement is dry-run.
+    private static final String REPLAY_FILES = System.getProperty("sentinel.capture.replay", "");
+    private static final long PCAP_STATS_INTERVAL_MS = 1000;
+    // Install the rules table into the kernel at startup and drop Sentinel's stale kernel rules.
+    private static final boolean RECONCILE = Boolean.parseBoolean(System.getProperty("sentinel.enforcer.reconcile", "true"));
+    private static final boolean REPLAY_ORIGINAL_TIMING = "original".equalsIgnoreCase(System.getProperty("sentinel.replay.timing"));
+
     private PcapHandle handle;
     private Thread listenerThread;
     private MainViewController uiController;
     private PacketAnalyzer analyzer;
+    private PacketPipeline pipeline;
+    private final BpfFilterCompiler filterCompiler = new BpfFilterCompiler(KERNEL_FILTER_MAX_TERMS);
+    private final AtomicBoolean filterUpdatePending = new AtomicBoolean();
+    private ScheduledExecutorService filterUpdater;
+    private String installedFilter;
+    private ScheduledExecutorService statsPoller;
+    // Last values read from pcap_stats(); the metrics endpoint reads these rather than the handle.
+    private final AtomicLong pcapReceived = new AtomicLong();
+    private final AtomicLong pcapDropped = new AtomicLong();
+    private final AtomicLong pcapIfDropped = new AtomicLong();
 
     public PacketListenerService(MainViewController uiController) {
         this.uiController = uiController;
@@ -21,6 +68,10 @@ public class PacketListenerService {
 
     public void start() {
         System.out.println("Starting Packet Listener Service...");
+        if (!REPLAY_FILES.isBlank()) {
+            startReplay();
+            return;
+        }
         try {
             // 1. Find the network interface
             PcapNetworkInterface nif = findNetworkInterface();
@@ -33,12 +84,32 @@ public class PacketListenerService {
             // 2. Open the handle
             this.handle = openPcapHandle(nif);
 
+            startStatsPoller();
+
             // 3. Create the analyzer and start the listening loop on a new thread
             this.analyzer = new PacketAnalyzer(this.uiController);
+            if (RECONCILE) {
+                analyzer.reconcileFirewall();
+            }
+            if (KERNEL_FILTER) {
+                startKernelFilter();
+            }
+            boolean fastPath = FAST_PATH && useFastPath();
+            System.out.println("Packet decoding mode: " + (fastPath ? "raw fast path" : "pcap4j decoder"));
+            if (fastPath && PIPELINE) {
+                this.pipeline = PacketPipeline.fromSystemProperties(analyzer, handle.getDlt().value());
+                pipeline.start();
+            }
             listenerThread = new Thread(() -> {
                 try {
                     // A value of -1 means loop indefinitely
-                    handle.loop(-1, analyzer);
+                    if (pipeline != null) {
+                        handle.loop(-1, pipeline);
+                    } else if (fastPath) {
+                        handle.loop(-1, (RawPacketListener) analyzer);
+                    } else {
+                        handle.loop(-1, (PacketListener) analyzer);
+                    }
                 } catch (PcapNativeException | InterruptedException | NotOpenException e) {
                     System.err.println("Packet listening loop was interrupted.");
                     e.printStackTrace();
@@ -54,6 +125,26 @@ public class PacketListenerService {
         }
     }
 
+    // Replay mode: no interface, no root. Blocks are reported to the UI but never reach the firewall.
+    private void startReplay() {
+        List<String> files = Arrays.stream(REPLAY_FILES.split(",")).map(String::trim).filter(f -> !f.isEmpty()).toList();
+        FirewallManager dryRun = new FirewallManager(new DryRunCommandRunner(false), FirewallManager.Mode.fromSystemProperties());
+        this.analyzer = new PacketAnalyzer(this.uiController, dryRun, DatabaseManager.getInstance());
+        PacketReplayer replayer = new PacketReplayer(analyzer,
+                REPLAY_ORIGINAL_TIMING ? PacketReplayer.Timing.ORIGINAL : PacketReplayer.Timing.FAST);
+        listenerThread = new Thread(() -> {
+            try {
+                replayer.replay(files).print(System.out);
+            } catch (PcapNativeException | NotOpenException e) {
+                System.err.println("Pcap replay failed.");
+                e.printStackTrace();
+            }
+        }, "sentinel-replay");
+        listenerThread.setDaemon(true);
+        listenerThread.start();
+        System.out.println("Replaying " + files.size() + " capture file(s) with dry-run enforcement...");
+    }
+
     public void stop() {
         if (handle != null && handle.isOpen()) {
             try {
@@ -71,12 +162,110 @@ public class PacketListenerService {
                 Thread.currentThread().interrupt();
             }
         }
+        if (filterUpdater != null) {
+            filterUpdater.shutdownNow();
+        }
+        if (statsPoller != null) {
+            statsPoller.shutdownNow();
+        }
+        if (pipeline != null) {
+            pipeline.stop();
+        }
+        if (analyzer != null) {
+            analyzer.shutdown();
+        }
         if (handle != null && handle.isOpen()){
             handle.close();
         }
         System.out.println("Service stopped.");
     }
 
+    // Kernel-side counters: packets the filter accepted, and packets lost because the capture
+    // buffer (dropped) or the interface driver (ifdropped) could not keep up.
+    private void startStatsPoller() {
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        metrics.counterFunction("sentinel_pcap_received_total", "Packets received by the capture filter.", pcapReceived::get);
+        metrics.counterFunction("sentinel_pcap_dropped_total", "Packets dropped because the capture buffer was full.", pcapDropped::get);
+        metrics.counterFunction("sentinel_pcap_if_dropped_total", "Packets dropped by the network interface or its driver.", pcapIfDropped::get);
+        statsPoller = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "sentinel-pcap-stats");
+            t.setDaemon(true);
+            return t;
+        });
+        statsPoller.scheduleAtFixedRate(this::pollPcapStats, 0, PCAP_STATS_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private void pollPcapStats() {
+        try {
+            PcapStat stats = handle.getStats();
+            pcapReceived.set(stats.getNumPacketsReceived());
+            pcapDropped.set(stats.getNumPacketsDropped());
+            pcapIfDropped.set(stats.getNumPacketsDroppedByIf());
+        } catch (PcapNativeException | NotOpenException e) {
+            // The handle is closing or the platform has no stats; keep the last values.
+        }
+    }
+
+    private void startKernelFilter() {
+        if (analyzer.getDetectionEngine() != null) {
+            System.out.println("Kernel capture filter disabled: the detection engine needs traffic from every source.");
+            return;
+        }
+        filterUpdater = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "sentinel-bpf-updater");
+            t.setDaemon(true);
+            return t;
+        });
+        installFilter(analyzer.getRuleIndex());
+        analyzer.addRuleChangeListener(index -> scheduleFilterUpdate());
+    }
+
+    // Bulk rule changes (e.g. a keyword block) arrive in bursts; recompile once per burst.
+    private void scheduleFilterUpdate() {
+        if (filterUpdatePending.compareAndSet(false, true)) {
+            filterUpdater.schedule(() -> {
+                filterUpdatePending.set(false);
+                installFilter(analyzer.getRuleIndex());
+            }, FILTER_UPDATE_DELAY_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // pcap_setfilter replaces the kernel program in one step, so packets never see a half-built filter.
+    private synchronized void installFilter(RuleIndex index) {
+        String expression = filterCompiler.compile(index, analyzer.getFlowClassifier(), analyzer.isSniffingDns());
+        if (expression.equals(installedFilter)) {
+            return;
+        }
+        try {
+            handle.setFilter(expression, BpfProgram.BpfCompileMode.OPTIMIZE);
+            installedFilter = expression;
+            if (expression.isEmpty()) {
+                System.out.println("Kernel capture filter disabled (" + index.size() + " rules); matching in userspace.");
+            } else {
+                System.out.println("Installed kernel capture filter for " + index.size() + " rules.");
+            }
+        } catch (PcapNativeException | NotOpenException e) {
+            System.err.println("Failed to install kernel capture filter; falling back to userspace matching.");
+            e.printStackTrace();
+            try {
+                handle.setFilter(BpfFilterCompiler.MATCH_EVERYTHING, BpfProgram.BpfCompileMode.OPTIMIZE);
+                installedFilter = BpfFilterCompiler.MATCH_EVERYTHING;
+            } catch (PcapNativeException | NotOpenException ignored) {
+                // Keep whatever filter the kernel still has.
+            }
+        }
+    }
+
+    // The raw parser understands only a handful of link layers; anything else goes through pcap4j.
+    private boolean useFastPath() {
+        int linkType = handle.getDlt().value();
+        if (FrameParser.isSupportedLinkType(linkType)) {
+            analyzer.setLinkType(linkType);
+            return true;
+        }
+        return false;
+    }
+
     private PcapNetworkInterface findNetworkInterface() throws PcapNativeException {
         return Pcaps.findAllDevs().stream()
                 .filter(dev -> !dev.isLoopBack())
@@ -91,6 +280,17 @@ public class PacketListenerService {
         return nif.openLive(snapLen, mode, timeout);
     }
 
+    public PacketPipeline getPipeline() {
+        return this.pipeline;
+    }
+
+    public EnforcementQueue getEnforcementQueue() {
+        if (analyzer != null) {
+            return analyzer.getEnforcementQueue();
+        }
+        return null;
+    }
+
     // Getter to expose the FirewallManager to the UI controller
     public FirewallManager getFirewallManager() {
         if (analyzer != null) {
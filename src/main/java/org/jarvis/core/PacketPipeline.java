@@ -0,0 +1,142 @@
+package org.jarvis.core;
+
+import org.jarvis.metrics.MetricsRegistry;
+import org.jarvis.metrics.StageMetrics;
+import org.pcap4j.core.RawPacketListener;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Decouples packet capture from packet analysis.
+ *
+ * The capture thread calls {@link #gotPacket(byte[])}, which only hashes the source address and
+ * copies the frame into that shard's preallocated {@link FrameRing}. Each of the N worker threads
+ * drains exactly one ring, so every packet from a given source is analyzed by the same worker and
+ * per-IP state stays single-writer. When a ring is full the frame is dropped and counted instead
+ * of stalling the capture thread, which would only move the loss into the kernel buffer.
+ *
+ * Settings (system properties):
+ * sentinel.pipeline.workers   number of analyzer workers (default: min(4, CPU count))
+ * sentinel.pipeline.depth     frames buffered per worker, rounded up to a power of two (default 4096)
+ * sentinel.pipeline.slotBytes bytes kept per frame (default 2048)
+ */
+public class PacketPipeline implements RawPacketListener {
+
+    private static final int SPINS_BEFORE_PARK = 100;
+    private static final long PARK_NANOS = 50_000;
+
+    private final PacketAnalyzer analyzer;
+    private final int linkType;
+    private final FrameRing[] rings;
+    private final Thread[] workers;
+    private final FrameParser shardParser;
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong accepted = new AtomicLong();
+    private volatile boolean running;
+
+    public PacketPipeline(PacketAnalyzer analyzer, int linkType, int workerCount, int depth, int slotBytes) {
+        if (workerCount < 1) {
+            throw new IllegalArgumentException("At least one worker is required");
+        }
+        this.analyzer = analyzer;
+        this.linkType = linkType;
+        this.shardParser = new FrameParser(linkType);
+        this.rings = new FrameRing[workerCount];
+        this.workers = new Thread[workerCount];
+        int capacity = Integer.highestOneBit(Math.max(2, depth - 1)) << 1;
+        for (int i = 0; i < workerCount; i++) {
+            rings[i] = new FrameRing(capacity, slotBytes);
+        }
+    }
+
+    public static PacketPipeline fromSystemProperties(PacketAnalyzer analyzer, int linkType) {
+        int defaultWorkers = Math.min(4, Runtime.getRuntime().availableProcessors());
+        int workers = Integer.getInteger("sentinel.pipeline.workers", defaultWorkers);
+        int depth = Integer.getInteger("sentinel.pipeline.depth", 4096);
+        int slotBytes = Integer.getInteger("sentinel.pipeline.slotBytes", 2048);
+        return new PacketPipeline(analyzer, linkType, workers, depth, slotBytes);
+    }
+
+    public void start() {
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        metrics.counterFunction("sentinel_pipeline_accepted_total", "Frames queued for an analyzer worker.", this::getAcceptedCount);
+        metrics.counterFunction("sentinel_pipeline_dropped_total", "Frames dropped because a worker queue was full.", this::getDroppedCount);
+        metrics.gauge("sentinel_pipeline_queued", "Frames waiting in the worker queues.", this::getQueuedCount);
+        running = true;
+        for (int i = 0; i < workers.length; i++) {
+            FrameRing ring = rings[i];
+            workers[i] = new Thread(() -> runWorker(ring), "sentinel-analyzer-" + i);
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+        System.out.println("Packet pipeline started: " + workers.length + " workers, "
+                + rings[0].capacity() + " frames per worker.");
+    }
+
+    /** Stops the workers after they have drained what is already queued. */
+    public void stop() {
+        running = false;
+        for (Thread worker : workers) {
+            if (worker == null) continue;
+            LockSupport.unpark(worker);
+            try {
+                worker.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        System.out.println("Packet pipeline stopped. Accepted: " + accepted.get() + ", dropped (queue full): " + dropped.get());
+    }
+
+    // Capture thread: shard and copy, nothing else.
+    @Override
+    public void gotPacket(byte[] frame) {
+        long start = StageMetrics.sample() ? System.nanoTime() : 0;
+        int shard = (shardParser.sourceHash(frame, 0, frame.length) & Integer.MAX_VALUE) % rings.length;
+        if (rings[shard].offer(frame, frame.length)) {
+            accepted.lazySet(accepted.get() + 1);
+        } else {
+            dropped.lazySet(dropped.get() + 1);
+        }
+        if (start != 0) {
+            StageMetrics.CAPTURE.record(System.nanoTime() - start);
+        }
+    }
+
+    private void runWorker(FrameRing ring) {
+        FrameParser parser = new FrameParser(linkType);
+        int idle = 0;
+        while (running || ring.size() > 0) {
+            if (ring.poll(analyzer, parser)) {
+                idle = 0;
+            } else if (++idle < SPINS_BEFORE_PARK) {
+                Thread.onSpinWait();
+            } else {
+                LockSupport.parkNanos(PARK_NANOS);
+            }
+        }
+    }
+
+    /** Frames discarded because the target worker's queue was full. */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    public long getAcceptedCount() {
+        return accepted.get();
+    }
+
+    /** Frames currently waiting across all worker queues. */
+    public int getQueuedCount() {
+        int total = 0;
+        for (FrameRing ring : rings) {
+            total += ring.size();
+        }
+        return total;
+    }
+
+    public int getWorkerCount() {
+        return workers.length;
+    }
+}
@@ -0,0 +1,124 @@
+package org.jarvis.core;
+
+import org.pcap4j.core.NotOpenException;
+import org.pcap4j.core.PcapHandle;
+import org.pcap4j.core.PcapNativeException;
+import org.pcap4j.core.Pcaps;
+
+import java.io.EOFException;
+import java.io.PrintStream;
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Feeds frames from pcap/pcapng files into a {@link PacketAnalyzer} on the calling thread.
+ *
+ * Playback is either as fast as possible, which measures the analyzer itself, or paced by the
+ * capture timestamps, which reproduces an incident as it happened. The time spent reading,
+ * parsing and matching is accumulated separately and reported at the end.
+ */
+public class PacketReplayer {
+
+    public enum Timing { FAST, ORIGINAL }
+
+    /** Totals for one replay. Times are in nanoseconds. */
+    public record Report(long packets, long bytes, long unparsed, long matches, int files, long elapsedNanos,
+                         long readNanos, long parseNanos, long matchNanos) {
+
+        public double packetsPerSecond() {
+            return elapsedNanos == 0 ? 0 : packets * 1e9 / elapsedNanos;
+        }
+
+        public void print(PrintStream out) {
+            out.printf("Replayed %d packets (%d bytes) from %d file(s) in %.3f s: %.0f packets/s%n",
+                    packets, bytes, files, elapsedNanos / 1e9, packetsPerSecond());
+            out.printf("Matches: %d, frames without an IP header: %d%n", matches, unparsed);
+            out.printf("Per packet: read %.0f ns, parse %.0f ns, match %.0f ns%n",
+                    perPacket(readNanos), perPacket(parseNanos), perPacket(matchNanos));
+        }
+
+        private double perPacket(long nanos) {
+            return packets == 0 ? 0 : (double) nanos / packets;
+        }
+    }
+
+    private final PacketAnalyzer analyzer;
+    private final Timing timing;
+
+    public PacketReplayer(PacketAnalyzer analyzer, Timing timing) {
+        this.analyzer = analyzer;
+        this.timing = timing;
+    }
+
+    public Report replay(List<String> files) throws PcapNativeException, NotOpenException {
+        long packets = 0, bytes = 0, unparsed = 0;
+        long readNanos = 0, parseNanos = 0, matchNanos = 0;
+        int replayedFiles = 0;
+        long matchesBefore = analyzer.getMatchCount();
+        long start = System.nanoTime();
+        // Original timing keeps the gaps between packets, also across consecutive files.
+        long firstCaptureNanos = -1;
+
+        for (String file : files) {
+            PcapHandle handle = Pcaps.openOffline(file);
+            try {
+                int linkType = handle.getDlt().value();
+                if (!FrameParser.isSupportedLinkType(linkType)) {
+                    System.err.println("Skipping " + file + ": unsupported link type " + linkType);
+                    continue;
+                }
+                FrameParser parser = new FrameParser(linkType);
+                replayedFiles++;
+                // Interrupting the calling thread stops the replay early.
+                while (!Thread.currentThread().isInterrupted()) {
+                    long t0 = System.nanoTime();
+                    byte[] frame;
+                    try {
+                        frame = handle.getNextRawPacketEx();
+                    } catch (EOFException e) {
+                        break;
+                    } catch (TimeoutException e) {
+                        continue;
+                    }
+                    long t1 = System.nanoTime();
+                    readNanos += t1 - t0;
+
+                    if (timing == Timing.ORIGINAL) {
+                        long captured = toNanos(handle.getTimestamp());
+                        if (firstCaptureNanos < 0) {
+                            firstCaptureNanos = captured;
+                        }
+                        long due = start + (captured - firstCaptureNanos);
+                        long wait;
+                        while ((wait = due - System.nanoTime()) > 0 && !Thread.currentThread().isInterrupted()) {
+                            LockSupport.parkNanos(wait);
+                        }
+                        t1 = System.nanoTime();
+                    }
+
+                    packets++;
+                    bytes += frame.length;
+                    boolean parsed = parser.parse(frame, 0, frame.length);
+                    long t2 = System.nanoTime();
+                    parseNanos += t2 - t1;
+                    if (parsed) {
+                        analyzer.analyzeParsed(parser);
+                        matchNanos += System.nanoTime() - t2;
+                    } else {
+                        unparsed++;
+                    }
+                }
+            } finally {
+                handle.close();
+            }
+        }
+        return new Report(packets, bytes, unparsed, analyzer.getMatchCount() - matchesBefore, replayedFiles,
+                System.nanoTime() - start, readNanos, parseNanos, matchNanos);
+    }
+
+    private static long toNanos(Timestamp timestamp) {
+        return Math.floorDiv(timestamp.getTime(), 1000) * 1_000_000_000L + timestamp.getNanos();
+    }
+}
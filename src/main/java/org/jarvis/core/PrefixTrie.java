@@ -0,0 +1,215 @@
+package org.jarvis.core;
+
+import java.util.function.Consumer;
+
+/**
+ * Immutable, path-compressed binary radix trie for longest-prefix matching of IP addresses.
+ *
+ * Keys are left-aligned 128-bit values (see {@link IpPrefix}); an IPv4 trie simply never looks
+ * past bit 32. Nodes only exist where a rule sits or where two branches split, so a lookup
+ * visits at most one node per distinct prefix length on the path: O(prefix length) regardless
+ * of how many rules are loaded.
+ *
+ * Updates copy only the nodes on the path from the root to the change, so the previous trie
+ * stays valid for readers that are still using it.
+ */
+public final class PrefixTrie {
+
+    /** A trie node. Nodes that carry a rule have non-zero {@link #getDirections()}. */
+    public static final class Node {
+        private final long high;
+        private final long low;
+        private final int length;
+        private final byte directions;
+        private final String value;
+        private final Node zero;
+        private final Node one;
+
+        private Node(long high, long low, int length, byte directions, String value, Node zero, Node one) {
+            this.high = high;
+            this.low = low;
+            this.length = length;
+            this.directions = directions;
+            this.value = value;
+            this.zero = zero;
+            this.one = one;
+        }
+
+        /** The rule value this node was created for, e.g. {@code 10.0.0.0/16}. */
+        public String getValue() { return value; }
+        public byte getDirections() { return directions; }
+        public int getLength() { return length; }
+        long getHigh() { return high; }
+        long getLow() { return low; }
+
+        private Node withChild(int bit, Node child) {
+            return bit == 0
+                    ? new Node(high, low, length, directions, value, child, one)
+                    : new Node(high, low, length, directions, value, zero, child);
+        }
+
+        private Node withRule(byte newDirections, String newValue) {
+            return new Node(high, low, length, newDirections, newValue, zero, one);
+        }
+    }
+
+    private static final PrefixTrie EMPTY = new PrefixTrie(null, 0);
+
+    private final Node root;
+    private final int size;
+
+    private PrefixTrie(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    public static PrefixTrie empty() {
+        return EMPTY;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public PrefixTrie with(IpPrefix prefix, byte directions) {
+        boolean[] added = new boolean[1];
+        Node newRoot = insert(root, prefix.getHigh(), prefix.getLow(), prefix.getLength(), directions, prefix.toString(), added);
+        return new PrefixTrie(newRoot, added[0] ? size + 1 : size);
+    }
+
+    public PrefixTrie without(IpPrefix prefix) {
+        boolean[] removed = new boolean[1];
+        Node newRoot = remove(root, prefix.getHigh(), prefix.getLow(), prefix.getLength(), removed);
+        return removed[0] ? new PrefixTrie(newRoot, size - 1) : this;
+    }
+
+    public Node longestMatchV4(int address, byte direction) {
+        return longestMatch((address & 0xFFFFFFFFL) << 32, 0L, direction);
+    }
+
+    /**
+     * Finds the most specific prefix containing the address whose rule covers {@code direction}.
+     * Allocation-free.
+     *
+     * @return the matching node, or null if no prefix blocks this address in that direction.
+     */
+    public Node longestMatch(long high, long low, byte direction) {
+        Node best = null;
+        Node node = root;
+        while (node != null && matches(node, high, low)) {
+            if ((node.directions & direction) != 0) {
+                best = node;
+            }
+            node = bitAt(high, low, node.length) == 0 ? node.zero : node.one;
+        }
+        return best;
+    }
+
+    /** @return the directions of the rule for exactly this prefix, or {@link RuleIndex#NONE}. */
+    public byte directionsOf(IpPrefix prefix) {
+        long high = prefix.getHigh();
+        long low = prefix.getLow();
+        Node node = root;
+        while (node != null && node.length <= prefix.getLength() && matches(node, high, low)) {
+            if (node.length == prefix.getLength()) {
+                return node.directions;
+            }
+            node = bitAt(high, low, node.length) == 0 ? node.zero : node.one;
+        }
+        return RuleIndex.NONE;
+    }
+
+    /** Visits every node that carries a rule, shortest prefixes first along each branch. */
+    public void forEach(Consumer<Node> visitor) {
+        forEach(root, visitor);
+    }
+
+    private static void forEach(Node node, Consumer<Node> visitor) {
+        if (node == null) return;
+        if (node.directions != RuleIndex.NONE) visitor.accept(node);
+        forEach(node.zero, visitor);
+        forEach(node.one, visitor);
+    }
+
+    // --- Internals ---
+
+    private static boolean matches(Node node, long high, long low) {
+        return ((high ^ node.high) & IpPrefix.mask(node.length)) == 0
+                && ((low ^ node.low) & IpPrefix.mask(node.length - 64)) == 0;
+    }
+
+    private static int bitAt(long high, long low, int index) {
+        if (index >= 128) return 0;
+        return index < 64 ? (int) (high >>> (63 - index)) & 1 : (int) (low >>> (127 - index)) & 1;
+    }
+
+    private static int commonLength(long h1, long l1, long h2, long l2, int limit) {
+        long dh = h1 ^ h2;
+        int common = dh != 0 ? Long.numberOfLeadingZeros(dh) : 64 + Long.numberOfLeadingZeros(l1 ^ l2);
+        return Math.min(common, limit);
+    }
+
+    private static Node insert(Node node, long high, long low, int length, byte directions, String value, boolean[] added) {
+        if (node == null) {
+            added[0] = true;
+            return new Node(high, low, length, directions, value, null, null);
+        }
+        int common = commonLength(node.high, node.low, high, low, Math.min(node.length, length));
+
+        if (common == node.length && common == length) {
+            // Same prefix: replace the rule in place.
+            added[0] = node.directions == RuleIndex.NONE;
+            return node.withRule(directions, value);
+        }
+        if (common == node.length) {
+            // The new prefix lives below this node.
+            int bit = bitAt(high, low, node.length);
+            Node child = bit == 0 ? node.zero : node.one;
+            return node.withChild(bit, insert(child, high, low, length, directions, value, added));
+        }
+
+        added[0] = true;
+        if (common == length) {
+            // The new prefix is an ancestor of this node.
+            Node created = new Node(high, low, length, directions, value, null, null);
+            return created.withChild(bitAt(node.high, node.low, length), node);
+        }
+
+        // The two prefixes diverge: join them under a rule-less branch node.
+        Node leaf = new Node(high, low, length, directions, value, null, null);
+        long branchHigh = high & IpPrefix.mask(common);
+        long branchLow = low & IpPrefix.mask(common - 64);
+        return bitAt(high, low, common) == 0
+                ? new Node(branchHigh, branchLow, common, RuleIndex.NONE, null, leaf, node)
+                : new Node(branchHigh, branchLow, common, RuleIndex.NONE, null, node, leaf);
+    }
+
+    private static Node remove(Node node, long high, long low, int length, boolean[] removed) {
+        if (node == null || node.length > length || !matches(node, high, low)) {
+            return node;
+        }
+        Node updated;
+        if (node.length == length) {
+            if (node.directions == RuleIndex.NONE) {
+                return node;
+            }
+            removed[0] = true;
+            updated = node.withRule(RuleIndex.NONE, null);
+        } else {
+            int bit = bitAt(high, low, node.length);
+            Node child = bit == 0 ? node.zero : node.one;
+            Node newChild = remove(child, high, low, length, removed);
+            if (newChild == child) {
+                return node;
+            }
+            updated = node.withChild(bit, newChild);
+        }
+
+        // Rule-less nodes only exist to branch; collapse them when they no longer do.
+        if (updated.directions == RuleIndex.NONE) {
+            if (updated.zero == null) return updated.one;
+            if (updated.one == null) return updated.zero;
+        }
+        return updated;
+    }
+}
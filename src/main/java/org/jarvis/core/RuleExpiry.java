@@ -0,0 +1,138 @@
+package org.jarvis.core;
+
+import org.jarvis.metrics.Counter;
+import org.jarvis.metrics.MetricsRegistry;
+import org.jarvis.model.Rule;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lifts temporary rules when their TTL runs out.
+ *
+ * Every rule with an expiry gets a timer on a {@link TimingWheel}, keyed like the rule it
+ * belongs to, so adding the same rule again replaces its expiry and adding it without one makes
+ * it permanent. A single thread advances the wheel once per tick and hands each tick's expired
+ * rules to the {@link Listener} in one batch.
+ *
+ * Expiries live in the rules table, so after a restart the analyzer schedules them again; rules
+ * that expired while Sentinel was down are lifted on the first tick.
+ *
+ * Settings (system properties):
+ * sentinel.expiry.tickMs (default 1000)
+ */
+public class RuleExpiry {
+
+    /** Receives the rules that expired in one tick, on the expiry thread. */
+    public interface Listener {
+        void expired(List<Rule> rules);
+    }
+
+    // 256 slots per level over 4 levels spans 2^32 ticks: 136 years at one tick per second.
+    private static final int WHEEL_BITS = 8;
+    private static final int WHEEL_LEVELS = 4;
+
+    private final Listener listener;
+    // Guarded by this.
+    private final TimingWheel<Rule> wheel;
+    private final Map<String, TimingWheel.Timer<Rule>> timers = new HashMap<>();
+    private final ScheduledExecutorService scheduler;
+    private final Counter expiredCount;
+
+    public RuleExpiry(Listener listener, long tickMillis) {
+        this.listener = listener;
+        this.wheel = new TimingWheel<>(tickMillis, WHEEL_BITS, WHEEL_LEVELS, System.currentTimeMillis());
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        this.expiredCount = metrics.counter("sentinel_rules_expired_total", "Temporary rules lifted after their TTL ran out.");
+        metrics.gauge("sentinel_rules_expiring", "Temporary rules waiting to expire.", this::getPendingCount);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "sentinel-expiry");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleAtFixedRate(this::tick, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public static RuleExpiry fromSystemProperties(Listener listener) {
+        return new RuleExpiry(listener, Long.getLong("sentinel.expiry.tickMs", 1000));
+    }
+
+    /**
+     * Schedules the rule's expiry, replacing an earlier one for the same rule. A rule without an
+     * expiry cancels any pending one instead.
+     */
+    public synchronized void schedule(Rule rule) {
+        String key = key(rule);
+        TimingWheel.Timer<Rule> previous = timers.remove(key);
+        if (previous != null) {
+            wheel.cancel(previous);
+        }
+        if (rule.getExpiresAt() > 0) {
+            timers.put(key, wheel.schedule(rule, TimeUnit.SECONDS.toMillis(rule.getExpiresAt())));
+        }
+    }
+
+    public synchronized void cancel(Rule rule) {
+        cancelKey(key(rule));
+    }
+
+    /** Cancels the expiry of an address or CIDR rule by its value. */
+    public synchronized void cancelAddress(String value) {
+        cancelKey(addressKey(value));
+    }
+
+    private void cancelKey(String key) {
+        TimingWheel.Timer<Rule> timer = timers.remove(key);
+        if (timer != null) {
+            wheel.cancel(timer);
+        }
+    }
+
+    public synchronized int getPendingCount() {
+        return wheel.size();
+    }
+
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    private void tick() {
+        List<Rule> expired = new ArrayList<>();
+        synchronized (this) {
+            wheel.advanceTo(System.currentTimeMillis(), rule -> {
+                timers.remove(key(rule));
+                expired.add(rule);
+            });
+        }
+        if (expired.isEmpty()) {
+            return;
+        }
+        expiredCount.add(expired.size());
+        try {
+            listener.expired(expired);
+        } catch (RuntimeException e) {
+            // Keep the scheduler alive; a failed batch must not stop later expiries.
+            System.err.println("Failed to lift " + expired.size() + " expired rules.");
+            e.printStackTrace();
+        }
+    }
+
+    // The same rule typed differently (e.g. an unabbreviated IPv6 address) has the same key.
+    private static String key(Rule rule) {
+        if (FlowRule.isFlowRule(rule)) {
+            FlowRule flow = FlowRule.of(rule);
+            return "flow " + (flow != null ? flow + " " + flow.directions() : rule.getValue());
+        }
+        return addressKey(rule.getValue());
+    }
+
+    private static String addressKey(String value) {
+        IpPrefix prefix = IpPrefix.parse(value);
+        return prefix != null ? prefix.toString() : IpAddresses.canonical(value);
+    }
+}
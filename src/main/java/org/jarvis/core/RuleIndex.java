@@ -0,0 +1,531 @@
+package org.jarvis.core;
+
+import org.jarvis.model.Rule;
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Immutable lookup table from IP address to the direction(s) it is blocked in.
+ *
+ * IPv4 and IPv6 rules live in separate open-addressing (linear probing) tables keyed by the
+ * primitive address, so a lookup hashes an int or two longs once and usually hits on the first
+ * probe. Each slot costs 5 bytes (IPv4) or 17 bytes (IPv6) instead of a String, a JavaFX
+ * {@link Rule} and a map entry. CIDR rules are kept in a {@link PrefixTrie} per family and
+ * consulted only when the exact tables miss.
+ *
+ * Instances are never modified after construction. Writers derive a new snapshot with
+ * {@link #with} / {@link #without} and publish it through a volatile field, so readers on the
+ * capture path need no locks.
+ */
+public final class RuleIndex {
+
+    public static final byte NONE = 0;
+    public static final byte INCOMING = 1;
+    public static final byte OUTGOING = 2;
+    public static final byte BOTH = INCOMING | OUTGOING;
+
+    private static final int MIN_CAPACITY = 16;
+    private static final RuleIndex EMPTY = new RuleIndex(
+            new int[MIN_CAPACITY], new byte[MIN_CAPACITY], 0,
+            new long[MIN_CAPACITY * 2], new byte[MIN_CAPACITY], 0,
+            PrefixTrie.empty(), PrefixTrie.empty());
+
+    // A zero direction byte marks an empty slot, so 0.0.0.0 and :: remain valid keys.
+    private final int[] v4Keys;
+    private final byte[] v4Dirs;
+    private final int v4Count;
+
+    // IPv6 keys are stored as (high, low) pairs at [2 * slot] and [2 * slot + 1].
+    private final long[] v6Keys;
+    private final byte[] v6Dirs;
+    private final int v6Count;
+
+    private final PrefixTrie v4Prefixes;
+    private final PrefixTrie v6Prefixes;
+
+    private RuleIndex(int[] v4Keys, byte[] v4Dirs, int v4Count, long[] v6Keys, byte[] v6Dirs, int v6Count,
+                      PrefixTrie v4Prefixes, PrefixTrie v6Prefixes) {
+        this.v4Keys = v4Keys;
+        this.v4Dirs = v4Dirs;
+        this.v4Count = v4Count;
+        this.v6Keys = v6Keys;
+        this.v6Dirs = v6Dirs;
+        this.v6Count = v6Count;
+        this.v4Prefixes = v4Prefixes;
+        this.v6Prefixes = v6Prefixes;
+    }
+
+    public static RuleIndex empty() {
+        return EMPTY;
+    }
+
+    public static RuleIndex of(Collection<Rule> rules) {
+        return EMPTY.with(rules);
+    }
+
+    public static byte directionMask(String direction) {
+        if ("Incoming".equalsIgnoreCase(direction)) return INCOMING;
+        if ("Outgoing".equalsIgnoreCase(direction)) return OUTGOING;
+        if ("Both".equalsIgnoreCase(direction)) return BOTH;
+        return NONE;
+    }
+
+    // --- Lookups (capture path) ---
+
+    /** @return the direction mask blocked for this IPv4 address, or {@link #NONE}. */
+    public byte lookupV4(int address) {
+        int mask = v4Dirs.length - 1;
+        int slot = hash(address) & mask;
+        while (true) {
+            byte dirs = v4Dirs[slot];
+            if (dirs == NONE || v4Keys[slot] == address) {
+                return dirs;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /** @return the direction mask blocked for this IPv6 address, or {@link #NONE}. */
+    public byte lookupV6(long high, long low) {
+        int mask = v6Dirs.length - 1;
+        int slot = hash(high, low) & mask;
+        while (true) {
+            byte dirs = v6Dirs[slot];
+            if (dirs == NONE || (v6Keys[2 * slot] == high && v6Keys[2 * slot + 1] == low)) {
+                return dirs;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * Longest-prefix match against the IPv4 CIDR rules that cover {@code direction}.
+     *
+     * @return the matching trie node (its value is the rule's prefix), or null.
+     */
+    public PrefixTrie.Node longestPrefixV4(int address, byte direction) {
+        return v4Prefixes.size() == 0 ? null : v4Prefixes.longestMatchV4(address, direction);
+    }
+
+    public PrefixTrie.Node longestPrefixV6(long high, long low, byte direction) {
+        return v6Prefixes.size() == 0 ? null : v6Prefixes.longestMatch(high, low, direction);
+    }
+
+    /**
+     * @return the directions of the rule for exactly this address or CIDR prefix, or
+     *         {@link #NONE}; a broader prefix that merely covers it does not count
+     */
+    public byte directionsOf(String ruleValue) {
+        if (ruleValue != null && ruleValue.indexOf('/') >= 0) {
+            IpPrefix prefix = IpPrefix.parse(ruleValue);
+            if (prefix == null) return NONE;
+            return (prefix.isV6() ? v6Prefixes : v4Prefixes).directionsOf(prefix);
+        }
+        byte[] bytes = IpAddresses.parseLiteral(ruleValue);
+        if (bytes == null) return NONE;
+        return bytes.length == 4
+                ? lookupV4(IpAddresses.v4Key(bytes))
+                : lookupV6(IpAddresses.v6High(bytes), IpAddresses.v6Low(bytes));
+    }
+
+    public int size() {
+        return v4Count + v6Count + v4Prefixes.size() + v6Prefixes.size();
+    }
+
+    public int exactCount() {
+        return v4Count + v6Count;
+    }
+
+    public int prefixCount() {
+        return v4Prefixes.size() + v6Prefixes.size();
+    }
+
+    // --- Enumeration (off the capture path) ---
+
+    public interface V4Visitor {
+        void visit(int address, byte directions);
+    }
+
+    public interface V6Visitor {
+        void visit(long high, long low, byte directions);
+    }
+
+    public void forEachV4(V4Visitor visitor) {
+        for (int s = 0; s < v4Dirs.length; s++) {
+            if (v4Dirs[s] != NONE) visitor.visit(v4Keys[s], v4Dirs[s]);
+        }
+    }
+
+    public void forEachV6(V6Visitor visitor) {
+        for (int s = 0; s < v6Dirs.length; s++) {
+            if (v6Dirs[s] != NONE) visitor.visit(v6Keys[2 * s], v6Keys[2 * s + 1], v6Dirs[s]);
+        }
+    }
+
+    /** Visits every CIDR rule, IPv4 first. */
+    public void forEachPrefix(Consumer<PrefixTrie.Node> visitor) {
+        v4Prefixes.forEach(visitor);
+        v6Prefixes.forEach(visitor);
+    }
+
+    // --- Snapshot derivation (writers) ---
+
+    public RuleIndex with(Rule rule) {
+        return with(List.of(rule));
+    }
+
+    /**
+     * Returns a snapshot that also contains the given rules. Values in CIDR notation go to the
+     * prefix tries; values that are neither an IP literal nor a prefix (domains) are ignored. A
+     * later rule for the same address replaces the direction of an earlier one, mirroring how
+     * {@code rulesMap.put} used to behave.
+     */
+    public RuleIndex with(Collection<Rule> rules) {
+        return with(rules, Rule::getValue, Rule::getDirection);
+    }
+
+    /** Like {@link #with(Collection)} for plain address or prefix values that share one direction. */
+    public RuleIndex with(Collection<String> values, String direction) {
+        return with(values, value -> value, value -> direction);
+    }
+
+    private <T> RuleIndex with(Collection<T> rules, Function<T, String> valueOf, Function<T, String> directionOf) {
+        int newV4 = 0;
+        int newV6 = 0;
+        byte[][] parsed = new byte[rules.size()][];
+        int i = 0;
+        PrefixTrie v4p = v4Prefixes;
+        PrefixTrie v6p = v6Prefixes;
+        for (T rule : rules) {
+            String value = valueOf.apply(rule);
+            if (value != null && value.indexOf('/') >= 0) {
+                IpPrefix prefix = IpPrefix.parse(value);
+                byte dirs = directionMask(directionOf.apply(rule));
+                if (prefix != null && dirs != NONE) {
+                    if (prefix.isV6()) v6p = v6p.with(prefix, dirs); else v4p = v4p.with(prefix, dirs);
+                }
+                i++;
+                continue;
+            }
+            byte[] bytes = IpAddresses.parseLiteral(value);
+            parsed[i++] = bytes;
+            if (bytes != null) {
+                if (bytes.length == 4) newV4++; else newV6++;
+            }
+        }
+
+        int[] v4k = v4Keys;
+        byte[] v4d = v4Dirs;
+        if (newV4 > 0) {
+            int capacity = capacityFor(v4Count + newV4);
+            if (capacity == v4d.length) {
+                v4k = v4k.clone();
+                v4d = v4d.clone();
+            } else {
+                v4k = new int[capacity];
+                v4d = new byte[capacity];
+                for (int s = 0; s < v4Dirs.length; s++) {
+                    if (v4Dirs[s] != NONE) putV4(v4k, v4d, v4Keys[s], v4Dirs[s]);
+                }
+            }
+        }
+
+        long[] v6k = v6Keys;
+        byte[] v6d = v6Dirs;
+        if (newV6 > 0) {
+            int capacity = capacityFor(v6Count + newV6);
+            if (capacity == v6d.length) {
+                v6k = v6k.clone();
+                v6d = v6d.clone();
+            } else {
+                v6k = new long[capacity * 2];
+                v6d = new byte[capacity];
+                for (int s = 0; s < v6Dirs.length; s++) {
+                    if (v6Dirs[s] != NONE) putV6(v6k, v6d, v6Keys[2 * s], v6Keys[2 * s + 1], v6Dirs[s]);
+                }
+            }
+        }
+
+        int v4c = v4Count;
+        int v6c = v6Count;
+        i = 0;
+        for (T rule : rules) {
+            byte[] bytes = parsed[i++];
+            byte dirs = directionMask(directionOf.apply(rule));
+            if (bytes == null || dirs == NONE) {
+                continue;
+            }
+            if (bytes.length == 4) {
+                if (putV4(v4k, v4d, IpAddresses.v4Key(bytes), dirs)) v4c++;
+            } else {
+                if (putV6(v6k, v6d, IpAddresses.v6High(bytes), IpAddresses.v6Low(bytes), dirs)) v6c++;
+            }
+        }
+        return new RuleIndex(v4k, v4d, v4c, v6k, v6d, v6c, v4p, v6p);
+    }
+
+    public RuleIndex without(String ruleValue) {
+        return without(List.of(ruleValue));
+    }
+
+    /** Returns a snapshot without the given addresses. Values that are not present are ignored. */
+    public RuleIndex without(Collection<String> ruleValues) {
+        int[] v4k = null;
+        byte[] v4d = null;
+        long[] v6k = null;
+        byte[] v6d = null;
+        int v4c = v4Count;
+        int v6c = v6Count;
+        PrefixTrie v4p = v4Prefixes;
+        PrefixTrie v6p = v6Prefixes;
+
+        for (String value : ruleValues) {
+            if (value != null && value.indexOf('/') >= 0) {
+                IpPrefix prefix = IpPrefix.parse(value);
+                if (prefix != null) {
+                    if (prefix.isV6()) v6p = v6p.without(prefix); else v4p = v4p.without(prefix);
+                }
+                continue;
+            }
+            byte[] bytes = IpAddresses.parseLiteral(value);
+            if (bytes == null) {
+                continue;
+            }
+            if (bytes.length == 4) {
+                if (v4k == null) {
+                    v4k = v4Keys.clone();
+                    v4d = v4Dirs.clone();
+                }
+                if (removeV4(v4k, v4d, IpAddresses.v4Key(bytes))) v4c--;
+            } else {
+                if (v6k == null) {
+                    v6k = v6Keys.clone();
+                    v6d = v6Dirs.clone();
+                }
+                if (removeV6(v6k, v6d, IpAddresses.v6High(bytes), IpAddresses.v6Low(bytes))) v6c--;
+            }
+        }
+        if (v4k == null && v6k == null && v4p == v4Prefixes && v6p == v6Prefixes) {
+            return this;
+        }
+        return new RuleIndex(
+                v4k != null ? v4k : v4Keys, v4d != null ? v4d : v4Dirs, v4c,
+                v6k != null ? v6k : v6Keys, v6d != null ? v6d : v6Dirs, v6c,
+                v4p, v6p);
+    }
+
+    // --- Binary form (see RuleSnapshot) ---
+    //
+    // The hash tables are written slot for slot, so reading them back is a bulk copy with no
+    // rehashing: capacity, count, keys, directions per family, then each family's prefixes as
+    // (high, low, length, directions). The buffer's byte order is the caller's choice.
+
+    private static final int PREFIX_BYTES = 2 * Long.BYTES + 2;
+
+    /** Bytes {@link #writeTo} produces. */
+    int binarySize() {
+        return Math.toIntExact(4L * Integer.BYTES
+                + (long) v4Dirs.length * (Integer.BYTES + 1)
+                + (long) v6Dirs.length * (2 * Long.BYTES + 1)
+                + 2L * Integer.BYTES + (long) (v4Prefixes.size() + v6Prefixes.size()) * PREFIX_BYTES);
+    }
+
+    void writeTo(ByteBuffer out) {
+        out.putInt(v4Dirs.length).putInt(v4Count);
+        out.asIntBuffer().put(v4Keys);
+        out.position(out.position() + v4Keys.length * Integer.BYTES);
+        out.put(v4Dirs);
+        out.putInt(v6Dirs.length).putInt(v6Count);
+        out.asLongBuffer().put(v6Keys);
+        out.position(out.position() + v6Keys.length * Long.BYTES);
+        out.put(v6Dirs);
+        for (PrefixTrie trie : List.of(v4Prefixes, v6Prefixes)) {
+            out.putInt(trie.size());
+            trie.forEach(node -> out.putLong(node.getHigh()).putLong(node.getLow())
+                    .put((byte) node.getLength()).put(node.getDirections()));
+        }
+    }
+
+    /** @throws IllegalArgumentException if the data is not a valid index */
+    static RuleIndex readFrom(ByteBuffer in) {
+        int v4Capacity = readCapacity(in);
+        int v4c = in.getInt();
+        int[] v4k = new int[v4Capacity];
+        in.asIntBuffer().get(v4k);
+        in.position(in.position() + v4k.length * Integer.BYTES);
+        byte[] v4d = new byte[v4Capacity];
+        in.get(v4d);
+
+        int v6Capacity = readCapacity(in);
+        int v6c = in.getInt();
+        long[] v6k = new long[v6Capacity * 2];
+        in.asLongBuffer().get(v6k);
+        in.position(in.position() + v6k.length * Long.BYTES);
+        byte[] v6d = new byte[v6Capacity];
+        in.get(v6d);
+        if (v4c < 0 || v4c > v4Capacity / 2 || v6c < 0 || v6c > v6Capacity / 2) {
+            throw new IllegalArgumentException("corrupt rule counts");
+        }
+
+        PrefixTrie v4p = readPrefixes(in, false);
+        PrefixTrie v6p = readPrefixes(in, true);
+        return new RuleIndex(v4k, v4d, v4c, v6k, v6d, v6c, v4p, v6p);
+    }
+
+    private static int readCapacity(ByteBuffer in) {
+        int capacity = in.getInt();
+        if (capacity < MIN_CAPACITY || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("corrupt table capacity " + capacity);
+        }
+        return capacity;
+    }
+
+    private static PrefixTrie readPrefixes(ByteBuffer in, boolean v6) {
+        int count = in.getInt();
+        if (count < 0 || count > in.remaining() / PREFIX_BYTES) {
+            throw new IllegalArgumentException("corrupt prefix count " + count);
+        }
+        PrefixTrie trie = PrefixTrie.empty();
+        for (int i = 0; i < count; i++) {
+            long high = in.getLong();
+            long low = in.getLong();
+            int length = in.get() & 0xFF;
+            byte dirs = in.get();
+            trie = trie.with(IpPrefix.of(v6, high, low, length), dirs);
+        }
+        return trie;
+    }
+
+    // --- Table primitives (only ever applied to freshly copied arrays) ---
+
+    private static int capacityFor(int count) {
+        // Keep the load factor at or below 0.5 so probe sequences stay short.
+        int capacity = MIN_CAPACITY;
+        while (capacity < count * 2) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    /** @return true if a new key was inserted, false if an existing one was overwritten. */
+    private static boolean putV4(int[] keys, byte[] dirs, int key, byte value) {
+        int mask = dirs.length - 1;
+        int slot = hash(key) & mask;
+        while (dirs[slot] != NONE) {
+            if (keys[slot] == key) {
+                dirs[slot] = value;
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        dirs[slot] = value;
+        return true;
+    }
+
+    private static boolean putV6(long[] keys, byte[] dirs, long high, long low, byte value) {
+        int mask = dirs.length - 1;
+        int slot = hash(high, low) & mask;
+        while (dirs[slot] != NONE) {
+            if (keys[2 * slot] == high && keys[2 * slot + 1] == low) {
+                dirs[slot] = value;
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[2 * slot] = high;
+        keys[2 * slot + 1] = low;
+        dirs[slot] = value;
+        return true;
+    }
+
+    // Backward-shift deletion keeps linear probing correct without tombstones.
+    private static boolean removeV4(int[] keys, byte[] dirs, int key) {
+        int mask = dirs.length - 1;
+        int slot = hash(key) & mask;
+        while (dirs[slot] != NONE && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        if (dirs[slot] == NONE) {
+            return false;
+        }
+        int hole = slot;
+        int next = (hole + 1) & mask;
+        while (dirs[next] != NONE) {
+            int home = hash(keys[next]) & mask;
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                keys[hole] = keys[next];
+                dirs[hole] = dirs[next];
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        dirs[hole] = NONE;
+        keys[hole] = 0;
+        return true;
+    }
+
+    private static boolean removeV6(long[] keys, byte[] dirs, long high, long low) {
+        int mask = dirs.length - 1;
+        int slot = hash(high, low) & mask;
+        while (dirs[slot] != NONE && !(keys[2 * slot] == high && keys[2 * slot + 1] == low)) {
+            slot = (slot + 1) & mask;
+        }
+        if (dirs[slot] == NONE) {
+            return false;
+        }
+        int hole = slot;
+        int next = (hole + 1) & mask;
+        while (dirs[next] != NONE) {
+            int home = hash(keys[2 * next], keys[2 * next + 1]) & mask;
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                keys[2 * hole] = keys[2 * next];
+                keys[2 * hole + 1] = keys[2 * next + 1];
+                dirs[hole] = dirs[next];
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        dirs[hole] = NONE;
+        keys[2 * hole] = 0;
+        keys[2 * hole + 1] = 0;
+        return true;
+    }
+
+    // Murmur3 finalizers: addresses in a blocklist are often sequential, so spread the bits.
+    static int hash(int key) {
+        int h = key;
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    static int hash(long high, long low) {
+        long h = high * 0x9E3779B97F4A7C15L ^ low;
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+
+    @Override
+    public String toString() {
+        return "RuleIndex[v4=" + v4Count + "/" + v4Dirs.length + ", v6=" + v6Count + "/" + v6Dirs.length
+                + ", v4Prefixes=" + v4Prefixes.size() + ", v6Prefixes=" + v6Prefixes.size() + "]";
+    }
+
+    /** Approximate heap used by the lookup tables. */
+    public long footprintBytes() {
+        return (long) v4Keys.length * Integer.BYTES + v4Dirs.length
+                + (long) v6Keys.length * Long.BYTES + v6Dirs.length;
+    }
+}
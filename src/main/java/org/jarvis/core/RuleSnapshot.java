@@ -0,0 +1,212 @@
+package org.jarvis.core;
+
+import org.jarvis.persistence.DatabaseManager;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+
+/**
+ * The compiled address rules, persisted so the analyzer can start filtering without reading
+ * and indexing every rule in the database.
+ *
+ * The file holds a {@link RuleIndex} in binary form, tagged with the rules version that SQLite
+ * triggers bump on every change to the rules table. At startup it is memory-mapped and its
+ * tables are bulk-copied into the index arrays, with no parsing or rehashing. If the file is
+ * missing, damaged or tagged with an older version, the analyzer falls back to the rules table
+ * and a fresh snapshot is written in the background. After rules change, a rebuild runs once
+ * they have been quiet for {@code rebuildDelayMs}, and a pending one runs at shutdown.
+ *
+ * Snapshots are built from the rules table, not from the analyzer's live index, which also
+ * holds addresses learned from DNS that must not outlive their TTL.
+ *
+ * Layout (little-endian): magic, format, rules version, payload length, CRC32 of the payload,
+ * then the payload written by {@link RuleIndex}.
+ *
+ * Settings (system properties):
+ * sentinel.snapshot.enabled (default true), sentinel.snapshot.path (default rules.idx),
+ * sentinel.snapshot.rebuildDelayMs (default 5000)
+ */
+public class RuleSnapshot {
+
+    private static final byte[] MAGIC = "SNTLRIDX".getBytes(StandardCharsets.US_ASCII);
+    private static final int FORMAT = 1;
+    private static final int HEADER_BYTES = MAGIC.length + Integer.BYTES + Long.BYTES + Long.BYTES + Integer.BYTES;
+
+    private final Path path;
+    private final DatabaseManager databaseManager;
+    private final long rebuildDelayMillis;
+    private final ScheduledExecutorService scheduler;
+    private final AtomicBoolean rebuildPending = new AtomicBoolean();
+    // Version of the file on disk, or -1 if unknown.
+    private volatile long writtenVersion = -1;
+
+    public RuleSnapshot(Path path, DatabaseManager databaseManager, long rebuildDelayMillis) {
+        this.path = path;
+        this.databaseManager = databaseManager;
+        this.rebuildDelayMillis = rebuildDelayMillis;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "sentinel-snapshot");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /** @return null if snapshots are turned off */
+    public static RuleSnapshot fromSystemProperties(DatabaseManager databaseManager) {
+        if (!Boolean.parseBoolean(System.getProperty("sentinel.snapshot.enabled", "true"))) {
+            return null;
+        }
+        return new RuleSnapshot(Paths.get(System.getProperty("sentinel.snapshot.path", "rules.idx")),
+                databaseManager, Long.getLong("sentinel.snapshot.rebuildDelayMs", 5000));
+    }
+
+    /** @return the index stored in the snapshot, or null if there is no current one */
+    public RuleIndex load() {
+        if (!Files.isRegularFile(path)) {
+            System.out.println("No rule snapshot at " + path + "; loading rules from the database.");
+            return null;
+        }
+        long version = databaseManager.getRulesVersion();
+        if (version < 0) {
+            return null;
+        }
+        long start = System.nanoTime();
+        try {
+            RuleIndex index = read(path, version);
+            if (index == null) {
+                System.out.println("Rule snapshot " + path + " is out of date; loading rules from the database.");
+                return null;
+            }
+            writtenVersion = version;
+            System.out.println("Loaded " + index.size() + " rules from snapshot " + path + " in "
+                    + (System.nanoTime() - start) / 1_000_000 + " ms.");
+            return index;
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Ignoring unreadable rule snapshot " + path + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /** Rebuilds the snapshot after {@code rebuildDelayMs}, unless a rebuild is already waiting. */
+    public void scheduleRebuild() {
+        if (rebuildPending.compareAndSet(false, true)) {
+            scheduler.schedule(this::rebuild, rebuildDelayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /** Stops the rebuild thread; a rebuild that was still waiting runs now, so the next start is fast. */
+    public void shutdown() {
+        scheduler.shutdownNow();
+        try {
+            scheduler.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (rebuildPending.get()) {
+            rebuild();
+        }
+    }
+
+    private void rebuild() {
+        // Cleared first: a change that arrives while the table is read schedules another rebuild.
+        rebuildPending.set(false);
+        if (writtenVersion >= 0 && databaseManager.getRulesVersion() == writtenVersion) {
+            return; // e.g. only DNS-learned addresses changed
+        }
+        long start = System.nanoTime();
+        Map<String, List<String>> valuesByDirection = new HashMap<>();
+        long version = databaseManager.readAddressRules((value, direction) ->
+                valuesByDirection.computeIfAbsent(direction, d -> new ArrayList<>()).add(value));
+        if (version < 0) {
+            return;
+        }
+        RuleIndex index = RuleIndex.empty();
+        for (Map.Entry<String, List<String>> entry : valuesByDirection.entrySet()) {
+            index = index.with(entry.getValue(), entry.getKey());
+        }
+        try {
+            write(path, index, version);
+            writtenVersion = version;
+            System.out.println("Wrote rule snapshot " + path + " with " + index.size() + " rules in "
+                    + (System.nanoTime() - start) / 1_000_000 + " ms.");
+        } catch (IOException e) {
+            System.err.println("Could not write rule snapshot " + path + ": " + e.getMessage());
+        }
+    }
+
+    // --- File format ---
+
+    /** Writes to a temporary file first, so a crash never leaves a half-written snapshot behind. */
+    static void write(Path path, RuleIndex index, long version) throws IOException {
+        ByteBuffer payload = ByteBuffer.allocate(index.binarySize()).order(ByteOrder.LITTLE_ENDIAN);
+        index.writeTo(payload);
+        payload.flip();
+        CRC32 crc = new CRC32();
+        crc.update(payload.duplicate());
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        header.put(MAGIC).putInt(FORMAT).putLong(version).putLong(payload.remaining()).putInt((int) crc.getValue());
+        header.flip();
+
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (header.hasRemaining()) channel.write(header);
+            while (payload.hasRemaining()) channel.write(payload);
+            channel.force(false);
+        }
+        Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /** @return the index, or null if the snapshot belongs to another rules version */
+    static RuleIndex read(Path path, long expectedVersion) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_BYTES) {
+                throw new IOException("truncated header");
+            }
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            mapped.order(ByteOrder.LITTLE_ENDIAN);
+            byte[] magic = new byte[MAGIC.length];
+            mapped.get(magic);
+            int format = mapped.getInt();
+            if (!Arrays.equals(magic, MAGIC) || format != FORMAT) {
+                throw new IOException("not a rule snapshot of format " + FORMAT);
+            }
+            if (mapped.getLong() != expectedVersion) {
+                return null;
+            }
+            long length = mapped.getLong();
+            int checksum = mapped.getInt();
+            if (length != size - HEADER_BYTES) {
+                throw new IOException("truncated payload");
+            }
+            ByteBuffer payload = mapped.slice().order(ByteOrder.LITTLE_ENDIAN);
+            CRC32 crc = new CRC32();
+            crc.update(payload.duplicate());
+            if ((int) crc.getValue() != checksum) {
+                throw new IOException("checksum mismatch");
+            }
+            return RuleIndex.readFrom(payload);
+        }
+    }
+}
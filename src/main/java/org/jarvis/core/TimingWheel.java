@@ -0,0 +1,170 @@
+package org.jarvis.core;
+
+import java.util.function.Consumer;
+
+/**
+ * Hierarchical timing wheel: schedules, cancels and expires timers in O(1) each, however many
+ * are pending.
+ *
+ * Time advances in ticks of {@code tickMillis}. Level 0 has one slot per tick for the next
+ * {@code 2^bits} ticks; each higher level has slots {@code 2^bits} times as wide. A timer is
+ * filed in the lowest level whose range covers its deadline, and whenever a lower level wraps
+ * around, the next slot of the level above is cascaded down into it. Every timer therefore
+ * moves at most once per level, and a tick only touches the timers that are due plus those
+ * cascaded into level 0.
+ *
+ * Slots are intrusive doubly linked lists, so cancelling is an unlink. Deadlines further out
+ * than the top level are parked in its last slot and refiled when they cascade.
+ *
+ * Not thread-safe; the owner serializes access.
+ */
+public final class TimingWheel<T> {
+
+    /** A scheduled timer; pass it to {@link #cancel} to unschedule it. */
+    public static final class Timer<T> {
+        private final T value;
+        private final long deadlineTick;
+        private Timer<T> prev;
+        private Timer<T> next;
+
+        private Timer(T value, long deadlineTick) {
+            this.value = value;
+            this.deadlineTick = deadlineTick;
+        }
+
+        public T getValue() { return value; }
+
+        public boolean isScheduled() { return prev != null; }
+    }
+
+    private final long tickMillis;
+    private final int bits;
+    private final int mask;
+    private final int levels;
+    // Sentinel heads of circular lists, [level][slot].
+    private final Timer<T>[][] slots;
+    private long currentTick;
+    private int size;
+
+    /**
+     * @param bits   log2 of the slots per level
+     * @param levels number of levels; the wheel spans {@code 2^(bits * levels)} ticks
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public TimingWheel(long tickMillis, int bits, int levels, long nowMillis) {
+        if (tickMillis < 1 || bits < 1 || levels < 1 || bits * levels > 62) {
+            throw new IllegalArgumentException("invalid wheel geometry");
+        }
+        this.tickMillis = tickMillis;
+        this.bits = bits;
+        this.mask = (1 << bits) - 1;
+        this.levels = levels;
+        this.slots = new Timer[levels][1 << bits];
+        for (Timer<T>[] level : slots) {
+            for (int s = 0; s < level.length; s++) {
+                Timer<T> head = new Timer<>(null, 0);
+                head.prev = head;
+                head.next = head;
+                level[s] = head;
+            }
+        }
+        this.currentTick = nowMillis / tickMillis;
+    }
+
+    /** Schedules {@code value} to expire at {@code deadlineMillis}; a past deadline expires on the next tick. */
+    public Timer<T> schedule(T value, long deadlineMillis) {
+        // Round up, so a timer never fires before its deadline.
+        Timer<T> timer = new Timer<>(value, Math.floorDiv(deadlineMillis + tickMillis - 1, tickMillis));
+        file(timer);
+        size++;
+        return timer;
+    }
+
+    /** @return false if the timer had already expired or been cancelled */
+    public boolean cancel(Timer<T> timer) {
+        if (!timer.isScheduled()) {
+            return false;
+        }
+        unlink(timer);
+        size--;
+        return true;
+    }
+
+    /** Expires every timer whose deadline is at or before {@code nowMillis}, in deadline order. */
+    public void advanceTo(long nowMillis, Consumer<T> expired) {
+        long targetTick = nowMillis / tickMillis;
+        while (currentTick <= targetTick) {
+            if (size == 0) {
+                // Nothing to cascade or expire; skip the idle stretch.
+                currentTick = targetTick + 1;
+                return;
+            }
+            tick(expired);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private void tick(Consumer<T> expired) {
+        int index = (int) (currentTick & mask);
+        // Level 0 wrapped: refile the next slot of level 1, and of level 2 if level 1 wrapped too, and so on.
+        for (int level = 1; index == 0 && level < levels; level++) {
+            index = (int) ((currentTick >>> (level * bits)) & mask);
+            cascade(slots[level][index]);
+        }
+
+        Timer<T> head = slots[0][(int) (currentTick & mask)];
+        while (head.next != head) {
+            Timer<T> timer = head.next;
+            unlink(timer);
+            if (timer.deadlineTick > currentTick) {
+                // Parked beyond the range of a single-level wheel; not due yet.
+                file(timer);
+                continue;
+            }
+            size--;
+            expired.accept(timer.value);
+        }
+        currentTick++;
+    }
+
+    private void cascade(Timer<T> head) {
+        Timer<T> timer = head.next;
+        head.next = head;
+        head.prev = head;
+        while (timer != head) {
+            Timer<T> next = timer.next;
+            file(timer);
+            timer = next;
+        }
+    }
+
+    private void file(Timer<T> timer) {
+        long delta = timer.deadlineTick - currentTick;
+        Timer<T> head;
+        if (delta < 0) {
+            head = slots[0][(int) (currentTick & mask)];
+        } else {
+            int level = 0;
+            while (level < levels - 1 && delta >= 1L << ((level + 1) * bits)) {
+                level++;
+            }
+            // Beyond the top level's range: park in the furthest slot and refile on cascade.
+            long tick = delta >= 1L << (levels * bits) ? currentTick + (1L << (levels * bits)) - 1 : timer.deadlineTick;
+            head = slots[level][(int) ((tick >>> (level * bits)) & mask)];
+        }
+        timer.prev = head.prev;
+        timer.next = head;
+        head.prev.next = timer;
+        head.prev = timer;
+    }
+
+    private static <T> void unlink(Timer<T> timer) {
+        timer.prev.next = timer.next;
+        timer.next.prev = timer.prev;
+        timer.prev = null;
+        timer.next = null;
+    }
+}
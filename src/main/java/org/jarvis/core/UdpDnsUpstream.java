@@ -0,0 +1,91 @@
+package org.jarvis.core;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Queries one DNS server directly over UDP, asking for A and AAAA records in parallel on the
+ * same socket. Unlike the system resolver this sees the record TTLs, and it can be pointed at a
+ * local stub server in tests.
+ */
+public class UdpDnsUpstream implements DnsResolver.Upstream {
+
+    private static final int MAX_RESPONSE = 4096;
+
+    private final InetSocketAddress server;
+
+    public UdpDnsUpstream(InetSocketAddress server) {
+        this.server = server;
+    }
+
+    @Override
+    public DnsResolver.Resolution resolve(String name, long timeoutMillis) throws IOException {
+        int idA = ThreadLocalRandom.current().nextInt(1 << 16);
+        int idAaaa = (idA + 1) & 0xFFFF;
+        List<String> addresses = new ArrayList<>();
+        long[] minTtl = {Long.MAX_VALUE};
+
+        try (DatagramSocket socket = new DatagramSocket()) {
+            socket.connect(server);
+            for (byte[] query : new byte[][]{
+                    DnsCodec.encodeQuery(idA, name, DnsCodec.TYPE_A),
+                    DnsCodec.encodeQuery(idAaaa, name, DnsCodec.TYPE_AAAA)}) {
+                socket.send(new DatagramPacket(query, query.length));
+            }
+
+            long deadline = System.nanoTime() + timeoutMillis * 1_000_000L;
+            boolean gotA = false, gotAaaa = false;
+            byte[] buffer = new byte[MAX_RESPONSE];
+            StringBuilder owner = new StringBuilder();
+            while (!(gotA && gotAaaa)) {
+                long remainingMillis = (deadline - System.nanoTime()) / 1_000_000L;
+                if (remainingMillis <= 0) {
+                    throw new SocketTimeoutException("No answer from " + server + " for " + name);
+                }
+                socket.setSoTimeout((int) Math.min(Integer.MAX_VALUE, remainingMillis));
+                DatagramPacket response = new DatagramPacket(buffer, buffer.length);
+                socket.receive(response);
+                int length = response.getLength();
+                if (length < DnsCodec.HEADER_LENGTH) {
+                    continue;
+                }
+                int id = DnsCodec.id(buffer, 0);
+                if (id != idA && id != idAaaa) {
+                    continue; // a late answer to an earlier query
+                }
+                int rcode = DnsCodec.parseResponse(buffer, 0, length, owner,
+                        (recordName, type, ttl, message, offset, messageLength, rdata, rdLength) -> {
+                            if ((type == DnsCodec.TYPE_A && rdLength == 4) || (type == DnsCodec.TYPE_AAAA && rdLength == 16)) {
+                                addresses.add(toAddress(message, rdata, rdLength));
+                                minTtl[0] = Math.min(minTtl[0], ttl);
+                            }
+                        });
+                if (rcode < 0) {
+                    continue;
+                }
+                if (rcode != DnsCodec.RCODE_NOERROR && rcode != DnsCodec.RCODE_NXDOMAIN) {
+                    throw new IOException("DNS server returned rcode " + rcode + " for " + name);
+                }
+                if (id == idA) gotA = true; else gotAaaa = true;
+            }
+        }
+        if (addresses.isEmpty()) {
+            // NODATA and NXDOMAIN are both "nothing to block"; the caller applies its negative TTL.
+            return new DnsResolver.Resolution(List.of(), 0);
+        }
+        return new DnsResolver.Resolution(addresses, minTtl[0]);
+    }
+
+    private static String toAddress(byte[] message, int offset, int length) {
+        // Only 4 and 16 get here, checked above.
+        return length == 4
+                ? IpAddresses.v4ToString(FrameParser.i32(message, offset))
+                : IpAddresses.v6ToString(FrameParser.i64(message, offset), FrameParser.i64(message, offset + 8));
+    }
+}
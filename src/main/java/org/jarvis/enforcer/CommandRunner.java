@@ -0,0 +1,24 @@
+package org.jarvis.enforcer;
+
+import java.util.List;
+
+/**
+ * Runs an external command on behalf of the enforcers. Injectable so that enforcement can be
+ * pointed at a stand-in executable (or a dry run) instead of the real firewall tools.
+ */
+public interface CommandRunner {
+
+    /**
+     * Runs the command and waits for it to finish.
+     *
+     * @param command the program and its arguments
+     * @param stdin   text to write to the process's standard input, or null for none
+     */
+    Result run(List<String> command, String stdin);
+
+    record Result(int exitCode, String output, String error) {
+        public boolean isSuccess() {
+            return exitCode == 0;
+        }
+    }
+}
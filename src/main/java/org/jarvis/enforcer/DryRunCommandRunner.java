@@ -0,0 +1,35 @@
+package org.jarvis.enforcer;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pretends every firewall command succeeded without running it. Used for replays and
+ * benchmarks, which must not need root or touch the host's firewall.
+ */
+public class DryRunCommandRunner implements CommandRunner {
+
+    private final boolean verbose;
+    private final AtomicLong commands = new AtomicLong();
+    private final AtomicLong stdinLines = new AtomicLong();
+
+    public DryRunCommandRunner(boolean verbose) {
+        this.verbose = verbose;
+    }
+
+    @Override
+    public Result run(List<String> command, String stdin) {
+        commands.incrementAndGet();
+        if (stdin != null) {
+            stdinLines.addAndGet(stdin.lines().count());
+        }
+        if (verbose) {
+            System.out.println("[dry-run] " + String.join(" ", command)
+                    + (stdin != null ? " (" + stdin.lines().count() + " lines on stdin)" : ""));
+        }
+        return new Result(0, "", "");
+    }
+
+    public long getCommandCount() { return commands.get(); }
+    public long getStdinLineCount() { return stdinLines.get(); }
+}
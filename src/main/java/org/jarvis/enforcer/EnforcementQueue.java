@@ -0,0 +1,295 @@
+package org.jarvis.enforcer;
+
+import org.jarvis.metrics.MetricsRegistry;
+import org.jarvis.metrics.StageMetrics;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded, coalescing queue between the packet analyzer and {@link FirewallManager}.
+ *
+ * Callers submit block/unblock intents and return immediately; a single background thread
+ * applies them in batches when either {@code batchSize} intents are waiting or the oldest one
+ * has waited {@code maxDelayMs}. Intents are keyed by target and direction (and, for flows,
+ * protocol and ports), so:
+ * - a repeated intent is merged into the one already waiting,
+ * - a block followed by an unblock (or the reverse) before the flush cancels out when the
+ *   kernel state would end up unchanged.
+ * When {@code capacity} distinct intents are waiting, new ones are rejected rather than
+ * blocking the caller. A change the firewall rejects is not retried on its own, but it is not
+ * recorded as applied either, so the next intent for the same key is applied again.
+ *
+ * Settings (system properties):
+ * sentinel.enforcer.queueCapacity (default 65536), sentinel.enforcer.batchSize (default 256),
+ * sentinel.enforcer.maxDelayMs (default 50)
+ */
+public class EnforcementQueue {
+
+    private record Pending(FirewallChange change, long enqueuedNanos) { }
+
+    private final FirewallManager firewallManager;
+    private final int capacity;
+    private final int batchSize;
+    private final long maxDelayNanos;
+
+    private final Object lock = new Object();
+    // Held while a batch is taken and applied, so direct applies and queued ones never interleave.
+    // Taken before lock, never while holding it.
+    private final Object flushLock = new Object();
+    // Guarded by lock. Insertion order is submission order, which is also the apply order.
+    private final Map<String, Pending> pending = new LinkedHashMap<>();
+    // Guarded by lock. Keys this queue has blocked in the kernel and not unblocked since.
+    private final Set<String> applied = new HashSet<>();
+    private final Thread flusher;
+    private volatile boolean running = true;
+
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong cancelled = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong appliedChanges = new AtomicLong();
+    private final AtomicLong failedBatches = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong totalLatencyNanos = new AtomicLong();
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+
+    public EnforcementQueue(FirewallManager firewallManager, int capacity, int batchSize, long maxDelayMs) {
+        this.firewallManager = firewallManager;
+        this.capacity = capacity;
+        this.batchSize = batchSize;
+        this.maxDelayNanos = maxDelayMs * 1_000_000L;
+        this.flusher = new Thread(this::runFlusher, "sentinel-enforcer");
+        flusher.setDaemon(true);
+        flusher.start();
+        registerMetrics(MetricsRegistry.getInstance());
+    }
+
+    private void registerMetrics(MetricsRegistry metrics) {
+        metrics.gauge("sentinel_enforcement_queue_depth", "Firewall changes waiting to be applied.", this::getQueueDepth);
+        metrics.counterFunction("sentinel_enforcement_submitted_total", "Block and unblock intents submitted.", this::getSubmittedCount);
+        metrics.counterFunction("sentinel_enforcement_coalesced_total", "Intents merged into one already waiting.", this::getCoalescedCount);
+        metrics.counterFunction("sentinel_enforcement_rejected_total", "Intents dropped because the queue was full.", this::getRejectedCount);
+        metrics.counterFunction("sentinel_enforcement_applied_total", "Firewall changes applied.", this::getAppliedCount);
+        metrics.counterFunction("sentinel_enforcement_failed_batches_total", "Batches the firewall reported an error for.", this::getFailedBatchCount);
+    }
+
+    public static EnforcementQueue fromSystemProperties(FirewallManager firewallManager) {
+        return new EnforcementQueue(firewallManager,
+                Integer.getInteger("sentinel.enforcer.queueCapacity", 65536),
+                Integer.getInteger("sentinel.enforcer.batchSize", 256),
+                Long.getLong("sentinel.enforcer.maxDelayMs", 50));
+    }
+
+    /** @return false if the queue is full and the intent was dropped. */
+    public boolean submitBlock(String target, String direction) {
+        return submit(FirewallChange.block(target, direction));
+    }
+
+    /** @return false if the queue is full and the intent was dropped. */
+    public boolean submitUnblock(String target, String direction) {
+        return submit(FirewallChange.unblock(target, direction));
+    }
+
+    public boolean submit(FirewallChange change) {
+        String key = change.key();
+        submitted.incrementAndGet();
+        synchronized (lock) {
+            Pending waiting = pending.get(key);
+            if (waiting != null) {
+                if (waiting.change().block() == change.block()) {
+                    coalesced.incrementAndGet();
+                } else if (change.block() && applied.contains(key)) {
+                    // Unblock then block of something already in the kernel: nothing to do.
+                    pending.remove(key);
+                    cancelled.incrementAndGet();
+                } else if (!change.block() && !applied.contains(key)) {
+                    // Block then unblock before the block was ever applied.
+                    pending.remove(key);
+                    cancelled.incrementAndGet();
+                } else {
+                    pending.put(key, new Pending(change, waiting.enqueuedNanos()));
+                }
+                return true;
+            }
+            if (change.block() && applied.contains(key)) {
+                coalesced.incrementAndGet();
+                return true;
+            }
+            if (pending.size() >= capacity) {
+                rejected.incrementAndGet();
+                return false;
+            }
+            pending.put(key, new Pending(change, System.nanoTime()));
+            // Wake the flusher to start its timer, or to flush a full batch right away.
+            if (pending.size() == 1 || pending.size() == batchSize) {
+                lock.notifyAll();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Applies {@code changes} right away on the calling thread, in chunks of {@code batchSize},
+     * without the capacity limit; meant for bulk operations such as deleting every rule. Waiting
+     * intents for the same keys are superseded, and an unblock whose block never reached the
+     * kernel just cancels it.
+     *
+     * @return the changes the firewall rejected
+     */
+    public List<FirewallChange> applyNow(Collection<FirewallChange> changes) {
+        List<FirewallChange> failed = new ArrayList<>();
+        synchronized (flushLock) {
+            List<FirewallChange> toApply = new ArrayList<>(changes.size());
+            synchronized (lock) {
+                for (FirewallChange change : changes) {
+                    String key = change.key();
+                    if (pending.remove(key) != null && change.block() == applied.contains(key)) {
+                        cancelled.incrementAndGet();
+                    } else {
+                        toApply.add(change);
+                    }
+                }
+            }
+            for (int i = 0; i < toApply.size(); i += batchSize) {
+                List<FirewallChange> chunk = toApply.subList(i, Math.min(i + batchSize, toApply.size()));
+                failed.addAll(applyBatch(chunk));
+            }
+        }
+        return failed;
+    }
+
+    private void runFlusher() {
+        while (true) {
+            synchronized (lock) {
+                try {
+                    while (running && pending.isEmpty()) {
+                        lock.wait();
+                    }
+                    if (!running && pending.isEmpty()) {
+                        return;
+                    }
+                    if (running && pending.size() < batchSize) {
+                        long oldest = pending.values().iterator().next().enqueuedNanos();
+                        long waitNanos = oldest + maxDelayNanos - System.nanoTime();
+                        if (waitNanos > 0) {
+                            lock.wait(Math.max(1, waitNanos / 1_000_000L));
+                            continue;
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    running = false;
+                    continue;
+                }
+            }
+            synchronized (flushLock) {
+                List<Pending> batch = new ArrayList<>();
+                synchronized (lock) {
+                    Iterator<Pending> it = pending.values().iterator();
+                    while (it.hasNext() && batch.size() < batchSize) {
+                        batch.add(it.next());
+                        it.remove();
+                    }
+                }
+                // An applyNow() may have taken the waiting intents in the meantime.
+                if (!batch.isEmpty()) {
+                    flush(batch);
+                }
+            }
+        }
+    }
+
+    // Caller holds flushLock.
+    private void flush(List<Pending> batch) {
+        List<FirewallChange> changes = new ArrayList<>(batch.size());
+        for (Pending p : batch) {
+            changes.add(p.change());
+        }
+        applyBatch(changes);
+
+        long now = System.nanoTime();
+        for (Pending p : batch) {
+            long latency = now - p.enqueuedNanos();
+            totalLatencyNanos.addAndGet(latency);
+            maxLatencyNanos.accumulateAndGet(latency, Math::max);
+        }
+        appliedChanges.addAndGet(changes.size());
+        batches.incrementAndGet();
+    }
+
+    // Caller holds flushLock. Returns the rejected changes.
+    private List<FirewallChange> applyBatch(List<FirewallChange> changes) {
+        long start = System.nanoTime();
+        List<FirewallChange> rejected = firewallManager.applyBatch(changes);
+        if (!rejected.isEmpty()) {
+            failedBatches.incrementAndGet();
+        }
+        StageMetrics.ENFORCE.record(System.nanoTime() - start);
+
+        Set<FirewallChange> failed = new HashSet<>(rejected);
+        synchronized (lock) {
+            // A failed change leaves the kernel as it was: a failed block stays unapplied so the
+            // next submit retries it, a failed unblock stays applied so the next unblock does.
+            for (FirewallChange change : changes) {
+                if (failed.contains(change)) {
+                    continue;
+                }
+                String key = change.key();
+                if (change.block()) applied.add(key); else applied.remove(key);
+            }
+        }
+        return rejected;
+    }
+
+    /** Stops the flusher once it has applied everything still waiting. */
+    public void shutdown() {
+        synchronized (lock) {
+            running = false;
+            lock.notifyAll();
+        }
+        try {
+            flusher.join(10_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // --- Metrics ---
+
+    public int getQueueDepth() {
+        synchronized (lock) {
+            return pending.size();
+        }
+    }
+
+    public long getSubmittedCount() { return submitted.get(); }
+    public long getCoalescedCount() { return coalesced.get(); }
+    public long getCancelledCount() { return cancelled.get(); }
+    public long getRejectedCount() { return rejected.get(); }
+    public long getAppliedCount() { return appliedChanges.get(); }
+    public long getBatchCount() { return batches.get(); }
+    public long getFailedBatchCount() { return failedBatches.get(); }
+
+    /** Average time from submission until the change was applied, in microseconds. */
+    public double getAverageLatencyMicros() {
+        long applied = appliedChanges.get();
+        return applied == 0 ? 0 : totalLatencyNanos.get() / 1000.0 / applied;
+    }
+
+    public long getMaxLatencyMicros() {
+        return maxLatencyNanos.get() / 1000;
+    }
+
+    /** Average number of changes per flushed batch. */
+    public double getAverageBatchSize() {
+        long count = batches.get();
+        return count == 0 ? 0 : (double) appliedChanges.get() / count;
+    }
+}
@@ -0,0 +1,34 @@
+package org.jarvis.enforcer;
+
+/**
+ * One block or unblock of an address or CIDR prefix in the given direction
+ * ("Incoming", "Outgoing" or "Both").
+ *
+ * A flow change also names a protocol and optionally port ranges in iptables syntax
+ * ("22" or "1000:2000"); its target may be "*" for any address.
+ */
+public record FirewallChange(String target, String direction, boolean block,
+                             String protocol, String srcPorts, String dstPorts) {
+
+    public FirewallChange(String target, String direction, boolean block) {
+        this(target, direction, block, null, null, null);
+    }
+
+    public static FirewallChange block(String target, String direction) {
+        return new FirewallChange(target, direction, true);
+    }
+
+    public static FirewallChange unblock(String target, String direction) {
+        return new FirewallChange(target, direction, false);
+    }
+
+    public boolean isFlow() {
+        return protocol != null;
+    }
+
+    /** Identifies the kernel rule regardless of block or unblock. */
+    public String key() {
+        String key = target + "|" + direction;
+        return isFlow() ? key + "|" + protocol + "|" + srcPorts + "|" + dstPorts : key;
+    }
+}
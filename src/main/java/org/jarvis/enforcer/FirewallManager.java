@@ -1,76 +1,305 @@
 package org.jarvis.enforcer;
 
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStreamReader;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
+/**
+ * Applies block and unblock decisions to the kernel firewall.
+ *
+ * Two enforcement modes are available (-Dsentinel.enforcer.mode=iptables|ipset):
+ * - iptables: one DROP rule per address and direction, inserted into INPUT/OUTPUT.
+ * - ipset: one hash:net set per family and direction, referenced from a dedicated SENTINEL
+ *   chain. The kernel does a single hash lookup no matter how many addresses are blocked, and
+ *   a whole batch of changes is applied with one {@code ipset restore} invocation.
+ * Flow changes (protocol and ports) are always separate iptables rules, in either mode; a flow
+ * for any address is installed for both IPv4 and IPv6.
+ *
+ * Every INPUT/OUTPUT rule Sentinel inserts carries the iptables comment {@value #COMMENT}, so
+ * {@link FirewallReconciler} can tell its own rules from the administrator's.
+ */
 public class FirewallManager {
 
+    public enum Mode {
+        IPTABLES, IPSET;
+
+        public static Mode fromSystemProperties() {
+            return "ipset".equalsIgnoreCase(System.getProperty("sentinel.enforcer.mode")) ? IPSET : IPTABLES;
+        }
+    }
+
+    static final String CHAIN = "SENTINEL";
+    static final String COMMENT = "sentinel";
+    static final String SET_IN_V4 = "sentinel-in4";
+    static final String SET_OUT_V4 = "sentinel-out4";
+    static final String SET_IN_V6 = "sentinel-in6";
+    static final String SET_OUT_V6 = "sentinel-out6";
+    private static final int SET_MAX_ELEMENTS = 1 << 20;
+
+    private final CommandRunner runner;
+    private final Mode mode;
+    private boolean ipsetReady;
+
+    public FirewallManager() {
+        this(ProcessCommandRunner.fromSystemProperties(), Mode.fromSystemProperties());
+    }
+
+    public FirewallManager(CommandRunner runner, Mode mode) {
+        this.runner = runner;
+        this.mode = mode;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
     // A simple way to check if an address is IPv6
     private boolean isIPv6(String ipAddress) {
         return ipAddress.contains(":");
     }
 
+    /**
+     * Inserts DROP rules for an address or a whole CIDR prefix (e.g. 10.0.0.0/16). iptables
+     * matches a prefix natively, so a network costs one kernel rule per direction.
+     */
     public void blockIp(String ipAddress, String direction) {
-        String command = isIPv6(ipAddress) ? "ip6tables" : "iptables";
-        System.out.println("Attempting to block IP (" + command + "): " + ipAddress + " for direction: " + direction);
+        apply(List.of(FirewallChange.block(ipAddress, direction)));
+    }
+
+    public void unblockIp(String ipAddress, String direction) {
+        apply(List.of(FirewallChange.unblock(ipAddress, direction)));
+    }
+
+    /**
+     * Makes the kernel enforce exactly {@code desired}, the blocks Sentinel's rules call for, and
+     * removes Sentinel's leftover rules and set entries that are not among them. Meant for
+     * startup, when the kernel still holds whatever an earlier run left behind.
+     *
+     * @param desired blocks, e.g. one per rule and direction
+     */
+    public synchronized FirewallReconciler.Result reconcile(Collection<FirewallChange> desired) {
+        List<FirewallChange> rules = new ArrayList<>(desired.size());
+        List<FirewallChange> setEntries = null;
+        if (mode == Mode.IPSET) {
+            if (!ipsetReady) {
+                ipsetReady = setUpIpset();
+            }
+            // Without the sets, addresses wait for apply() to retry; tagged rules are still cleaned up.
+            setEntries = ipsetReady ? new ArrayList<>() : null;
+        }
+        for (FirewallChange change : desired) {
+            if (change.isFlow() || mode == Mode.IPTABLES) {
+                rules.add(change);
+            } else if (setEntries != null) {
+                setEntries.add(change);
+            }
+        }
+        return new FirewallReconciler(runner).reconcile(rules, setEntries);
+    }
+
+    /**
+     * Applies a batch of changes. In ipset mode the whole batch is a single process invocation;
+     * in iptables mode each change is still one command per direction.
+     *
+     * @return true if every change was applied
+     */
+    public synchronized boolean apply(Collection<FirewallChange> changes) {
+        return applyBatch(changes).isEmpty();
+    }
 
-        if ("Incoming".equalsIgnoreCase(direction)) {
-            executeFirewallCommand(command, "-I", "INPUT", "-s", ipAddress, "-j", "DROP");
-        } else if ("Outgoing".equalsIgnoreCase(direction)) {
-            executeFirewallCommand(command, "-I", "OUTPUT", "-d", ipAddress, "-j", "DROP");
-        } else if ("Both".equalsIgnoreCase(direction)) {
-            executeFirewallCommand(command, "-I", "INPUT", "-s", ipAddress, "-j", "DROP");
-            executeFirewallCommand(command, "-I", "OUTPUT", "-d", ipAddress, "-j", "DROP");
+    /**
+     * Like {@link #apply}, but tells which changes failed, so callers tracking kernel state can
+     * keep it accurate. When an ipset batch fails, every address change in it is reported.
+     *
+     * @return the changes that could not be applied, in submission order
+     */
+    public synchronized List<FirewallChange> applyBatch(Collection<FirewallChange> changes) {
+        List<FirewallChange> failed = new ArrayList<>();
+        List<FirewallChange> addressChanges = new ArrayList<>(changes.size());
+        for (FirewallChange change : changes) {
+            if (!change.isFlow()) {
+                addressChanges.add(change);
+            } else if (!applyFlow(change)) {
+                failed.add(change);
+            }
+        }
+        if (addressChanges.isEmpty()) {
+            return failed;
+        }
+        if (mode == Mode.IPSET) {
+            if (!applyWithIpset(addressChanges)) {
+                failed.addAll(addressChanges);
+            }
+            return failed;
         }
+        for (FirewallChange change : addressChanges) {
+            if (!applyWithIptables(change)) {
+                failed.add(change);
+            }
+        }
+        return failed;
     }
 
-    public void unblockIp(String ipAddress, String direction) {
+    private boolean applyFlow(FirewallChange change) {
+        String target = change.target();
+        String direction = change.direction();
+        String action = change.block() ? "-I" : "-D";
+        System.out.println("Attempting to " + (change.block() ? "block" : "unblock") + " flow: "
+                + change.protocol() + " " + target + " for direction: " + direction);
+
+        List<String> commands = "*".equals(target) ? List.of("iptables", "ip6tables")
+                : List.of(isIPv6(target) ? "ip6tables" : "iptables");
+        boolean ok = true;
+        for (String command : commands) {
+            if ("Incoming".equalsIgnoreCase(direction) || "Both".equalsIgnoreCase(direction)) {
+                ok &= executeFirewallCommand(command, flowArguments(change, action, "INPUT", "-s"));
+            }
+            if ("Outgoing".equalsIgnoreCase(direction) || "Both".equalsIgnoreCase(direction)) {
+                ok &= executeFirewallCommand(command, flowArguments(change, action, "OUTPUT", "-d"));
+            }
+        }
+        return ok;
+    }
+
+    // e.g. -I INPUT -s 10.0.0.5 -p tcp -m tcp --dport 22 -m comment --comment sentinel -j DROP;
+    // -D needs exactly the same arguments.
+    static String[] flowArguments(FirewallChange change, String action, String chain, String addressFlag) {
+        List<String> args = new ArrayList<>(List.of(action, chain));
+        if (!"*".equals(change.target())) {
+            args.add(addressFlag);
+            args.add(change.target());
+        }
+        args.add("-p");
+        args.add(change.protocol());
+        if (change.srcPorts() != null || change.dstPorts() != null) {
+            args.add("-m");
+            args.add(change.protocol());
+        }
+        if (change.srcPorts() != null) {
+            args.add("--sport");
+            args.add(change.srcPorts());
+        }
+        if (change.dstPorts() != null) {
+            args.add("--dport");
+            args.add(change.dstPorts());
+        }
+        args.add("-m");
+        args.add("comment");
+        args.add("--comment");
+        args.add(COMMENT);
+        args.add("-j");
+        args.add("DROP");
+        return args.toArray(new String[0]);
+    }
+
+    private boolean applyWithIptables(FirewallChange change) {
+        String ipAddress = change.target();
+        String direction = change.direction();
         String command = isIPv6(ipAddress) ? "ip6tables" : "iptables";
-        System.out.println("Attempting to unblock IP (" + command + "): " + ipAddress + " for direction: " + direction);
+        String action = change.block() ? "-I" : "-D";
+        System.out.println("Attempting to " + (change.block() ? "block" : "unblock") + " IP (" + command + "): "
+                + ipAddress + " for direction: " + direction);
+
+        boolean ok = true;
+        if ("Incoming".equalsIgnoreCase(direction) || "Both".equalsIgnoreCase(direction)) {
+            ok &= executeFirewallCommand(command, addressArguments(action, "INPUT", "-s", ipAddress));
+        }
+        if ("Outgoing".equalsIgnoreCase(direction) || "Both".equalsIgnoreCase(direction)) {
+            ok &= executeFirewallCommand(command, addressArguments(action, "OUTPUT", "-d", ipAddress));
+        }
+        return ok;
+    }
 
-        if ("Incoming".equalsIgnoreCase(direction)) {
-            executeFirewallCommand(command, "-D", "INPUT", "-s", ipAddress, "-j", "DROP");
-        } else if ("Outgoing".equalsIgnoreCase(direction)) {
-            executeFirewallCommand(command, "-D", "OUTPUT", "-d", ipAddress, "-j", "DROP");
-        } else if ("Both".equalsIgnoreCase(direction)) {
-            executeFirewallCommand(command, "-D", "INPUT", "-s", ipAddress, "-j", "DROP");
-            executeFirewallCommand(command, "-D", "OUTPUT", "-d", ipAddress, "-j", "DROP");
+    static String[] addressArguments(String action, String chain, String addressFlag, String target) {
+        return new String[] {action, chain, addressFlag, target, "-m", "comment", "--comment", COMMENT, "-j", "DROP"};
+    }
+
+    private boolean applyWithIpset(Collection<FirewallChange> changes) {
+        if (!ipsetReady) {
+            ipsetReady = setUpIpset();
+            if (!ipsetReady) {
+                return false;
+            }
+        }
+
+        // "ipset restore" reads one command per line; -exist turns duplicate adds and
+        // deletes of missing entries into no-ops, so the batch is idempotent.
+        StringBuilder script = new StringBuilder();
+        for (FirewallChange change : changes) {
+            String verb = change.block() ? "add " : "del ";
+            boolean v6 = isIPv6(change.target());
+            String direction = change.direction();
+            if ("Incoming".equalsIgnoreCase(direction) || "Both".equalsIgnoreCase(direction)) {
+                script.append(verb).append(v6 ? SET_IN_V6 : SET_IN_V4).append(' ').append(change.target()).append('\n');
+            }
+            if ("Outgoing".equalsIgnoreCase(direction) || "Both".equalsIgnoreCase(direction)) {
+                script.append(verb).append(v6 ? SET_OUT_V6 : SET_OUT_V4).append(' ').append(change.target()).append('\n');
+            }
+        }
+        boolean ok = executeBatch(List.of("ipset", "restore", "-exist"), script.toString());
+        if (ok) {
+            System.out.println("Applied " + changes.size() + " firewall changes in one ipset batch.");
         }
+        return ok;
+    }
+
+    // Creates the sets and the SENTINEL chain that references them. Safe to repeat.
+    private boolean setUpIpset() {
+        StringBuilder sets = new StringBuilder();
+        for (String set : List.of(SET_IN_V4, SET_OUT_V4)) {
+            sets.append("create ").append(set).append(" hash:net family inet maxelem ").append(SET_MAX_ELEMENTS).append('\n');
+        }
+        for (String set : List.of(SET_IN_V6, SET_OUT_V6)) {
+            sets.append("create ").append(set).append(" hash:net family inet6 maxelem ").append(SET_MAX_ELEMENTS).append('\n');
+        }
+        if (!executeBatch(List.of("ipset", "restore", "-exist"), sets.toString())) {
+            System.err.println("Could not create Sentinel ipsets; is the ipset tool installed?");
+            return false;
+        }
+
+        boolean ok = setUpChain("iptables", SET_IN_V4, SET_OUT_V4);
+        ok &= setUpChain("ip6tables", SET_IN_V6, SET_OUT_V6);
+        return ok;
+    }
+
+    private boolean setUpChain(String command, String inSet, String outSet) {
+        // -N fails if the chain already exists, which is fine; -F then resets it to a known state.
+        runner.run(List.of(command, "-N", CHAIN), null);
+        boolean ok = executeFirewallCommand(command, "-F", CHAIN);
+        ok &= executeFirewallCommand(command, "-A", CHAIN, "-m", "set", "--match-set", inSet, "src", "-j", "DROP");
+        ok &= executeFirewallCommand(command, "-A", CHAIN, "-m", "set", "--match-set", outSet, "dst", "-j", "DROP");
+        for (String builtin : List.of("INPUT", "OUTPUT")) {
+            if (!runner.run(List.of(command, "-C", builtin, "-j", CHAIN), null).isSuccess()) {
+                ok &= executeFirewallCommand(command, "-I", builtin, "-j", CHAIN);
+            }
+        }
+        return ok;
+    }
+
+    private boolean executeBatch(List<String> command, String stdin) {
+        CommandRunner.Result result = runner.run(command, stdin);
+        if (!result.isSuccess()) {
+            System.err.println("Firewall batch failed with exit code " + result.exitCode() + ": " + String.join(" ", command));
+            System.err.print(result.error());
+            return false;
+        }
+        return true;
     }
 
     private boolean executeFirewallCommand(String firewallCommand, String... commandArgs) {
         List<String> fullCommand = new ArrayList<>();
-        fullCommand.add("sudo");
         fullCommand.add(firewallCommand);
         for (String arg : commandArgs) {
             fullCommand.add(arg);
         }
 
-        try {
-            ProcessBuilder pb = new ProcessBuilder(fullCommand);
-            Process process = pb.start();
-            int exitCode = process.waitFor();
-
-            if (exitCode == 0) {
-                System.out.println("Firewall command executed successfully: " + String.join(" ", fullCommand));
-                return true;
-            } else {
-                System.err.println("Firewall command failed with exit code " + exitCode + ": " + String.join(" ", fullCommand));
-                try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getErrorStream()))) {
-                    String line;
-                    while ((line = reader.readLine()) != null) {
-                        System.err.println(line);
-                    }
-                }
-                return false;
-            }
-        } catch (IOException | InterruptedException e) {
-            System.err.println("Failed to execute firewall command: " + String.join(" ", fullCommand));
-            e.printStackTrace();
-            return false;
+        CommandRunner.Result result = runner.run(fullCommand, null);
+        if (result.isSuccess()) {
+            System.out.println("Firewall command executed successfully: " + String.join(" ", fullCommand));
+            return true;
         }
+        System.err.println("Firewall command failed with exit code " + result.exitCode() + ": " + String.join(" ", fullCommand));
+        System.err.print(result.error());
+        return false;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,445 @@
+package org.jarvis.enforcer;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Brings the kernel firewall in line with Sentinel's rules after a restart.
+ *
+ * After a reboot or a crash the kernel and the rules table disagree. Rules from the table are
+ * missing until a matching packet turns up, and DROP rules from an earlier run (addresses
+ * learned from DNS, deleted rules) are still there. The reconciler reads the kernel state with
+ * one {@code iptables-save} and one {@code ip6tables-save}, plus one {@code ipset save} in
+ * ipset mode. It diffs that against the wanted blocks and applies only the difference, with one
+ * {@code iptables-restore --noflush} per family and one {@code ipset restore}. Startup therefore
+ * costs a handful of processes however many rules there are, instead of one per rule.
+ *
+ * Only rules tagged with the comment {@value FirewallManager#COMMENT}, and entries of Sentinel's
+ * own sets, are ever removed. An untagged rule with exactly Sentinel's shape was left by a
+ * version that did not tag its rules. If it is still wanted it is replaced by a tagged one,
+ * so a later unblock can find it. Otherwise it is left alone, as it may be the administrator's.
+ *
+ * {@link #plan} and {@link #planSets} only look at the text they are given, so captured save
+ * output can be fed to them directly.
+ */
+public class FirewallReconciler {
+
+    /**
+     * @param enforced the wanted blocks that are in the kernel afterwards; the others were not
+     *                 applied and are left to the usual path
+     */
+    public record Result(Set<FirewallChange> enforced, int kept, int added, int removed, boolean ok, long millis) {
+        @Override
+        public String toString() {
+            return String.format("Reconciled firewall: %d blocks already in place, %d added, %d stale removed (%d ms)%s",
+                    kept, added, removed, millis, ok ? "" : "; some changes could not be applied");
+        }
+    }
+
+    /**
+     * What one restore has to do.
+     *
+     * @param script   input for {@code iptables-restore --noflush} or {@code ipset restore}, or
+     *                 null if the kernel already matches
+     * @param inserted the wanted blocks that are only in place once the script has run
+     */
+    public record Plan(String script, int kept, int added, int removed, Set<FirewallChange> inserted) {
+    }
+
+    private final CommandRunner runner;
+
+    public FirewallReconciler(CommandRunner runner) {
+        this.runner = runner;
+    }
+
+    /**
+     * @param rules      blocks enforced as iptables rules (flows, and addresses in iptables mode)
+     * @param setEntries blocks enforced as ipset entries, or null to leave the sets alone
+     */
+    public Result reconcile(Collection<FirewallChange> rules, Collection<FirewallChange> setEntries) {
+        long start = System.nanoTime();
+        Set<FirewallChange> failed = new HashSet<>();
+        int kept = 0;
+        int added = 0;
+        int removed = 0;
+        boolean ok = true;
+        for (boolean v6 : new boolean[] {false, true}) {
+            List<FirewallChange> family = new ArrayList<>();
+            for (FirewallChange change : rules) {
+                if ("*".equals(change.target()) || isIPv6(change.target()) == v6) {
+                    family.add(change);
+                }
+            }
+            String saved = capture(List.of(v6 ? "ip6tables-save" : "iptables-save", "-t", "filter"));
+            if (saved == null) {
+                failed.addAll(family);
+                ok = false;
+                continue;
+            }
+            Plan plan = plan(saved, v6, family);
+            if (plan.script() != null
+                    && !restore(List.of(v6 ? "ip6tables-restore" : "iptables-restore", "--noflush"), plan.script())) {
+                failed.addAll(plan.inserted());
+                kept += plan.kept();
+                ok = false;
+                continue;
+            }
+            kept += plan.kept();
+            added += plan.added();
+            removed += plan.removed();
+        }
+        if (setEntries != null) {
+            String saved = capture(List.of("ipset", "save"));
+            if (saved == null) {
+                failed.addAll(setEntries);
+                ok = false;
+            } else {
+                Plan plan = planSets(saved, setEntries);
+                if (plan.script() != null && !restore(List.of("ipset", "restore", "-exist"), plan.script())) {
+                    failed.addAll(plan.inserted());
+                    kept += plan.kept();
+                    ok = false;
+                } else {
+                    kept += plan.kept();
+                    added += plan.added();
+                    removed += plan.removed();
+                }
+            }
+        }
+
+        Set<FirewallChange> enforced = new HashSet<>(rules);
+        if (setEntries != null) {
+            enforced.addAll(setEntries);
+        }
+        enforced.removeAll(failed);
+        Result result = new Result(enforced, kept, added, removed, ok, (System.nanoTime() - start) / 1_000_000);
+        System.out.println(result);
+        return result;
+    }
+
+    /**
+     * Diffs {@code iptables-save} output (filter table) against the wanted iptables rules of one
+     * address family. A wanted flow for any address belongs to both families.
+     */
+    public static Plan plan(String saveOutput, boolean v6, Collection<FirewallChange> wanted) {
+        // Kernel rule key -> the wanted blocks it satisfies, and the line that inserts it.
+        Map<String, List<FirewallChange>> wantedByKey = new LinkedHashMap<>();
+        Map<String, String> insertLines = new LinkedHashMap<>();
+        for (FirewallChange change : wanted) {
+            if (!"*".equals(change.target()) && isIPv6(change.target()) != v6) {
+                continue;
+            }
+            for (String chain : chains(change.direction())) {
+                String addressFlag = "INPUT".equals(chain) ? "-s" : "-d";
+                String key = key(chain, "*".equals(change.target()) ? "*" : normalizeAddress(change.target()),
+                        change.protocol(), change.srcPorts(), change.dstPorts());
+                wantedByKey.computeIfAbsent(key, k -> new ArrayList<>()).add(change);
+                insertLines.putIfAbsent(key, String.join(" ", change.isFlow()
+                        ? FirewallManager.flowArguments(change, "-I", chain, addressFlag)
+                        : FirewallManager.addressArguments("-I", chain, addressFlag, change.target())));
+            }
+        }
+
+        List<SavedRule> saved = new ArrayList<>();
+        String table = null;
+        for (String line : saveOutput.split("\n")) {
+            line = line.strip();
+            if (line.startsWith("*")) {
+                table = line.substring(1);
+            } else if ("filter".equals(table) && line.startsWith("-A ")) {
+                SavedRule rule = SavedRule.parse(line);
+                if (rule != null) {
+                    saved.add(rule);
+                }
+            }
+        }
+        Set<String> present = new HashSet<>();
+        for (SavedRule rule : saved) {
+            if (rule.tagged() && rule.key() != null && wantedByKey.containsKey(rule.key())) {
+                present.add(rule.key());
+            }
+        }
+
+        StringBuilder script = new StringBuilder();
+        Set<String> seen = new HashSet<>();
+        int removed = 0;
+        for (SavedRule rule : saved) {
+            boolean isWanted = rule.key() != null && wantedByKey.containsKey(rule.key());
+            boolean delete = rule.tagged()
+                    ? !isWanted || !seen.add(rule.key())   // stale, or a duplicate
+                    : isWanted && !present.contains(rule.key()); // replaced by a tagged copy below
+            if (delete) {
+                script.append("-D").append(rule.line().substring(2)).append('\n');
+                removed++;
+            }
+        }
+
+        int kept = 0;
+        int added = 0;
+        Set<FirewallChange> inserted = new HashSet<>();
+        for (Map.Entry<String, List<FirewallChange>> entry : wantedByKey.entrySet()) {
+            if (present.contains(entry.getKey())) {
+                kept++;
+            } else {
+                script.append(insertLines.get(entry.getKey())).append('\n');
+                inserted.addAll(entry.getValue());
+                added++;
+            }
+        }
+        if (script.isEmpty()) {
+            return new Plan(null, kept, 0, 0, inserted);
+        }
+        return new Plan("*filter\n" + script + "COMMIT\n", kept, added, removed, inserted);
+    }
+
+    /** Diffs {@code ipset save} output against the wanted address blocks in Sentinel's sets. */
+    public static Plan planSets(String saveOutput, Collection<FirewallChange> wanted) {
+        Map<String, List<FirewallChange>> wantedByKey = new LinkedHashMap<>();
+        Map<String, String> addLines = new LinkedHashMap<>();
+        for (FirewallChange change : wanted) {
+            boolean v6 = isIPv6(change.target());
+            for (String chain : chains(change.direction())) {
+                String set = "INPUT".equals(chain)
+                        ? (v6 ? FirewallManager.SET_IN_V6 : FirewallManager.SET_IN_V4)
+                        : (v6 ? FirewallManager.SET_OUT_V6 : FirewallManager.SET_OUT_V4);
+                String key = set + " " + normalizeAddress(change.target());
+                wantedByKey.computeIfAbsent(key, k -> new ArrayList<>()).add(change);
+                addLines.putIfAbsent(key, "add " + set + " " + change.target());
+            }
+        }
+        Set<String> sets = Set.of(FirewallManager.SET_IN_V4, FirewallManager.SET_OUT_V4,
+                FirewallManager.SET_IN_V6, FirewallManager.SET_OUT_V6);
+
+        StringBuilder script = new StringBuilder();
+        Set<String> present = new HashSet<>();
+        int removed = 0;
+        for (String line : saveOutput.split("\n")) {
+            // add <set> <entry> [options]
+            String[] words = line.strip().split("\\s+");
+            if (words.length < 3 || !"add".equals(words[0]) || !sets.contains(words[1])) {
+                continue;
+            }
+            String key = words[1] + " " + normalizeAddress(words[2]);
+            if (wantedByKey.containsKey(key)) {
+                present.add(key);
+            } else {
+                script.append("del ").append(words[1]).append(' ').append(words[2]).append('\n');
+                removed++;
+            }
+        }
+
+        int kept = 0;
+        int added = 0;
+        Set<FirewallChange> inserted = new HashSet<>();
+        for (Map.Entry<String, List<FirewallChange>> entry : wantedByKey.entrySet()) {
+            if (present.contains(entry.getKey())) {
+                kept++;
+            } else {
+                script.append(addLines.get(entry.getKey())).append('\n');
+                inserted.addAll(entry.getValue());
+                added++;
+            }
+        }
+        return new Plan(script.isEmpty() ? null : script.toString(), kept, added, removed, inserted);
+    }
+
+    private String capture(List<String> command) {
+        CommandRunner.Result result = runner.run(command, null);
+        if (!result.isSuccess()) {
+            System.err.println("Could not read firewall state, exit code " + result.exitCode() + ": " + String.join(" ", command));
+            System.err.print(result.error());
+            return null;
+        }
+        return result.output();
+    }
+
+    private boolean restore(List<String> command, String script) {
+        CommandRunner.Result result = runner.run(command, script);
+        if (!result.isSuccess()) {
+            System.err.println("Firewall batch failed with exit code " + result.exitCode() + ": " + String.join(" ", command));
+            System.err.print(result.error());
+            return false;
+        }
+        return true;
+    }
+
+    private static List<String> chains(String direction) {
+        List<String> chains = new ArrayList<>(2);
+        if ("Incoming".equalsIgnoreCase(direction) || "Both".equalsIgnoreCase(direction)) {
+            chains.add("INPUT");
+        }
+        if ("Outgoing".equalsIgnoreCase(direction) || "Both".equalsIgnoreCase(direction)) {
+            chains.add("OUTPUT");
+        }
+        return chains;
+    }
+
+    private static String key(String chain, String address, String protocol, String srcPorts, String dstPorts) {
+        return chain + " " + address + " " + protocolName(protocol) + " " + srcPorts + " " + dstPorts;
+    }
+
+    // iptables-save prints the ICMPv6 protocol under its /etc/protocols name. Other numeric
+    // protocols may be printed by name too; such a rule is just replaced by an identical one.
+    private static String protocolName(String protocol) {
+        return "ipv6-icmp".equals(protocol) || "icmp6".equals(protocol) ? "icmpv6" : protocol;
+    }
+
+    private static boolean isIPv6(String target) {
+        return target.contains(":");
+    }
+
+    /**
+     * One form per address or network, whichever way it is written: iptables-save prints
+     * {@code 10.0.0.5/32}, Sentinel passes bare addresses, and rules typed before IPv6 was
+     * stored compressed may still hold the unabbreviated form.
+     */
+    static String normalizeAddress(String text) {
+        int slash = text.indexOf('/');
+        String address = slash < 0 ? text : text.substring(0, slash);
+        byte[] bytes = parseLiteral(address);
+        if (bytes == null) {
+            return text;
+        }
+        int length = bytes.length * 8;
+        if (slash >= 0) {
+            try {
+                length = Integer.parseInt(text.substring(slash + 1));
+            } catch (NumberFormatException e) {
+                return text;
+            }
+            if (length < 0 || length > bytes.length * 8) {
+                return text;
+            }
+        }
+        for (int bit = length; bit < bytes.length * 8; bit++) {
+            bytes[bit / 8] &= (byte) ~(0x80 >>> (bit % 8));
+        }
+        try {
+            String host = InetAddress.getByAddress(bytes).getHostAddress();
+            return length == bytes.length * 8 ? host : host + "/" + length;
+        } catch (UnknownHostException e) {
+            return text;
+        }
+    }
+
+    // Never resolves names: IPv6 is bracketed and IPv4 must be a dotted quad.
+    private static byte[] parseLiteral(String address) {
+        try {
+            if (address.indexOf(':') >= 0) {
+                return InetAddress.getByName("[" + address + "]").getAddress();
+            }
+            if (!address.matches("\\d{1,3}(\\.\\d{1,3}){3}")) {
+                return null;
+            }
+            return InetAddress.getByName(address).getAddress();
+        } catch (UnknownHostException | SecurityException e) {
+            return null;
+        }
+    }
+
+    /**
+     * A DROP rule in INPUT or OUTPUT from iptables-save.
+     *
+     * @param line   as saved, starting with -A
+     * @param key    matches the key of a wanted rule, or null if the rule has matches Sentinel
+     *               never uses
+     * @param tagged whether it carries Sentinel's comment
+     */
+    private record SavedRule(String line, String key, boolean tagged) {
+
+        static SavedRule parse(String line) {
+            List<String> words = words(line);
+            if (words.size() < 2 || !("INPUT".equals(words.get(1)) || "OUTPUT".equals(words.get(1)))) {
+                return null;
+            }
+            String chain = words.get(1);
+            String address = "*";
+            String protocol = null;
+            String srcPorts = null;
+            String dstPorts = null;
+            String target = null;
+            boolean tagged = false;
+            boolean shape = true;
+            for (int i = 2; i < words.size(); i++) {
+                String word = words.get(i);
+                String value = i + 1 < words.size() ? words.get(i + 1) : null;
+                switch (word) {
+                    case "-s", "-d" -> {
+                        shape &= word.equals("INPUT".equals(chain) ? "-s" : "-d");
+                        address = value != null ? normalizeAddress(value) : null;
+                        i++;
+                    }
+                    case "-p" -> {
+                        protocol = protocolName(value);
+                        i++;
+                    }
+                    case "-m" -> {
+                        shape &= "comment".equals(value) || (value != null && value.equals(protocol));
+                        i++;
+                    }
+                    case "--sport" -> {
+                        srcPorts = value;
+                        i++;
+                    }
+                    case "--dport" -> {
+                        dstPorts = value;
+                        i++;
+                    }
+                    case "--comment" -> {
+                        tagged |= FirewallManager.COMMENT.equals(value);
+                        i++;
+                    }
+                    case "-j" -> {
+                        target = value;
+                        i++;
+                    }
+                    default -> shape = false; // e.g. -i, !, or other modules' options
+                }
+            }
+            if (!"DROP".equals(target)) {
+                return null;
+            }
+            if (address == null || (protocol == null && (srcPorts != null || dstPorts != null))) {
+                shape = false;
+            }
+            return new SavedRule(line, shape ? FirewallReconciler.key(chain, address, protocol, srcPorts, dstPorts) : null, tagged);
+        }
+
+        // Splits on spaces; iptables-save quotes comments that contain spaces.
+        private static List<String> words(String line) {
+            List<String> words = new ArrayList<>();
+            StringBuilder word = new StringBuilder();
+            boolean quoted = false;
+            boolean inWord = false;
+            for (int i = 0; i < line.length(); i++) {
+                char c = line.charAt(i);
+                if (c == '\\' && quoted && i + 1 < line.length()) {
+                    word.append(line.charAt(++i));
+                } else if (c == '"') {
+                    quoted = !quoted;
+                    inWord = true;
+                } else if (Character.isWhitespace(c) && !quoted) {
+                    if (inWord) {
+                        words.add(word.toString());
+                        word.setLength(0);
+                        inWord = false;
+                    }
+                } else {
+                    word.append(c);
+                    inWord = true;
+                }
+            }
+            if (inWord) {
+                words.add(word.toString());
+            }
+            return words;
+        }
+    }
+}
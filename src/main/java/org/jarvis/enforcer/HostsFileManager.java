@@ -1,29 +1,63 @@
 package org.jarvis.enforcer;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileSystemException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Set;
 
+/**
+ * Maintains Sentinel's block entries in the hosts file.
+ *
+ * Changes are applied in batches: one read, one write, no matter how many domains change. The
+ * new content is written to a temporary file next to the hosts file and renamed over it, so a
+ * crash leaves either the old or the new file, never a truncated one. An in-memory index of the
+ * domains Sentinel manages lets a batch that changes nothing skip the file entirely.
+ *
+ * The file defaults to /etc/hosts and can be changed with -Dsentinel.hosts.path.
+ */
 public class HostsFileManager {
 
     private static final String HOSTS_FILE_PATH = "/etc/hosts";
-    private static final String BACKUP_FILE_PATH = "/etc/hosts.sentinel_backup";
+    private static final String BACKUP_SUFFIX = ".sentinel_backup";
     private static final String SENTINEL_MARKER = "# SENTINEL_BLOCK";
 
+    private final Path hostsPath;
+    private final Path backupPath;
+    // Guarded by this. Domains with a Sentinel line in the file as of the last read or write.
+    private Set<String> managedDomains;
+
     public HostsFileManager() {
+        this(Paths.get(System.getProperty("sentinel.hosts.path", HOSTS_FILE_PATH)));
+    }
+
+    public HostsFileManager(Path hostsPath) {
+        this(hostsPath, hostsPath.resolveSibling(hostsPath.getFileName() + BACKUP_SUFFIX));
+    }
+
+    /** Manages a hosts file other than /etc/hosts, e.g. a scratch copy in benchmarks. */
+    public HostsFileManager(Path hostsPath, Path backupPath) {
+        this.hostsPath = hostsPath;
+        this.backupPath = backupPath;
         createBackup();
     }
 
     private void createBackup() {
         try {
-            Path original = Paths.get(HOSTS_FILE_PATH);
-            Path backup = Paths.get(BACKUP_FILE_PATH);
-            if (!Files.exists(backup)) {
-                Files.copy(original, backup, StandardCopyOption.REPLACE_EXISTING);
+            if (!Files.exists(backupPath)) {
+                Files.copy(hostsPath, backupPath, StandardCopyOption.REPLACE_EXISTING);
                 System.out.println("Successfully created backup of hosts file.");
             }
         } catch (IOException e) {
@@ -33,53 +67,82 @@ public class HostsFileManager {
     }
 
     public void addDomainBlock(String domain) {
-        String ruleLine = "127.0.0.1 " + domain + " " + SENTINEL_MARKER;
-        try {
-            List<String> lines = Files.readAllLines(Paths.get(HOSTS_FILE_PATH));
-            // Check for the exact line to prevent duplicates
-            if (lines.stream().noneMatch(line -> line.trim().equals(ruleLine.trim()))) {
-                lines.add(ruleLine);
-                Files.write(Paths.get(HOSTS_FILE_PATH), lines);
-                System.out.println("Added to hosts file: " + domain);
-            }
-        } catch (IOException e) {
-            System.err.println("Failed to add domain to hosts file. Ensure you have sudo privileges.");
-            e.printStackTrace();
-        }
+        updateDomainBlocks(List.of(domain), List.of());
     }
 
     public void removeDomainBlock(String domain) {
-        try {
-            Path hostsPath = Paths.get(HOSTS_FILE_PATH);
-            List<String> lines = Files.readAllLines(hostsPath);
+        updateDomainBlocks(List.of(), List.of(domain));
+    }
+
+    public void addDomainBlocks(Collection<String> domains) {
+        updateDomainBlocks(domains, List.of());
+    }
 
-            // This is more robust: it removes any Sentinel-marked line containing the specific domain.
-            List<String> updatedLines = lines.stream()
-                    .filter(line -> !(line.contains(SENTINEL_MARKER) && line.contains(" " + domain)))
-                    .collect(Collectors.toList());
+    public void removeDomainBlocks(Collection<String> domains) {
+        updateDomainBlocks(List.of(), domains);
+    }
 
-            Files.write(hostsPath, updatedLines);
-            System.out.println("Removed from hosts file: " + domain);
+    /**
+     * Adds and removes Sentinel entries with a single rewrite of the hosts file. Lines that
+     * Sentinel does not manage are kept as they are.
+     */
+    public synchronized void updateDomainBlocks(Collection<String> toAdd, Collection<String> toRemove) {
+        Set<String> remove = new HashSet<>(toRemove);
+        if (managedDomains != null && managedDomains.containsAll(toAdd) && !containsAny(managedDomains, remove)) {
+            return;
+        }
+        try {
+            // Re-read rather than trust the cache for the unmanaged lines: other tools edit this file too.
+            List<String> lines = Files.readAllLines(hostsPath);
+            List<String> updatedLines = new ArrayList<>(lines.size() + toAdd.size());
+            Set<String> present = new HashSet<>();
+            int removed = 0;
+            for (String line : lines) {
+                String domain = managedDomain(line);
+                if (domain == null) {
+                    updatedLines.add(line);
+                } else if (remove.contains(domain) || !present.add(domain)) {
+                    removed++;
+                } else {
+                    updatedLines.add(line);
+                }
+            }
+            int added = 0;
+            for (String domain : toAdd) {
+                if (!remove.contains(domain) && present.add(domain)) {
+                    updatedLines.add("127.0.0.1 " + domain + " " + SENTINEL_MARKER);
+                    added++;
+                }
+            }
+            if (added > 0 || removed > 0) {
+                writeAtomically(updatedLines);
+                System.out.println("Updated hosts file: " + added + " domains added, " + removed + " removed.");
+            }
+            managedDomains = present;
         } catch (IOException e) {
-            System.err.println("Failed to remove domain from hosts file.");
+            System.err.println("Failed to update hosts file. Ensure you have sudo privileges.");
             e.printStackTrace();
+            managedDomains = null;
         }
     }
 
     /**
-     * NEW METHOD: Efficiently removes all lines added by Sentinel in one operation.
+     * Efficiently removes all lines added by Sentinel in one operation.
      */
-    public void removeAllSentinelBlocks() {
+    public synchronized void removeAllSentinelBlocks() {
         try {
-            Path hostsPath = Paths.get(HOSTS_FILE_PATH);
             List<String> lines = Files.readAllLines(hostsPath);
 
             // Keep only the lines that DO NOT have our marker.
-            List<String> updatedLines = lines.stream()
-                    .filter(line -> !line.contains(SENTINEL_MARKER))
-                    .collect(Collectors.toList());
+            List<String> updatedLines = new ArrayList<>(lines.size());
+            for (String line : lines) {
+                if (!line.contains(SENTINEL_MARKER)) {
+                    updatedLines.add(line);
+                }
+            }
 
-            Files.write(hostsPath, updatedLines);
+            writeAtomically(updatedLines);
+            managedDomains = new HashSet<>();
             System.out.println("Removed all Sentinel-managed blocks from hosts file.");
         } catch (IOException e) {
             System.err.println("Failed to remove all blocks from hosts file.");
@@ -87,13 +150,12 @@ public class HostsFileManager {
         }
     }
 
-    public void restoreAndCleanup() {
+    public synchronized void restoreAndCleanup() {
         try {
-            Path original = Paths.get(HOSTS_FILE_PATH);
-            Path backup = Paths.get(BACKUP_FILE_PATH);
-            if (Files.exists(backup)) {
-                Files.copy(backup, original, StandardCopyOption.REPLACE_EXISTING);
-                Files.delete(backup);
+            if (Files.exists(backupPath)) {
+                writeAtomically(Files.readAllBytes(backupPath));
+                Files.delete(backupPath);
+                managedDomains = null;
                 System.out.println("Successfully restored hosts file from backup and cleaned up.");
             }
         } catch (IOException e) {
@@ -101,4 +163,72 @@ public class HostsFileManager {
             e.printStackTrace();
         }
     }
-}
\ No newline at end of file
+
+    // The domain of a Sentinel-managed line ("127.0.0.1 <domain> # SENTINEL_BLOCK"), or null.
+    private static String managedDomain(String line) {
+        if (!line.contains(SENTINEL_MARKER)) {
+            return null;
+        }
+        String[] fields = line.trim().split("\\s+");
+        return fields.length >= 2 ? fields[1] : null;
+    }
+
+    private static boolean containsAny(Set<String> set, Set<String> candidates) {
+        for (String candidate : candidates) {
+            if (set.contains(candidate)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void writeAtomically(List<String> lines) throws IOException {
+        StringBuilder content = new StringBuilder();
+        for (String line : lines) {
+            content.append(line).append(System.lineSeparator());
+        }
+        writeAtomically(content.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Write a sibling temp file, flush it to disk, then rename it over the hosts file.
+    private void writeAtomically(byte[] content) throws IOException {
+        Path dir = hostsPath.toAbsolutePath().getParent();
+        Path temp = Files.createTempFile(dir, hostsPath.getFileName().toString(), ".sentinel-tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer buffer = ByteBuffer.wrap(content);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(true);
+            }
+            copyPermissions(hostsPath, temp);
+            try {
+                Files.move(temp, hostsPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                writeInPlace(content);
+            } catch (FileSystemException e) {
+                // e.g. /etc/hosts bind-mounted into a container cannot be replaced, only rewritten.
+                if (!Files.exists(temp)) {
+                    throw e;
+                }
+                writeInPlace(content);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private void writeInPlace(byte[] content) throws IOException {
+        System.err.println("Hosts file cannot be replaced atomically; rewriting it in place.");
+        Files.write(hostsPath, content);
+    }
+
+    // Temp files are created owner-only; keep the hosts file world-readable like before.
+    private static void copyPermissions(Path from, Path to) throws IOException {
+        PosixFileAttributeView source = Files.getFileAttributeView(from, PosixFileAttributeView.class);
+        if (source != null && Files.exists(from)) {
+            Files.setPosixFilePermissions(to, source.readAttributes().permissions());
+        }
+    }
+}
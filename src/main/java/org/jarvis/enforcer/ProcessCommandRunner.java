@@ -0,0 +1,60 @@
+package org.jarvis.enforcer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Runs commands as local processes, optionally behind a prefix such as {@code sudo}.
+ */
+public class ProcessCommandRunner implements CommandRunner {
+
+    private final List<String> prefix;
+
+    /** @param prefix words prepended to every command, e.g. {@code "sudo"}; may be empty. */
+    public ProcessCommandRunner(String... prefix) {
+        this.prefix = List.of(prefix);
+    }
+
+    /** The default runner: {@code sudo}, unless -Dsentinel.enforcer.sudo=false. */
+    public static ProcessCommandRunner fromSystemProperties() {
+        boolean sudo = Boolean.parseBoolean(System.getProperty("sentinel.enforcer.sudo", "true"));
+        return sudo ? new ProcessCommandRunner("sudo") : new ProcessCommandRunner();
+    }
+
+    @Override
+    public Result run(List<String> command, String stdin) {
+        List<String> fullCommand = new ArrayList<>(prefix);
+        fullCommand.addAll(command);
+        try {
+            Process process = new ProcessBuilder(fullCommand).start();
+            // Drain both streams concurrently so a chatty process cannot block on a full pipe.
+            CompletableFuture<String> error = CompletableFuture.supplyAsync(() -> readAll(process, true));
+            CompletableFuture<String> output = CompletableFuture.supplyAsync(() -> readAll(process, false));
+            try (OutputStream in = process.getOutputStream()) {
+                if (stdin != null) {
+                    in.write(stdin.getBytes(StandardCharsets.UTF_8));
+                }
+            }
+            int exitCode = process.waitFor();
+            return new Result(exitCode, output.join(), error.join());
+        } catch (IOException e) {
+            return new Result(-1, "", "Failed to start " + String.join(" ", fullCommand) + ": " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new Result(-1, "", "Interrupted while running " + String.join(" ", fullCommand));
+        }
+    }
+
+    private static String readAll(Process process, boolean errorStream) {
+        try {
+            byte[] bytes = errorStream ? process.getErrorStream().readAllBytes() : process.getInputStream().readAllBytes();
+            return new String(bytes, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            return "";
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package org.jarvis.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/** Monotonic counter. Increments from many threads don't contend on one cache line. */
+public final class Counter {
+
+    private final LongAdder value = new LongAdder();
+
+    public void increment() {
+        value.increment();
+    }
+
+    public void add(long amount) {
+        value.add(amount);
+    }
+
+    public long get() {
+        return value.sum();
+    }
+}
@@ -0,0 +1,50 @@
+package org.jarvis.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fixed-bucket latency histogram. Bucket bounds grow by a factor of four from 250 ns to about
+ * 4 s, which covers everything from a rule lookup to a slow firewall command with 13 buckets.
+ * Recording is a short scan and two LongAdder increments; nothing allocates.
+ */
+public final class LatencyHistogram {
+
+    static final long[] BOUNDS_NANOS;
+
+    static {
+        BOUNDS_NANOS = new long[13];
+        long bound = 250;
+        for (int i = 0; i < BOUNDS_NANOS.length; i++) {
+            BOUNDS_NANOS[i] = bound;
+            bound *= 4;
+        }
+    }
+
+    // One extra bucket for values above the last bound.
+    private final LongAdder[] buckets = new LongAdder[BOUNDS_NANOS.length + 1];
+    private final LongAdder sumNanos = new LongAdder();
+
+    public LatencyHistogram() {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    public void record(long nanos) {
+        int i = 0;
+        while (i < BOUNDS_NANOS.length && nanos > BOUNDS_NANOS[i]) {
+            i++;
+        }
+        buckets[i].increment();
+        sumNanos.add(nanos);
+    }
+
+    /** Non-cumulative count of bucket {@code i}; the last bucket is everything above the bounds. */
+    long bucketCount(int i) {
+        return buckets[i].sum();
+    }
+
+    long sumNanos() {
+        return sumNanos.sum();
+    }
+}
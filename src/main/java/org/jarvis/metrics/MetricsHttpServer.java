@@ -0,0 +1,64 @@
+package org.jarvis.metrics;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Serves the {@link MetricsRegistry} at http://127.0.0.1:&lt;port&gt;/metrics in the Prometheus
+ * text format. The port is set with -Dsentinel.metrics.port (default 9464).
+ */
+public class MetricsHttpServer {
+
+    private final MetricsRegistry registry;
+    private final int port;
+    private HttpServer server;
+
+    public MetricsHttpServer(MetricsRegistry registry) {
+        this.registry = registry;
+        this.port = Integer.getInteger("sentinel.metrics.port", 9464);
+    }
+
+    public void start() {
+        try {
+            // Local only; scrapers on other hosts should go through a proxy or SSH tunnel.
+            server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+            server.createContext("/metrics", new MetricsHandler(registry));
+            server.setExecutor(null); // creates a default executor
+            server.start();
+            System.out.println("Metrics HTTP server started on port " + port + ".");
+        } catch (IOException e) {
+            System.err.println("Could not start metrics server on port " + port + ": " + e.getMessage());
+        }
+    }
+
+    public void stop() {
+        if (server != null) {
+            server.stop(0);
+            System.out.println("Metrics HTTP server stopped.");
+        }
+    }
+
+    static class MetricsHandler implements HttpHandler {
+        private final MetricsRegistry registry;
+
+        MetricsHandler(MetricsRegistry registry) {
+            this.registry = registry;
+        }
+
+        @Override
+        public void handle(HttpExchange t) throws IOException {
+            byte[] response = registry.scrape().getBytes(StandardCharsets.UTF_8);
+            t.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            t.sendResponseHeaders(200, response.length);
+            try (OutputStream os = t.getResponseBody()) {
+                os.write(response);
+            }
+        }
+    }
+}
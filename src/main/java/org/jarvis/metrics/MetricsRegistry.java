@@ -0,0 +1,122 @@
+package org.jarvis.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * Named metrics rendered in the Prometheus text exposition format.
+ *
+ * A family is one metric name with one type; its series are distinguished by a single optional
+ * label. Components that already keep their own totals (queues, writers) register a supplier
+ * that is read at scrape time instead of double counting.
+ */
+public final class MetricsRegistry {
+
+    private static final MetricsRegistry INSTANCE = new MetricsRegistry();
+
+    private static final class Family {
+        final String type;
+        final String help;
+        // Label text (e.g. stage="parse", or "" for none) -> Counter, LatencyHistogram or supplier.
+        final Map<String, Object> series = new LinkedHashMap<>();
+
+        Family(String type, String help) {
+            this.type = type;
+            this.help = help;
+        }
+    }
+
+    private final Map<String, Family> families = new LinkedHashMap<>();
+
+    public static MetricsRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    public Counter counter(String name, String help) {
+        return counter(name, help, null, null);
+    }
+
+    public synchronized Counter counter(String name, String help, String labelName, String labelValue) {
+        return (Counter) family(name, "counter", help).series
+                .computeIfAbsent(label(labelName, labelValue), l -> new Counter());
+    }
+
+    public synchronized LatencyHistogram histogram(String name, String help, String labelName, String labelValue) {
+        return (LatencyHistogram) family(name, "histogram", help).series
+                .computeIfAbsent(label(labelName, labelValue), l -> new LatencyHistogram());
+    }
+
+    /** A counter whose value is read from {@code source}; replaces an earlier registration. */
+    public synchronized void counterFunction(String name, String help, LongSupplier source) {
+        family(name, "counter", help).series.put("", source);
+    }
+
+    /** A gauge whose value is read from {@code source}; replaces an earlier registration. */
+    public synchronized void gauge(String name, String help, DoubleSupplier source) {
+        family(name, "gauge", help).series.put("", source);
+    }
+
+    private Family family(String name, String type, String help) {
+        Family family = families.computeIfAbsent(name, n -> new Family(type, help));
+        if (!family.type.equals(type)) {
+            throw new IllegalArgumentException("Metric " + name + " is already registered as a " + family.type);
+        }
+        return family;
+    }
+
+    private static String label(String name, String value) {
+        return name == null ? "" : name + "=\"" + value + "\"";
+    }
+
+    /** Renders every metric in the Prometheus text format, version 0.0.4. */
+    public synchronized String scrape() {
+        StringBuilder out = new StringBuilder(4096);
+        for (Map.Entry<String, Family> entry : families.entrySet()) {
+            String name = entry.getKey();
+            Family family = entry.getValue();
+            out.append("# HELP ").append(name).append(' ').append(family.help).append('\n');
+            out.append("# TYPE ").append(name).append(' ').append(family.type).append('\n');
+            for (Map.Entry<String, Object> series : family.series.entrySet()) {
+                String labels = series.getKey();
+                Object metric = series.getValue();
+                if (metric instanceof LatencyHistogram histogram) {
+                    writeHistogram(out, name, labels, histogram);
+                } else {
+                    out.append(name);
+                    if (!labels.isEmpty()) {
+                        out.append('{').append(labels).append('}');
+                    }
+                    out.append(' ').append(valueOf(metric)).append('\n');
+                }
+            }
+        }
+        return out.toString();
+    }
+
+    private static String valueOf(Object metric) {
+        if (metric instanceof Counter counter) {
+            return Long.toString(counter.get());
+        }
+        if (metric instanceof LongSupplier supplier) {
+            return Long.toString(supplier.getAsLong());
+        }
+        return Double.toString(((DoubleSupplier) metric).getAsDouble());
+    }
+
+    private static void writeHistogram(StringBuilder out, String name, String labels, LatencyHistogram histogram) {
+        String prefix = labels.isEmpty() ? "{" : "{" + labels + ",";
+        long cumulative = 0;
+        for (int i = 0; i < LatencyHistogram.BOUNDS_NANOS.length; i++) {
+            cumulative += histogram.bucketCount(i);
+            out.append(name).append("_bucket").append(prefix).append("le=\"")
+                    .append(LatencyHistogram.BOUNDS_NANOS[i] / 1e9).append("\"} ").append(cumulative).append('\n');
+        }
+        cumulative += histogram.bucketCount(LatencyHistogram.BOUNDS_NANOS.length);
+        out.append(name).append("_bucket").append(prefix).append("le=\"+Inf\"} ").append(cumulative).append('\n');
+        String suffix = labels.isEmpty() ? "" : "{" + labels + "}";
+        out.append(name).append("_sum").append(suffix).append(' ').append(histogram.sumNanos() / 1e9).append('\n');
+        out.append(name).append("_count").append(suffix).append(' ').append(cumulative).append('\n');
+    }
+}
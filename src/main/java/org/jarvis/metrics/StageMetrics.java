@@ -0,0 +1,43 @@
+package org.jarvis.metrics;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Instruments for the packet path, one latency histogram per stage.
+ *
+ * Timing every packet would cost two clock reads per stage, so the per-packet stages only time a
+ * random sample of packets (1 in {@code sentinel.metrics.sampleEvery}, default 64, rounded to a
+ * power of two); the counters see every packet.
+ */
+public final class StageMetrics {
+
+    private static final String LATENCY = "sentinel_stage_latency_seconds";
+    private static final String LATENCY_HELP = "Time spent per operation in each processing stage.";
+    private static final MetricsRegistry REGISTRY = MetricsRegistry.getInstance();
+    private static final int SAMPLE_MASK =
+            Integer.highestOneBit(Math.max(1, Integer.getInteger("sentinel.metrics.sampleEvery", 64))) - 1;
+
+    /** Handing a captured frame to an analyzer worker. Sampled. */
+    public static final LatencyHistogram CAPTURE = REGISTRY.histogram(LATENCY, LATENCY_HELP, "stage", "capture");
+    /** Parsing link, network and transport headers. Sampled. */
+    public static final LatencyHistogram PARSE = REGISTRY.histogram(LATENCY, LATENCY_HELP, "stage", "parse");
+    /** Matching both addresses against the rules, including a block decision. Sampled. */
+    public static final LatencyHistogram LOOKUP = REGISTRY.histogram(LATENCY, LATENCY_HELP, "stage", "lookup");
+    /** Applying one batch of firewall changes. */
+    public static final LatencyHistogram ENFORCE = REGISTRY.histogram(LATENCY, LATENCY_HELP, "stage", "enforce");
+    /** Committing one batch of events to SQLite. */
+    public static final LatencyHistogram DB_WRITE = REGISTRY.histogram(LATENCY, LATENCY_HELP, "stage", "db_write");
+
+    public static final Counter FRAMES = REGISTRY.counter("sentinel_frames_analyzed_total",
+            "Frames passed to the packet analyzer.");
+    public static final Counter FRAMES_UNPARSED = REGISTRY.counter("sentinel_frames_unparsed_total",
+            "Frames without an IPv4 or IPv6 header the analyzer could read.");
+
+    private StageMetrics() {
+    }
+
+    /** @return true if the current packet should be timed. */
+    public static boolean sample() {
+        return (ThreadLocalRandom.current().nextInt() & SAMPLE_MASK) == 0;
+    }
+}
@@ -2,6 +2,7 @@ package org.jarvis.model;
 
 import javafx.beans.property.SimpleBooleanProperty;
 import javafx.beans.property.SimpleIntegerProperty;
+import javafx.beans.property.SimpleLongProperty;
 import javafx.beans.property.SimpleStringProperty;
 
 public class Rule {
@@ -10,13 +11,29 @@ public class Rule {
     private final SimpleStringProperty value;
     private final SimpleStringProperty direction;
     private final SimpleBooleanProperty enabled;
+    // Only set for FLOW_BLOCK rules; empty means any. Ports are a number or a range like 1000-2000.
+    private final SimpleStringProperty protocol;
+    private final SimpleStringProperty srcPorts;
+    private final SimpleStringProperty dstPorts;
+    // Epoch seconds at which a temporary rule is lifted; 0 means permanent.
+    private final SimpleLongProperty expiresAt = new SimpleLongProperty(0);
+    // Name of the feed that imported the rule; empty for rules added by hand.
+    private final SimpleStringProperty source = new SimpleStringProperty("");
 
     public Rule(int id, String type, String value, String direction, boolean enabled) {
+        this(id, type, value, direction, enabled, "", "", "");
+    }
+
+    public Rule(int id, String type, String value, String direction, boolean enabled,
+                String protocol, String srcPorts, String dstPorts) {
         this.id = new SimpleIntegerProperty(id);
         this.type = new SimpleStringProperty(type);
         this.value = new SimpleStringProperty(value);
         this.direction = new SimpleStringProperty(direction);
         this.enabled = new SimpleBooleanProperty(enabled);
+        this.protocol = new SimpleStringProperty(protocol == null ? "" : protocol);
+        this.srcPorts = new SimpleStringProperty(srcPorts == null ? "" : srcPorts);
+        this.dstPorts = new SimpleStringProperty(dstPorts == null ? "" : dstPorts);
     }
 
     // --- Getters and JavaFX Properties ---
@@ -34,4 +51,21 @@ public class Rule {
 
     public boolean isEnabled() { return enabled.get(); }
     public SimpleBooleanProperty enabledProperty() { return enabled; }
+
+    public String getProtocol() { return protocol.get(); }
+    public SimpleStringProperty protocolProperty() { return protocol; }
+
+    public String getSrcPorts() { return srcPorts.get(); }
+    public SimpleStringProperty srcPortsProperty() { return srcPorts; }
+
+    public String getDstPorts() { return dstPorts.get(); }
+    public SimpleStringProperty dstPortsProperty() { return dstPorts; }
+
+    public long getExpiresAt() { return expiresAt.get(); }
+    public void setExpiresAt(long epochSeconds) { expiresAt.set(epochSeconds); }
+    public SimpleLongProperty expiresAtProperty() { return expiresAt; }
+
+    public String getSource() { return source.get(); }
+    public void setSource(String source) { this.source.set(source == null ? "" : source); }
+    public SimpleStringProperty sourceProperty() { return source; }
 }
\ No newline at end of file
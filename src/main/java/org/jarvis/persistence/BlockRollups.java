@@ -0,0 +1,242 @@
+package org.jarvis.persistence;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Rule matches over time, counted per second, minute and hour and broken down by direction and
+ * rule type, so the dashboard can chart recent activity without scanning the logs table.
+ *
+ * The capture path only increments one of a few {@link LongAdder}s. Once a second a sampler
+ * thread moves their sums into three fixed-size rings of buckets: the last 10 minutes by
+ * second, the last 24 hours by minute and the last 7 days by hour. A slot is reused when its
+ * bucket comes round again, so memory stays fixed however long Sentinel runs.
+ *
+ * Each finished minute is written to the {@code block_rollups} table, one row per direction
+ * and rule type, and added to the row of its hour. History therefore survives a restart, and
+ * the minute and hour rings are filled back from the table at startup. Minute rows older than
+ * the retention are deleted; hour rows are kept.
+ *
+ * Settings (system properties):
+ * sentinel.rollup.minuteRetentionDays (default 30)
+ */
+public final class BlockRollups {
+
+    public enum Resolution {
+        SECOND(1, 600), MINUTE(60, 1440), HOUR(3600, 168);
+
+        private final int seconds;
+        private final int buckets;
+
+        Resolution(int seconds, int buckets) {
+            this.seconds = seconds;
+            this.buckets = buckets;
+        }
+
+        /** Width of one bucket. */
+        public int getSeconds() { return seconds; }
+
+        /** Buckets kept in memory. */
+        public int getBuckets() { return buckets; }
+    }
+
+    // Rule types, as passed to record().
+    public static final int IP = 0;
+    public static final int CIDR = 1;
+    public static final int FLOW = 2;
+
+    private static final String[] RULE_TYPES = {"IP_BLOCK", "CIDR_BLOCK", "FLOW_BLOCK"};
+    private static final String[] DIRECTIONS = {"Incoming", "Outgoing"};
+    // One counter per direction and rule type: direction * RULE_TYPES.length + rule type.
+    private static final int CELLS = DIRECTIONS.length * RULE_TYPES.length;
+
+    /**
+     * A row of the {@code block_rollups} table.
+     *
+     * @param resolution bucket width in seconds
+     * @param start      epoch seconds at which the bucket starts
+     */
+    public record Row(int resolution, long start, String direction, String ruleType, long count) { }
+
+    // Bucket counts for one resolution; slot = bucket % size.
+    private static final class Ring {
+        private final long[] buckets;
+        private final long[] counts;
+
+        Ring(int size) {
+            this.buckets = new long[size];
+            this.counts = new long[size * CELLS];
+            Arrays.fill(buckets, -1);
+        }
+
+        void add(long bucket, int cell, long count) {
+            int slot = (int) Math.floorMod(bucket, (long) buckets.length);
+            if (buckets[slot] != bucket) {
+                buckets[slot] = bucket;
+                Arrays.fill(counts, slot * CELLS, (slot + 1) * CELLS, 0);
+            }
+            counts[slot * CELLS + cell] += count;
+        }
+
+        long get(long bucket, int cell) {
+            int slot = (int) Math.floorMod(bucket, (long) buckets.length);
+            return buckets[slot] == bucket ? counts[slot * CELLS + cell] : 0;
+        }
+    }
+
+    private final DatabaseManager databaseManager;
+    private final long minuteRetentionSeconds;
+    private final LongAdder[] live = new LongAdder[CELLS];
+    // Guarded by this.
+    private final Ring[] rings = new Ring[Resolution.values().length];
+    // Counts of the minute not yet written to the table.
+    private final long[] unflushed = new long[CELLS];
+    private long unflushedMinute = -1;
+    private final ScheduledExecutorService sampler;
+
+    BlockRollups(DatabaseManager databaseManager, long minuteRetentionSeconds) {
+        this.databaseManager = databaseManager;
+        this.minuteRetentionSeconds = minuteRetentionSeconds;
+        for (int c = 0; c < CELLS; c++) {
+            live[c] = new LongAdder();
+        }
+        for (Resolution resolution : Resolution.values()) {
+            rings[resolution.ordinal()] = new Ring(resolution.buckets);
+        }
+        long now = epochSeconds();
+        for (Resolution resolution : List.of(Resolution.MINUTE, Resolution.HOUR)) {
+            long from = (now / resolution.seconds - resolution.buckets + 1) * resolution.seconds;
+            for (Row row : databaseManager.readRollups(resolution.seconds, from)) {
+                int cell = cell(row.direction(), row.ruleType());
+                if (cell >= 0) {
+                    rings[resolution.ordinal()].add(row.start() / resolution.seconds, cell, row.count());
+                }
+            }
+        }
+        this.sampler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "sentinel-rollups");
+            t.setDaemon(true);
+            return t;
+        });
+        sampler.scheduleAtFixedRate(this::sample, 1, 1, TimeUnit.SECONDS);
+    }
+
+    static BlockRollups fromSystemProperties(DatabaseManager databaseManager) {
+        return new BlockRollups(databaseManager,
+                TimeUnit.DAYS.toSeconds(Long.getLong("sentinel.rollup.minuteRetentionDays", 30)));
+    }
+
+    /** Counts one rule match. Called on the capture path. */
+    public void record(boolean incoming, int ruleType) {
+        live[(incoming ? 0 : 1) * RULE_TYPES.length + ruleType].increment();
+    }
+
+    /**
+     * @return the last {@link Resolution#getBuckets()} buckets up to the current one, oldest
+     *         first, each holding the Incoming and Outgoing counts over all rule types
+     */
+    public long[][] timeline(Resolution resolution) {
+        return timeline(resolution, currentBucket(resolution));
+    }
+
+    /** Like {@link #timeline(Resolution)}, ending at {@code current}, as given by {@link #currentBucket}. */
+    public synchronized long[][] timeline(Resolution resolution, long current) {
+        Ring ring = rings[resolution.ordinal()];
+        long[][] timeline = new long[resolution.buckets][DIRECTIONS.length];
+        for (int i = 0; i < resolution.buckets; i++) {
+            long bucket = current - resolution.buckets + 1 + i;
+            for (int c = 0; c < CELLS; c++) {
+                timeline[i][c / RULE_TYPES.length] += ring.get(bucket, c);
+            }
+        }
+        return timeline;
+    }
+
+    /** The number of the bucket that is filling now: seconds since the epoch / bucket width. */
+    public static long currentBucket(Resolution resolution) {
+        return epochSeconds() / resolution.seconds;
+    }
+
+    /** Stops sampling and writes the counts of the current minute. */
+    public void shutdown() {
+        sampler.shutdownNow();
+        try {
+            sampler.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        sample();
+        List<Row> rows;
+        synchronized (this) {
+            rows = takeUnflushed();
+        }
+        databaseManager.addRollups(rows);
+    }
+
+    // Counts gathered during the last second go to that second's buckets.
+    private void sample() {
+        long second = epochSeconds() - 1;
+        long[] delta = new long[CELLS];
+        for (int c = 0; c < CELLS; c++) {
+            delta[c] = live[c].sumThenReset();
+        }
+        List<Row> finished = null;
+        synchronized (this) {
+            long minute = second / 60;
+            if (minute != unflushedMinute) {
+                finished = takeUnflushed();
+                unflushedMinute = minute;
+            }
+            for (int c = 0; c < CELLS; c++) {
+                if (delta[c] == 0) {
+                    continue;
+                }
+                for (Resolution resolution : Resolution.values()) {
+                    rings[resolution.ordinal()].add(second / resolution.seconds, c, delta[c]);
+                }
+                unflushed[c] += delta[c];
+            }
+        }
+        if (finished != null) {
+            databaseManager.addRollups(finished);
+            if (second % 3600 < 60) {
+                databaseManager.deleteRollupsBefore(Resolution.MINUTE.seconds, second - minuteRetentionSeconds);
+            }
+        }
+    }
+
+    // Rows for the unflushed minute and its hour; clears it. Caller holds the monitor.
+    private List<Row> takeUnflushed() {
+        List<Row> rows = new ArrayList<>();
+        if (unflushedMinute < 0) {
+            return rows;
+        }
+        long start = unflushedMinute * 60;
+        for (int c = 0; c < CELLS; c++) {
+            if (unflushed[c] == 0) {
+                continue;
+            }
+            String direction = DIRECTIONS[c / RULE_TYPES.length];
+            String ruleType = RULE_TYPES[c % RULE_TYPES.length];
+            rows.add(new Row(Resolution.MINUTE.seconds, start, direction, ruleType, unflushed[c]));
+            rows.add(new Row(Resolution.HOUR.seconds, start - start % 3600, direction, ruleType, unflushed[c]));
+            unflushed[c] = 0;
+        }
+        return rows;
+    }
+
+    private static int cell(String direction, String ruleType) {
+        int d = Arrays.asList(DIRECTIONS).indexOf(direction);
+        int t = Arrays.asList(RULE_TYPES).indexOf(ruleType);
+        return d < 0 || t < 0 ? -1 : d * RULE_TYPES.length + t;
+    }
+
+    private static long epochSeconds() {
+        return TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+    }
+}
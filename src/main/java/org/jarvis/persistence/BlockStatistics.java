@@ -0,0 +1,112 @@
+package org.jarvis.persistence;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Running aggregates over IP_BLOCKED events, so the dashboard never has to scan the logs table.
+ *
+ * The total and per-direction counts are exact. Top blocked IPs use the Space-Saving algorithm
+ * with a fixed number of counters: every IP whose true count exceeds total / capacity is
+ * guaranteed to be tracked, and a reported count overestimates the true one by at most the
+ * error recorded when its counter was taken over.
+ */
+public final class BlockStatistics {
+
+    private static final class Counter {
+        long count;
+        long error;
+
+        Counter(long count, long error) {
+            this.count = count;
+            this.error = error;
+        }
+    }
+
+    private final int capacity;
+    private final LongAdder total = new LongAdder();
+    private final Map<String, LongAdder> byDirection = new ConcurrentHashMap<>();
+    // Guarded by this.
+    private final Map<String, Counter> counters = new HashMap<>();
+
+    public BlockStatistics(int capacity) {
+        this.capacity = capacity;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public void record(String ip, String direction) {
+        total.increment();
+        if (direction != null) {
+            byDirection.computeIfAbsent(direction, d -> new LongAdder()).increment();
+        }
+        if (ip != null) {
+            recordTop(ip, 1);
+        }
+    }
+
+    private synchronized void recordTop(String ip, long increment) {
+        Counter counter = counters.get(ip);
+        if (counter != null) {
+            counter.count += increment;
+            return;
+        }
+        if (counters.size() < capacity) {
+            counters.put(ip, new Counter(increment, 0));
+            return;
+        }
+        // Take over the smallest counter. A linear scan is fine at dashboard-sized capacities.
+        String minIp = null;
+        long min = Long.MAX_VALUE;
+        for (Map.Entry<String, Counter> entry : counters.entrySet()) {
+            if (entry.getValue().count < min) {
+                min = entry.getValue().count;
+                minIp = entry.getKey();
+            }
+        }
+        counters.remove(minIp);
+        counters.put(ip, new Counter(min + increment, min));
+    }
+
+    /** Loads exact counts read from the database. Call before events start arriving. */
+    synchronized void seed(long totalCount, Map<String, Long> directionCounts, Map<String, Long> ipCounts) {
+        total.reset();
+        total.add(totalCount);
+        byDirection.clear();
+        directionCounts.forEach((direction, count) -> {
+            LongAdder adder = new LongAdder();
+            adder.add(count);
+            byDirection.put(direction, adder);
+        });
+        counters.clear();
+        ipCounts.forEach((ip, count) -> recordTop(ip, count));
+    }
+
+    public long getTotal() {
+        return total.sum();
+    }
+
+    public Map<String, Long> getByDirection() {
+        Map<String, Long> snapshot = new HashMap<>();
+        byDirection.forEach((direction, adder) -> snapshot.put(direction, adder.sum()));
+        return snapshot;
+    }
+
+    /** @return up to {@code k} IPs with their estimated counts, highest first. */
+    public synchronized Map<String, Long> getTop(int k) {
+        List<Map.Entry<String, Counter>> entries = new ArrayList<>(counters.entrySet());
+        entries.sort((a, b) -> Long.compare(b.getValue().count, a.getValue().count));
+        Map<String, Long> top = new LinkedHashMap<>();
+        for (int i = 0; i < Math.min(k, entries.size()); i++) {
+            top.put(entries.get(i).getKey(), entries.get(i).getValue().count);
+        }
+        return top;
+    }
+}
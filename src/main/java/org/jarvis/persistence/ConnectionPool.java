@@ -0,0 +1,166 @@
+package org.jarvis.persistence;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fixed-size pool of long-lived SQLite connections, each with its own prepared-statement cache.
+ *
+ * Connections are opened once with the tuning pragmas below instead of once per call, so a
+ * query only pays for the statement itself. WAL lets the UI read while the log writer commits.
+ */
+class ConnectionPool {
+
+    private static final long BORROW_TIMEOUT_MS = 10_000;
+
+    /** A pooled connection. Statements from {@link #prepare} are cached and must not be closed. */
+    static final class PooledConnection {
+        private final Connection connection;
+        private final Map<String, PreparedStatement> statements = new HashMap<>();
+
+        private PooledConnection(Connection connection) {
+            this.connection = connection;
+        }
+
+        Connection connection() {
+            return connection;
+        }
+
+        PreparedStatement prepare(String sql) throws SQLException {
+            PreparedStatement pstmt = statements.get(sql);
+            if (pstmt == null) {
+                pstmt = connection.prepareStatement(sql);
+                statements.put(sql, pstmt);
+            }
+            pstmt.clearParameters();
+            return pstmt;
+        }
+
+        private void close() {
+            for (PreparedStatement pstmt : statements.values()) {
+                try {
+                    pstmt.close();
+                } catch (SQLException ignored) {
+                    // Closing the connection releases it anyway.
+                }
+            }
+            statements.clear();
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                System.err.println("Error closing database connection: " + e.getMessage());
+            }
+        }
+    }
+
+    @FunctionalInterface
+    interface Work<T> {
+        T run(PooledConnection conn) throws SQLException;
+    }
+
+    private final BlockingQueue<PooledConnection> idle;
+    private final List<PooledConnection> all = new ArrayList<>();
+    private volatile boolean closed;
+
+    ConnectionPool(String url, int size) throws SQLException {
+        this.idle = new ArrayBlockingQueue<>(size);
+        try {
+            for (int i = 0; i < size; i++) {
+                PooledConnection conn = new PooledConnection(open(url));
+                all.add(conn);
+                idle.add(conn);
+            }
+        } catch (SQLException e) {
+            all.forEach(PooledConnection::close);
+            throw e;
+        }
+    }
+
+    /** Opens a standalone connection with the same tuning as the pooled ones. */
+    static Connection open(String url) throws SQLException {
+        Connection conn = DriverManager.getConnection(url);
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("PRAGMA journal_mode=WAL");
+            // In WAL mode NORMAL only syncs at checkpoints; a crash can lose the last commits
+            // but never corrupts the file.
+            stmt.execute("PRAGMA synchronous=NORMAL");
+            stmt.execute("PRAGMA mmap_size=" + Long.getLong("sentinel.db.mmapBytes", 256L << 20));
+            // Negative means KiB rather than pages.
+            stmt.execute("PRAGMA cache_size=-" + Integer.getInteger("sentinel.db.cacheKib", 16 * 1024));
+            stmt.execute("PRAGMA temp_store=MEMORY");
+            stmt.execute("PRAGMA busy_timeout=5000");
+        }
+        return conn;
+    }
+
+    /** Runs the work on an idle connection, waiting for one if all are in use. */
+    <T> T execute(Work<T> work) throws SQLException {
+        PooledConnection conn = borrow();
+        try {
+            return work.run(conn);
+        } finally {
+            idle.offer(conn);
+        }
+    }
+
+    /** Like {@link #execute}, inside a single transaction that is rolled back if the work fails. */
+    <T> T transaction(Work<T> work) throws SQLException {
+        return execute(conn -> {
+            Connection c = conn.connection();
+            c.setAutoCommit(false);
+            try {
+                T result = work.run(conn);
+                c.commit();
+                return result;
+            } catch (SQLException | RuntimeException e) {
+                c.rollback();
+                throw e;
+            } finally {
+                c.setAutoCommit(true);
+            }
+        });
+    }
+
+    private PooledConnection borrow() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed");
+        }
+        try {
+            PooledConnection conn = idle.poll(BORROW_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            if (conn == null) {
+                throw new SQLException("Timed out waiting for a database connection");
+            }
+            return conn;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection", e);
+        }
+    }
+
+    /** Closes every connection once it is returned; callers in flight finish first. */
+    void close() {
+        closed = true;
+        for (int i = 0; i < all.size(); i++) {
+            try {
+                PooledConnection conn = idle.poll(BORROW_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                if (conn == null) {
+                    break;
+                }
+                conn.close();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+    }
+}
@@ -3,81 +3,294 @@ package org.jarvis.persistence;
 import org.jarvis.model.Rule;
 
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
 
+/**
+ * Shared persistence component. Obtain it with {@link #getInstance()}; the schema is set up once
+ * and every call runs on a pooled connection with cached prepared statements.
+ *
+ * Dashboard figures come from {@link BlockStatistics}, seeded from the logs table at start-up
+ * and updated as events are logged, and from the time series kept by {@link BlockRollups}.
+ *
+ * Settings (system properties):
+ * sentinel.db.url (default jdbc:sqlite:firewall.db), sentinel.db.poolSize (default 4),
+ * sentinel.stats.topCapacity (default 100)
+ */
 public class DatabaseManager {
 
-    private static final String DB_URL = "jdbc:sqlite:firewall.db";
+    private static final String DEFAULT_DB_URL = "jdbc:sqlite:firewall.db";
+    // Adding a rule that already exists replaces its direction and expiry, as the analyzer's index
+    // does: re-adding a temporary block extends it and re-adding it without a TTL makes it permanent.
+    private static final String INSERT_RULE_SQL = "INSERT INTO rules(type, value, direction, enabled, protocol, src_ports, dst_ports, expires_at) "
+            + "VALUES(?,?,?,?,?,?,?,?) ON CONFLICT(value, protocol, src_ports, dst_ports) "
+            + "DO UPDATE SET direction = excluded.direction, expires_at = excluded.expires_at "
+            + "WHERE direction IS NOT excluded.direction OR expires_at IS NOT excluded.expires_at";
+    // Automatic blocks never touch a rule that already exists, e.g. stamp a permanent one with
+    // their expiry.
+    private static final String INSERT_RULE_IF_ABSENT_SQL = "INSERT INTO rules(type, value, direction, enabled, protocol, src_ports, dst_ports, expires_at) "
+            + "VALUES(?,?,?,?,?,?,?,?) ON CONFLICT(value, protocol, src_ports, dst_ports) DO NOTHING";
+    private static final String DELETE_RULE_SQL = "DELETE FROM rules WHERE id = ?";
+    // A feed never takes over a rule that already exists, so manual rules outlive the feed.
+    private static final String INSERT_FEED_RULE_SQL = "INSERT INTO rules(type, value, direction, enabled, source) "
+            + "VALUES(?,?,?,1,?) ON CONFLICT(value, protocol, src_ports, dst_ports) DO NOTHING";
+    private static final String DELETE_FEED_RULE_SQL = "DELETE FROM rules WHERE source = ? AND value = ?";
 
-    public DatabaseManager() {
+    private static DatabaseManager instance;
+
+    private final String dbUrl;
+    private final ConnectionPool pool;
+    private final BlockStatistics statistics = new BlockStatistics(Integer.getInteger("sentinel.stats.topCapacity", 100));
+
+    // Created on the first logEvent, so instances that never log don't start a writer thread.
+    private LogWriter logWriter;
+    // Created on first use, like logWriter.
+    private BlockRollups blockRollups;
+
+    public static synchronized DatabaseManager getInstance() {
+        if (instance == null) {
+            instance = new DatabaseManager(System.getProperty("sentinel.db.url", DEFAULT_DB_URL),
+                    Integer.getInteger("sentinel.db.poolSize", 4));
+        }
+        return instance;
+    }
+
+    public DatabaseManager(String dbUrl, int poolSize) {
+        this.dbUrl = dbUrl;
+        try {
+            this.pool = new ConnectionPool(dbUrl, poolSize);
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not open database " + dbUrl + ": " + e.getMessage(), e);
+        }
         initializeDatabase();
+        seedStatistics();
     }
 
     private void initializeDatabase() {
-        String createRulesTableSql = "CREATE TABLE IF NOT EXISTS rules ("
-                + " id integer PRIMARY KEY AUTOINCREMENT,"
-                + " type text NOT NULL,"
-                + " value text NOT NULL UNIQUE,"
-                + " direction text NOT NULL DEFAULT 'Outgoing',"
-                + " enabled boolean NOT NULL"
-                + ");";
+        String createRulesTableSql = createRulesTableSql("rules");
 
         String createLogsTableSql = "CREATE TABLE IF NOT EXISTS logs ("
                 + " id integer PRIMARY KEY AUTOINCREMENT,"
                 + " timestamp text NOT NULL,"
                 + " event_type text NOT NULL,"
                 + " direction text," // New column for analytics
-                + " details text NOT NULL"
+                + " details text NOT NULL,"
+                + " ip text" // Blocked address for IP_BLOCKED events, so it can be indexed
+
+                + ");";
+
+        // Domains found for a keyword by DomainScraper, newline-separated.
+        String createDomainCacheTableSql = "CREATE TABLE IF NOT EXISTS domain_cache ("
+                + " keyword text PRIMARY KEY,"
+                + " domains text NOT NULL,"
+                + " fetched_at integer NOT NULL" // epoch seconds
                 + ");";
 
-        try (Connection conn = DriverManager.getConnection(DB_URL);
-             Statement stmt = conn.createStatement()) {
-            stmt.execute(createRulesTableSql);
-            stmt.execute(createLogsTableSql);
+        // Rule matches per bucket, written by BlockRollups; a few rows per minute, so charts never read logs.
+        String createBlockRollupsTableSql = "CREATE TABLE IF NOT EXISTS block_rollups ("
+                + " resolution integer NOT NULL," // bucket width in seconds: 60 or 3600
+                + " start integer NOT NULL," // epoch seconds
+                + " direction text NOT NULL,"
+                + " rule_type text NOT NULL,"
+                + " count integer NOT NULL,"
+                + " PRIMARY KEY (resolution, start, direction, rule_type)"
+                + ") WITHOUT ROWID;";
+
+        try {
+            pool.execute(conn -> {
+                try (Statement stmt = conn.connection().createStatement()) {
+                    stmt.execute(createRulesTableSql);
+                    stmt.execute(createLogsTableSql);
+                    stmt.execute(createDomainCacheTableSql);
+                    stmt.execute(createBlockRollupsTableSql);
+                }
+                // Add columns if they don't exist in an old DB file
+                addColumnIfNotExists(conn.connection(), "rules", "direction", "TEXT NOT NULL DEFAULT 'Outgoing'");
+                if (!columnExists(conn.connection(), "rules", "protocol")) {
+                    migrateRulesToFlows(conn.connection());
+                }
+                addColumnIfNotExists(conn.connection(), "rules", "expires_at", "INTEGER");
+                addColumnIfNotExists(conn.connection(), "rules", "source", "TEXT NOT NULL DEFAULT ''");
+                addColumnIfNotExists(conn.connection(), "logs", "direction", "TEXT");
+                if (addColumnIfNotExists(conn.connection(), "logs", "ip", "TEXT")) {
+                    backfillLogIps(conn.connection());
+                }
+                try (Statement stmt = conn.connection().createStatement()) {
+                    stmt.execute("CREATE INDEX IF NOT EXISTS idx_logs_type_ip ON logs(event_type, ip)");
+                    stmt.execute("CREATE INDEX IF NOT EXISTS idx_logs_type_direction ON logs(event_type, direction)");
+                    stmt.execute("CREATE INDEX IF NOT EXISTS idx_rules_expires ON rules(expires_at)");
+                    stmt.execute("CREATE INDEX IF NOT EXISTS idx_rules_source ON rules(source)");
+                    createRulesVersion(stmt);
+                }
+                return null;
+            });
         } catch (SQLException e) {
             System.err.println("Error creating database tables: " + e.getMessage());
         }
+    }
+
+    // Every change to the rules table bumps rules_version, which tags the compiled rule snapshot.
+    // A new database starts at a random version, so a snapshot left over from a deleted
+    // database file never matches it.
+    private static void createRulesVersion(Statement stmt) throws SQLException {
+        stmt.execute("CREATE TABLE IF NOT EXISTS rules_version ("
+                + " id integer PRIMARY KEY CHECK (id = 0),"
+                + " version integer NOT NULL"
+                + ");");
+        stmt.execute("INSERT OR IGNORE INTO rules_version(id, version) VALUES (0, abs(random() >> 16))");
+        for (String event : new String[] {"INSERT", "UPDATE", "DELETE"}) {
+            stmt.execute("CREATE TRIGGER IF NOT EXISTS rules_version_" + event.toLowerCase()
+                    + " AFTER " + event + " ON rules BEGIN"
+                    + " UPDATE rules_version SET version = version + 1 WHERE id = 0; END");
+        }
+    }
 
-        // Add columns if they don't exist in an old DB file
-        addColumnIfNotExists("rules", "direction", "TEXT NOT NULL DEFAULT 'Outgoing'");
-        addColumnIfNotExists("logs", "direction", "TEXT");
+    // Empty strings rather than NULLs for "any", so the UNIQUE constraint also covers address rules.
+    private static String createRulesTableSql(String table) {
+        return "CREATE TABLE IF NOT EXISTS " + table + " ("
+                + " id integer PRIMARY KEY AUTOINCREMENT,"
+                + " type text NOT NULL,"
+                + " value text NOT NULL,"
+                + " direction text NOT NULL DEFAULT 'Outgoing',"
+                + " enabled boolean NOT NULL,"
+                + " protocol text NOT NULL DEFAULT ''," // FLOW_BLOCK only
+                + " src_ports text NOT NULL DEFAULT '',"
+                + " dst_ports text NOT NULL DEFAULT '',"
+                + " expires_at integer," // epoch seconds; NULL for permanent rules
+                + " source text NOT NULL DEFAULT ''," // feed that imported the rule; empty if added by hand
+                + " UNIQUE(value, protocol, src_ports, dst_ports)"
+                + ");";
     }
 
-    private void addColumnIfNotExists(String tableName, String columnName, String columnDefinition) {
-        try (Connection conn = DriverManager.getConnection(DB_URL)) {
-            DatabaseMetaData md = conn.getMetaData();
-            ResultSet rs = md.getColumns(null, null, tableName, columnName);
+    private static boolean columnExists(Connection conn, String tableName, String columnName) throws SQLException {
+        try (ResultSet rs = conn.getMetaData().getColumns(null, null, tableName, columnName)) {
+            return rs.next();
+        }
+    }
+
+    // One-time migration: value used to be UNIQUE on its own, which would forbid two flow rules
+    // for the same address. SQLite cannot change a constraint in place, so rebuild the table.
+    private void migrateRulesToFlows(Connection conn) throws SQLException {
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false);
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute(createRulesTableSql("rules_migrated"));
+            stmt.execute("INSERT INTO rules_migrated(id, type, value, direction, enabled) "
+                    + "SELECT id, type, value, direction, enabled FROM rules");
+            stmt.execute("DROP TABLE rules");
+            stmt.execute("ALTER TABLE rules_migrated RENAME TO rules");
+            conn.commit();
+            System.out.println("Migrated the rules table to support flow rules.");
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(autoCommit);
+        }
+    }
+
+    /** @return true if the column was added */
+    private boolean addColumnIfNotExists(Connection conn, String tableName, String columnName, String columnDefinition) {
+        try (ResultSet rs = conn.getMetaData().getColumns(null, null, tableName, columnName)) {
             if (!rs.next()) {
                 try (Statement stmt = conn.createStatement()) {
                     stmt.execute("ALTER TABLE " + tableName + " ADD COLUMN " + columnName + " " + columnDefinition);
                     System.out.println("Added column '" + columnName + "' to table '" + tableName + "'.");
+                    return true;
                 }
             }
         } catch (SQLException e) {
             System.err.println("Error checking or adding column: " + e.getMessage());
         }
+        return false;
+    }
+
+    // One-time migration: older rows only carry the IP inside the details text.
+    private void backfillLogIps(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            int updated = stmt.executeUpdate("UPDATE logs SET ip = substr(details, instr(details, ': ') + 2) "
+                    + "WHERE event_type = 'IP_BLOCKED' AND ip IS NULL");
+            System.out.println("Backfilled the blocked IP of " + updated + " log rows.");
+        }
+    }
+
+    // Exact counts from the table, loaded once so later dashboard reads come from memory.
+    private void seedStatistics() {
+        try {
+            pool.execute(conn -> {
+                long total = 0;
+                Map<String, Long> directions = new HashMap<>();
+                try (ResultSet rs = conn.prepare("SELECT direction, COUNT(*) FROM logs "
+                        + "WHERE event_type = 'IP_BLOCKED' GROUP BY direction").executeQuery()) {
+                    while (rs.next()) {
+                        total += rs.getLong(2);
+                        if (rs.getString(1) != null) {
+                            directions.put(rs.getString(1), rs.getLong(2));
+                        }
+                    }
+                }
+                Map<String, Long> topIps = new HashMap<>();
+                PreparedStatement pstmt = conn.prepare("SELECT ip, COUNT(*) AS count FROM logs "
+                        + "WHERE event_type = 'IP_BLOCKED' AND ip IS NOT NULL GROUP BY ip ORDER BY count DESC LIMIT ?");
+                pstmt.setInt(1, statistics.getCapacity());
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        topIps.put(rs.getString(1), rs.getLong(2));
+                    }
+                }
+                statistics.seed(total, directions, topIps);
+                return null;
+            });
+        } catch (SQLException e) {
+            System.err.println("Error loading block statistics: " + e.getMessage());
+        }
     }
 
     public Set<Rule> getAllActiveRules() {
+        return getActiveRules("");
+    }
+
+    /**
+     * The active rules a compiled address snapshot does not hold: domain and flow rules, plus
+     * temporary rules, whose expiries still have to be scheduled.
+     */
+    public Set<Rule> getRulesOutsideSnapshot() {
+        return getActiveRules(" AND (type IN ('DOMAIN_BLOCK', 'FLOW_BLOCK') OR expires_at IS NOT NULL)");
+    }
+
+    private Set<Rule> getActiveRules(String condition) {
         Set<Rule> rules = new HashSet<>();
-        String sql = "SELECT id, type, value, direction, enabled FROM rules WHERE enabled = true";
-
-        try (Connection conn = DriverManager.getConnection(DB_URL);
-             Statement stmt = conn.createStatement();
-             ResultSet rs = stmt.executeQuery(sql)) {
-
-            while (rs.next()) {
-                rules.add(new Rule(
-                        rs.getInt("id"),
-                        rs.getString("type"),
-                        rs.getString("value"),
-                        rs.getString("direction"),
-                        rs.getBoolean("enabled")
-                ));
-            }
+        String sql = "SELECT id, type, value, direction, enabled, protocol, src_ports, dst_ports, expires_at, source FROM rules WHERE enabled = true" + condition;
+
+        try {
+            pool.execute(conn -> {
+                try (ResultSet rs = conn.prepare(sql).executeQuery()) {
+                    while (rs.next()) {
+                        Rule rule = new Rule(
+                                rs.getInt("id"),
+                                rs.getString("type"),
+                                rs.getString("value"),
+                                rs.getString("direction"),
+                                rs.getBoolean("enabled"),
+                                rs.getString("protocol"),
+                                rs.getString("src_ports"),
+                                rs.getString("dst_ports")
+                        );
+                        rule.setExpiresAt(rs.getLong("expires_at")); // 0 for NULL
+                        rule.setSource(rs.getString("source"));
+                        rules.add(rule);
+                    }
+                }
+                return null;
+            });
         } catch (SQLException e) {
             System.err.println("Error fetching active rules: " + e.getMessage());
         }
@@ -85,109 +298,432 @@ public class DatabaseManager {
     }
 
     public void addRule(String type, String value, String direction, boolean enabled) {
-        String sql = "INSERT OR IGNORE INTO rules(type, value, direction, enabled) VALUES(?,?,?,?)";
+        addRule(new Rule(0, type, value, direction, enabled));
+    }
+
+    /**
+     * Inserts the rule, including the protocol and ports of a FLOW_BLOCK and its expiry; the
+     * rule's id is ignored.
+     */
+    public void addRule(Rule rule) {
+        try {
+            pool.execute(conn -> {
+                PreparedStatement pstmt = conn.prepare(INSERT_RULE_SQL);
+                bindRule(pstmt, rule);
+                return pstmt.executeUpdate();
+            });
+        } catch (SQLException e) {
+            System.err.println("Error adding rule: " + e.getMessage());
+        }
+    }
 
-        try (Connection conn = DriverManager.getConnection(DB_URL);
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setString(1, type);
-            pstmt.setString(2, value);
-            pstmt.setString(3, direction);
-            pstmt.setBoolean(4, enabled);
-            pstmt.executeUpdate();
+    /**
+     * Inserts the rule unless one with the same value, protocol and ports exists, enabled or not.
+     *
+     * @return true if the rule was inserted
+     */
+    public boolean addRuleIfAbsent(Rule rule) {
+        try {
+            return pool.execute(conn -> {
+                PreparedStatement pstmt = conn.prepare(INSERT_RULE_IF_ABSENT_SQL);
+                bindRule(pstmt, rule);
+                return pstmt.executeUpdate();
+            }) > 0;
         } catch (SQLException e) {
             System.err.println("Error adding rule: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Inserts many rules in one transaction; the ids of the given rules are ignored and rules
+     * that already exist take the new direction and expiry.
+     *
+     * @return the number of rules actually inserted or updated
+     */
+    public int addRules(Collection<Rule> rules) {
+        if (rules.isEmpty()) {
+            return 0;
+        }
+        try {
+            return pool.transaction(conn -> {
+                PreparedStatement pstmt = conn.prepare(INSERT_RULE_SQL);
+                for (Rule rule : rules) {
+                    bindRule(pstmt, rule);
+                    pstmt.addBatch();
+                }
+                int inserted = 0;
+                for (int count : pstmt.executeBatch()) {
+                    if (count > 0) inserted += count;
+                }
+                return inserted;
+            });
+        } catch (SQLException e) {
+            System.err.println("Error adding " + rules.size() + " rules: " + e.getMessage());
+            return 0;
+        }
+    }
+
+    private static void bindRule(PreparedStatement pstmt, Rule rule) throws SQLException {
+        pstmt.setString(1, rule.getType());
+        pstmt.setString(2, rule.getValue());
+        pstmt.setString(3, rule.getDirection());
+        pstmt.setBoolean(4, rule.isEnabled());
+        pstmt.setString(5, rule.getProtocol());
+        pstmt.setString(6, rule.getSrcPorts());
+        pstmt.setString(7, rule.getDstPorts());
+        if (rule.getExpiresAt() > 0) {
+            pstmt.setLong(8, rule.getExpiresAt());
+        } else {
+            pstmt.setNull(8, Types.INTEGER);
         }
     }
 
     public void deleteRule(int id) {
-        String sql = "DELETE FROM rules WHERE id = ?";
-        try (Connection conn = DriverManager.getConnection(DB_URL);
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setInt(1, id);
-            pstmt.executeUpdate();
+        try {
+            pool.execute(conn -> {
+                PreparedStatement pstmt = conn.prepare(DELETE_RULE_SQL);
+                pstmt.setInt(1, id);
+                return pstmt.executeUpdate();
+            });
             System.out.println("Rule with id " + id + " deleted successfully.");
         } catch (SQLException e) {
             System.err.println("Error deleting rule: " + e.getMessage());
         }
     }
 
+    /** @return the current rules version, or -1 if it could not be read */
+    public long getRulesVersion() {
+        try {
+            return pool.execute(conn -> {
+                try (ResultSet rs = conn.prepare("SELECT version FROM rules_version WHERE id = 0").executeQuery()) {
+                    return rs.next() ? rs.getLong(1) : -1L;
+                }
+            });
+        } catch (SQLException e) {
+            System.err.println("Error reading the rules version: " + e.getMessage());
+            return -1;
+        }
+    }
+
+    /**
+     * Streams the value and direction of every active address rule (everything but domain and
+     * flow rules) without building {@link Rule} objects. The rows and the returned version come
+     * from the same read transaction.
+     *
+     * @return the rules version the rows belong to, or -1 if reading failed
+     */
+    public long readAddressRules(BiConsumer<String, String> valueAndDirection) {
+        try {
+            return pool.transaction(conn -> {
+                long version;
+                try (ResultSet rs = conn.prepare("SELECT version FROM rules_version WHERE id = 0").executeQuery()) {
+                    version = rs.next() ? rs.getLong(1) : -1L;
+                }
+                try (ResultSet rs = conn.prepare("SELECT value, direction FROM rules WHERE enabled = true "
+                        + "AND type NOT IN ('DOMAIN_BLOCK', 'FLOW_BLOCK')").executeQuery()) {
+                    while (rs.next()) {
+                        valueAndDirection.accept(rs.getString(1), rs.getString(2));
+                    }
+                }
+                return version;
+            });
+        } catch (SQLException e) {
+            System.err.println("Error reading address rules: " + e.getMessage());
+            return -1;
+        }
+    }
+
+    /** Values of the rules a feed imported, i.e. the feed's previous version. */
+    public List<String> getRuleValuesBySource(String source) {
+        List<String> values = new ArrayList<>();
+        try {
+            pool.execute(conn -> {
+                PreparedStatement pstmt = conn.prepare("SELECT value FROM rules WHERE source = ?");
+                pstmt.setString(1, source);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        values.add(rs.getString(1));
+                    }
+                }
+                return null;
+            });
+        } catch (SQLException e) {
+            System.err.println("Error fetching the rules of feed " + source + ": " + e.getMessage());
+        }
+        return values;
+    }
+
+    /**
+     * Applies the difference between two versions of a feed in one transaction: removes the
+     * feed's rules for {@code removed} and inserts {@code added} as IP or CIDR rules tagged with
+     * the feed. Values that already have a rule are left to it.
+     *
+     * @return the values actually inserted, in the order given, or null if the transaction failed
+     */
+    public List<String> applyFeedDiff(String source, String direction, Collection<String> added, Collection<String> removed) {
+        try {
+            return pool.transaction(conn -> {
+                if (!removed.isEmpty()) {
+                    PreparedStatement delete = conn.prepare(DELETE_FEED_RULE_SQL);
+                    for (String value : removed) {
+                        delete.setString(1, source);
+                        delete.setString(2, value);
+                        delete.addBatch();
+                    }
+                    delete.executeBatch();
+                }
+                List<String> inserted = new ArrayList<>();
+                if (!added.isEmpty()) {
+                    PreparedStatement insert = conn.prepare(INSERT_FEED_RULE_SQL);
+                    List<String> values = new ArrayList<>(added);
+                    for (String value : values) {
+                        insert.setString(1, value.indexOf('/') >= 0 ? "CIDR_BLOCK" : "IP_BLOCK");
+                        insert.setString(2, value);
+                        insert.setString(3, direction);
+                        insert.setString(4, source);
+                        insert.addBatch();
+                    }
+                    int[] counts = insert.executeBatch();
+                    for (int i = 0; i < counts.length; i++) {
+                        if (counts[i] > 0) inserted.add(values.get(i));
+                    }
+                }
+                return inserted;
+            });
+        } catch (SQLException e) {
+            System.err.println("Error importing feed " + source + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /** Deletes the temporary rules whose expiry is at or before {@code epochSeconds}. */
+    public int deleteExpiredRules(long epochSeconds) {
+        try {
+            return pool.execute(conn -> {
+                PreparedStatement pstmt = conn.prepare("DELETE FROM rules WHERE expires_at IS NOT NULL AND expires_at <= ?");
+                pstmt.setLong(1, epochSeconds);
+                return pstmt.executeUpdate();
+            });
+        } catch (SQLException e) {
+            System.err.println("Error deleting expired rules: " + e.getMessage());
+            return 0;
+        }
+    }
+
+    /** Deletes many rules by id in one transaction. */
+    public void deleteRules(Collection<Integer> ids) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        try {
+            pool.transaction(conn -> {
+                PreparedStatement pstmt = conn.prepare(DELETE_RULE_SQL);
+                for (int id : ids) {
+                    pstmt.setInt(1, id);
+                    pstmt.addBatch();
+                }
+                return pstmt.executeBatch();
+            });
+            System.out.println(ids.size() + " rules deleted successfully.");
+        } catch (SQLException e) {
+            System.err.println("Error deleting " + ids.size() + " rules: " + e.getMessage());
+        }
+    }
+
+    /** @return the cached domains for {@code keyword}, or null if there are none younger than {@code maxAgeSeconds} */
+    public Set<String> getCachedDomains(String keyword, long maxAgeSeconds) {
+        long oldest = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()) - maxAgeSeconds;
+        try {
+            return pool.execute(conn -> {
+                PreparedStatement pstmt = conn.prepare("SELECT domains FROM domain_cache WHERE keyword = ? AND fetched_at >= ?");
+                pstmt.setString(1, keyword);
+                pstmt.setLong(2, oldest);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    if (!rs.next()) {
+                        return null;
+                    }
+                    Set<String> domains = new HashSet<>();
+                    for (String domain : rs.getString(1).split("\n")) {
+                        if (!domain.isEmpty()) {
+                            domains.add(domain);
+                        }
+                    }
+                    return domains;
+                }
+            });
+        } catch (SQLException e) {
+            System.err.println("Error reading domain cache: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /** Stores the domains found for {@code keyword}, replacing an earlier entry. */
+    public void cacheDomains(String keyword, Collection<String> domains) {
+        try {
+            pool.execute(conn -> {
+                PreparedStatement pstmt = conn.prepare("INSERT OR REPLACE INTO domain_cache(keyword, domains, fetched_at) VALUES(?,?,?)");
+                pstmt.setString(1, keyword);
+                pstmt.setString(2, String.join("\n", domains));
+                pstmt.setLong(3, TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()));
+                return pstmt.executeUpdate();
+            });
+        } catch (SQLException e) {
+            System.err.println("Error caching domains for keyword " + keyword + ": " + e.getMessage());
+        }
+    }
+
     public void logEvent(String eventType, String direction, String details) {
-        String sql = "INSERT INTO logs(timestamp, event_type, direction, details) VALUES(datetime('now'),?,?,?)";
-        try (Connection conn = DriverManager.getConnection(DB_URL);
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setString(1, eventType);
-            pstmt.setString(2, direction); // Save the direction
-            pstmt.setString(3, details);
-            pstmt.executeUpdate();
+        logEvent(eventType, direction, details, null);
+    }
+
+    /**
+     * Queues the event for the background {@link LogWriter}; never blocks on SQLite. Events are
+     * committed in batches, so a dashboard query may see them a few hundred milliseconds later.
+     *
+     * @param ip the address the event is about, stored in its own indexed column; may be null
+     */
+    public void logEvent(String eventType, String direction, String details, String ip) {
+        if ("IP_BLOCKED".equals(eventType)) {
+            statistics.record(ip, direction);
+        }
+        getLogWriter().enqueue(eventType, direction, details, ip);
+    }
+
+    private synchronized LogWriter getLogWriter() {
+        if (logWriter == null) {
+            logWriter = LogWriter.fromSystemProperties(dbUrl);
+        }
+        return logWriter;
+    }
+
+    /** The rule-match time series; the first call loads its recent history from the table. */
+    public synchronized BlockRollups getBlockRollups() {
+        if (blockRollups == null) {
+            blockRollups = BlockRollups.fromSystemProperties(this);
+        }
+        return blockRollups;
+    }
+
+    /** Adds the counts to their buckets in one transaction, creating the rows that do not exist yet. */
+    void addRollups(Collection<BlockRollups.Row> rows) {
+        if (rows.isEmpty()) {
+            return;
+        }
+        try {
+            pool.transaction(conn -> {
+                PreparedStatement pstmt = conn.prepare("INSERT INTO block_rollups(resolution, start, direction, rule_type, count) "
+                        + "VALUES(?,?,?,?,?) ON CONFLICT(resolution, start, direction, rule_type) "
+                        + "DO UPDATE SET count = count + excluded.count");
+                for (BlockRollups.Row row : rows) {
+                    pstmt.setInt(1, row.resolution());
+                    pstmt.setLong(2, row.start());
+                    pstmt.setString(3, row.direction());
+                    pstmt.setString(4, row.ruleType());
+                    pstmt.setLong(5, row.count());
+                    pstmt.addBatch();
+                }
+                return pstmt.executeBatch();
+            });
         } catch (SQLException e) {
-            System.err.println("Error logging event: " + e.getMessage());
+            System.err.println("Error writing " + rows.size() + " block rollups: " + e.getMessage());
         }
     }
 
+    /** @return the rows of one resolution whose bucket starts at or after {@code fromEpochSeconds} */
+    public List<BlockRollups.Row> readRollups(int resolution, long fromEpochSeconds) {
+        try {
+            return pool.execute(conn -> {
+                PreparedStatement pstmt = conn.prepare("SELECT start, direction, rule_type, count FROM block_rollups "
+                        + "WHERE resolution = ? AND start >= ? ORDER BY start");
+                pstmt.setInt(1, resolution);
+                pstmt.setLong(2, fromEpochSeconds);
+                List<BlockRollups.Row> rows = new ArrayList<>();
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        rows.add(new BlockRollups.Row(resolution, rs.getLong(1), rs.getString(2), rs.getString(3), rs.getLong(4)));
+                    }
+                }
+                return rows;
+            });
+        } catch (SQLException e) {
+            System.err.println("Error reading block rollups: " + e.getMessage());
+            return List.of();
+        }
+    }
+
+    void deleteRollupsBefore(int resolution, long epochSeconds) {
+        try {
+            pool.execute(conn -> {
+                PreparedStatement pstmt = conn.prepare("DELETE FROM block_rollups WHERE resolution = ? AND start < ?");
+                pstmt.setInt(1, resolution);
+                pstmt.setLong(2, epochSeconds);
+                return pstmt.executeUpdate();
+            });
+        } catch (SQLException e) {
+            System.err.println("Error pruning block rollups: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Writes any queued events, reports how many were dropped or delayed and closes the pool.
+     * Call once at application shutdown.
+     */
+    public void close() {
+        LogWriter writer;
+        BlockRollups rollups;
+        synchronized (this) {
+            writer = logWriter;
+            logWriter = null;
+            rollups = blockRollups;
+            blockRollups = null;
+        }
+        if (rollups != null) {
+            rollups.shutdown();
+        }
+        if (writer != null) {
+            writer.shutdown();
+            System.out.println("Event log: " + writer.getWrittenCount() + " written in " + writer.getBatchCount()
+                    + " batches, " + writer.getDroppedCount() + " dropped, " + writer.getDelayedCount()
+                    + " delayed, " + writer.getFailedCount() + " failed.");
+        }
+        pool.close();
+    }
+
     public void deleteAllRules() {
-        String sql = "DELETE FROM rules";
-        try (Connection conn = DriverManager.getConnection(DB_URL);
-             Statement stmt = conn.createStatement()) {
-            stmt.execute(sql);
+        try {
+            pool.transaction(conn -> {
+                try (Statement stmt = conn.connection().createStatement()) {
+                    stmt.execute("DELETE FROM rules");
+                    // Optional: Reset the auto-increment counter for a clean slate.
+                    stmt.execute("DELETE FROM sqlite_sequence WHERE name='rules'");
+                }
+                return null;
+            });
             System.out.println("All rules have been deleted from the database.");
-            // Optional: Reset the auto-increment counter for a clean slate.
-            stmt.execute("DELETE FROM sqlite_sequence WHERE name='rules'");
         } catch (SQLException e) {
             System.err.println("Error deleting all rules: " + e.getMessage());
         }
     }
 
     public Map<String, Integer> getTopBlockedIPs(int limit) {
-        Map<String, Integer> topIps = new HashMap<>();
-        // This query extracts the IP from the details string, groups by it, and counts occurrences.
-        String sql = "SELECT substr(details, instr(details, ': ') + 2) as ip, COUNT(*) as count "
-                + "FROM logs WHERE event_type = 'IP_BLOCKED' "
-                + "GROUP BY ip ORDER BY count DESC LIMIT ?";
-
-        try (Connection conn = DriverManager.getConnection(DB_URL);
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setInt(1, limit);
-            ResultSet rs = pstmt.executeQuery();
-            while (rs.next()) {
-                topIps.put(rs.getString("ip"), rs.getInt("count"));
-            }
-        } catch (SQLException e) {
-            System.err.println("Error getting top blocked IPs: " + e.getMessage());
-        }
+        Map<String, Integer> topIps = new LinkedHashMap<>();
+        statistics.getTop(limit).forEach((ip, count) -> topIps.put(ip, (int) Math.min(count, Integer.MAX_VALUE)));
         return topIps;
     }
 
     public Map<String, Integer> getBlockedTrafficByDirection() {
         Map<String, Integer> directionCounts = new HashMap<>();
-        String sql = "SELECT direction, COUNT(*) as count FROM logs "
-                + "WHERE event_type = 'IP_BLOCKED' GROUP BY direction";
-
-        try (Connection conn = DriverManager.getConnection(DB_URL);
-             Statement stmt = conn.createStatement();
-             ResultSet rs = stmt.executeQuery(sql)) {
-            while (rs.next()) {
-                String direction = rs.getString("direction");
-                if (direction != null) {
-                    directionCounts.put(direction, rs.getInt("count"));
-                }
-            }
-        } catch (SQLException e) {
-            System.err.println("Error getting blocked traffic by direction: " + e.getMessage());
-        }
+        statistics.getByDirection().forEach((direction, count) ->
+                directionCounts.put(direction, (int) Math.min(count, Integer.MAX_VALUE)));
         return directionCounts;
     }
 
     public int getTotalBlockedCount() {
-        String sql = "SELECT COUNT(*) FROM logs WHERE event_type = 'IP_BLOCKED'";
-        try (Connection conn = DriverManager.getConnection(DB_URL);
-             Statement stmt = conn.createStatement();
-             ResultSet rs = stmt.executeQuery(sql)) {
-            if (rs.next()) {
-                return rs.getInt(1);
-            }
-        } catch (SQLException e) {
-            System.err.println("Error getting total blocked count: " + e.getMessage());
-        }
-        return 0;
+        return (int) Math.min(statistics.getTotal(), Integer.MAX_VALUE);
+    }
+
+    public BlockStatistics getStatistics() {
+        return statistics;
     }
-}
\ No newline at end of file
+}
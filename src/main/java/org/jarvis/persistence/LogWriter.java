@@ -0,0 +1,229 @@
+package org.jarvis.persistence;
+
+import org.jarvis.metrics.MetricsRegistry;
+import org.jarvis.metrics.StageMetrics;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Background writer for the {@code logs} table.
+ *
+ * {@link #enqueue} only puts the event on a bounded queue, so the thread that detected the event
+ * never waits for SQLite. A single writer thread owns one long-lived WAL-mode connection and
+ * group-commits: it collects events until {@code batchSize} are waiting or the first one has
+ * waited {@code maxLatencyMs}, then inserts them with multi-row INSERTs in one transaction.
+ * That turns one fsync per event into one per batch.
+ *
+ * Under overload the queue fills and further events are dropped and counted; events committed
+ * later than the latency budget are counted as delayed.
+ *
+ * Settings (system properties):
+ * sentinel.log.queueCapacity (default 100000), sentinel.log.batchSize (default 500),
+ * sentinel.log.maxLatencyMs (default 200)
+ */
+public class LogWriter {
+
+    // Matches the format of SQLite's datetime('now'), which the table used before.
+    private static final DateTimeFormatter TIMESTAMP = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    // Five parameters per row; stays well below SQLite's bound-variable limit.
+    private static final int ROWS_PER_STATEMENT = 200;
+
+    private record LogEvent(String timestamp, String eventType, String direction, String details, String ip, long enqueuedNanos) { }
+
+    private final String dbUrl;
+    private final BlockingQueue<LogEvent> queue;
+    private final int batchSize;
+    private final long maxLatencyNanos;
+    private final Thread writer;
+    private final Map<Integer, PreparedStatement> insertStatements = new HashMap<>();
+    private volatile boolean running = true;
+
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong delayed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+
+    public LogWriter(String dbUrl, int queueCapacity, int batchSize, long maxLatencyMs) {
+        this.dbUrl = dbUrl;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.batchSize = batchSize;
+        this.maxLatencyNanos = maxLatencyMs * 1_000_000L;
+        this.writer = new Thread(this::run, "sentinel-log-writer");
+        writer.setDaemon(true);
+        writer.start();
+
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        metrics.gauge("sentinel_log_queue_depth", "Events waiting to be written to the database.", this::getQueueDepth);
+        metrics.counterFunction("sentinel_log_written_total", "Events committed to the database.", this::getWrittenCount);
+        metrics.counterFunction("sentinel_log_dropped_total", "Events dropped because the queue was full.", this::getDroppedCount);
+        metrics.counterFunction("sentinel_log_delayed_total", "Events committed later than the latency budget.", this::getDelayedCount);
+        metrics.counterFunction("sentinel_log_failed_total", "Events lost to a failed transaction.", this::getFailedCount);
+    }
+
+    public static LogWriter fromSystemProperties(String dbUrl) {
+        return new LogWriter(dbUrl,
+                Integer.getInteger("sentinel.log.queueCapacity", 100_000),
+                Integer.getInteger("sentinel.log.batchSize", 500),
+                Long.getLong("sentinel.log.maxLatencyMs", 200));
+    }
+
+    /** Queues an event without blocking. @return false if the queue was full and the event was dropped. */
+    public boolean enqueue(String eventType, String direction, String details, String ip) {
+        String timestamp = LocalDateTime.now(ZoneOffset.UTC).format(TIMESTAMP);
+        if (!running || !queue.offer(new LogEvent(timestamp, eventType, direction, details, ip, System.nanoTime()))) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    private void run() {
+        Connection conn = null;
+        List<LogEvent> batch = new ArrayList<>(batchSize);
+        try {
+            conn = openConnection();
+            while (running || !queue.isEmpty()) {
+                LogEvent first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                // Keep collecting until the batch is full or the oldest event has used up its budget.
+                long deadline = first.enqueuedNanos() + maxLatencyNanos;
+                while (batch.size() < batchSize) {
+                    if (queue.drainTo(batch, batchSize - batch.size()) > 0) {
+                        continue;
+                    }
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0 || !running) {
+                        break;
+                    }
+                    LogEvent next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                write(conn, batch);
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (SQLException e) {
+            System.err.println("Log writer could not open the database: " + e.getMessage());
+        } finally {
+            if (conn != null) {
+                try {
+                    for (PreparedStatement pstmt : insertStatements.values()) {
+                        pstmt.close();
+                    }
+                    conn.close();
+                } catch (SQLException ignored) {
+                    // Nothing left to do with it.
+                }
+            }
+        }
+    }
+
+    private Connection openConnection() throws SQLException {
+        Connection conn = ConnectionPool.open(dbUrl);
+        conn.setAutoCommit(false);
+        return conn;
+    }
+
+    // Only used by the writer thread. Keyed by row count; at most ROWS_PER_STATEMENT entries.
+    private PreparedStatement insertStatement(Connection conn, int rows) throws SQLException {
+        PreparedStatement pstmt = insertStatements.get(rows);
+        if (pstmt == null) {
+            pstmt = conn.prepareStatement(insertSql(rows));
+            insertStatements.put(rows, pstmt);
+        }
+        return pstmt;
+    }
+
+    private void write(Connection conn, List<LogEvent> batch) {
+        long start = System.nanoTime();
+        try {
+            int offset = 0;
+            while (offset < batch.size()) {
+                int rows = Math.min(ROWS_PER_STATEMENT, batch.size() - offset);
+                PreparedStatement pstmt = insertStatement(conn, rows);
+                int param = 1;
+                for (int i = offset; i < offset + rows; i++) {
+                    LogEvent event = batch.get(i);
+                    pstmt.setString(param++, event.timestamp());
+                    pstmt.setString(param++, event.eventType());
+                    pstmt.setString(param++, event.direction());
+                    pstmt.setString(param++, event.details());
+                    pstmt.setString(param++, event.ip());
+                }
+                pstmt.executeUpdate();
+                offset += rows;
+            }
+            conn.commit();
+            written.addAndGet(batch.size());
+            batches.incrementAndGet();
+        } catch (SQLException e) {
+            failed.addAndGet(batch.size());
+            System.err.println("Error logging " + batch.size() + " events: " + e.getMessage());
+            try {
+                conn.rollback();
+            } catch (SQLException ignored) {
+                // The next batch starts a fresh transaction anyway.
+            }
+        }
+
+        long now = System.nanoTime();
+        StageMetrics.DB_WRITE.record(now - start);
+        for (LogEvent event : batch) {
+            if (now - event.enqueuedNanos() > maxLatencyNanos) {
+                delayed.incrementAndGet();
+            }
+        }
+    }
+
+    private static String insertSql(int rows) {
+        StringBuilder sql = new StringBuilder("INSERT INTO logs(timestamp, event_type, direction, details, ip) VALUES ");
+        for (int i = 0; i < rows; i++) {
+            sql.append(i == 0 ? "(?,?,?,?,?)" : ",(?,?,?,?,?)");
+        }
+        return sql.toString();
+    }
+
+    /** Stops accepting events, writes everything already queued and closes the connection. */
+    public void shutdown() {
+        running = false;
+        try {
+            writer.join(10_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!queue.isEmpty()) {
+            System.err.println("Log writer stopped with " + queue.size() + " events unwritten.");
+        }
+    }
+
+    // --- Metrics ---
+    public int getQueueDepth() { return queue.size(); }
+    public long getWrittenCount() { return written.get(); }
+    /** Events discarded because the queue was full. */
+    public long getDroppedCount() { return dropped.get(); }
+    /** Events committed later than the latency budget. */
+    public long getDelayedCount() { return delayed.get(); }
+    public long getFailedCount() { return failed.get(); }
+    public long getBatchCount() { return batches.get(); }
+}
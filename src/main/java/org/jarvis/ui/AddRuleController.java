@@ -5,12 +5,18 @@ import javafx.fxml.FXML;
 import javafx.scene.control.ComboBox;
 import javafx.scene.control.TextField;
 import javafx.stage.Stage;
+import org.jarvis.core.FlowRule;
+import org.jarvis.core.IpPrefix;
 import org.jarvis.model.Rule;
 
 public class AddRuleController {
 
     @FXML private TextField valueField;
     @FXML private ComboBox<String> directionComboBox;
+    @FXML private ComboBox<String> protocolComboBox;
+    @FXML private TextField srcPortsField;
+    @FXML private TextField dstPortsField;
+    @FXML private TextField ttlField;
 
     private Stage dialogStage;
     private Rule newRule = null;
@@ -20,6 +26,8 @@ public class AddRuleController {
     public void initialize() {
         directionComboBox.setItems(FXCollections.observableArrayList("Incoming", "Outgoing", "Both"));
         directionComboBox.getSelectionModel().select("Outgoing");
+        protocolComboBox.setItems(FXCollections.observableArrayList("Any", "TCP", "UDP", "SCTP", "ICMP", "ICMPv6"));
+        protocolComboBox.getSelectionModel().select("Any");
     }
 
     public void setDialogStage(Stage dialogStage) {
@@ -38,14 +46,72 @@ public class AddRuleController {
     private void handleSave() {
         String value = valueField.getText();
         String direction = directionComboBox.getSelectionModel().getSelectedItem();
+        String protocol = protocolComboBox.getSelectionModel().getSelectedItem();
+        long expiresAt = parseExpiry();
+        if (expiresAt < 0) {
+            return;
+        }
 
+        if (protocol != null && !"Any".equals(protocol)) {
+            saveFlowRule(value, direction, protocol, expiresAt);
+            return;
+        }
+        if (!srcPortsField.getText().isBlank() || !dstPortsField.getText().isBlank()) {
+            System.err.println("Ports need a protocol (TCP, UDP or SCTP).");
+            return;
+        }
         if (value != null && !value.trim().isEmpty()) {
-            newRule = new Rule(0, "IP_BLOCK", value, direction, true);
+            String type = "IP_BLOCK";
+            if (value.contains("/")) {
+                IpPrefix prefix = IpPrefix.parse(value.trim());
+                if (prefix == null) {
+                    System.err.println("Invalid CIDR prefix: " + value);
+                    return;
+                }
+                type = "CIDR_BLOCK";
+                value = prefix.toString();
+            }
+            newRule = new Rule(0, type, value, direction, true);
+            newRule.setExpiresAt(expiresAt);
             saved = true;
             dialogStage.close();
         } else {
-            System.err.println("IP or Hostname cannot be empty.");
+            System.err.println("IP, CIDR prefix or Hostname cannot be empty.");
+        }
+    }
+
+    // With a protocol the rule is a FLOW_BLOCK; an empty address means any address.
+    private void saveFlowRule(String value, String direction, String protocol, long expiresAt) {
+        String address = value == null || value.isBlank() ? FlowRule.ANY_ADDRESS : value.trim();
+        Rule rule = new Rule(0, "FLOW_BLOCK", address, direction, true,
+                protocol, srcPortsField.getText(), dstPortsField.getText());
+        newRule = FlowRule.canonical(rule);
+        if (newRule == null) {
+            System.err.println("Invalid flow rule: the address must be an IP, a CIDR prefix or empty, and ports "
+                    + "(a number or a range like 1000-2000) need TCP, UDP or SCTP.");
+            return;
+        }
+        newRule.setExpiresAt(expiresAt);
+        saved = true;
+        dialogStage.close();
+    }
+
+    // Epoch seconds at which the rule expires, 0 if the field is empty, or -1 if it is invalid.
+    private long parseExpiry() {
+        String minutes = ttlField.getText() == null ? "" : ttlField.getText().trim();
+        if (minutes.isEmpty()) {
+            return 0;
+        }
+        try {
+            long value = Long.parseLong(minutes);
+            if (value > 0) {
+                return System.currentTimeMillis() / 1000 + value * 60;
+            }
+        } catch (NumberFormatException e) {
+            // reported below
         }
+        System.err.println("Block duration must be a whole number of minutes, or empty for a permanent rule.");
+        return -1;
     }
 
     @FXML
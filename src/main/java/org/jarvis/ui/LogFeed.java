@@ -0,0 +1,63 @@
+package org.jarvis.ui;
+
+import java.util.List;
+
+/**
+ * Fixed-capacity ring of log lines, between the threads that report events and the JavaFX
+ * thread that shows them.
+ *
+ * Any thread may {@link #add} a line; the UI drains the ring once per frame. When lines arrive
+ * faster than frames are drawn, the oldest undrained lines are overwritten and counted instead
+ * of queued, so memory and the work per frame stay bounded whatever the event rate.
+ */
+final class LogFeed {
+
+    private final String[] lines;
+    private final int mask;
+    // Guarded by this. head is the next line to drain, tail the next slot to write.
+    private long head;
+    private long tail;
+    private long overwritten;
+
+    private static final int MAX_CAPACITY = 1 << 30;
+
+    /** @param capacity lines kept; rounded up to a power of two, so slots are found with a mask */
+    LogFeed(int capacity) {
+        int size = capacity <= 1 ? 1 : Integer.highestOneBit(Math.min(capacity, MAX_CAPACITY) - 1) << 1;
+        if (size != capacity) {
+            System.err.println("Log buffer of " + capacity + " lines is not a power of two; using " + size + ".");
+        }
+        this.lines = new String[size];
+        this.mask = size - 1;
+    }
+
+    int capacity() {
+        return lines.length;
+    }
+
+    synchronized void add(String line) {
+        lines[(int) (tail & mask)] = line;
+        tail++;
+        if (tail - head > lines.length) {
+            head = tail - lines.length;
+            overwritten++;
+        }
+    }
+
+    /**
+     * Moves the waiting lines into {@code out}, oldest first.
+     *
+     * @return how many lines were overwritten since the last drain
+     */
+    synchronized long drainTo(List<String> out) {
+        for (long i = head; i < tail; i++) {
+            int slot = (int) (i & mask);
+            out.add(lines[slot]);
+            lines[slot] = null;
+        }
+        head = tail;
+        long lost = overwritten;
+        overwritten = 0;
+        return lost;
+    }
+}
@@ -1,39 +1,63 @@
 package org.jarvis.ui;
 
+import javafx.animation.AnimationTimer;
 import javafx.application.Platform;
+import javafx.beans.property.SimpleStringProperty;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
 import javafx.scene.Scene;
 import javafx.scene.chart.BarChart;
+import javafx.scene.chart.LineChart;
+import javafx.scene.chart.NumberAxis;
 import javafx.scene.chart.PieChart;
 import javafx.scene.chart.XYChart;
 import javafx.scene.control.Alert;
 import javafx.scene.control.ButtonType;
+import javafx.scene.control.ChoiceDialog;
+import javafx.scene.control.ComboBox;
 import javafx.scene.control.Label;
 import javafx.scene.control.ListView;
+import javafx.scene.control.Tab;
 import javafx.scene.control.TableColumn;
 import javafx.scene.control.TableView;
 import javafx.scene.control.cell.PropertyValueFactory;
 import javafx.scene.layout.GridPane;
+import javafx.stage.FileChooser;
 import javafx.stage.Modality;
 import javafx.stage.Stage;
+import javafx.util.StringConverter;
+import org.jarvis.core.BlocklistImporter;
+import org.jarvis.core.DnsResolver;
 import org.jarvis.core.DomainScraper;
+import org.jarvis.core.FlowRule;
+import org.jarvis.core.IpPrefix;
 import org.jarvis.core.PacketListenerService;
 import org.jarvis.enforcer.HostsFileManager;
 import org.jarvis.enforcer.SystemManager;
 import org.jarvis.model.Rule;
+import org.jarvis.persistence.BlockRollups;
 import org.jarvis.persistence.DatabaseManager;
 
+import java.io.File;
 import java.io.IOException;
-import java.net.InetAddress;
-import java.net.UnknownHostException;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class MainViewController {
 
@@ -43,25 +67,82 @@ public class MainViewController {
     @FXML private TableColumn<Rule, String> colRuleType;
     @FXML private TableColumn<Rule, String> colRuleValue;
     @FXML private TableColumn<Rule, String> colRuleDirection;
+    @FXML private TableColumn<Rule, String> colRuleProtocol;
+    @FXML private TableColumn<Rule, String> colRuleSrcPorts;
+    @FXML private TableColumn<Rule, String> colRuleDstPorts;
+    @FXML private TableColumn<Rule, String> colRuleExpires;
+    @FXML private TableColumn<Rule, String> colRuleSource;
     @FXML private TableColumn<Rule, Boolean> colRuleEnabled;
     @FXML private ListView<String> logListView;
     @FXML private Label totalBlockedLabel;
     @FXML private Label activeRulesLabel;
     @FXML private BarChart<String, Number> topIpsChart;
     @FXML private PieChart directionPieChart;
+    @FXML private LineChart<Number, Number> timelineChart;
+    @FXML private NumberAxis timelineAxis;
+    @FXML private ComboBox<String> timelineRangeBox;
+    @FXML private Tab dashboardTab;
 
     // --- Backend Services ---
     private PacketListenerService packetListenerService;
     private DatabaseManager databaseManager;
     private HostsFileManager hostsFileManager;
     private SystemManager systemManager;
+    private DnsResolver dnsResolver;
+    private DomainScraper domainScraper;
     private ObservableList<Rule> ruleList;
 
+    private static final DateTimeFormatter EXPIRY_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm")
+            .withZone(ZoneId.systemDefault());
+    // Log lines waiting for the next frame (a power of two); older ones are dropped beyond this.
+    private static final int LOG_BUFFER = Integer.getInteger("sentinel.ui.logBuffer", 1024);
+    // Lines kept in the log view.
+    private static final int LOG_LINES = Integer.getInteger("sentinel.ui.logLines", 1000);
+    // Dashboard refreshes requested within this window are merged into one.
+    private static final long DASHBOARD_DELAY_MS = Long.getLong("sentinel.ui.dashboardDelayMs", 500);
+    // Shortest interval between timeline refreshes; otherwise the chart refreshes once per bucket.
+    private static final long TIMELINE_REFRESH_MS = Long.getLong("sentinel.ui.timelineRefreshMs", 1000);
+    // Ranges of the timeline chart, each read from one in-memory ring of the block rollups.
+    private static final Map<String, BlockRollups.Resolution> TIMELINE_RANGES = new LinkedHashMap<>();
+    static {
+        TIMELINE_RANGES.put("Last 10 minutes", BlockRollups.Resolution.SECOND);
+        TIMELINE_RANGES.put("Last 24 hours", BlockRollups.Resolution.MINUTE);
+        TIMELINE_RANGES.put("Last 7 days", BlockRollups.Resolution.HOUR);
+    }
+
+    // Filled by any thread, drained onto the log view once per frame by logPulse.
+    private final LogFeed logFeed = new LogFeed(LOG_BUFFER);
+    private final AnimationTimer logPulse = new AnimationTimer() {
+        @Override
+        public void handle(long now) {
+            drainLog();
+        }
+    };
+    private final AtomicBoolean dashboardUpdatePending = new AtomicBoolean();
+    private volatile BlockRollups.Resolution timelineResolution = BlockRollups.Resolution.SECOND;
+    private volatile boolean dashboardVisible;
+    // Only touched by the dashboard thread.
+    private ScheduledFuture<?> timelineUpdate;
+    // The timeline series live as long as the chart; only touched on the FX thread. x is a
+    // bucket number, so a refresh drops the oldest points and appends the new ones in place.
+    private final XYChart.Series<Number, Number> incomingSeries = new XYChart.Series<>();
+    private final XYChart.Series<Number, Number> outgoingSeries = new XYChart.Series<>();
+    private BlockRollups.Resolution shownResolution;
+    private long shownBucket;
+    private final ScheduledExecutorService dashboardUpdater = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "sentinel-dashboard");
+        t.setDaemon(true);
+        return t;
+    });
+
     public void initialize() {
-        this.databaseManager = new DatabaseManager();
+        this.databaseManager = DatabaseManager.getInstance();
         this.systemManager = new SystemManager();
+        this.dnsResolver = DnsResolver.fromSystemProperties();
+        this.domainScraper = new DomainScraper();
         initializeRulesManagementTab();
         initializeDashboard();
+        logPulse.start();
     }
 
     private void initializeRulesManagementTab() {
@@ -69,12 +150,43 @@ public class MainViewController {
         colRuleType.setCellValueFactory(new PropertyValueFactory<>("type"));
         colRuleValue.setCellValueFactory(new PropertyValueFactory<>("value"));
         colRuleDirection.setCellValueFactory(new PropertyValueFactory<>("direction"));
+        colRuleProtocol.setCellValueFactory(new PropertyValueFactory<>("protocol"));
+        colRuleSrcPorts.setCellValueFactory(new PropertyValueFactory<>("srcPorts"));
+        colRuleDstPorts.setCellValueFactory(new PropertyValueFactory<>("dstPorts"));
+        colRuleExpires.setCellValueFactory(cell -> new SimpleStringProperty(formatExpiry(cell.getValue().getExpiresAt())));
+        colRuleSource.setCellValueFactory(new PropertyValueFactory<>("source"));
         colRuleEnabled.setCellValueFactory(new PropertyValueFactory<>("enabled"));
         loadRules();
     }
 
     private void initializeDashboard() {
-        updateDashboard();
+        timelineRangeBox.getItems().setAll(TIMELINE_RANGES.keySet());
+        timelineRangeBox.setValue(TIMELINE_RANGES.keySet().iterator().next());
+        incomingSeries.setName("Incoming");
+        outgoingSeries.setName("Outgoing");
+        timelineChart.getData().setAll(List.of(incomingSeries, outgoingSeries));
+        // Labels are offsets from the current bucket, e.g. -599..0 seconds.
+        timelineAxis.setTickLabelFormatter(new StringConverter<>() {
+            @Override
+            public String toString(Number bucket) {
+                return Long.toString(bucket.longValue() - shownBucket);
+            }
+
+            @Override
+            public Number fromString(String text) {
+                return Long.parseLong(text) + shownBucket;
+            }
+        });
+        // A hidden chart is not refreshed; selecting the tab brings it up to date.
+        dashboardVisible = dashboardTab.isSelected();
+        dashboardTab.selectedProperty().addListener((observable, wasSelected, selected) -> {
+            dashboardVisible = selected;
+            if (selected) {
+                dashboardUpdater.execute(this::updateTimeline);
+            }
+        });
+        dashboardUpdater.execute(this::updateTimeline);
+        requestDashboardUpdate();
     }
 
     public void setPacketListenerService(PacketListenerService service) {
@@ -85,6 +197,18 @@ public class MainViewController {
         this.hostsFileManager = hostsFileManager;
     }
 
+    private static String formatExpiry(long epochSeconds) {
+        if (epochSeconds <= 0) {
+            return "Never";
+        }
+        return EXPIRY_FORMAT.format(Instant.ofEpochSecond(epochSeconds));
+    }
+
+    /** Reloads the rules table, e.g. after temporary rules expired. Safe to call from any thread. */
+    public void refreshRules() {
+        Platform.runLater(this::loadRules);
+    }
+
     private void loadRules() {
         ruleList = FXCollections.observableArrayList(databaseManager.getAllActiveRules());
         rulesTable.setItems(ruleList);
@@ -110,36 +234,61 @@ public class MainViewController {
 
             if (controller.isSaved()) {
                 Rule tempRule = controller.getNewRule();
+                if (FlowRule.isFlowRule(tempRule)) {
+                    new Thread(() -> performFlowBlock(tempRule)).start();
+                    return;
+                }
                 String input = tempRule.getValue().trim();
                 String direction = tempRule.getDirection();
-                new Thread(() -> processAddRuleRequest(input, direction)).start();
+                long expiresAt = tempRule.getExpiresAt();
+                new Thread(() -> processAddRuleRequest(input, direction, expiresAt)).start();
             }
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
-    private void processAddRuleRequest(String input, String direction) {
+    // Keyword blocks are always permanent; the domains they find cannot be tied to one expiry.
+    private void processAddRuleRequest(String input, String direction, long expiresAt) {
         String ipPattern = "^((25[0-5]|2[0-4][0-9]|[01]?[0-9][0-9]?)\\.){3}(25[0-5]|2[0-4][0-9]|[01]?[0-9][0-9]?)$";
-        if (input.matches(ipPattern) || input.contains(":")) { // Simple check for IPv4 or IPv6
-            performIpBlock(input, direction);
+        IpPrefix prefix = IpPrefix.parse(input);
+        if (prefix != null) {
+            performCidrBlock(prefix, direction, expiresAt);
+        } else if (input.matches(ipPattern) || input.contains(":")) { // Simple check for IPv4 or IPv6
+            performIpBlock(input, direction, expiresAt);
         } else {
             performKeywordBlock(input, direction);
         }
         Platform.runLater(this::loadRules);
     }
 
-    private void performIpBlock(String ip, String direction) {
+    private void performIpBlock(String ip, String direction, long expiresAt) {
         addLogMessage("Adding IP-based rule for: " + ip);
-        databaseManager.addRule("IP_BLOCK", ip, direction, true);
         Rule newRuleForAnalyzer = new Rule(0, "IP_BLOCK", ip, direction, true);
+        newRuleForAnalyzer.setExpiresAt(expiresAt);
+        databaseManager.addRule(newRuleForAnalyzer);
+        packetListenerService.getAnalyzer().addRule(newRuleForAnalyzer);
+    }
+
+    private void performCidrBlock(IpPrefix prefix, String direction, long expiresAt) {
+        String cidr = prefix.toString();
+        addLogMessage("Adding CIDR rule for: " + cidr);
+        Rule newRuleForAnalyzer = new Rule(0, "CIDR_BLOCK", cidr, direction, true);
+        newRuleForAnalyzer.setExpiresAt(expiresAt);
+        databaseManager.addRule(newRuleForAnalyzer);
         packetListenerService.getAnalyzer().addRule(newRuleForAnalyzer);
     }
 
+    private void performFlowBlock(Rule rule) {
+        addLogMessage("Adding flow rule: " + FlowRule.of(rule) + " (" + rule.getDirection() + ")");
+        databaseManager.addRule(rule);
+        packetListenerService.getAnalyzer().addRule(rule);
+        Platform.runLater(this::loadRules);
+    }
+
     private void performKeywordBlock(String keyword, String direction) {
         addLogMessage("Starting dynamic block for keyword: '" + keyword + "'...");
-        DomainScraper scraper = new DomainScraper();
-        Set<String> domainsToBlock = scraper.findRelatedDomains(keyword);
+        Set<String> domainsToBlock = domainScraper.findRelatedDomains(keyword);
         if (domainsToBlock.isEmpty()) {
             addLogMessage("No related domains found. Aborting.");
             return;
@@ -147,41 +296,69 @@ public class MainViewController {
         addLogMessage("Found " + domainsToBlock.size() + " domains. Blocking and resolving IPs...");
 
         Set<String> resolvedIps = new HashSet<>();
+        // One rewrite of the hosts file for the whole set.
+        hostsFileManager.addDomainBlocks(domainsToBlock);
+        List<Rule> domainRules = new ArrayList<>();
         for (String domain : domainsToBlock) {
-            hostsFileManager.addDomainBlock(domain);
-            databaseManager.addRule("DOMAIN_BLOCK", domain, "N/A", true);
-            try {
-                for (InetAddress addr : InetAddress.getAllByName(domain)) {
-                    resolvedIps.add(addr.getHostAddress());
-                }
-            } catch (UnknownHostException e) {
-                System.err.println("Could not resolve domain: " + domain);
-            }
+            domainRules.add(new Rule(0, "DOMAIN_BLOCK", domain, "N/A", true));
+        }
+        // All domains are looked up concurrently; repeats within their TTL come from the cache.
+        for (List<String> addresses : dnsResolver.resolveAll(domainsToBlock).values()) {
+            resolvedIps.addAll(addresses);
         }
 
         systemManager.flushDnsCache();
 
         addLogMessage("Resolved " + resolvedIps.size() + " unique IPs. Adding to firewall...");
+        List<Rule> ipRules = new ArrayList<>();
         for (String ip : resolvedIps) {
-            performIpBlock(ip, direction);
+            ipRules.add(new Rule(0, "IP_BLOCK", ip, direction, true));
         }
+        // Domains and IPs go into the database in one transaction.
+        List<Rule> allRules = new ArrayList<>(domainRules);
+        allRules.addAll(ipRules);
+        databaseManager.addRules(allRules);
+        // The analyzer also keeps the domains, to learn their addresses from DNS answers as they change.
+        packetListenerService.getAnalyzer().addRules(allRules);
         addLogMessage("Finished rigorous block for keyword: " + keyword);
     }
 
+    @FXML
+    private void handleImportFeed() {
+        FileChooser chooser = new FileChooser();
+        chooser.setTitle("Import Blocklist Feed");
+        File file = chooser.showOpenDialog(rulesTable.getScene().getWindow());
+        if (file == null) {
+            return;
+        }
+        ChoiceDialog<String> directionDialog = new ChoiceDialog<>("Both", "Incoming", "Outgoing", "Both");
+        directionDialog.setTitle("Import Blocklist Feed");
+        directionDialog.setHeaderText("Block the addresses of " + file.getName() + " in which direction?");
+        Optional<String> direction = directionDialog.showAndWait();
+        if (direction.isPresent()) {
+            new Thread(() -> performFeedImport(file, direction.get())).start();
+        }
+    }
+
+    // Importing the same file name again replaces the feed's previous version.
+    private void performFeedImport(File file, String direction) {
+        addLogMessage("Importing feed " + file.getName() + "...");
+        BlocklistImporter importer = new BlocklistImporter(databaseManager, packetListenerService.getAnalyzer());
+        try {
+            addLogMessage(importer.importFeed(file.toPath(), direction).toString());
+        } catch (IOException e) {
+            addLogMessage("Import of " + file.getName() + " failed: " + e.getMessage());
+        }
+        Platform.runLater(this::loadRules);
+    }
+
     @FXML
     private void handleDeleteRule() {
         Rule selectedRule = rulesTable.getSelectionModel().getSelectedItem();
         if (selectedRule != null) {
-            if ("IP_BLOCK".equals(selectedRule.getType())) {
-                packetListenerService.getFirewallManager().unblockIp(selectedRule.getValue(), selectedRule.getDirection());
-                packetListenerService.getAnalyzer().removeRule(selectedRule.getValue());
-            } else if ("DOMAIN_BLOCK".equals(selectedRule.getType())) {
-                hostsFileManager.removeDomainBlock(selectedRule.getValue());
-            }
-            databaseManager.deleteRule(selectedRule.getId());
             ruleList.remove(selectedRule);
-            addLogMessage("Deleted rule for: " + selectedRule.getValue());
-            updateDashboard();
+            // Lifting the kernel blocks runs firewall commands; keep them off the JavaFX thread.
+            new Thread(() -> performDeleteRule(selectedRule)).start();
         } else {
             showAlert(Alert.AlertType.WARNING, "No Selection", "No Rule Selected", "Please select a rule in the table to delete.");
         }
@@ -205,17 +382,24 @@ public class MainViewController {
         }
     }
 
+    private void performDeleteRule(Rule rule) {
+        if ("DOMAIN_BLOCK".equals(rule.getType())) {
+            hostsFileManager.removeDomainBlock(rule.getValue());
+        }
+        // Also lifts the kernel rules it installed, and for a domain the addresses learned from DNS.
+        boolean lifted = packetListenerService.getAnalyzer().removeRule(rule);
+        databaseManager.deleteRule(rule.getId());
+        addLogMessage(lifted ? "Deleted rule for: " + rule.getValue()
+                : "Deleted rule for: " + rule.getValue() + ", but its firewall block could not be lifted; see the console.");
+        requestDashboardUpdate();
+    }
+
     private void performDeleteAllRules() {
         addLogMessage("Starting deletion of all rules...");
 
-        // Step 1: Unblock all IP-based rules from the firewall
+        // Step 1: Remove the rules from the analyzer in one snapshot and lift their kernel blocks in batches
         ArrayList<Rule> rulesToDelete = new ArrayList<>(ruleList);
-        for (Rule rule : rulesToDelete) {
-            if ("IP_BLOCK".equals(rule.getType())) {
-                packetListenerService.getFirewallManager().unblockIp(rule.getValue(), rule.getDirection());
-                packetListenerService.getAnalyzer().removeRule(rule.getValue());
-            }
-        }
+        boolean lifted = packetListenerService.getAnalyzer().removeRules(rulesToDelete);
 
         // Step 2: Remove all Sentinel-managed entries from the hosts file in one go
         hostsFileManager.removeAllSentinelBlocks();
@@ -223,46 +407,145 @@ public class MainViewController {
         // Step 3: Flush the DNS cache to make the hosts file changes take effect immediately
         systemManager.flushDnsCache();
 
-        // Step 4: Wipe the database table
-        databaseManager.deleteAllRules();
+        // Step 4: Delete exactly these rules; one added meanwhile, e.g. by auto-blocking, is still enforced
+        List<Integer> ids = new ArrayList<>(rulesToDelete.size());
+        for (Rule rule : rulesToDelete) {
+            ids.add(rule.getId());
+        }
+        databaseManager.deleteRules(ids);
 
         // Step 5: Update the UI on the main application thread
         Platform.runLater(() -> {
-            addLogMessage("All rules have been successfully deleted.");
+            addLogMessage(lifted ? "All rules have been successfully deleted."
+                    : "All rules have been deleted, but some firewall blocks could not be lifted; see the console.");
             loadRules(); // This will load the now-empty list and refresh the UI/dashboard
         });
     }
 
+    /** Safe to call from any thread; the line shows up on the next frame. */
     public void addLogMessage(String message) {
+        logFeed.add(message);
+    }
+
+    // Runs on the JavaFX thread once per frame: one list change per frame, however many lines arrived.
+    private void drainLog() {
+        List<String> batch = new ArrayList<>();
+        long overwritten = logFeed.drainTo(batch);
+        if (batch.isEmpty()) {
+            return;
+        }
+        if (overwritten > 0) {
+            batch.add(0, "... " + overwritten + " more messages not shown ...");
+        }
+        Collections.reverse(batch); // newest first, like the view
+        ObservableList<String> items = logListView.getItems();
+        items.addAll(0, batch);
+        if (items.size() > LOG_LINES) {
+            items.remove(LOG_LINES, items.size());
+        }
+        requestDashboardUpdate();
+    }
+
+    /** Refreshes the dashboard after {@code dashboardDelayMs}, unless a refresh is already waiting. */
+    private void requestDashboardUpdate() {
+        if (dashboardUpdatePending.compareAndSet(false, true)) {
+            dashboardUpdater.schedule(this::updateDashboard, DASHBOARD_DELAY_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void updateDashboard() {
+        // Cleared first: a request that arrives while the figures are read schedules another refresh.
+        dashboardUpdatePending.set(false);
+        int totalBlocked = databaseManager.getTotalBlockedCount();
+        Map<String, Integer> topIps = databaseManager.getTopBlockedIPs(5);
+        Map<String, Integer> directionData = databaseManager.getBlockedTrafficByDirection();
+
         Platform.runLater(() -> {
-            logListView.getItems().add(0, message);
-            updateDashboard();
+            totalBlockedLabel.setText(String.valueOf(totalBlocked));
+
+            XYChart.Series<String, Number> ipSeries = new XYChart.Series<>();
+            ipSeries.setName("Block Count");
+            for (Map.Entry<String, Integer> entry : topIps.entrySet()) {
+                ipSeries.getData().add(new XYChart.Data<>(entry.getKey(), entry.getValue()));
+            }
+            topIpsChart.getData().setAll(ipSeries);
+
+            ObservableList<PieChart.Data> pieChartData = FXCollections.observableArrayList();
+            for (Map.Entry<String, Integer> entry : directionData.entrySet()) {
+                pieChartData.add(new PieChart.Data(entry.getKey(), entry.getValue()));
+            }
+            directionPieChart.setData(pieChartData);
         });
     }
 
-    private void updateDashboard() {
-        new Thread(() -> {
-            int totalBlocked = databaseManager.getTotalBlockedCount();
-            Map<String, Integer> topIps = databaseManager.getTopBlockedIPs(5);
-            Map<String, Integer> directionData = databaseManager.getBlockedTrafficByDirection();
-
-            Platform.runLater(() -> {
-                totalBlockedLabel.setText(String.valueOf(totalBlocked));
-
-                XYChart.Series<String, Number> ipSeries = new XYChart.Series<>();
-                ipSeries.setName("Block Count");
-                for (Map.Entry<String, Integer> entry : topIps.entrySet()) {
-                    ipSeries.getData().add(new XYChart.Data<>(entry.getKey(), entry.getValue()));
-                }
-                topIpsChart.getData().setAll(ipSeries);
+    @FXML
+    private void handleTimelineRange() {
+        BlockRollups.Resolution resolution = TIMELINE_RANGES.get(timelineRangeBox.getValue());
+        if (resolution != null) {
+            timelineResolution = resolution;
+            dashboardUpdater.execute(this::updateTimeline);
+        }
+    }
 
-                ObservableList<PieChart.Data> pieChartData = FXCollections.observableArrayList();
-                for (Map.Entry<String, Integer> entry : directionData.entrySet()) {
-                    pieChartData.add(new PieChart.Data(entry.getKey(), entry.getValue()));
-                }
-                directionPieChart.setData(pieChartData);
+    // Runs on the dashboard thread and reads only the rollup rings, never the logs table. Each
+    // run schedules the next one just after the current bucket ends, replacing any pending run
+    // so that a range change takes effect at once.
+    private void updateTimeline() {
+        if (timelineUpdate != null) {
+            timelineUpdate.cancel(false);
+        }
+        BlockRollups.Resolution resolution = timelineResolution;
+        long periodMs = Math.max(TIMELINE_REFRESH_MS, TimeUnit.SECONDS.toMillis(resolution.getSeconds()));
+        timelineUpdate = dashboardUpdater.schedule(this::updateTimeline,
+                periodMs - System.currentTimeMillis() % periodMs, TimeUnit.MILLISECONDS);
+        if (!dashboardVisible) {
+            return;
+        }
+        long current = BlockRollups.currentBucket(resolution);
+        long[][] timeline = databaseManager.getBlockRollups().timeline(resolution, current);
+        Platform.runLater(() -> showTimeline(resolution, current, timeline));
+    }
+
+    private void showTimeline(BlockRollups.Resolution resolution, long current, long[][] timeline) {
+        ObservableList<XYChart.Data<Number, Number>> incoming = incomingSeries.getData();
+        ObservableList<XYChart.Data<Number, Number>> outgoing = outgoingSeries.getData();
+        long first = current - timeline.length + 1;
+        long shift = current - shownBucket;
+        if (resolution != shownResolution || shift < 0 || shift >= timeline.length || incoming.size() != timeline.length) {
+            List<XYChart.Data<Number, Number>> incomingData = new ArrayList<>(timeline.length);
+            List<XYChart.Data<Number, Number>> outgoingData = new ArrayList<>(timeline.length);
+            for (int i = 0; i < timeline.length; i++) {
+                incomingData.add(new XYChart.Data<>(first + i, timeline[i][0]));
+                outgoingData.add(new XYChart.Data<>(first + i, timeline[i][1]));
+            }
+            incoming.setAll(incomingData);
+            outgoing.setAll(outgoingData);
+            timelineAxis.setTickUnit(Math.max(1, timeline.length / 12));
+            timelineAxis.setLabel(switch (resolution) {
+                case SECOND -> "Seconds";
+                case MINUTE -> "Minutes";
+                case HOUR -> "Hours";
             });
-        }).start();
+        } else {
+            int shifted = (int) shift;
+            incoming.remove(0, shifted);
+            outgoing.remove(0, shifted);
+            // The last two buckets shown may have changed since: one was still filling, and the
+            // rollups add each second's counts just after it ends.
+            for (int i = Math.max(0, timeline.length - 2 - shifted); i < timeline.length; i++) {
+                if (i < incoming.size()) {
+                    incoming.get(i).setYValue(timeline[i][0]);
+                    outgoing.get(i).setYValue(timeline[i][1]);
+                } else {
+                    incoming.add(new XYChart.Data<>(first + i, timeline[i][0]));
+                    outgoing.add(new XYChart.Data<>(first + i, timeline[i][1]));
+                }
+            }
+        }
+        shownResolution = resolution;
+        shownBucket = current;
+        timelineAxis.setLowerBound(first);
+        timelineAxis.setUpperBound(current);
     }
 
     private void showAlert(Alert.AlertType alertType, String title, String header, String content) {
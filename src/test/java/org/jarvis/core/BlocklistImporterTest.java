@@ -0,0 +1,74 @@
+package org.jarvis.core;
+
+import org.jarvis.enforcer.CommandRunner;
+import org.jarvis.enforcer.FirewallManager;
+import org.jarvis.model.Rule;
+import org.jarvis.persistence.DatabaseManager;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class BlocklistImporterTest {
+
+    @TempDir
+    Path dir;
+
+    private DatabaseManager database;
+    private PacketAnalyzer analyzer;
+
+    @BeforeAll
+    static void configure() {
+        System.setProperty("sentinel.snapshot.enabled", "false");
+    }
+
+    @AfterAll
+    static void restore() {
+        System.clearProperty("sentinel.snapshot.enabled");
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (analyzer != null) {
+            analyzer.shutdown();
+        }
+        if (database != null) {
+            database.close();
+        }
+    }
+
+    @Test
+    void feedLeavesManualRulesAloneAndCountsOnlyWhatItInserted() throws IOException {
+        database = new DatabaseManager("jdbc:sqlite:" + dir.resolve("test.db"), 1);
+        database.addRule(new Rule(0, "IP_BLOCK", "10.0.0.1", "Outgoing", true));
+        CommandRunner runner = (command, stdin) -> new CommandRunner.Result(0, "", "");
+        analyzer = new PacketAnalyzer(null, new FirewallManager(runner, FirewallManager.Mode.IPSET), database);
+        BlocklistImporter importer = new BlocklistImporter(database, analyzer);
+        Path feed = dir.resolve("feed.txt");
+        Files.write(feed, List.of("10.0.0.1", "10.0.0.2", "192.168.0.0/16"));
+
+        BlocklistImporter.Result first = importer.importFeed(feed, "feed", "Both");
+        BlocklistImporter.Result second = importer.importFeed(feed, "feed", "Both");
+
+        assertEquals(2, first.added());
+        assertEquals(0, second.added());
+        assertEquals(RuleIndex.OUTGOING, analyzer.getRuleIndex().directionsOf("10.0.0.1"));
+        assertEquals(RuleIndex.BOTH, analyzer.getRuleIndex().directionsOf("10.0.0.2"));
+        assertEquals(List.of("10.0.0.2", "192.168.0.0/16"), database.getRuleValuesBySource("feed"));
+
+        // Dropping the entry from the feed keeps the manual rule.
+        Files.write(feed, List.of("10.0.0.2"));
+        BlocklistImporter.Result third = importer.importFeed(feed, "feed", "Both");
+        assertEquals(1, third.removed());
+        assertEquals(RuleIndex.OUTGOING, analyzer.getRuleIndex().directionsOf("10.0.0.1"));
+        assertEquals(RuleIndex.NONE, analyzer.getRuleIndex().directionsOf("192.168.0.0/16"));
+    }
+}
@@ -0,0 +1,45 @@
+package org.jarvis.core;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class BlocklistTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void readsAddressesAndPrefixesInCanonicalForm() throws IOException {
+        Path feed = dir.resolve("feed.txt");
+        Files.write(feed, List.of(
+                "# a comment", "", "; another", "  1.2.3.4\r",
+                "10.1.2.3/8 ; SBL123", "10.0.0.0/8", "1.2.3.4/32",
+                "2001:DB8::/32, listed", "::ffff:5.6.7.8", "2001:db8::1/128",
+                "not-an-address", "300.1.1.1", "1.2.3.4/33"));
+
+        Blocklist blocklist = Blocklist.read(feed);
+
+        // Host bits cleared, /32 and /128 the same as the bare address, mapped IPv6 as IPv4.
+        assertEquals(List.of("1.2.3.4", "5.6.7.8", "10.0.0.0/8", "2001:db8::/32", "2001:db8::1"), blocklist.values());
+        assertEquals(5, blocklist.size());
+        assertEquals(3, blocklist.getRejected());
+    }
+
+    @Test
+    void minusGivesTheEntriesToAddAndToRemove() {
+        Blocklist previous = Blocklist.of(List.of("1.2.3.4", "10.0.0.0/8", "2001:db8::1"));
+        Blocklist next = Blocklist.of(List.of("10.0.0.0/8", "9.9.9.9", "10.0.0.0/16", "2001:db8::2"));
+
+        assertEquals(List.of("9.9.9.9", "10.0.0.0/16", "2001:db8::2"), next.minus(previous).values());
+        assertEquals(List.of("1.2.3.4", "2001:db8::1"), previous.minus(next).values());
+        assertEquals(0, next.minus(next).size());
+        assertEquals(next.values(), next.minus(Blocklist.empty()).values());
+    }
+}
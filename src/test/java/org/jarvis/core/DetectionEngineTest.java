@@ -0,0 +1,101 @@
+package org.jarvis.core;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class DetectionEngineTest {
+
+    private static final int SOURCE = 0x01020304;
+    private static final int OTHER = 0x05060708;
+
+    private final List<String> detected = new CopyOnWriteArrayList<>();
+    // Only moves when a test advances it.
+    private final AtomicLong nanos = new AtomicLong(1_000_000_000L);
+    private final DetectionEngine engine = new DetectionEngine((address, reason) -> detected.add(address),
+            50, 10, 64, 4, 1024, RuleIndex.empty(), nanos::get);
+
+    @AfterEach
+    void shutDown() {
+        engine.shutdown();
+    }
+
+    private void advanceMillis(long millis) {
+        nanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(millis));
+        engine.tick();
+    }
+
+    @Test
+    void flagsFloodWithinOneWindow() throws InterruptedException {
+        for (int i = 0; i < 11; i++) {
+            engine.observeV4(SOURCE, -1);
+        }
+        awaitDetections(1);
+        assertEquals(List.of("1.2.3.4"), detected);
+    }
+
+    @Test
+    void previousWindowCountsWhileItOverlapsTheSlidingWindow() throws InterruptedException {
+        for (int i = 0; i < 10; i++) {
+            engine.observeV4(SOURCE, -1);
+        }
+        // 10 ms into the next window, 80% of the previous one still counts: 8 + 3 > 10.
+        advanceMillis(60);
+        for (int i = 0; i < 3; i++) {
+            engine.observeV4(SOURCE, -1);
+        }
+        awaitDetections(1);
+        assertEquals(List.of("1.2.3.4"), detected);
+    }
+
+    @Test
+    void sparseTrafficRotatesWindowsOnTime() throws InterruptedException {
+        for (int i = 0; i < 10; i++) {
+            engine.observeV4(SOURCE, -1);
+        }
+        // Two whole windows pass without a packet; the earlier ones no longer count.
+        advanceMillis(150);
+        for (int i = 0; i < 10; i++) {
+            engine.observeV4(SOURCE, -1);
+        }
+        // Reports are delivered in order, so once the other source's arrives, none is pending for SOURCE.
+        for (int i = 0; i < 11; i++) {
+            engine.observeV4(OTHER, -1);
+        }
+        awaitDetections(1);
+        assertEquals(List.of("5.6.7.8"), detected);
+    }
+
+    @Test
+    void flagsPortScanBelowThePacketLimit() throws InterruptedException {
+        List<String> reasons = new CopyOnWriteArrayList<>();
+        DetectionEngine scanDetector = new DetectionEngine((address, reason) -> reasons.add(reason),
+                50, 1000, 8, 4, 1024, RuleIndex.empty(), nanos::get);
+        try {
+            for (int port = 1; port <= 9; port++) {
+                scanDetector.observeV4(SOURCE, port);
+                scanDetector.observeV4(SOURCE, port); // a repeated port is not a new one
+            }
+            long deadline = System.currentTimeMillis() + 5000;
+            while (reasons.isEmpty() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            assertEquals(List.of("port scan: more than 8 destination ports in 50 ms"), reasons);
+        } finally {
+            scanDetector.shutdown();
+        }
+    }
+
+    private void awaitDetections(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (detected.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+    }
+}
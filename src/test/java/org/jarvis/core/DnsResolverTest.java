@@ -0,0 +1,207 @@
+package org.jarvis.core;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DnsResolverTest {
+
+    private record Answer(String address, int ttl) { }
+
+    // A DNS server on the loopback interface that answers A and AAAA queries from a table and
+    // NXDOMAIN for names it doesn't know.
+    private static final class DnsStub implements AutoCloseable {
+        final Map<String, List<Answer>> records = new ConcurrentHashMap<>();
+        final AtomicInteger queries = new AtomicInteger();
+        volatile boolean silent;
+        volatile int rcode = DnsCodec.RCODE_NOERROR;
+        // Answers every query once with the wrong id first, like a late reply to an earlier query.
+        volatile boolean staleFirst;
+        private final DatagramSocket socket;
+        private final Thread thread;
+
+        DnsStub() throws IOException {
+            socket = new DatagramSocket(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            thread = new Thread(this::serve, "dns-stub");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        InetSocketAddress address() {
+            return (InetSocketAddress) socket.getLocalSocketAddress();
+        }
+
+        private void serve() {
+            byte[] buffer = new byte[512];
+            try {
+                while (true) {
+                    DatagramPacket query = new DatagramPacket(buffer, buffer.length);
+                    socket.receive(query);
+                    queries.incrementAndGet();
+                    if (silent) {
+                        continue;
+                    }
+                    if (staleFirst) {
+                        byte[] stale = respond(buffer, query.getLength());
+                        stale[0] ^= (byte) 0x80;
+                        socket.send(new DatagramPacket(stale, stale.length, query.getSocketAddress()));
+                    }
+                    byte[] response = respond(buffer, query.getLength());
+                    socket.send(new DatagramPacket(response, response.length, query.getSocketAddress()));
+                }
+            } catch (IOException e) {
+                // closed
+            }
+        }
+
+        private byte[] respond(byte[] query, int length) throws IOException {
+            StringBuilder name = new StringBuilder();
+            DnsCodec.questionName(query, 0, length, name);
+            int type = FrameParser.u16(query, length - 4);
+            List<Answer> answers = records.get(name.toString().toLowerCase());
+            int code = answers == null && rcode == DnsCodec.RCODE_NOERROR ? DnsCodec.RCODE_NXDOMAIN : rcode;
+
+            ByteArrayOutputStream records = new ByteArrayOutputStream();
+            int count = 0;
+            for (Answer answer : answers != null && code == DnsCodec.RCODE_NOERROR ? answers : List.<Answer>of()) {
+                byte[] rdata = InetAddress.getByName(answer.address()).getAddress();
+                if ((rdata.length == 4 ? DnsCodec.TYPE_A : DnsCodec.TYPE_AAAA) != type) {
+                    continue;
+                }
+                // The owner name is a pointer to the question.
+                records.writeBytes(new byte[] {(byte) 0xC0, 12, 0, (byte) type, 0, DnsCodec.CLASS_IN,
+                        (byte) (answer.ttl() >>> 24), (byte) (answer.ttl() >>> 16), (byte) (answer.ttl() >>> 8), (byte) answer.ttl(),
+                        0, (byte) rdata.length});
+                records.writeBytes(rdata);
+                count++;
+            }
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            out.write(query, 0, 2);
+            out.writeBytes(new byte[] {(byte) 0x81, (byte) (0x80 | code), 0, 1, 0, (byte) count, 0, 0, 0, 0});
+            out.write(query, DnsCodec.HEADER_LENGTH, length - DnsCodec.HEADER_LENGTH);
+            records.writeTo(out);
+            return out.toByteArray();
+        }
+
+        @Override
+        public void close() {
+            socket.close();
+        }
+    }
+
+    private DnsStub stub;
+    private DnsResolver resolver;
+
+    private UdpDnsUpstream createStub() throws IOException {
+        stub = new DnsStub();
+        return new UdpDnsUpstream(stub.address());
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (resolver != null) {
+            resolver.shutdown();
+        }
+        if (stub != null) {
+            stub.close();
+        }
+    }
+
+    @Test
+    void collectsBothFamiliesWithTheSmallestTtl() throws IOException {
+        UdpDnsUpstream upstream = createStub();
+        stub.records.put("example.com", List.of(
+                new Answer("93.184.216.34", 300),
+                new Answer("2606:2800:0220:0001:0248:1893:25c8:1946", 120),
+                new Answer("2001:db8:0:0:0:0:0:1", 600)));
+        stub.staleFirst = true;
+
+        DnsResolver.Resolution resolution = upstream.resolve("Example.COM", 2000);
+
+        // AAAA answers come back in canonical form.
+        assertEquals(Set.of("93.184.216.34", "2606:2800:220:1:248:1893:25c8:1946", "2001:db8::1"),
+                new HashSet<>(resolution.addresses()));
+        assertEquals(120, resolution.ttlSeconds());
+        assertEquals(2, stub.queries.get());
+    }
+
+    @Test
+    void unknownNameIsNegativeAndServerFailureIsAnError() throws IOException {
+        UdpDnsUpstream upstream = createStub();
+        assertTrue(upstream.resolve("missing.example", 2000).isNegative());
+
+        stub.rcode = 2; // SERVFAIL
+        assertThrows(IOException.class, () -> upstream.resolve("missing.example", 2000));
+    }
+
+    @Test
+    void silentServerTimesOut() throws IOException {
+        UdpDnsUpstream upstream = createStub();
+        stub.silent = true;
+        assertThrows(IOException.class, () -> upstream.resolve("example.com", 100));
+    }
+
+    @Test
+    void resolverCachesAnswersAndNegativeResults() throws IOException {
+        resolver = new DnsResolver(createStub(), 4, 2000, 60, 3600);
+        stub.records.put("a.example", List.of(new Answer("10.0.0.1", 300)));
+
+        Map<String, List<String>> first = resolver.resolveAll(List.of("a.example", "missing.example"));
+        Map<String, List<String>> second = resolver.resolveAll(List.of("A.example", "missing.example"));
+
+        assertEquals(Map.of("a.example", List.of("10.0.0.1"), "missing.example", List.of()), first);
+        assertEquals(List.of("10.0.0.1"), second.get("A.example"));
+        assertEquals(List.of(), second.get("missing.example"));
+        // One A and one AAAA query per name, and none for the cached repeats.
+        assertEquals(4, stub.queries.get());
+        assertEquals(2, resolver.cacheSize());
+    }
+
+    @Test
+    void timeoutsAreNotCached() throws IOException {
+        resolver = new DnsResolver(createStub(), 4, 100, 60, 3600);
+        stub.records.put("a.example", List.of(new Answer("10.0.0.1", 300)));
+        stub.silent = true;
+
+        assertEquals(Map.of("a.example", List.of()), resolver.resolveAll(List.of("a.example")));
+        stub.silent = false;
+
+        // A cached failure would last the 60 s negative TTL; an uncached one clears once the
+        // timed-out lookup gives up.
+        long deadline = System.currentTimeMillis() + 5000;
+        List<String> addresses;
+        do {
+            addresses = resolver.resolveAll(List.of("a.example")).get("a.example");
+        } while (addresses.isEmpty() && System.currentTimeMillis() < deadline);
+        assertEquals(List.of("10.0.0.1"), addresses);
+    }
+
+    @Test
+    void zeroTtlAnswersAreNotCached() throws IOException {
+        resolver = new DnsResolver(createStub(), 4, 2000, 60, 3600);
+        stub.records.put("a.example", List.of(new Answer("10.0.0.1", 0)));
+
+        resolver.resolveAll(List.of("a.example"));
+        resolver.resolveAll(List.of("a.example"));
+
+        assertEquals(4, stub.queries.get());
+        assertEquals(0, resolver.cacheSize());
+    }
+}
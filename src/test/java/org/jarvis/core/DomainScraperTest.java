@@ -0,0 +1,103 @@
+package org.jarvis.core;
+
+import com.sun.net.httpserver.HttpServer;
+import org.jarvis.persistence.DatabaseManager;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DomainScraperTest {
+
+    // One page per query variant; the last one names a domain on the blacklist.
+    private static final String PAGE = """
+            <html><body>
+            <a href="https://cdn.example-video.net/x">cdn.example-video.net</a> and static.example-video.net
+            <a href="https://unrelated.org">unrelated.org</a>
+            </body></html>
+            """;
+
+    @TempDir
+    Path dir;
+
+    private HttpServer server;
+    private DatabaseManager database;
+    private final List<String> queries = new CopyOnWriteArrayList<>();
+    private volatile int status = 200;
+
+    private String startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/html/", exchange -> {
+            String query = URLDecoder.decode(exchange.getRequestURI().getRawQuery(), StandardCharsets.UTF_8);
+            queries.add(query);
+            byte[] body = (query.contains("cdn domains") ? PAGE + "api.example-video.com github.com\n" : PAGE)
+                    .getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(status, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + "/html/";
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (server != null) {
+            server.stop(0);
+        }
+        if (database != null) {
+            database.close();
+        }
+    }
+
+    @Test
+    void mergesDomainsFromEveryQueryVariant() throws IOException {
+        DomainScraper scraper = new DomainScraper(startServer(), Duration.ofSeconds(5), 0, null);
+
+        Set<String> domains = scraper.findRelatedDomains(" Example-Video ");
+
+        assertEquals(Set.of("cdn.example-video.net", "static.example-video.net", "api.example-video.com",
+                "example-video.com", "www.example-video.com"), domains);
+        assertEquals(3, queries.size());
+        assertTrue(queries.stream().allMatch(q -> q.startsWith("q=") && q.contains("example-video")));
+    }
+
+    @Test
+    void cachesResultsPerKeyword() throws IOException {
+        database = new DatabaseManager("jdbc:sqlite:" + dir.resolve("test.db"), 1);
+        DomainScraper scraper = new DomainScraper(startServer(), Duration.ofSeconds(5), 3600, database);
+
+        Set<String> first = scraper.findRelatedDomains("example-video");
+        Set<String> second = scraper.findRelatedDomains("EXAMPLE-video");
+
+        assertEquals(first, second);
+        assertEquals(3, queries.size());
+    }
+
+    @Test
+    void failedSearchesAreNotCached() throws IOException {
+        database = new DatabaseManager("jdbc:sqlite:" + dir.resolve("test.db"), 1);
+        DomainScraper scraper = new DomainScraper(startServer(), Duration.ofSeconds(5), 3600, database);
+        status = 503;
+
+        assertEquals(Set.of("example-video.com", "www.example-video.com"), scraper.findRelatedDomains("example-video"));
+        status = 200;
+        assertTrue(scraper.findRelatedDomains("example-video").contains("cdn.example-video.net"));
+        assertEquals(6, queries.size());
+    }
+}
@@ -0,0 +1,133 @@
+package org.jarvis.core;
+
+import org.jarvis.model.Rule;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class FlowClassifierTest {
+
+    private static final int TCP = FrameParser.PROTO_TCP;
+    private static final int UDP = FrameParser.PROTO_UDP;
+    private static final int ICMP = FrameParser.PROTO_ICMP;
+
+    private static FlowRule flow(String address, String direction, String protocol, String srcPorts, String dstPorts) {
+        return FlowRule.of(new Rule(0, "FLOW_BLOCK", address, direction, true, protocol, srcPorts, dstPorts));
+    }
+
+    private static int v4(String address) {
+        return IpAddresses.v4Key(IpAddresses.parseLiteral(address));
+    }
+
+    private static FlowRule matchV6(FlowClassifier classifier, String address, byte direction, int protocol, int srcPort, int dstPort) {
+        byte[] bytes = IpAddresses.parseLiteral(address);
+        return classifier.matchV6(IpAddresses.v6High(bytes), IpAddresses.v6Low(bytes), direction, protocol, srcPort, dstPort);
+    }
+
+    @Test
+    void matchesAddressProtocolPortsAndDirection() {
+        FlowRule ssh = flow("10.0.0.0/8", "Incoming", "tcp", "", "22");
+        FlowRule dns = flow("any", "Both", "udp", "", "53");
+        FlowRule https6 = flow("2001:db8::/32", "Outgoing", "tcp", "", "443");
+        FlowRule ping = flow("192.168.1.1", "Incoming", "icmp", "", "");
+        FlowClassifier classifier = FlowClassifier.of(List.of(ssh, dns, https6, ping));
+
+        assertSame(ssh, classifier.matchV4(v4("10.2.3.4"), RuleIndex.INCOMING, TCP, 50000, 22));
+        assertNull(classifier.matchV4(v4("10.2.3.4"), RuleIndex.OUTGOING, TCP, 50000, 22));
+        assertNull(classifier.matchV4(v4("10.2.3.4"), RuleIndex.INCOMING, TCP, 50000, 23));
+        assertNull(classifier.matchV4(v4("11.0.0.1"), RuleIndex.INCOMING, TCP, 50000, 22));
+        assertNull(classifier.matchV4(v4("10.2.3.4"), RuleIndex.INCOMING, UDP, 50000, 22));
+        assertSame(dns, classifier.matchV4(v4("8.8.8.8"), RuleIndex.OUTGOING, UDP, 40000, 53));
+        assertSame(dns, matchV6(classifier, "2001:4860::8888", RuleIndex.INCOMING, UDP, 40000, 53));
+        assertSame(https6, matchV6(classifier, "2001:db8:1::5", RuleIndex.OUTGOING, TCP, 40000, 443));
+        assertNull(matchV6(classifier, "2001:db9::5", RuleIndex.OUTGOING, TCP, 40000, 443));
+        // A packet without ports, e.g. ICMP or a later fragment, only matches rules without ports.
+        assertSame(ping, classifier.matchV4(v4("192.168.1.1"), RuleIndex.INCOMING, ICMP, -1, -1));
+        assertNull(classifier.matchV4(v4("10.2.3.4"), RuleIndex.INCOMING, TCP, -1, -1));
+    }
+
+    @Test
+    void firstRuleInOrderWins() {
+        FlowRule wide = flow("10.0.0.0/8", "Both", "tcp", "", "");
+        FlowRule narrow = flow("10.1.0.0/16", "Both", "tcp", "1000-2000", "22");
+
+        assertSame(wide, FlowClassifier.of(List.of(wide, narrow)).matchV4(v4("10.1.0.1"), RuleIndex.INCOMING, TCP, 1500, 22));
+        assertSame(narrow, FlowClassifier.of(List.of(narrow, wide)).matchV4(v4("10.1.0.1"), RuleIndex.INCOMING, TCP, 1500, 22));
+    }
+
+    @Test
+    void withAndWithoutDeriveNewClassifiers() {
+        FlowRule ssh = flow("10.0.0.5", "Incoming", "tcp", "", "22");
+        FlowRule dns = flow("any", "Both", "udp", "", "53");
+        FlowClassifier one = FlowClassifier.empty().with(List.of(ssh));
+
+        assertSame(one, one.with(List.of(flow("10.0.0.5", "Incoming", "tcp", "", "22"))));
+        FlowClassifier two = one.with(List.of(dns));
+        assertEquals(List.of(ssh, dns), two.rules());
+        FlowClassifier back = two.without(List.of(ssh));
+        assertEquals(List.of(dns), back.rules());
+        assertNull(back.matchV4(v4("10.0.0.5"), RuleIndex.INCOMING, TCP, 50000, 22));
+        // The classifier it was derived from is unchanged.
+        assertSame(ssh, two.matchV4(v4("10.0.0.5"), RuleIndex.INCOMING, TCP, 50000, 22));
+        assertSame(back, back.without(List.of(ssh)));
+    }
+
+    @Test
+    void agreesWithALinearScan() {
+        Random random = new Random(19);
+        List<FlowRule> rules = new ArrayList<>();
+        // More than 64 rules, so the bit vectors span several words.
+        for (int i = 0; i < 150; i++) {
+            int protocol = new int[] {TCP, UDP, ICMP}[random.nextInt(3)];
+            String address = random.nextInt(10) == 0 ? FlowRule.ANY_ADDRESS
+                    : IpPrefix.parse(IpAddresses.v4ToString(0x0A000000 | random.nextInt(1 << 12))
+                    + "/" + (20 + random.nextInt(13))).toString();
+            int[] src = protocol == ICMP || random.nextBoolean() ? new int[] {0, 65535} : range(random);
+            int[] dst = protocol == ICMP || random.nextBoolean() ? new int[] {0, 65535} : range(random);
+            rules.add(new FlowRule(address, protocol, src[0], src[1], dst[0], dst[1], (byte) (1 + random.nextInt(3))));
+        }
+        FlowClassifier classifier = FlowClassifier.of(rules);
+
+        for (int i = 0; i < 5000; i++) {
+            int address = 0x0A000000 | random.nextInt(1 << 12);
+            byte direction = random.nextBoolean() ? RuleIndex.INCOMING : RuleIndex.OUTGOING;
+            int protocol = new int[] {TCP, UDP, ICMP}[random.nextInt(3)];
+            int srcPort = protocol == ICMP ? -1 : random.nextInt(120);
+            int dstPort = protocol == ICMP ? -1 : random.nextInt(120);
+            FlowRule expected = null;
+            for (FlowRule rule : rules) {
+                if (matches(rule, address, direction, protocol, srcPort, dstPort)) {
+                    expected = rule;
+                    break;
+                }
+            }
+            assertSame(expected, classifier.matchV4(address, direction, protocol, srcPort, dstPort));
+        }
+    }
+
+    private static int[] range(Random random) {
+        int from = random.nextInt(100);
+        return new int[] {from, from + random.nextInt(20)};
+    }
+
+    private static boolean matches(FlowRule rule, int address, byte direction, int protocol, int srcPort, int dstPort) {
+        if ((rule.directions() & direction) == 0 || rule.protocol() != protocol) {
+            return false;
+        }
+        if (!rule.anyAddress()) {
+            IpPrefix prefix = IpPrefix.parse(rule.address().indexOf('/') >= 0 ? rule.address() : rule.address() + "/32");
+            if ((((address & 0xFFFFFFFFL) << 32) & IpPrefix.mask(prefix.getLength())) != prefix.getHigh()) {
+                return false;
+            }
+        }
+        boolean srcOk = srcPort < 0 ? rule.anySrcPort() : srcPort >= rule.srcFrom() && srcPort <= rule.srcTo();
+        boolean dstOk = dstPort < 0 ? rule.anyDstPort() : dstPort >= rule.dstFrom() && dstPort <= rule.dstTo();
+        return srcOk && dstOk;
+    }
+}
@@ -0,0 +1,171 @@
+package org.jarvis.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FrameParserTest {
+
+    private static final byte[] ETHERNET_MACS = new byte[12];
+
+    // 20-byte IPv4 header from 10.0.0.1 to 192.168.1.2, followed by 20 bytes of transport header:
+    // ports first, and for TCP a data offset of 5 words.
+    private static byte[] ipv4(int protocol, int fragmentOffset, int srcPort, int dstPort) {
+        return bytes(
+                0x45, 0x00, 0x00, 40, 0x00, 0x01, fragmentOffset >> 8, fragmentOffset, 64, protocol, 0x00, 0x00,
+                10, 0, 0, 1,
+                192, 168, 1, 2,
+                srcPort >> 8, srcPort, dstPort >> 8, dstPort, 0, 0, 0, 0, 0, 0, 0, 0, 0x50, 0, 0, 0, 0, 0, 0, 0);
+    }
+
+    // 40-byte IPv6 header from 2001:db8::1 to 2001:db8::2, followed by an 8-byte UDP header.
+    private static byte[] ipv6Udp(int srcPort, int dstPort) {
+        return bytes(
+                0x60, 0, 0, 0, 0, 8, 17, 64,
+                0x20, 0x01, 0x0d, 0xb8, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 1,
+                0x20, 0x01, 0x0d, 0xb8, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 2,
+                srcPort >> 8, srcPort, dstPort >> 8, dstPort, 0, 8, 0, 0);
+    }
+
+    @Test
+    void parsesEthernetIpv4Tcp() {
+        byte[] frame = concat(ETHERNET_MACS, bytes(0x08, 0x00), ipv4(FrameParser.PROTO_TCP, 0, 40000, 443));
+        FrameParser parser = new FrameParser(FrameParser.DLT_EN10MB);
+
+        assertTrue(parser.parse(frame, 0, frame.length));
+        assertEquals(4, parser.getIpVersion());
+        assertEquals(IpAddresses.v4Key(bytes(10, 0, 0, 1)), parser.getV4Src());
+        assertEquals(IpAddresses.v4Key(bytes(192, 168, 1, 2)), parser.getV4Dst());
+        assertEquals(FrameParser.PROTO_TCP, parser.getProtocol());
+        assertEquals(40000, parser.getSrcPort());
+        assertEquals(443, parser.getDstPort());
+    }
+
+    @Test
+    void skipsStackedVlanTags() {
+        byte[] frame = concat(ETHERNET_MACS, bytes(0x88, 0xA8, 0x00, 0x64, 0x81, 0x00, 0x00, 0x0A, 0x08, 0x00),
+                ipv4(FrameParser.PROTO_UDP, 0, 5353, 53));
+        FrameParser parser = new FrameParser(FrameParser.DLT_EN10MB);
+
+        assertTrue(parser.parse(frame, 0, frame.length));
+        assertEquals(FrameParser.PROTO_UDP, parser.getProtocol());
+        assertEquals(53, parser.getDstPort());
+    }
+
+    @Test
+    void honoursOffsetIntoBuffer() {
+        byte[] frame = concat(bytes(0xFF, 0xFF, 0xFF), ETHERNET_MACS, bytes(0x08, 0x00), ipv4(FrameParser.PROTO_TCP, 0, 1, 2));
+        FrameParser parser = new FrameParser(FrameParser.DLT_EN10MB);
+
+        assertTrue(parser.parse(frame, 3, frame.length - 3));
+        assertEquals(2, parser.getDstPort());
+    }
+
+    @Test
+    void laterFragmentsHaveNoPorts() {
+        byte[] frame = concat(ETHERNET_MACS, bytes(0x08, 0x00), ipv4(FrameParser.PROTO_TCP, 0x00B9, 1, 2));
+        FrameParser parser = new FrameParser(FrameParser.DLT_EN10MB);
+
+        assertTrue(parser.parse(frame, 0, frame.length));
+        assertEquals(FrameParser.PROTO_TCP, parser.getProtocol());
+        assertEquals(-1, parser.getSrcPort());
+        assertEquals(-1, parser.getDstPort());
+    }
+
+    @Test
+    void parsesLinuxCookedIpv6() {
+        byte[] frame = concat(new byte[14], bytes(0x86, 0xDD), ipv6Udp(1234, 53));
+        FrameParser parser = new FrameParser(FrameParser.DLT_LINUX_SLL);
+
+        assertTrue(parser.parse(frame, 0, frame.length));
+        assertEquals(6, parser.getIpVersion());
+        assertEquals(0x20010db800000000L, parser.getV6SrcHi());
+        assertEquals(1L, parser.getV6SrcLo());
+        assertEquals(2L, parser.getV6DstLo());
+        assertEquals(FrameParser.PROTO_UDP, parser.getProtocol());
+        assertEquals(53, parser.getDstPort());
+    }
+
+    @Test
+    void loopbackFamiliesInEitherByteOrder() {
+        FrameParser bsdNull = new FrameParser(FrameParser.DLT_NULL);
+        // Little-endian hosts: AF_INET, then AF_INET6 as macOS (30), FreeBSD (28), OpenBSD (24), Linux (10).
+        assertTrue(bsdNull.parse(concat(bytes(2, 0, 0, 0), ipv4(FrameParser.PROTO_TCP, 0, 1, 2)), 0, 44));
+        assertEquals(4, bsdNull.getIpVersion());
+        for (int family : new int[] {30, 28, 24, 10}) {
+            byte[] frame = concat(bytes(family, 0, 0, 0), ipv6Udp(1, 2));
+            assertTrue(bsdNull.parse(frame, 0, frame.length), "family " + family);
+            assertEquals(6, bsdNull.getIpVersion());
+        }
+
+        FrameParser loop = new FrameParser(FrameParser.DLT_LOOP);
+        byte[] v6 = concat(bytes(0, 0, 0, 24), ipv6Udp(1, 2));
+        assertTrue(loop.parse(v6, 0, v6.length));
+        assertEquals(6, loop.getIpVersion());
+    }
+
+    @Test
+    void rejectsUnknownLoopbackFamily() {
+        // AF_APPLETALK carrying bytes that happen to look like IPv6.
+        byte[] frame = concat(bytes(16, 0, 0, 0), ipv6Udp(1, 2));
+        FrameParser parser = new FrameParser(FrameParser.DLT_NULL);
+
+        assertFalse(parser.parse(frame, 0, frame.length));
+        assertEquals(0, parser.sourceHash(frame, 0, frame.length));
+    }
+
+    @Test
+    void rawLinkTypesUseTheVersionNibble() {
+        for (int linkType : new int[] {FrameParser.DLT_RAW, FrameParser.DLT_RAW_OPENBSD, FrameParser.LINKTYPE_RAW}) {
+            assertTrue(FrameParser.isSupportedLinkType(linkType));
+            FrameParser parser = new FrameParser(linkType);
+            byte[] v4 = ipv4(FrameParser.PROTO_UDP, 0, 1, 2);
+            byte[] v6 = ipv6Udp(1, 2);
+            assertTrue(parser.parse(v4, 0, v4.length));
+            assertEquals(4, parser.getIpVersion());
+            assertTrue(parser.parse(v6, 0, v6.length));
+            assertEquals(6, parser.getIpVersion());
+        }
+    }
+
+    @Test
+    void rejectsTruncatedAndNonIpFrames() {
+        FrameParser parser = new FrameParser(FrameParser.DLT_EN10MB);
+        byte[] frame = concat(ETHERNET_MACS, bytes(0x08, 0x00), ipv4(FrameParser.PROTO_TCP, 0, 1, 2));
+        assertFalse(parser.parse(frame, 0, 10));
+        assertFalse(parser.parse(frame, 0, 14 + 19));
+
+        byte[] arp = concat(ETHERNET_MACS, bytes(0x08, 0x06), new byte[28]);
+        assertFalse(parser.parse(arp, 0, arp.length));
+    }
+
+    @Test
+    void sourceHashDependsOnlyOnSource() {
+        FrameParser parser = new FrameParser(FrameParser.DLT_EN10MB);
+        byte[] a = concat(ETHERNET_MACS, bytes(0x08, 0x00), ipv4(FrameParser.PROTO_TCP, 0, 1, 2));
+        byte[] b = concat(ETHERNET_MACS, bytes(0x08, 0x00), ipv4(FrameParser.PROTO_UDP, 0, 3, 4));
+
+        assertEquals(RuleIndex.hash(IpAddresses.v4Key(bytes(10, 0, 0, 1))), parser.sourceHash(a, 0, a.length));
+        assertEquals(parser.sourceHash(a, 0, a.length), parser.sourceHash(b, 0, b.length));
+    }
+
+    private static byte[] bytes(int... values) {
+        byte[] out = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            out[i] = (byte) values[i];
+        }
+        return out;
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.writeBytes(part);
+        }
+        return out.toByteArray();
+    }
+}
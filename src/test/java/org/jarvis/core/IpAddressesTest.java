@@ -0,0 +1,57 @@
+package org.jarvis.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class IpAddressesTest {
+
+    @Test
+    void mappedLiteralsAreTheirIpv4Address() {
+        byte[] v4 = {1, 2, 3, 4};
+        assertArrayEquals(v4, IpAddresses.parseLiteral("::ffff:1.2.3.4"));
+        assertArrayEquals(v4, IpAddresses.parseLiteral("::FFFF:0102:0304"));
+        assertArrayEquals(v4, IpAddresses.parseLiteral("0:0:0:0:0:ffff:1.2.3.4"));
+        assertEquals("1.2.3.4", IpAddresses.canonical("::ffff:1.2.3.4"));
+        // IPv4-compatible addresses are deprecated but still IPv6.
+        assertEquals(16, IpAddresses.parseLiteral("::1.2.3.4").length);
+        assertNull(IpAddresses.parseLiteral("example.com"));
+    }
+
+    @Test
+    void formatsIpv6PerRfc5952() {
+        assertEquals("::", format("0:0:0:0:0:0:0:0"));
+        assertEquals("::1", format("0:0:0:0:0:0:0:1"));
+        assertEquals("1::", format("1:0:0:0:0:0:0:0"));
+        assertEquals("2001:db8::1", format("2001:0DB8:0000:0000:0000:0000:0000:0001"));
+        // A single zero group is not shortened.
+        assertEquals("2001:db8:0:1:1:1:1:1", format("2001:db8:0:1:1:1:1:1"));
+        // The longest run wins, and the first of equally long ones.
+        assertEquals("2001:0:0:1::1", format("2001:0:0:1:0:0:0:1"));
+        assertEquals("2001:db8::1:0:0:1", format("2001:db8:0:0:1:0:0:1"));
+        assertEquals("fe80::1:2:3:4", IpAddresses.canonical("FE80:0:0:0:1:2:3:4"));
+    }
+
+    @Test
+    void mappedPrefixesAreTheirIpv4Prefix() {
+        assertEquals("10.0.0.0/8", IpPrefix.parse("::ffff:10.0.0.0/104").toString());
+        assertEquals("1.2.3.4/32", IpPrefix.parse("::ffff:1.2.3.4/128").toString());
+        assertNull(IpPrefix.parse("::ffff:10.0.0.0/95"));
+        assertEquals("2001:db8::/32", IpPrefix.parse("2001:0db8:0:0:0:0:0:0/32").toString());
+    }
+
+    @Test
+    void blocklistStoresMappedEntriesAsIpv4() {
+        Blocklist list = Blocklist.of(List.of("::ffff:1.2.3.4", "::ffff:10.0.0.0/104", "2001:0db8:0:0:0:0:0:1"));
+        assertEquals(List.of("1.2.3.4", "10.0.0.0/8", "2001:db8::1"), list.values());
+    }
+
+    private static String format(String address) {
+        byte[] bytes = IpAddresses.parseLiteral(address);
+        return IpAddresses.v6ToString(IpAddresses.v6High(bytes), IpAddresses.v6Low(bytes));
+    }
+}
@@ -0,0 +1,173 @@
+package org.jarvis.core;
+
+import org.jarvis.enforcer.CommandRunner;
+import org.jarvis.enforcer.FirewallManager;
+import org.jarvis.model.Rule;
+import org.jarvis.persistence.DatabaseManager;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PacketAnalyzerTest {
+
+    // Records every command and lets it succeed.
+    private static final class RecordingRunner implements CommandRunner {
+        final List<String> commands = new CopyOnWriteArrayList<>();
+
+        @Override
+        public Result run(List<String> command, String stdin) {
+            commands.add(String.join(" ", command));
+            return new Result(0, "", "");
+        }
+
+        long count(String prefix) {
+            return commands.stream().filter(c -> c.startsWith(prefix)).count();
+        }
+    }
+
+    private static final byte[] HOST = {127, 0, 0, 1};
+    private static final byte[] RESOLVER = {(byte) 192, 0, 2, 53};
+    private static final byte[] LEARNED = {(byte) 203, 0, 113, 7};
+    private static final byte[] FORGED = {(byte) 198, 51, 100, 9};
+
+    @TempDir
+    Path dir;
+
+    private DatabaseManager database;
+    private PacketAnalyzer analyzer;
+
+    @BeforeAll
+    static void configure() {
+        System.setProperty("sentinel.snapshot.enabled", "false");
+        System.setProperty("sentinel.dns.sniff.minTtlSeconds", "0");
+    }
+
+    @AfterAll
+    static void restore() {
+        System.clearProperty("sentinel.snapshot.enabled");
+        System.clearProperty("sentinel.dns.sniff.minTtlSeconds");
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (analyzer != null) {
+            analyzer.shutdown();
+        }
+        if (database != null) {
+            database.close();
+        }
+    }
+
+    @Test
+    void blocksAddressesLearnedFromAnswersToOwnQueriesUntilTheirTtlRunsOut() throws InterruptedException {
+        RecordingRunner runner = new RecordingRunner();
+        database = new DatabaseManager("jdbc:sqlite:" + dir.resolve("test.db"), 1);
+        analyzer = new PacketAnalyzer(null, new FirewallManager(runner, FirewallManager.Mode.IPTABLES), database);
+        analyzer.addRule(new Rule(0, "DOMAIN_BLOCK", "ads.example", "Both", true));
+
+        // An answer nobody asked for, then a genuine one that also names this host.
+        analyzer.gotPacket(udp(RESOLVER, HOST, 53, 40000, response(0x1234, "ads.example", FORGED)));
+        analyzer.gotPacket(udp(HOST, RESOLVER, 40000, 53, query(0x5678, "ads.example")));
+        analyzer.gotPacket(udp(RESOLVER, HOST, 53, 40000, response(0x5678, "ADS.example", LEARNED, HOST)));
+
+        await(() -> runner.count("iptables -I OUTPUT -d 203.0.113.7 ") == 1);
+        assertEquals(1, runner.count("iptables -I INPUT -s 203.0.113.7 "));
+        assertEquals(RuleIndex.BOTH, analyzer.getRuleIndex().lookupV4(IpAddresses.v4Key(LEARNED)));
+        assertEquals(RuleIndex.NONE, analyzer.getRuleIndex().lookupV4(IpAddresses.v4Key(FORGED)));
+        assertEquals(RuleIndex.NONE, analyzer.getRuleIndex().lookupV4(IpAddresses.v4Key(HOST)));
+        // The answer was consumed with its query; a replay of it is ignored as well.
+        analyzer.gotPacket(udp(RESOLVER, HOST, 53, 40000, response(0x5678, "ads.example", FORGED)));
+
+        // A packet from the learned address matches the rule but queues no second block.
+        long submitted = analyzer.getEnforcementQueue().getSubmittedCount();
+        analyzer.gotPacket(udp(LEARNED, HOST, 443, 40001, new byte[0]));
+        assertEquals(submitted, analyzer.getEnforcementQueue().getSubmittedCount());
+
+        // The 1 s TTL runs out and both kernel rules are lifted once.
+        await(() -> runner.count("iptables -D OUTPUT -d 203.0.113.7 ") == 1);
+        assertEquals(1, runner.count("iptables -D INPUT -s 203.0.113.7 "));
+        assertEquals(RuleIndex.NONE, analyzer.getRuleIndex().lookupV4(IpAddresses.v4Key(LEARNED)));
+        assertEquals(0, runner.count("iptables -I INPUT -s 198.51.100.9 "));
+    }
+
+    @Test
+    void reAddingARuleWithFewerDirectionsLiftsTheDroppedOne() throws InterruptedException {
+        RecordingRunner runner = new RecordingRunner();
+        database = new DatabaseManager("jdbc:sqlite:" + dir.resolve("test.db"), 1);
+        analyzer = new PacketAnalyzer(null, new FirewallManager(runner, FirewallManager.Mode.IPTABLES), database);
+        analyzer.addRule(new Rule(0, "IP_BLOCK", "203.0.113.7", "Both", true));
+        analyzer.gotPacket(udp(LEARNED, HOST, 443, 40001, new byte[0]));
+        analyzer.gotPacket(udp(HOST, LEARNED, 40001, 443, new byte[0]));
+        await(() -> runner.count("iptables -I INPUT -s 203.0.113.7 ") == 1
+                && runner.count("iptables -I OUTPUT -d 203.0.113.7 ") == 1);
+
+        analyzer.addRule(new Rule(0, "IP_BLOCK", "203.0.113.7", "Incoming", true));
+
+        assertEquals(RuleIndex.INCOMING, analyzer.getRuleIndex().directionsOf("203.0.113.7"));
+        assertEquals(1, runner.count("iptables -D OUTPUT -d 203.0.113.7 "));
+        assertEquals(0, runner.count("iptables -D INPUT -s 203.0.113.7 "));
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(condition.getAsBoolean());
+    }
+
+    // An Ethernet frame carrying an IPv4 UDP datagram.
+    private static byte[] udp(byte[] src, byte[] dst, int srcPort, int dstPort, byte[] payload) {
+        int udpLength = 8 + payload.length;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.writeBytes(new byte[12]);
+        out.writeBytes(new byte[] {0x08, 0x00});
+        out.writeBytes(new byte[] {0x45, 0, (byte) ((20 + udpLength) >> 8), (byte) (20 + udpLength),
+                0, 1, 0, 0, 64, FrameParser.PROTO_UDP, 0, 0});
+        out.writeBytes(src);
+        out.writeBytes(dst);
+        out.writeBytes(new byte[] {(byte) (srcPort >> 8), (byte) srcPort, (byte) (dstPort >> 8), (byte) dstPort,
+                (byte) (udpLength >> 8), (byte) udpLength, 0, 0});
+        out.writeBytes(payload);
+        return out.toByteArray();
+    }
+
+    private static byte[] query(int id, String name) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.writeBytes(new byte[] {(byte) (id >> 8), (byte) id, 0x01, 0, 0, 1, 0, 0, 0, 0, 0, 0});
+        question(out, name);
+        return out.toByteArray();
+    }
+
+    // A response with one A record per address, each with a 1 s TTL and a pointer to the question.
+    private static byte[] response(int id, String name, byte[]... addresses) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.writeBytes(new byte[] {(byte) (id >> 8), (byte) id, (byte) 0x81, (byte) 0x80, 0, 1,
+                0, (byte) addresses.length, 0, 0, 0, 0});
+        question(out, name);
+        for (byte[] address : addresses) {
+            out.writeBytes(new byte[] {(byte) 0xC0, 12, 0, DnsCodec.TYPE_A, 0, DnsCodec.CLASS_IN, 0, 0, 0, 1, 0, 4});
+            out.writeBytes(address);
+        }
+        return out.toByteArray();
+    }
+
+    private static void question(ByteArrayOutputStream out, String name) {
+        for (String label : name.split("\\.")) {
+            out.write(label.length());
+            out.writeBytes(label.getBytes());
+        }
+        out.writeBytes(new byte[] {0, 0, DnsCodec.TYPE_A, 0, DnsCodec.CLASS_IN});
+    }
+}
@@ -0,0 +1,134 @@
+package org.jarvis.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class PrefixTrieTest {
+
+    private static PrefixTrie trie(String... prefixes) {
+        PrefixTrie trie = PrefixTrie.empty();
+        for (String prefix : prefixes) {
+            trie = trie.with(IpPrefix.parse(prefix), RuleIndex.BOTH);
+        }
+        return trie;
+    }
+
+    private static String match(PrefixTrie trie, String address, byte direction) {
+        byte[] bytes = IpAddresses.parseLiteral(address);
+        PrefixTrie.Node node = bytes.length == 4
+                ? trie.longestMatchV4(IpAddresses.v4Key(bytes), direction)
+                : trie.longestMatch(IpAddresses.v6High(bytes), IpAddresses.v6Low(bytes), direction);
+        return node == null ? null : node.getValue();
+    }
+
+    @Test
+    void longestMatchPicksTheMostSpecificPrefix() {
+        PrefixTrie trie = trie("10.0.0.0/8", "10.1.0.0/16", "10.1.2.0/24", "10.2.0.0/16", "0.0.0.0/0");
+
+        assertEquals(5, trie.size());
+        assertEquals("10.1.2.0/24", match(trie, "10.1.2.3", RuleIndex.INCOMING));
+        assertEquals("10.1.0.0/16", match(trie, "10.1.3.1", RuleIndex.INCOMING));
+        assertEquals("10.0.0.0/8", match(trie, "10.3.0.1", RuleIndex.INCOMING));
+        assertEquals("0.0.0.0/0", match(trie, "192.168.1.1", RuleIndex.INCOMING));
+    }
+
+    @Test
+    void longestMatchSkipsPrefixesForOtherDirections() {
+        PrefixTrie trie = PrefixTrie.empty()
+                .with(IpPrefix.parse("10.0.0.0/8"), RuleIndex.OUTGOING)
+                .with(IpPrefix.parse("10.1.0.0/16"), RuleIndex.INCOMING);
+
+        assertEquals("10.1.0.0/16", match(trie, "10.1.0.1", RuleIndex.INCOMING));
+        assertEquals("10.0.0.0/8", match(trie, "10.1.0.1", RuleIndex.OUTGOING));
+        assertNull(match(trie, "10.2.0.1", RuleIndex.INCOMING));
+    }
+
+    @Test
+    void matchesIpv6Prefixes() {
+        PrefixTrie trie = trie("2001:db8::/32", "2001:db8:1::/48", "2001:db8:1:2:3::/80");
+
+        assertEquals("2001:db8:1:2:3::/80", match(trie, "2001:db8:1:2:3::9", RuleIndex.OUTGOING));
+        assertEquals("2001:db8:1::/48", match(trie, "2001:db8:1:2:4::9", RuleIndex.OUTGOING));
+        assertEquals("2001:db8::/32", match(trie, "2001:db8:2::1", RuleIndex.OUTGOING));
+        assertNull(match(trie, "2001:db9::1", RuleIndex.OUTGOING));
+    }
+
+    @Test
+    void removalKeepsTheOtherPrefixesAndOldSnapshots() {
+        PrefixTrie trie = trie("10.0.0.0/8", "10.1.0.0/16", "10.1.2.0/24", "10.128.0.0/9");
+
+        PrefixTrie without = trie.without(IpPrefix.parse("10.1.0.0/16"));
+        assertEquals(3, without.size());
+        assertEquals("10.1.2.0/24", match(without, "10.1.2.3", RuleIndex.INCOMING));
+        assertEquals("10.0.0.0/8", match(without, "10.1.3.1", RuleIndex.INCOMING));
+        assertEquals("10.128.0.0/9", match(without, "10.200.0.1", RuleIndex.INCOMING));
+        assertEquals(RuleIndex.NONE, without.directionsOf(IpPrefix.parse("10.1.0.0/16")));
+        // The trie it was derived from still has the prefix.
+        assertEquals("10.1.0.0/16", match(trie, "10.1.3.1", RuleIndex.INCOMING));
+
+        // Removing a prefix that is not there, even one on an interior node, changes nothing.
+        assertSame(without, without.without(IpPrefix.parse("10.1.0.0/16")));
+        assertSame(without, without.without(IpPrefix.parse("10.0.0.0/7")));
+    }
+
+    @Test
+    void replacingAPrefixKeepsTheSize() {
+        PrefixTrie trie = trie("10.0.0.0/8").with(IpPrefix.parse("10.0.0.0/8"), RuleIndex.INCOMING);
+
+        assertEquals(1, trie.size());
+        assertEquals(RuleIndex.INCOMING, trie.directionsOf(IpPrefix.parse("10.0.0.0/8")));
+        assertNull(match(trie, "10.0.0.1", RuleIndex.OUTGOING));
+    }
+
+    @Test
+    void forEachVisitsEveryPrefixShortestFirst() {
+        PrefixTrie trie = trie("10.1.0.0/16", "10.0.0.0/8", "192.168.0.0/16");
+
+        List<String> visited = new ArrayList<>();
+        trie.forEach(node -> visited.add(node.getValue()));
+
+        assertEquals(List.of("10.0.0.0/8", "10.1.0.0/16", "192.168.0.0/16"), visited);
+    }
+
+    @Test
+    void agreesWithALinearScan() {
+        Random random = new Random(42);
+        List<IpPrefix> prefixes = new ArrayList<>();
+        PrefixTrie trie = PrefixTrie.empty();
+        for (int i = 0; i < 300; i++) {
+            // Short prefixes inside 10.0.0.0/8 so that many of them nest.
+            int address = 0x0A000000 | random.nextInt(1 << 24);
+            IpPrefix prefix = IpPrefix.parse(IpAddresses.v4ToString(address) + "/" + (8 + random.nextInt(17)));
+            prefixes.add(prefix);
+            trie = trie.with(prefix, RuleIndex.BOTH);
+        }
+        for (int i = 0; i < 100; i++) {
+            IpPrefix prefix = prefixes.remove(random.nextInt(prefixes.size()));
+            // The same prefix may have been drawn twice; the trie holds it once.
+            if (prefixes.stream().noneMatch(p -> p.toString().equals(prefix.toString()))) {
+                trie = trie.without(prefix);
+            }
+        }
+
+        for (int i = 0; i < 2000; i++) {
+            int address = 0x0A000000 | random.nextInt(1 << 24);
+            IpPrefix best = null;
+            for (IpPrefix prefix : prefixes) {
+                long masked = ((address & 0xFFFFFFFFL) << 32) & IpPrefix.mask(prefix.getLength());
+                if (masked == prefix.getHigh() && (best == null || prefix.getLength() > best.getLength())) {
+                    best = prefix;
+                }
+            }
+            PrefixTrie.Node node = trie.longestMatchV4(address, RuleIndex.INCOMING);
+            assertEquals(best == null ? null : best.toString(), node == null ? null : node.getValue(),
+                    IpAddresses.v4ToString(address));
+        }
+    }
+}
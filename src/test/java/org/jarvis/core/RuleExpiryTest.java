@@ -0,0 +1,74 @@
+package org.jarvis.core;
+
+import org.jarvis.model.Rule;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class RuleExpiryTest {
+
+    private final LinkedBlockingQueue<List<Rule>> batches = new LinkedBlockingQueue<>();
+    private final RuleExpiry expiry = new RuleExpiry(batches::add, 10);
+
+    @AfterEach
+    void tearDown() {
+        expiry.shutdown();
+    }
+
+    private static Rule rule(String value, long expiresAt) {
+        Rule rule = new Rule(0, "IP_BLOCK", value, "Incoming", true);
+        rule.setExpiresAt(expiresAt);
+        return rule;
+    }
+
+    private static long past() {
+        return System.currentTimeMillis() / 1000 - 1;
+    }
+
+    @Test
+    void expiredRulesAreHandedOverInDeadlineOrder() throws InterruptedException {
+        Rule first = rule("10.0.0.1", past() - 10);
+        Rule second = rule("10.0.0.2", past());
+        Rule permanent = rule("10.0.0.3", 0);
+        expiry.schedule(first);
+        expiry.schedule(second);
+        expiry.schedule(permanent);
+
+        // A tick may fall between the two schedules and split them into two batches.
+        List<Rule> expired = new ArrayList<>();
+        while (expired.size() < 2) {
+            List<Rule> batch = batches.poll(5, TimeUnit.SECONDS);
+            assertNotNull(batch);
+            expired.addAll(batch);
+        }
+
+        assertEquals(List.of(first, second), expired);
+        assertEquals(0, expiry.getPendingCount());
+    }
+
+    @Test
+    void addingTheSameRuleAgainReplacesItsExpiry() throws InterruptedException {
+        // Typed differently, the same address is the same rule.
+        expiry.schedule(rule("2001:db8:0:0::1", past()));
+        expiry.schedule(rule("2001:db8::1", 0));
+        expiry.schedule(rule("10.0.0.1", past()));
+        expiry.schedule(rule("10.0.0.1", past() + 3600));
+        expiry.schedule(rule("10.0.0.2", past()));
+        expiry.cancelAddress("10.0.0.2");
+        Rule marker = rule("10.0.0.3", past());
+        expiry.schedule(marker);
+
+        // Everything scheduled before the marker is in its tick or an earlier one.
+        assertEquals(List.of(marker), batches.poll(5, TimeUnit.SECONDS));
+        assertNull(batches.poll());
+        assertEquals(1, expiry.getPendingCount());
+    }
+}
@@ -0,0 +1,115 @@
+package org.jarvis.core;
+
+import org.jarvis.model.Rule;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class RuleIndexTest {
+
+    private static Rule rule(String value, String direction) {
+        return new Rule(0, value.indexOf('/') >= 0 ? "CIDR_BLOCK" : "IP_BLOCK", value, direction, true);
+    }
+
+    @Test
+    void directionsOfMatchesExactRulesOnly() {
+        RuleIndex index = RuleIndex.of(List.of(
+                rule("10.0.0.0/8", "Both"),
+                rule("10.1.0.0/16", "Incoming"),
+                rule("10.1.2.3", "Outgoing"),
+                rule("2001:db8::/32", "Incoming")));
+
+        assertEquals(RuleIndex.BOTH, index.directionsOf("10.0.0.0/8"));
+        assertEquals(RuleIndex.INCOMING, index.directionsOf("10.1.0.0/16"));
+        assertEquals(RuleIndex.OUTGOING, index.directionsOf("10.1.2.3"));
+        assertEquals(RuleIndex.INCOMING, index.directionsOf("2001:db8::/32"));
+        // Covered by a prefix, but without a rule of its own.
+        assertEquals(RuleIndex.NONE, index.directionsOf("10.1.2.4"));
+        assertEquals(RuleIndex.NONE, index.directionsOf("10.1.2.0/24"));
+        assertEquals(RuleIndex.NONE, index.directionsOf("10.0.0.0/7"));
+        assertEquals(RuleIndex.NONE, index.directionsOf("example.com"));
+
+        RuleIndex without = index.without(List.of("10.0.0.0/8", "10.1.2.3"));
+        assertEquals(RuleIndex.NONE, without.directionsOf("10.0.0.0/8"));
+        assertEquals(RuleIndex.INCOMING, without.directionsOf("10.1.0.0/16"));
+        assertEquals(RuleIndex.NONE, without.directionsOf("10.1.2.3"));
+    }
+
+    @Test
+    void exactRulesAddReplaceAndRemove() {
+        RuleIndex index = RuleIndex.of(List.of(
+                rule("1.2.3.4", "Incoming"),
+                rule("2001:db8::1", "Outgoing"),
+                rule("example.com", "Both")));
+        assertEquals(2, index.size());
+        assertEquals(RuleIndex.INCOMING, index.lookupV4(v4("1.2.3.4")));
+        assertEquals(RuleIndex.OUTGOING, index.directionsOf("2001:0db8:0:0:0:0:0:1"));
+        assertEquals(RuleIndex.NONE, index.lookupV4(v4("1.2.3.5")));
+
+        // A later rule for the same address replaces the direction; the old snapshot is unchanged.
+        RuleIndex replaced = index.with(rule("1.2.3.4", "Both"));
+        assertEquals(2, replaced.size());
+        assertEquals(RuleIndex.BOTH, replaced.lookupV4(v4("1.2.3.4")));
+        assertEquals(RuleIndex.INCOMING, index.lookupV4(v4("1.2.3.4")));
+
+        RuleIndex empty = replaced.without(List.of("1.2.3.4", "2001:db8::1", "9.9.9.9"));
+        assertEquals(0, empty.size());
+        assertEquals(RuleIndex.NONE, empty.lookupV4(v4("1.2.3.4")));
+    }
+
+    @Test
+    void lookupsSurviveGrowthAndRemovals() {
+        // Enough keys to resize the tables several times and leave long probe chains.
+        List<String> values = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            values.add("10." + (i >> 8) + "." + (i & 0xFF) + ".1");
+            values.add("2001:db8::" + Integer.toHexString(i));
+        }
+        RuleIndex index = RuleIndex.empty().with(values, "Outgoing");
+        assertEquals(10_000, index.exactCount());
+
+        // Every other pair of v4 and v6 values.
+        List<String> removed = new ArrayList<>();
+        for (int i = 1; i < values.size(); i += 4) {
+            removed.add(values.get(i - 1));
+            removed.add(values.get(i));
+        }
+        RuleIndex half = index.without(removed);
+        assertEquals(5000, half.exactCount());
+        for (int i = 0; i < values.size(); i++) {
+            byte expected = (i / 2) % 2 == 0 ? RuleIndex.NONE : RuleIndex.OUTGOING;
+            assertEquals(expected, half.directionsOf(values.get(i)), values.get(i));
+        }
+    }
+
+    @Test
+    void cidrRulesAnswerLongestPrefixLookups() {
+        RuleIndex index = RuleIndex.of(List.of(
+                rule("10.0.0.0/8", "Outgoing"),
+                rule("10.1.0.0/16", "Incoming"),
+                rule("2001:db8::/32", "Both")));
+        assertEquals(3, index.size());
+        assertEquals(0, index.exactCount());
+        assertEquals(3, index.prefixCount());
+
+        assertEquals("10.1.0.0/16", index.longestPrefixV4(v4("10.1.2.3"), RuleIndex.INCOMING).getValue());
+        assertEquals("10.0.0.0/8", index.longestPrefixV4(v4("10.1.2.3"), RuleIndex.OUTGOING).getValue());
+        assertNull(index.longestPrefixV4(v4("11.0.0.1"), RuleIndex.OUTGOING));
+        byte[] v6 = IpAddresses.parseLiteral("2001:db8:ffff::1");
+        assertEquals("2001:db8::/32", index.longestPrefixV6(IpAddresses.v6High(v6), IpAddresses.v6Low(v6), RuleIndex.OUTGOING).getValue());
+        // Exact tables and tries are separate: an address inside a prefix has no exact entry.
+        assertEquals(RuleIndex.NONE, index.lookupV4(v4("10.1.2.3")));
+
+        RuleIndex without = index.without("10.1.0.0/16");
+        assertEquals("10.0.0.0/8", without.longestPrefixV4(v4("10.1.2.3"), RuleIndex.OUTGOING).getValue());
+        assertNull(without.longestPrefixV4(v4("10.1.2.3"), RuleIndex.INCOMING));
+    }
+
+    private static int v4(String address) {
+        return IpAddresses.v4Key(IpAddresses.parseLiteral(address));
+    }
+}
@@ -0,0 +1,109 @@
+package org.jarvis.core;
+
+import org.jarvis.model.Rule;
+import org.jarvis.persistence.DatabaseManager;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class RuleSnapshotTest {
+
+    private static final List<String> VALUES = List.of("10.0.0.1", "10.0.0.0/8", "192.168.1.0/24", "2001:db8::1", "2001:db8::/32");
+
+    @TempDir
+    Path dir;
+
+    private static RuleIndex index() {
+        return RuleIndex.empty()
+                .with(VALUES, "Incoming")
+                .with(List.of("172.16.0.1", "2001:db8::2"), "Both")
+                .with(List.of("8.8.8.8"), "Outgoing");
+    }
+
+    @Test
+    void readsBackWhatWasWrittenForTheSameVersion() throws IOException {
+        Path path = dir.resolve("rules.idx");
+        RuleIndex index = index();
+
+        RuleSnapshot.write(path, index, 42);
+        RuleIndex read = RuleSnapshot.read(path, 42);
+
+        assertNotNull(read);
+        assertEquals(index.size(), read.size());
+        for (String value : List.of("10.0.0.1", "10.0.0.0/8", "192.168.1.0/24", "2001:db8::1", "2001:db8::/32",
+                "172.16.0.1", "2001:db8::2", "8.8.8.8", "10.0.0.2", "2001:db8::3")) {
+            assertEquals(index.directionsOf(value), read.directionsOf(value), value);
+        }
+        assertEquals("192.168.1.0/24", read.longestPrefixV4(IpAddresses.v4Key(IpAddresses.parseLiteral("192.168.1.9")),
+                RuleIndex.INCOMING).getValue());
+        // Another version means the rules changed since the snapshot was written.
+        assertNull(RuleSnapshot.read(path, 43));
+        // The temporary file was moved into place.
+        try (Stream<Path> files = Files.list(dir)) {
+            assertEquals(List.of(path), files.toList());
+        }
+    }
+
+    @Test
+    void damagedFilesAreRejected() throws IOException {
+        Path path = dir.resolve("rules.idx");
+        RuleSnapshot.write(path, index(), 1);
+        byte[] bytes = Files.readAllBytes(path);
+
+        byte[] flipped = bytes.clone();
+        flipped[flipped.length - 1] ^= 1;
+        Files.write(path, flipped);
+        assertThrows(IOException.class, () -> RuleSnapshot.read(path, 1));
+
+        Files.write(path, Arrays.copyOf(bytes, bytes.length - 1));
+        assertThrows(IOException.class, () -> RuleSnapshot.read(path, 1));
+
+        Files.write(path, Arrays.copyOf(bytes, 10));
+        assertThrows(IOException.class, () -> RuleSnapshot.read(path, 1));
+
+        byte[] foreign = bytes.clone();
+        foreign[0] = 'X';
+        Files.write(path, foreign);
+        assertThrows(IOException.class, () -> RuleSnapshot.read(path, 1));
+    }
+
+    @Test
+    void rebuildStoresTheAddressRulesOfTheCurrentVersion() {
+        DatabaseManager database = new DatabaseManager("jdbc:sqlite:" + dir.resolve("test.db"), 1);
+        try {
+            Path path = dir.resolve("rules.idx");
+            database.addRule(new Rule(0, "IP_BLOCK", "10.0.0.1", "Incoming", true));
+            database.addRule(new Rule(0, "CIDR_BLOCK", "192.168.0.0/16", "Both", true));
+            database.addRule(new Rule(0, "DOMAIN_BLOCK", "ads.example", "Both", true));
+
+            RuleSnapshot snapshot = new RuleSnapshot(path, database, 0);
+            assertNull(snapshot.load());
+            snapshot.scheduleRebuild();
+            // A rebuild that has not run yet runs at shutdown.
+            snapshot.shutdown();
+
+            RuleIndex loaded = new RuleSnapshot(path, database, 0).load();
+            assertNotNull(loaded);
+            assertEquals(2, loaded.size());
+            assertEquals(RuleIndex.INCOMING, loaded.directionsOf("10.0.0.1"));
+            assertEquals(RuleIndex.BOTH, loaded.directionsOf("192.168.0.0/16"));
+
+            // Any change to the rules table makes the snapshot stale.
+            database.addRule(new Rule(0, "IP_BLOCK", "10.0.0.2", "Incoming", true));
+            assertNull(new RuleSnapshot(path, database, 0).load());
+        } finally {
+            database.close();
+        }
+    }
+}
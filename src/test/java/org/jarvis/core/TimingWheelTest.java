@@ -0,0 +1,131 @@
+package org.jarvis.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TimingWheelTest {
+
+    // 4 slots per level over 3 levels: level 0 covers 4 ticks, level 1 16 and level 2 64.
+    private static TimingWheel<Long> wheel() {
+        return new TimingWheel<>(1, 2, 3, 0);
+    }
+
+    @Test
+    void firesEachTimerAtItsDeadlineAcrossLevelBoundaries() {
+        TimingWheel<Long> wheel = wheel();
+        // Level edges, and deadlines past the top level that are parked and refiled.
+        long[] deadlines = {0, 3, 4, 5, 15, 16, 17, 63, 64, 65, 200, 1000};
+        for (long deadline : deadlines) {
+            wheel.schedule(deadline, deadline);
+        }
+
+        List<Long> fired = new ArrayList<>();
+        for (long now = 0; now <= 1000; now++) {
+            long at = now;
+            wheel.advanceTo(now, deadline -> {
+                assertEquals(at, deadline.longValue());
+                fired.add(deadline);
+            });
+        }
+
+        assertEquals(deadlines.length, fired.size());
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void agreesWithTheDeadlinesWhenAdvancedInJumps() {
+        Random random = new Random(7);
+        TimingWheel<Long> wheel = wheel();
+        long now = 0;
+        int pending = 0;
+        for (int round = 0; round < 500; round++) {
+            for (int i = random.nextInt(4); i > 0; i--) {
+                long deadline = now + 1 + random.nextInt(300);
+                wheel.schedule(deadline, deadline);
+                pending++;
+            }
+            long previous = now;
+            now += random.nextInt(40);
+            long at = now;
+            long[] firedThisRound = {0};
+            wheel.advanceTo(now, deadline -> {
+                firedThisRound[0]++;
+                assertTrue(deadline <= at, "fired early");
+                assertTrue(deadline > previous, "fired late");
+            });
+            pending -= firedThisRound[0];
+            assertEquals(pending, wheel.size());
+        }
+        wheel.advanceTo(now + 300, deadline -> { });
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void cancelAfterCascadeUnschedules() {
+        TimingWheel<Long> wheel = wheel();
+        TimingWheel.Timer<Long> timer = wheel.schedule(40L, 40);
+        List<Long> fired = new ArrayList<>();
+
+        // By tick 35 the timer has cascaded from level 2 down to level 0.
+        wheel.advanceTo(35, fired::add);
+        assertTrue(wheel.cancel(timer));
+        assertFalse(timer.isScheduled());
+        assertFalse(wheel.cancel(timer));
+
+        wheel.advanceTo(100, fired::add);
+        assertEquals(List.of(), fired);
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void reschedulingReplacesTheDeadline() {
+        TimingWheel<Long> wheel = wheel();
+        TimingWheel.Timer<Long> timer = wheel.schedule(1L, 20);
+        wheel.advanceTo(10, value -> { });
+        wheel.cancel(timer);
+        wheel.schedule(1L, 90);
+        List<Long> firedAt = new ArrayList<>();
+
+        for (long now = 11; now <= 100; now++) {
+            long at = now;
+            wheel.advanceTo(now, value -> firedAt.add(at));
+        }
+
+        assertEquals(List.of(90L), firedAt);
+    }
+
+    @Test
+    void pastDeadlineFiresOnTheNextTick() {
+        TimingWheel<Long> wheel = wheel();
+        wheel.advanceTo(100, value -> { });
+        wheel.schedule(50L, 50);
+        List<Long> fired = new ArrayList<>();
+
+        // Tick 100 has been processed already.
+        wheel.advanceTo(100, fired::add);
+        assertEquals(List.of(), fired);
+        wheel.advanceTo(101, fired::add);
+        assertEquals(List.of(50L), fired);
+    }
+
+    @Test
+    void deadlinesRoundUpToWholeTicksAndIdleStretchesAreSkipped() {
+        TimingWheel<Long> wheel = new TimingWheel<>(10, 2, 3, 0);
+        List<Long> fired = new ArrayList<>();
+
+        // Far beyond the wheel's span with nothing scheduled; does not walk every tick.
+        wheel.advanceTo(1_000_000_000_000L, fired::add);
+        wheel.schedule(15L, 1_000_000_000_015L);
+        wheel.advanceTo(1_000_000_000_019L, fired::add);
+        assertEquals(List.of(), fired);
+        wheel.advanceTo(1_000_000_000_020L, fired::add);
+        assertEquals(List.of(15L), fired);
+    }
+}
@@ -0,0 +1,170 @@
+package org.jarvis.enforcer;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EnforcementQueueTest {
+
+    private static final String BLOCK = "iptables -I INPUT -s 1.2.3.4 -m comment --comment sentinel -j DROP";
+    private static final String UNBLOCK = "iptables -D INPUT -s 1.2.3.4 -m comment --comment sentinel -j DROP";
+
+    // Records every command, with its input if any, and fails them all while failing is set
+    // or just those naming failingTarget.
+    private static final class FlakyRunner implements CommandRunner {
+        final List<String> commands = new CopyOnWriteArrayList<>();
+        volatile boolean failing;
+        volatile String failingTarget;
+
+        @Override
+        public Result run(List<String> command, String stdin) {
+            commands.add(String.join(" ", command) + (stdin != null ? "\n" + stdin : ""));
+            boolean fail = failing || failingTarget != null && command.contains(failingTarget);
+            return fail ? new Result(1, "", "iptables: failed\n") : new Result(0, "", "");
+        }
+    }
+
+    private final FlakyRunner runner = new FlakyRunner();
+    private final FirewallManager firewall = new FirewallManager(runner, FirewallManager.Mode.IPTABLES);
+
+    @Test
+    void repeatedIntentsAreCoalesced() {
+        EnforcementQueue queue = new EnforcementQueue(firewall, 16, 16, 60_000);
+        assertTrue(queue.submitBlock("1.2.3.4", "Incoming"));
+        assertTrue(queue.submitBlock("1.2.3.4", "Incoming"));
+        queue.shutdown();
+
+        assertEquals(List.of(BLOCK), runner.commands);
+        assertEquals(1, queue.getCoalescedCount());
+        assertEquals(1, queue.getAppliedCount());
+    }
+
+    @Test
+    void blockThenUnblockCancelsOut() {
+        EnforcementQueue queue = new EnforcementQueue(firewall, 16, 16, 60_000);
+        queue.submitBlock("1.2.3.4", "Incoming");
+        queue.submitUnblock("1.2.3.4", "Incoming");
+        queue.shutdown();
+
+        assertEquals(List.of(), runner.commands);
+        assertEquals(1, queue.getCancelledCount());
+    }
+
+    @Test
+    void unblockThenBlockOfAppliedRuleCancelsOut() {
+        EnforcementQueue queue = new EnforcementQueue(firewall, 16, 16, 100);
+        queue.submitBlock("1.2.3.4", "Incoming");
+        awaitBatches(queue, 1);
+        queue.submitUnblock("1.2.3.4", "Incoming");
+        queue.submitBlock("1.2.3.4", "Incoming");
+        queue.shutdown();
+
+        assertEquals(List.of(BLOCK), runner.commands);
+        assertEquals(1, queue.getCancelledCount());
+    }
+
+    @Test
+    void rejectsWhenFull() {
+        EnforcementQueue queue = new EnforcementQueue(firewall, 1, 16, 60_000);
+        assertTrue(queue.submitBlock("1.2.3.4", "Incoming"));
+        assertEquals(false, queue.submitBlock("5.6.7.8", "Incoming"));
+        queue.shutdown();
+
+        assertEquals(1, queue.getRejectedCount());
+    }
+
+    @Test
+    void failedBlockIsRetriedOnNextSubmit() {
+        EnforcementQueue queue = new EnforcementQueue(firewall, 16, 16, 1);
+        runner.failing = true;
+        queue.submitBlock("1.2.3.4", "Incoming");
+        awaitBatches(queue, 1);
+        runner.failing = false;
+        queue.submitBlock("1.2.3.4", "Incoming");
+        queue.shutdown();
+
+        assertEquals(List.of(BLOCK, BLOCK), runner.commands);
+        assertEquals(1, queue.getFailedBatchCount());
+        assertEquals(0, queue.getCoalescedCount());
+    }
+
+    @Test
+    void failedUnblockIsRetriedOnNextSubmit() {
+        EnforcementQueue queue = new EnforcementQueue(firewall, 16, 16, 1);
+        queue.submitBlock("1.2.3.4", "Incoming");
+        awaitBatches(queue, 1);
+        runner.failing = true;
+        queue.submitUnblock("1.2.3.4", "Incoming");
+        awaitBatches(queue, 2);
+        runner.failing = false;
+        // The rule is still in the kernel, so a new block has nothing to do...
+        queue.submitBlock("1.2.3.4", "Incoming");
+        // ...and a new unblock is applied again.
+        queue.submitUnblock("1.2.3.4", "Incoming");
+        queue.shutdown();
+
+        assertEquals(List.of(BLOCK, UNBLOCK, UNBLOCK), runner.commands);
+        assertEquals(1, queue.getCoalescedCount());
+    }
+
+    @Test
+    void applyNowCancelsWaitingBlock() {
+        EnforcementQueue queue = new EnforcementQueue(firewall, 16, 16, 60_000);
+        queue.submitBlock("1.2.3.4", "Incoming");
+        assertEquals(List.of(), queue.applyNow(List.of(FirewallChange.unblock("1.2.3.4", "Incoming"))));
+        queue.shutdown();
+
+        assertEquals(List.of(), runner.commands);
+        assertEquals(1, queue.getCancelledCount());
+    }
+
+    @Test
+    void applyNowReportsRejectedChangesAndTracksTheRest() {
+        EnforcementQueue queue = new EnforcementQueue(firewall, 16, 16, 60_000);
+        runner.failingTarget = "5.6.7.8";
+        FirewallChange failed = FirewallChange.block("5.6.7.8", "Incoming");
+        assertEquals(List.of(failed), queue.applyNow(List.of(FirewallChange.block("1.2.3.4", "Incoming"), failed)));
+        runner.failingTarget = null;
+        // The applied block is not repeated; the rejected one is applied on its next submit.
+        queue.submitBlock("1.2.3.4", "Incoming");
+        queue.submitBlock("5.6.7.8", "Incoming");
+        queue.shutdown();
+
+        assertEquals(3, runner.commands.size());
+        assertEquals(1, queue.getCoalescedCount());
+        assertTrue(runner.commands.get(2).contains("-I INPUT -s 5.6.7.8"));
+    }
+
+    @Test
+    void applyNowSplitsIntoBatches() {
+        FirewallManager ipset = new FirewallManager(runner, FirewallManager.Mode.IPSET);
+        EnforcementQueue queue = new EnforcementQueue(ipset, 16, 2, 60_000);
+        List<FirewallChange> unblocks = new ArrayList<>();
+        for (int i = 1; i <= 5; i++) {
+            unblocks.add(FirewallChange.unblock("10.0.0." + i, "Outgoing"));
+        }
+        assertEquals(List.of(), queue.applyNow(unblocks));
+        queue.shutdown();
+
+        List<String> batches = runner.commands.stream().filter(c -> c.startsWith("ipset restore -exist\ndel ")).toList();
+        assertEquals(List.of(
+                "ipset restore -exist\ndel sentinel-out4 10.0.0.1\ndel sentinel-out4 10.0.0.2\n",
+                "ipset restore -exist\ndel sentinel-out4 10.0.0.3\ndel sentinel-out4 10.0.0.4\n",
+                "ipset restore -exist\ndel sentinel-out4 10.0.0.5\n"), batches);
+    }
+
+    private static void awaitBatches(EnforcementQueue queue, long batches) {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (queue.getBatchCount() < batches) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError("Timed out waiting for batch " + batches);
+            }
+            Thread.onSpinWait();
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package org.jarvis.enforcer;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FirewallManagerTest {
+
+    // Records every command, with its input if any; commands starting with failingPrefix fail.
+    private static final class RecordingRunner implements CommandRunner {
+        final List<String> commands = new ArrayList<>();
+        String failingPrefix;
+
+        @Override
+        public Result run(List<String> command, String stdin) {
+            String line = String.join(" ", command) + (stdin != null ? "\n" + stdin : "");
+            commands.add(line);
+            boolean fail = failingPrefix != null && line.startsWith(failingPrefix);
+            return fail ? new Result(1, "", "ipset: failed\n") : new Result(0, "", "");
+        }
+
+        List<String> restores() {
+            return commands.stream().filter(c -> c.startsWith("ipset restore -exist\n")).toList();
+        }
+    }
+
+    private final RecordingRunner runner = new RecordingRunner();
+    private final FirewallManager firewall = new FirewallManager(runner, FirewallManager.Mode.IPSET);
+
+    @Test
+    void setsUpOnceAndAppliesEachBatchWithOneRestore() {
+        assertTrue(firewall.apply(List.of(FirewallChange.block("1.2.3.4", "Incoming"))));
+        assertTrue(firewall.apply(List.of(FirewallChange.block("5.6.7.8", "Outgoing"))));
+
+        List<String> restores = runner.restores();
+        assertEquals(3, restores.size());
+        assertTrue(restores.get(0).contains("create sentinel-in4 hash:net family inet "));
+        assertTrue(restores.get(0).contains("create sentinel-out6 hash:net family inet6 "));
+        assertEquals("ipset restore -exist\nadd sentinel-in4 1.2.3.4\n", restores.get(1));
+        assertEquals("ipset restore -exist\nadd sentinel-out4 5.6.7.8\n", restores.get(2));
+        // The chain references the sets in both families.
+        assertTrue(runner.commands.contains("iptables -A SENTINEL -m set --match-set sentinel-in4 src -j DROP"));
+        assertTrue(runner.commands.contains("ip6tables -A SENTINEL -m set --match-set sentinel-out6 dst -j DROP"));
+    }
+
+    @Test
+    void batchScriptPicksSetsByFamilyAndDirection() {
+        assertTrue(firewall.apply(List.of(
+                FirewallChange.block("10.0.0.0/8", "Both"),
+                FirewallChange.block("2001:db8::1", "Incoming"),
+                FirewallChange.unblock("2001:db8::/32", "Both"),
+                FirewallChange.unblock("1.2.3.4", "Outgoing"))));
+
+        List<String> restores = runner.restores();
+        assertEquals("ipset restore -exist\n"
+                + "add sentinel-in4 10.0.0.0/8\n"
+                + "add sentinel-out4 10.0.0.0/8\n"
+                + "add sentinel-in6 2001:db8::1\n"
+                + "del sentinel-in6 2001:db8::/32\n"
+                + "del sentinel-out6 2001:db8::/32\n"
+                + "del sentinel-out4 1.2.3.4\n", restores.get(restores.size() - 1));
+    }
+
+    @Test
+    void failedBatchReportsEveryAddressChange() {
+        assertTrue(firewall.apply(List.of(FirewallChange.block("9.9.9.9", "Incoming"))));
+        runner.failingPrefix = "ipset restore -exist\nadd ";
+        List<FirewallChange> changes = List.of(
+                FirewallChange.block("1.2.3.4", "Incoming"),
+                FirewallChange.block("5.6.7.8", "Outgoing"));
+
+        assertEquals(changes, firewall.applyBatch(changes));
+    }
+
+    @Test
+    void failedSetUpIsRetriedWithTheNextBatch() {
+        runner.failingPrefix = "ipset restore -exist\ncreate ";
+        FirewallChange change = FirewallChange.block("1.2.3.4", "Incoming");
+        assertEquals(List.of(change), firewall.applyBatch(List.of(change)));
+        assertEquals(1, runner.restores().size());
+
+        runner.failingPrefix = null;
+        assertEquals(List.of(), firewall.applyBatch(List.of(change)));
+        List<String> restores = runner.restores();
+        assertEquals(3, restores.size());
+        assertEquals("ipset restore -exist\nadd sentinel-in4 1.2.3.4\n", restores.get(2));
+    }
+}
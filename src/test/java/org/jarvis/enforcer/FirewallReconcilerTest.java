@@ -0,0 +1,166 @@
+package org.jarvis.enforcer;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FirewallReconcilerTest {
+
+    // Captured from iptables-save -t filter, plus a nat table that must be ignored.
+    private static final String SAVED = """
+            # Generated by iptables-save v1.8.7 on Sun Oct 18 10:00:00 2026
+            *filter
+            :INPUT ACCEPT [0:0]
+            :FORWARD ACCEPT [0:0]
+            :OUTPUT ACCEPT [0:0]
+            -A INPUT -s 1.2.3.4/32 -m comment --comment sentinel -j DROP
+            -A INPUT -s 1.2.3.4/32 -m comment --comment sentinel -j DROP
+            -A INPUT -s 9.9.9.9/32 -m comment --comment sentinel -j DROP
+            -A INPUT -s 5.5.5.5/32 -j DROP
+            -A INPUT -s 7.7.7.7/32 -j DROP
+            -A INPUT -s 8.8.8.8/32 -i eth0 -j DROP
+            -A INPUT -s 2.2.2.2/32 -m comment --comment "admin rule" -j DROP
+            -A INPUT -p tcp -m tcp --dport 22 -m comment --comment sentinel -j DROP
+            -A INPUT -j SENTINEL
+            -A OUTPUT -d 10.0.0.0/16 -m comment --comment sentinel -j DROP
+            COMMIT
+            *nat
+            -A PREROUTING -s 3.3.3.3/32 -m comment --comment sentinel -j DROP
+            COMMIT
+            """;
+
+    @Test
+    void keepsTaggedRulesThatAreWanted() {
+        FirewallReconciler.Plan plan = FirewallReconciler.plan(SAVED, false, List.of(
+                FirewallChange.block("1.2.3.4", "Incoming"),
+                FirewallChange.block("10.0.0.0/16", "Outgoing"),
+                new FirewallChange("*", "Incoming", true, "tcp", null, "22")));
+
+        assertEquals(3, plan.kept());
+        assertEquals(0, plan.added());
+        assertTrue(plan.inserted().isEmpty());
+        // Only the duplicate and the stale tagged rule go.
+        assertEquals(lines(
+                "*filter",
+                "-D INPUT -s 1.2.3.4/32 -m comment --comment sentinel -j DROP",
+                "-D INPUT -s 9.9.9.9/32 -m comment --comment sentinel -j DROP",
+                "COMMIT"), plan.script());
+    }
+
+    @Test
+    void removesStaleTaggedRulesOnly() {
+        FirewallReconciler.Plan plan = FirewallReconciler.plan(SAVED, false, List.of());
+
+        String script = plan.script();
+        assertTrue(script.contains("-D INPUT -s 9.9.9.9/32 -m comment --comment sentinel -j DROP\n"));
+        assertTrue(script.contains("-D OUTPUT -d 10.0.0.0/16 -m comment --comment sentinel -j DROP\n"));
+        assertTrue(script.contains("-D INPUT -p tcp -m tcp --dport 22 -m comment --comment sentinel -j DROP\n"));
+        // Untagged and foreign rules, and other tables, are the administrator's.
+        assertFalse(script.contains("5.5.5.5"));
+        assertFalse(script.contains("7.7.7.7"));
+        assertFalse(script.contains("8.8.8.8"));
+        assertFalse(script.contains("2.2.2.2"));
+        assertFalse(script.contains("3.3.3.3"));
+        assertFalse(script.contains("SENTINEL"));
+        assertEquals(5, plan.removed());
+    }
+
+    @Test
+    void replacesUntaggedCopyOfWantedRule() {
+        FirewallChange wanted = FirewallChange.block("5.5.5.5", "Incoming");
+        FirewallReconciler.Plan plan = FirewallReconciler.plan(SAVED, false, List.of(wanted));
+
+        assertTrue(plan.script().contains("-D INPUT -s 5.5.5.5/32 -j DROP\n"));
+        assertTrue(plan.script().contains("-I INPUT -s 5.5.5.5 -m comment --comment sentinel -j DROP\n"));
+        assertEquals(1, plan.added());
+        assertEquals(List.of(wanted), new ArrayList<>(plan.inserted()));
+    }
+
+    @Test
+    void insertsMissingRulesForEachDirection() {
+        FirewallReconciler.Plan plan = FirewallReconciler.plan("*filter\nCOMMIT\n", false, List.of(
+                FirewallChange.block("6.6.6.6", "Both"),
+                new FirewallChange("*", "Incoming", true, "udp", "1000:2000", null)));
+
+        assertEquals(lines(
+                "*filter",
+                "-I INPUT -s 6.6.6.6 -m comment --comment sentinel -j DROP",
+                "-I OUTPUT -d 6.6.6.6 -m comment --comment sentinel -j DROP",
+                "-I INPUT -p udp -m udp --sport 1000:2000 -m comment --comment sentinel -j DROP",
+                "COMMIT"), plan.script());
+        assertEquals(3, plan.added());
+    }
+
+    @Test
+    void matchesIpv6WhateverTheNotation() {
+        String saved = """
+                *filter
+                -A INPUT -s 2001:db8::1/128 -m comment --comment sentinel -j DROP
+                -A INPUT -p ipv6-icmp -m comment --comment sentinel -j DROP
+                COMMIT
+                """;
+        FirewallReconciler.Plan plan = FirewallReconciler.plan(saved, true, List.of(
+                FirewallChange.block("2001:db8:0:0:0:0:0:1", "Incoming"),
+                new FirewallChange("*", "Incoming", true, "icmpv6", null, null),
+                FirewallChange.block("1.2.3.4", "Incoming")));
+
+        assertNull(plan.script());
+        assertEquals(2, plan.kept());
+    }
+
+    @Test
+    void planSetsDiffsOnlySentinelSets() {
+        String saved = """
+                create sentinel-in4 hash:net family inet hashsize 1024 maxelem 1048576
+                add sentinel-in4 1.2.3.4
+                add sentinel-in4 4.4.4.0/24
+                create other hash:ip family inet
+                add other 1.1.1.1
+                create sentinel-in6 hash:net family inet6 hashsize 1024 maxelem 1048576
+                add sentinel-in6 2001:db8::1
+                """;
+        FirewallReconciler.Plan plan = FirewallReconciler.planSets(saved, List.of(
+                FirewallChange.block("1.2.3.4", "Incoming"),
+                FirewallChange.block("2001:db8:0:0:0:0:0:1", "Incoming"),
+                FirewallChange.block("10.0.0.0/16", "Outgoing")));
+
+        assertEquals(lines("del sentinel-in4 4.4.4.0/24", "add sentinel-out4 10.0.0.0/16"), plan.script());
+        assertEquals(2, plan.kept());
+        assertEquals(1, plan.added());
+        assertEquals(1, plan.removed());
+    }
+
+    @Test
+    void reconcileLeavesFailedFamilyToTheUsualPath() {
+        List<String> commands = new ArrayList<>();
+        CommandRunner runner = (command, stdin) -> {
+            commands.add(String.join(" ", command));
+            return switch (command.get(0)) {
+                case "iptables-save" -> new CommandRunner.Result(0, SAVED, "");
+                case "ip6tables-save" -> new CommandRunner.Result(1, "", "ip6tables: not available\n");
+                default -> new CommandRunner.Result(0, "", "");
+            };
+        };
+        FirewallChange v4 = FirewallChange.block("1.2.3.4", "Incoming");
+        FirewallChange v6 = FirewallChange.block("2001:db8:0:0:0:0:0:1", "Incoming");
+        FirewallChange anyFlow = new FirewallChange("*", "Incoming", true, "tcp", null, "22");
+
+        FirewallReconciler.Result result = new FirewallManager(runner, FirewallManager.Mode.IPTABLES)
+                .reconcile(List.of(v4, v6, anyFlow));
+
+        assertFalse(result.ok());
+        // The flow for any address also needs IPv6, which could not be read.
+        assertEquals(java.util.Set.of(v4), result.enforced());
+        assertEquals(List.of("iptables-save -t filter", "iptables-restore --noflush", "ip6tables-save -t filter"), commands);
+    }
+
+    private static String lines(String... lines) {
+        return String.join("\n", lines) + "\n";
+    }
+}
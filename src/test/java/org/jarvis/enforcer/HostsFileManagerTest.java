@@ -0,0 +1,103 @@
+package org.jarvis.enforcer;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HostsFileManagerTest {
+
+    private static final List<String> ORIGINAL = List.of("127.0.0.1 localhost", "# a comment", "::1 localhost");
+
+    @TempDir
+    Path dir;
+
+    private Path hosts;
+    private HostsFileManager manager;
+
+    private void createManager() throws IOException {
+        hosts = dir.resolve("hosts");
+        Files.write(hosts, ORIGINAL);
+        manager = new HostsFileManager(hosts);
+    }
+
+    @Test
+    void batchAddsAndRemovesKeepingOtherLines() throws IOException {
+        createManager();
+        assertTrue(Files.exists(dir.resolve("hosts.sentinel_backup")));
+
+        manager.addDomainBlocks(List.of("ads.example", "track.example", "ads.example"));
+        manager.updateDomainBlocks(List.of("new.example"), List.of("ads.example"));
+
+        assertEquals(List.of("127.0.0.1 localhost", "# a comment", "::1 localhost",
+                "127.0.0.1 track.example # SENTINEL_BLOCK",
+                "127.0.0.1 new.example # SENTINEL_BLOCK"), Files.readAllLines(hosts));
+        // Only the hosts file and its backup: the temporary files are gone.
+        try (Stream<Path> files = Files.list(dir)) {
+            assertEquals(2, files.count());
+        }
+    }
+
+    @Test
+    void batchThatChangesNothingLeavesFileAlone() throws IOException {
+        createManager();
+        manager.addDomainBlocks(List.of("ads.example", "track.example"));
+        FileTime old = FileTime.fromMillis(1_000_000_000L);
+        Files.setLastModifiedTime(hosts, old);
+
+        manager.addDomainBlock("ads.example");
+        manager.removeDomainBlock("unknown.example");
+
+        assertEquals(old, Files.getLastModifiedTime(hosts));
+    }
+
+    @Test
+    void duplicateSentinelLinesAreCollapsed() throws IOException {
+        createManager();
+        Files.write(hosts, List.of("127.0.0.1 localhost",
+                "127.0.0.1 ads.example # SENTINEL_BLOCK",
+                "127.0.0.1 ads.example # SENTINEL_BLOCK"));
+
+        manager.addDomainBlock("other.example");
+
+        assertEquals(List.of("127.0.0.1 localhost",
+                "127.0.0.1 ads.example # SENTINEL_BLOCK",
+                "127.0.0.1 other.example # SENTINEL_BLOCK"), Files.readAllLines(hosts));
+    }
+
+    @Test
+    void removeAllThenRestore() throws IOException {
+        createManager();
+        manager.addDomainBlocks(List.of("ads.example", "track.example"));
+
+        manager.removeAllSentinelBlocks();
+        assertEquals(ORIGINAL, Files.readAllLines(hosts));
+        // The cache knows the file is clean again.
+        manager.addDomainBlock("ads.example");
+        assertEquals("127.0.0.1 ads.example # SENTINEL_BLOCK", Files.readAllLines(hosts).get(3));
+
+        manager.restoreAndCleanup();
+        assertEquals(ORIGINAL, Files.readAllLines(hosts));
+        assertFalse(Files.exists(dir.resolve("hosts.sentinel_backup")));
+    }
+
+    @Test
+    void rewriteKeepsPermissions() throws IOException {
+        createManager();
+        if (Files.getFileStore(hosts).supportsFileAttributeView("posix")) {
+            Files.setPosixFilePermissions(hosts, PosixFilePermissions.fromString("rw-r--r--"));
+            manager.addDomainBlock("ads.example");
+            assertEquals("rw-r--r--", PosixFilePermissions.toString(Files.getPosixFilePermissions(hosts)));
+        }
+    }
+}
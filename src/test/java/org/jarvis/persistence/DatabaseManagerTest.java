@@ -0,0 +1,65 @@
+package org.jarvis.persistence;
+
+import org.jarvis.model.Rule;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DatabaseManagerTest {
+
+    @TempDir
+    Path dir;
+
+    private DatabaseManager database;
+
+    @BeforeEach
+    void setUp() {
+        database = new DatabaseManager("jdbc:sqlite:" + dir.resolve("test.db"), 1);
+    }
+
+    @AfterEach
+    void tearDown() {
+        database.close();
+    }
+
+    private Rule only() {
+        assertEquals(1, database.getAllActiveRules().size());
+        return database.getAllActiveRules().iterator().next();
+    }
+
+    private static Rule temporary(String value, String direction, long expiresAt) {
+        Rule rule = new Rule(0, "IP_BLOCK", value, direction, true);
+        rule.setExpiresAt(expiresAt);
+        return rule;
+    }
+
+    @Test
+    void addIfAbsentLeavesAnExistingRuleAlone() {
+        database.addRule(new Rule(0, "IP_BLOCK", "10.0.0.1", "Outgoing", true));
+
+        assertFalse(database.addRuleIfAbsent(temporary("10.0.0.1", "Incoming", 2_000_000_000L)));
+        assertEquals("Outgoing", only().getDirection());
+        assertEquals(0, only().getExpiresAt());
+        // The permanent rule is not swept with the temporary ones.
+        assertEquals(0, database.deleteExpiredRules(2_000_000_001L));
+
+        assertTrue(database.addRuleIfAbsent(temporary("10.0.0.2", "Incoming", 2_000_000_000L)));
+        assertEquals(1, database.deleteExpiredRules(2_000_000_001L));
+    }
+
+    @Test
+    void addingAnExistingRuleReplacesItsDirectionAndExpiry() {
+        database.addRule(temporary("10.0.0.1", "Both", 2_000_000_000L));
+        database.addRule(new Rule(0, "IP_BLOCK", "10.0.0.1", "Incoming", true));
+
+        assertEquals("Incoming", only().getDirection());
+        assertEquals(0, only().getExpiresAt());
+    }
+}
@@ -0,0 +1,35 @@
+package org.jarvis.ui;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class LogFeedTest {
+
+    @Test
+    void roundsCapacityUpToPowerOfTwo() {
+        assertEquals(1024, new LogFeed(1024).capacity());
+        assertEquals(1024, new LogFeed(1000).capacity());
+        assertEquals(2048, new LogFeed(1025).capacity());
+        assertEquals(1, new LogFeed(0).capacity());
+        assertEquals(1, new LogFeed(-5).capacity());
+    }
+
+    @Test
+    void overwritesOldestLinesWhenFull() {
+        LogFeed feed = new LogFeed(3);
+        for (int i = 0; i < 6; i++) {
+            feed.add("line " + i);
+        }
+        List<String> out = new ArrayList<>();
+        assertEquals(2, feed.drainTo(out));
+        assertEquals(List.of("line 2", "line 3", "line 4", "line 5"), out);
+
+        out.clear();
+        assertEquals(0, feed.drainTo(out));
+        assertEquals(List.of(), out);
+    }
+}